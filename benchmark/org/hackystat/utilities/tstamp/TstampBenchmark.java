@@ -0,0 +1,82 @@
+package org.hackystat.utilities.tstamp;
+
+import java.util.GregorianCalendar;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.datatype.DatatypeFactory;
+import javax.xml.datatype.XMLGregorianCalendar;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the throughput of creating timestamps with 32 threads, through the per-thread
+ * factories of DatatypeFactoryProvider and, for comparison, through a DatatypeFactory looked up
+ * for each timestamp as Tstamp used to do.
+ *
+ * @author agent
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(32)
+@State(Scope.Benchmark)
+public class TstampBenchmark {
+
+  /** The time of the timestamps, in milliseconds. */
+  private final long millis = 1199145600000L;
+  /** A timestamp to increment. */
+  private final XMLGregorianCalendar tstamp = Tstamp.makeTimestamp(this.millis);
+
+  /**
+   * Creates a timestamp through the provider.
+   * @return The timestamp.
+   */
+  @Benchmark
+  public XMLGregorianCalendar makeTimestamp() {
+    return Tstamp.makeTimestamp(this.millis);
+  }
+
+  /**
+   * Creates a timestamp through a newly looked up factory.
+   * @return The timestamp.
+   * @throws Exception If no factory is available.
+   */
+  @Benchmark
+  public XMLGregorianCalendar makeTimestampLookup() throws Exception {
+    GregorianCalendar calendar = new GregorianCalendar();
+    calendar.setTimeInMillis(this.millis);
+    return DatatypeFactory.newInstance().newXMLGregorianCalendar(calendar);
+  }
+
+  /**
+   * Increments a timestamp through the provider.
+   * @return The incremented timestamp.
+   */
+  @Benchmark
+  public XMLGregorianCalendar incrementDays() {
+    return Tstamp.incrementDays(this.tstamp, 1);
+  }
+
+  /**
+   * Increments a timestamp through a newly looked up factory.
+   * @return The incremented timestamp.
+   * @throws Exception If no factory is available.
+   */
+  @Benchmark
+  public XMLGregorianCalendar incrementDaysLookup() throws Exception {
+    GregorianCalendar calendar = new GregorianCalendar();
+    calendar.setTimeInMillis(TstampMillis.toMillis(this.tstamp) + TstampMillis.MILLISECS_PER_DAY);
+    return DatatypeFactory.newInstance().newXMLGregorianCalendar(calendar);
+  }
+}
@@ -0,0 +1,194 @@
+package org.hackystat.utilities.uricache;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the throughput of the UriCache hot paths (get, put, remove and their group
+ * counterparts) on a cache whose entries all fit in memory, with one thread and with eight
+ * threads contending for the same region.
+ *
+ * @author agent
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UriCacheBenchmark {
+
+  /** The number of keys in the cache, which must be a power of two. */
+  static final int numKeys = 1024;
+  /** The group used by the group benchmarks. */
+  private static final String group = "benchmark";
+  /** The cache under test. */
+  private UriCache cache;
+  /** The keys, which resemble SensorBase URIs. */
+  private String[] keys;
+  /** The value stored under each key. */
+  private String value;
+
+  /**
+   * Creates the cache and fills it with numKeys entries in the default group and in group.
+   */
+  @Setup(Level.Trial)
+  public void setUp() {
+    this.cache = new UriCache("UriCacheBenchmark", "benchmark", 1D, 10L * numKeys);
+    this.cache.clearAll();
+    this.keys = makeKeys(numKeys);
+    this.value = makeValue(512);
+    for (String key : this.keys) {
+      this.cache.put(key, this.value);
+      this.cache.putInGroup(key, group, this.value);
+    }
+  }
+
+  /**
+   * Returns count keys resembling SensorBase sensor data URIs.
+   * @param count The number of keys.
+   * @return The keys.
+   */
+  static String[] makeKeys(int count) {
+    String[] keys = new String[count];
+    for (int i = 0; i < count; i++) {
+      keys[i] = "http://localhost:9876/sensorbase/sensordata/user@hackystat.org/2008-01-01T00:00:"
+        + i;
+    }
+    return keys;
+  }
+
+  /**
+   * Returns a value of roughly the given size.
+   * @param size The number of characters in the value.
+   * @return The value.
+   */
+  static String makeValue(int size) {
+    StringBuilder builder = new StringBuilder(size);
+    for (int i = 0; i < size; i++) {
+      builder.append((char) ('a' + (i % 26)));
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Hands out key indexes to one benchmark thread. Each thread starts at a different index.
+   */
+  @State(Scope.Thread)
+  public static class Cursor {
+    /** The next index. */
+    private int index = (int) (Thread.currentThread().getId() * 97);
+
+    /**
+     * Returns the next key index.
+     * @return The index.
+     */
+    int next() {
+      this.index = (this.index + 1) & (numKeys - 1);
+      return this.index;
+    }
+  }
+
+  /**
+   * Gets an entry.
+   * @param cursor The thread's cursor.
+   * @return The value.
+   */
+  @Benchmark
+  public Object get(Cursor cursor) {
+    return this.cache.get(this.keys[cursor.next()]);
+  }
+
+  /**
+   * Gets an entry with eight threads.
+   * @param cursor The thread's cursor.
+   * @return The value.
+   */
+  @Benchmark
+  @Threads(8)
+  public Object getContended(Cursor cursor) {
+    return this.cache.get(this.keys[cursor.next()]);
+  }
+
+  /**
+   * Replaces an entry.
+   * @param cursor The thread's cursor.
+   */
+  @Benchmark
+  public void put(Cursor cursor) {
+    this.cache.put(this.keys[cursor.next()], this.value);
+  }
+
+  /**
+   * Replaces an entry with eight threads.
+   * @param cursor The thread's cursor.
+   */
+  @Benchmark
+  @Threads(8)
+  public void putContended(Cursor cursor) {
+    this.cache.put(this.keys[cursor.next()], this.value);
+  }
+
+  /**
+   * Removes an entry and puts it back.
+   * @param cursor The thread's cursor.
+   */
+  @Benchmark
+  public void removeAndPut(Cursor cursor) {
+    String key = this.keys[cursor.next()];
+    this.cache.remove(key);
+    this.cache.put(key, this.value);
+  }
+
+  /**
+   * Removes an entry and puts it back with eight threads.
+   * @param cursor The thread's cursor.
+   */
+  @Benchmark
+  @Threads(8)
+  public void removeAndPutContended(Cursor cursor) {
+    String key = this.keys[cursor.next()];
+    this.cache.remove(key);
+    this.cache.put(key, this.value);
+  }
+
+  /**
+   * Gets an entry from a named group.
+   * @param cursor The thread's cursor.
+   * @return The value.
+   */
+  @Benchmark
+  public Object getFromGroup(Cursor cursor) {
+    return this.cache.getFromGroup(this.keys[cursor.next()], group);
+  }
+
+  /**
+   * Replaces an entry in a named group.
+   * @param cursor The thread's cursor.
+   */
+  @Benchmark
+  public void putInGroup(Cursor cursor) {
+    this.cache.putInGroup(this.keys[cursor.next()], group, this.value);
+  }
+
+  /**
+   * Counts the entries in a named group, which requires building its key set.
+   * @return The group size.
+   */
+  @Benchmark
+  public int getGroupSize() {
+    return this.cache.getGroupSize(group);
+  }
+}
@@ -0,0 +1,71 @@
+package org.hackystat.utilities.uricache;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the time needed to open a UriCache whose disk cache already holds entries, up to
+ * and including the first get, which is what a restarted service pays before serving requests.
+ *
+ * @author agent
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UriCacheStartupBenchmark {
+
+  /** The name of the cache that is repeatedly opened. */
+  private static final String cacheName = "UriCacheStartupBenchmark";
+  /** The number of entries in the disk cache. */
+  private static final int numKeys = 10000;
+  /** The keys. */
+  private String[] keys;
+
+  /**
+   * Fills the disk cache, then disposes of the cache so that each invocation reopens it.
+   */
+  @Setup(Level.Trial)
+  public void setUp() {
+    this.keys = UriCacheBenchmark.makeKeys(numKeys);
+    String value = UriCacheBenchmark.makeValue(512);
+    UriCache cache = new UriCache(cacheName, "benchmark", 1D, 1000L);
+    cache.clearAll();
+    for (String key : this.keys) {
+      cache.put(key, value);
+    }
+    UriCache.dispose(cacheName);
+  }
+
+  /**
+   * Disposes of the cache opened by the previous invocation.
+   */
+  @TearDown(Level.Invocation)
+  public void tearDown() {
+    UriCache.dispose(cacheName);
+  }
+
+  /**
+   * Opens the cache and gets one entry.
+   * @return The value.
+   */
+  @Benchmark
+  public Object startup() {
+    UriCache cache = new UriCache(cacheName, "benchmark", 1D, 1000L);
+    return cache.get(this.keys[numKeys / 2]);
+  }
+}
@@ -0,0 +1,209 @@
+package org.hackystat.utilities.uricache;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures UriCache under more realistic workloads: cold reads that must be satisfied by the
+ * disk cache, and a mixed get/put workload whose keys follow a Zipfian distribution, as
+ * observed for the project-wide URIs requested by dailyprojectdata. The Zipfian gets are also
+ * measured with hot key replication enabled.
+ *
+ * @author agent
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UriCacheWorkloadBenchmark {
+
+  /** The number of keys, which must be a power of two. */
+  static final int numKeys = 8192;
+  /** The number of entries held in memory by the disk cache; the rest are on disk only. */
+  private static final long diskCacheCapacity = 128L;
+  /** The number of precomputed Zipfian key indexes, which must be a power of two. */
+  private static final int numSamples = 65536;
+  /** A cache in which most entries are only on disk. */
+  private UriCache diskCache;
+  /** A cache large enough to hold all entries in memory. */
+  private UriCache zipfCache;
+  /** The number of hot keys replicated by replicatedCache. */
+  private static final int numHotKeys = 16;
+  /** A copy of zipfCache with hot key replication enabled. */
+  private UriCache replicatedCache;
+  /** The keys. */
+  private String[] keys;
+  /** The value stored under each key. */
+  private String value;
+  /** Key indexes drawn from a Zipfian distribution with exponent 1. */
+  private int[] zipfSamples;
+
+  /**
+   * Creates and fills both caches, and precomputes the Zipfian samples.
+   */
+  @Setup(Level.Trial)
+  public void setUp() {
+    this.keys = UriCacheBenchmark.makeKeys(numKeys);
+    this.value = UriCacheBenchmark.makeValue(512);
+    this.diskCache = new UriCache("UriCacheDiskBenchmark", "benchmark", 1D, diskCacheCapacity);
+    this.zipfCache = new UriCache("UriCacheZipfBenchmark", "benchmark", 1D, 2L * numKeys);
+    this.replicatedCache = new UriCache("UriCacheReplicatedBenchmark", "benchmark", 1D, 
+        2L * numKeys);
+    this.diskCache.clearAll();
+    this.zipfCache.clearAll();
+    this.replicatedCache.clearAll();
+    for (String key : this.keys) {
+      this.diskCache.put(key, this.value);
+      this.zipfCache.put(key, this.value);
+      this.replicatedCache.put(key, this.value);
+    }
+    this.replicatedCache.enableHotKeyTracking(numHotKeys, true);
+    this.zipfSamples = zipfSamples(numKeys, numSamples, new Random(42));
+  }
+
+  /**
+   * Returns count samples from a Zipfian distribution over [0, n).
+   * @param n The number of distinct values.
+   * @param count The number of samples.
+   * @param random The random number generator.
+   * @return The samples.
+   */
+  static int[] zipfSamples(int n, int count, Random random) {
+    double[] cdf = new double[n];
+    double sum = 0;
+    for (int i = 0; i < n; i++) {
+      sum += 1.0 / (i + 1);
+      cdf[i] = sum;
+    }
+    int[] samples = new int[count];
+    for (int i = 0; i < count; i++) {
+      double target = random.nextDouble() * sum;
+      int low = 0;
+      int high = n - 1;
+      while (low < high) {
+        int mid = (low + high) >>> 1;
+        if (cdf[mid] < target) {
+          low = mid + 1;
+        }
+        else {
+          high = mid;
+        }
+      }
+      samples[i] = low;
+    }
+    return samples;
+  }
+
+  /**
+   * Hands out positions to one benchmark thread.
+   */
+  @State(Scope.Thread)
+  public static class Cursor {
+    /** The current position. */
+    private int position = (int) (Thread.currentThread().getId() * 7919);
+
+    /**
+     * Returns the next position.
+     * @return The position.
+     */
+    int next() {
+      return ++this.position;
+    }
+  }
+
+  /**
+   * Gets entries in a scattered order from a cache that holds most of them only on disk.
+   * @param cursor The thread's cursor.
+   * @return The value.
+   */
+  @Benchmark
+  public Object diskColdGet(Cursor cursor) {
+    int index = (cursor.next() * 4099) & (numKeys - 1);
+    return this.diskCache.get(this.keys[index]);
+  }
+
+  /**
+   * Gets entries from the mostly on-disk cache with four threads.
+   * @param cursor The thread's cursor.
+   * @return The value.
+   */
+  @Benchmark
+  @Threads(4)
+  public Object diskColdGetContended(Cursor cursor) {
+    int index = (cursor.next() * 4099) & (numKeys - 1);
+    return this.diskCache.get(this.keys[index]);
+  }
+
+  /**
+   * Performs a Zipfian mix of 90% gets and 10% puts.
+   * @param cursor The thread's cursor.
+   * @return The value retrieved, or null for a put.
+   */
+  @Benchmark
+  public Object zipfMixed(Cursor cursor) {
+    return zipfOperation(cursor.next());
+  }
+
+  /**
+   * Performs a Zipfian mix of 90% gets and 10% puts with eight threads.
+   * @param cursor The thread's cursor.
+   * @return The value retrieved, or null for a put.
+   */
+  @Benchmark
+  @Threads(8)
+  public Object zipfMixedContended(Cursor cursor) {
+    return zipfOperation(cursor.next());
+  }
+
+  /**
+   * Performs Zipfian gets with eight threads.
+   * @param cursor The thread's cursor.
+   * @return The value.
+   */
+  @Benchmark
+  @Threads(8)
+  public Object zipfGetContended(Cursor cursor) {
+    return this.zipfCache.get(this.keys[this.zipfSamples[cursor.next() & (numSamples - 1)]]);
+  }
+
+  /**
+   * Performs Zipfian gets with eight threads, with the hot keys replicated in each thread.
+   * @param cursor The thread's cursor.
+   * @return The value.
+   */
+  @Benchmark
+  @Threads(8)
+  public Object zipfGetReplicatedContended(Cursor cursor) {
+    int index = this.zipfSamples[cursor.next() & (numSamples - 1)];
+    return this.replicatedCache.get(this.keys[index]);
+  }
+
+  /**
+   * Performs the Zipfian operation at the given position.
+   * @param position The position.
+   * @return The value retrieved, or null for a put.
+   */
+  private Object zipfOperation(int position) {
+    String key = this.keys[this.zipfSamples[position & (numSamples - 1)]];
+    if ((position % 10) == 0) {
+      this.zipfCache.put(key, this.value);
+      return null;
+    }
+    return this.zipfCache.get(key);
+  }
+}
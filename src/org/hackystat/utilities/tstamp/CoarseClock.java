@@ -0,0 +1,238 @@
+package org.hackystat.utilities.tstamp;
+
+import java.util.TimeZone;
+
+/**
+ * A clock that is read from a field rather than from the system, for code that asks for the
+ * current time or day once per record. A daemon ticker thread reads the system clock at a fixed
+ * resolution and publishes the current time. The boundaries of the current and previous days in
+ * the default time zone are kept alongside it, so that checking whether a timestamp is today or
+ * later is one comparison.
+ * <p>
+ * The time returned is behind the system clock by up to the resolution, or more if the ticker
+ * thread is delayed, so use System.currentTimeMillis() where an exact time matters, such as
+ * when stamping new data. The days are exact: they record when they end, and the methods that
+ * return or compare against them check the system clock against that time and compute the days
+ * anew themselves once it has passed, so yesterday's times are never reported as today just
+ * after midnight. The ticker only recomputes the days once a minute, to pick up changes to the
+ * default time zone.
+ * <p>
+ * The ticker of the shared clock is a daemon thread that sleeps between ticks until the JVM
+ * exits. Being a daemon, it does not keep the JVM running, so it needs no shutdown hook.
+ *
+ * @author agent
+ */
+public final class CoarseClock {
+
+  /** The resolution of the shared clock, in milliseconds. */
+  public static final long DEFAULT_RESOLUTION = 1000;
+
+  /** The interval after which the ticker recomputes the days, in milliseconds. */
+  private static final long zoneCheckInterval = 60 * 1000;
+
+  /** Holds the shared clock, so that its ticker is only started when first used. */
+  private static final class Holder {
+    /** The shared clock. */
+    private static final CoarseClock instance = new CoarseClock(DEFAULT_RESOLUTION);
+  }
+
+  /** The current and previous days at some time. */
+  private static final class Days {
+    /** The number of days since the epoch to the current day. */
+    private final long today;
+    /** The number of days since the epoch to the day containing the time 24 hours ago. */
+    private final long yesterday;
+    /** The start of the current day. */
+    private final long startOfToday;
+    /** The start of the day containing the time 24 hours ago. */
+    private final long startOfYesterday;
+    /** The time at which today or yesterday changes, after which these days are stale. */
+    private final long validUntil;
+    /** The time after which the ticker recomputes these days. */
+    private final long checkZoneAt;
+
+    /**
+     * Computes the days at a time in a time zone.
+     * @param now The time in milliseconds.
+     * @param zone The time zone.
+     */
+    Days(long now, TimeZone zone) {
+      long dayAgo = now - TstampMillis.MILLISECS_PER_DAY;
+      DayBucketer bucketer = DayBucketer.getInstance(zone);
+      this.today = bucketer.getUnixDay(now);
+      this.yesterday = bucketer.getUnixDay(dayAgo);
+      this.startOfToday = TstampMillis.truncateToDay(now, zone);
+      this.startOfYesterday = TstampMillis.truncateToDay(dayAgo, zone);
+      // A day and a half after the start of a day, which lasts 23 to 25 hours, is in the next.
+      long dayAndHalf = TstampMillis.MILLISECS_PER_DAY + TstampMillis.MILLISECS_PER_DAY / 2;
+      long startOfTomorrow = TstampMillis.truncateToDay(this.startOfToday + dayAndHalf, zone);
+      long endOfYesterday = TstampMillis.truncateToDay(this.startOfYesterday + dayAndHalf, zone);
+      this.validUntil = Math.min(startOfTomorrow, endOfYesterday + TstampMillis.MILLISECS_PER_DAY);
+      this.checkZoneAt = Math.min(this.validUntil, now + zoneCheckInterval);
+    }
+  }
+
+  /** The interval between ticks, in milliseconds. */
+  private final long resolution;
+  /** The thread that updates the time. */
+  private final Thread ticker;
+  /** The time at the last tick. */
+  private volatile long now;
+  /** The days at the last time they were computed. */
+  private volatile Days days;
+
+  /**
+   * Creates a clock and starts its ticker thread.
+   *
+   * @param resolution The interval between ticks, in milliseconds.
+   */
+  CoarseClock(long resolution) {
+    if (resolution <= 0) {
+      throw new IllegalArgumentException("Resolution must be positive: " + resolution);
+    }
+    this.resolution = resolution;
+    this.now = System.currentTimeMillis();
+    updateDays(this.now);
+    this.ticker = new Thread("Tstamp coarse clock") {
+      /** Ticks until interrupted. */
+      @Override
+      public void run() {
+        tick();
+      }
+    };
+    this.ticker.setDaemon(true);
+    this.ticker.start();
+  }
+
+  /**
+   * Returns the shared clock, starting it when first requested.
+   *
+   * @return The clock, with a resolution of DEFAULT_RESOLUTION.
+   */
+  public static CoarseClock getInstance() {
+    return Holder.instance;
+  }
+
+  /**
+   * Returns the interval between ticks.
+   *
+   * @return The resolution in milliseconds.
+   */
+  public long getResolution() {
+    return this.resolution;
+  }
+
+  /**
+   * Returns the time at the last tick.
+   *
+   * @return The time in milliseconds since the epoch.
+   */
+  public long currentTimeMillis() {
+    return this.now;
+  }
+
+  /**
+   * Returns the current day in the default time zone.
+   *
+   * @return The number of days since the epoch, as TstampMillis.getUnixDay() counts them.
+   */
+  public long getToday() {
+    return getDays().today;
+  }
+
+  /**
+   * Returns the day containing the time 24 hours ago in the default time zone, which is the
+   * previous day except just after a day shortened by daylight savings time.
+   *
+   * @return The number of days since the epoch, as TstampMillis.getUnixDay() counts them.
+   */
+  public long getYesterday() {
+    return getDays().yesterday;
+  }
+
+  /**
+   * Returns the start of the current day in the default time zone.
+   *
+   * @return The time in milliseconds since the epoch.
+   */
+  public long getStartOfToday() {
+    return getDays().startOfToday;
+  }
+
+  /**
+   * Returns true if the time is some time today or in the future, as
+   * Tstamp.isTodayOrLater() decides for timestamps in the default time zone.
+   *
+   * @param millis The time in milliseconds.
+   * @return True if it is today or later.
+   */
+  public boolean isTodayOrLater(long millis) {
+    return millis >= getDays().startOfToday;
+  }
+
+  /**
+   * Returns true if the time is some time yesterday or later, as
+   * Tstamp.isYesterdayOrLater() decides for timestamps in the default time zone.
+   *
+   * @param millis The time in milliseconds.
+   * @return True if it is yesterday or later.
+   */
+  public boolean isYesterdayOrLater(long millis) {
+    return millis >= getDays().startOfYesterday;
+  }
+
+  /**
+   * Stops the ticker thread, after which the clock no longer advances.
+   */
+  void stop() {
+    this.ticker.interrupt();
+  }
+
+  /**
+   * Returns the days last computed if they are still current, and otherwise computes and
+   * publishes them anew.
+   *
+   * @return The current days.
+   */
+  private Days getDays() {
+    Days current = this.days;
+    long millis = System.currentTimeMillis();
+    if (millis >= current.validUntil) {
+      current = updateDays(millis);
+    }
+    return current;
+  }
+
+  /**
+   * Updates the time every tick, and the days when they are due to be checked, until the
+   * thread is interrupted.
+   */
+  private void tick() {
+    try {
+      while (!Thread.currentThread().isInterrupted()) {
+        Thread.sleep(this.resolution);
+        long millis = System.currentTimeMillis();
+        this.now = millis;
+        if (millis >= this.days.checkZoneAt) {
+          updateDays(millis);
+        }
+      }
+    }
+    catch (InterruptedException e) {
+      // Stop ticking.
+    }
+  }
+
+  /**
+   * Computes and publishes the days at the specified time. Package-private to allow testing
+   * with a fixed clock.
+   *
+   * @param millis The time in milliseconds.
+   * @return The new days.
+   */
+  Days updateDays(long millis) {
+    Days current = new Days(millis, TimeZone.getDefault());
+    this.days = current;
+    return current;
+  }
+}
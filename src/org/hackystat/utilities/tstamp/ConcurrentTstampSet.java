@@ -0,0 +1,307 @@
+package org.hackystat.utilities.tstamp;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A thread-safe TstampSet, so that several ingestion threads can obtain unique timestamps
+ * without serializing on a lock. Timestamps are claimed by compare-and-set on primitive
+ * open-addressing tables, one per stripe of the timestamp range, so threads only contend when
+ * they claim timestamps in the same slots. As in TstampSet, each timestamp records how far the
+ * run of used timestamps starting at it extends.
+ * <p>
+ * getUniqueTstamp() is linearizable: each call behaves as if it took effect at the instant it
+ * claimed its timestamp, when all of the timestamps from the passed one up to the returned one
+ * were already in the set. Claiming is lock-free, except that threads claiming timestamps in a
+ * stripe whose table is being enlarged wait for the enlargement to finish.
+ * <p>
+ * The two smallest long values are reserved and cannot be passed to or returned by the set.
+ *
+ * @author agent
+ */
+public class ConcurrentTstampSet {
+
+  /** Marks an empty slot. */
+  private static final long EMPTY = Long.MIN_VALUE;
+  /** Marks an empty slot of a table being enlarged, which can no longer be claimed. */
+  private static final long FROZEN = Long.MIN_VALUE + 1;
+  /** The initial capacity of each table, which is always a power of two. */
+  private static final int initialCapacity = 64;
+  /** The number of low-order bits of a timestamp that do not affect its stripe. */
+  private static final int stripeShift = 10;
+  /** The table of each stripe. */
+  private final AtomicReferenceArray<Table> stripes;
+
+  /**
+   * The open-addressing table of a stripe.
+   */
+  private static final class Table {
+    /** The timestamps, EMPTY or FROZEN. */
+    private final AtomicLongArray tstamps;
+    /** For each timestamp, a later one such that all of those up to this one are used. */
+    private final AtomicLongArray runEnds;
+    /** The number of timestamps in the table. */
+    private final AtomicInteger size = new AtomicInteger();
+    /** Set by the thread that enlarges the table. */
+    private final AtomicBoolean resizing = new AtomicBoolean();
+
+    /**
+     * Creates an empty table.
+     * @param capacity The number of slots, a power of two.
+     */
+    Table(int capacity) {
+      this.tstamps = new AtomicLongArray(capacity);
+      this.runEnds = new AtomicLongArray(capacity);
+      for (int i = 0; i < capacity; i++) {
+        this.tstamps.set(i, EMPTY);
+      }
+    }
+  }
+
+  /**
+   * Creates an empty set with 64 stripes.
+   */
+  public ConcurrentTstampSet() {
+    this(64);
+  }
+
+  /**
+   * Creates an empty set.
+   *
+   * @param numStripes The number of stripes, which is rounded up to a power of two.
+   */
+  public ConcurrentTstampSet(int numStripes) {
+    int count = 1;
+    while (count < numStripes) {
+      count *= 2;
+    }
+    this.stripes = new AtomicReferenceArray<Table>(count);
+    for (int i = 0; i < count; i++) {
+      this.stripes.set(i, new Table(initialCapacity));
+    }
+  }
+
+  /**
+   * Returns the passed timestamp if it is not already in the set, or else the smallest later
+   * timestamp that is not, and adds the returned timestamp to the set.
+   *
+   * @param tstamp The tstamp to be used as a basis for finding a unique timestamp.
+   * @return A timestamp that did not previously exist in this set.
+   * @throws IllegalArgumentException If tstamp is one of the two reserved values.
+   */
+  public long getUniqueTstamp(long tstamp) {
+    if (tstamp == EMPTY || tstamp == FROZEN) {
+      throw new IllegalArgumentException("Reserved timestamp: " + tstamp);
+    }
+    long unique = tstamp;
+    while (!add(unique)) {
+      // Follow the runs to a timestamp that was unused when looked up, then try to claim it.
+      for (long runEnd = getRunEnd(unique); runEnd != EMPTY; runEnd = getRunEnd(unique)) {
+        unique = runEnd;
+      }
+    }
+    // All of the timestamps from tstamp up to unique were in the set when it was claimed.
+    for (long current = tstamp; current < unique; ) {
+      long runEnd = getRunEnd(current);
+      extendRun(current, unique + 1);
+      current = runEnd;
+    }
+    return unique;
+  }
+
+  /**
+   * Returns true if the timestamp is in the set.
+   *
+   * @param tstamp The timestamp.
+   * @return True if it has been returned by getUniqueTstamp().
+   */
+  public boolean contains(long tstamp) {
+    return tstamp != EMPTY && tstamp != FROZEN && getRunEnd(tstamp) != EMPTY;
+  }
+
+  /**
+   * Returns the number of timestamps in the set, which may be out of date by the time it
+   * returns if other threads are adding timestamps.
+   *
+   * @return The number of timestamps.
+   */
+  public int size() {
+    int size = 0;
+    for (int i = 0; i < this.stripes.length(); i++) {
+      size += this.stripes.get(i).size.get();
+    }
+    return size;
+  }
+
+  /**
+   * Returns the index of the stripe of a timestamp.
+   *
+   * @param tstamp The timestamp.
+   * @return The stripe.
+   */
+  private int getStripe(long tstamp) {
+    return TstampSet.hash(tstamp >> stripeShift) & (this.stripes.length() - 1);
+  }
+
+  /**
+   * Returns the end of the run starting at the timestamp.
+   *
+   * @param tstamp The timestamp.
+   * @return The end of its run, or EMPTY if the timestamp is not in the set.
+   */
+  private long getRunEnd(long tstamp) {
+    int stripe = getStripe(tstamp);
+    while (true) {
+      Table table = this.stripes.get(stripe);
+      int slot = find(table, tstamp);
+      if (slot >= 0) {
+        // A timestamp just claimed by another thread may not have its run end set yet.
+        return Math.max(table.runEnds.get(slot), tstamp + 1);
+      }
+      if (slot == -1) {
+        return EMPTY;
+      }
+      awaitResize(stripe, table);
+    }
+  }
+
+  /**
+   * Raises the end of the run starting at the timestamp, which is in the set. An update made
+   * while the table is being enlarged may be lost, which only shortens the recorded run.
+   *
+   * @param tstamp The timestamp.
+   * @param runEnd The new end of its run.
+   */
+  private void extendRun(long tstamp, long runEnd) {
+    Table table = this.stripes.get(getStripe(tstamp));
+    int slot = find(table, tstamp);
+    if (slot >= 0) {
+      long current = table.runEnds.get(slot);
+      while (current < runEnd && !table.runEnds.compareAndSet(slot, current, runEnd)) {
+        current = table.runEnds.get(slot);
+      }
+    }
+  }
+
+  /**
+   * Returns the slot holding the timestamp.
+   *
+   * @param table The table.
+   * @param tstamp The timestamp.
+   * @return The slot, -1 if the timestamp is not in the table, or -2 if the table is being
+   * enlarged and the timestamp may be in its replacement.
+   */
+  private static int find(Table table, long tstamp) {
+    int mask = table.tstamps.length() - 1;
+    int slot = TstampSet.hash(tstamp) & mask;
+    for (int probes = 0; probes <= mask; probes++, slot = (slot + 1) & mask) {
+      long current = table.tstamps.get(slot);
+      if (current == tstamp) {
+        return slot;
+      }
+      if (current == EMPTY) {
+        return -1;
+      }
+      if (current == FROZEN) {
+        return -2;
+      }
+    }
+    return -2;
+  }
+
+  /**
+   * Claims the timestamp if it is not in the set.
+   *
+   * @param tstamp The timestamp.
+   * @return True if this call added it, false if it was already in the set.
+   */
+  private boolean add(long tstamp) {
+    int stripe = getStripe(tstamp);
+    while (true) {
+      Table table = this.stripes.get(stripe);
+      int mask = table.tstamps.length() - 1;
+      int slot = TstampSet.hash(tstamp) & mask;
+      int probes = 0;
+      while (probes <= mask) {
+        long current = table.tstamps.get(slot);
+        if (current == tstamp) {
+          return false;
+        }
+        if (current == FROZEN) {
+          break;
+        }
+        if (current == EMPTY) {
+          if (table.tstamps.compareAndSet(slot, EMPTY, tstamp)) {
+            table.runEnds.set(slot, tstamp + 1);
+            if (table.size.incrementAndGet() > (mask + 1) / 4 * 3) {
+              resize(stripe, table);
+            }
+            return true;
+          }
+          // Another thread claimed the slot first; look at it again.
+          continue;
+        }
+        probes++;
+        slot = (slot + 1) & mask;
+      }
+      resize(stripe, table);
+    }
+  }
+
+  /**
+   * Replaces the table of a stripe with a larger one, or waits for the thread that is doing so.
+   *
+   * @param stripe The stripe.
+   * @param table Its current table.
+   */
+  private void resize(int stripe, Table table) {
+    if (!table.resizing.compareAndSet(false, true)) {
+      awaitResize(stripe, table);
+      return;
+    }
+    // Freeze the empty slots, so that no timestamp is claimed in the table after it is copied.
+    int capacity = table.tstamps.length();
+    int live = 0;
+    for (int i = 0; i < capacity; i++) {
+      while (table.tstamps.get(i) == EMPTY && !table.tstamps.compareAndSet(i, EMPTY, FROZEN)) {
+        // Retry until the slot is either frozen or claimed.
+      }
+      if (table.tstamps.get(i) != FROZEN) {
+        live++;
+      }
+    }
+    int newCapacity = capacity;
+    while (live + 1 > newCapacity / 2) {
+      newCapacity *= 2;
+    }
+    Table larger = new Table(newCapacity);
+    int mask = newCapacity - 1;
+    for (int i = 0; i < capacity; i++) {
+      long tstamp = table.tstamps.get(i);
+      if (tstamp != FROZEN) {
+        int slot = TstampSet.hash(tstamp) & mask;
+        while (larger.tstamps.get(slot) != EMPTY) {
+          slot = (slot + 1) & mask;
+        }
+        larger.tstamps.set(slot, tstamp);
+        larger.runEnds.set(slot, Math.max(table.runEnds.get(i), tstamp + 1));
+      }
+    }
+    larger.size.set(live);
+    this.stripes.set(stripe, larger);
+  }
+
+  /**
+   * Waits until the table of a stripe has been replaced.
+   *
+   * @param stripe The stripe.
+   * @param table The table being replaced.
+   */
+  private void awaitResize(int stripe, Table table) {
+    while (this.stripes.get(stripe) == table) {
+      Thread.yield();
+    }
+  }
+}
@@ -0,0 +1,71 @@
+package org.hackystat.utilities.tstamp;
+
+import javax.xml.datatype.DatatypeConfigurationException;
+import javax.xml.datatype.DatatypeFactory;
+
+/**
+ * Provides a DatatypeFactory to each thread, so that creating timestamps does not repeat the
+ * implementation lookup of DatatypeFactory.newInstance(), which searches system properties,
+ * property files and the class path under a class loader lock. The implementation class is
+ * resolved once and instantiated directly for each new thread. On runtimes where that class is
+ * not accessible, such as those that encapsulate the JDK's own implementation, each thread
+ * performs the lookup once instead.
+ * <p>
+ * DatatypeFactory makes no promise of thread safety, so each thread gets its own instance,
+ * which it must not pass to other threads.
+ *
+ * @author agent
+ */
+public final class DatatypeFactoryProvider {
+
+  /** Make this class noninstantiable. */
+  private DatatypeFactoryProvider() {
+    // Do nothing.
+  }
+
+  /** The factory of each thread. */
+  private static final ThreadLocal<DatatypeFactory> factories = new ThreadLocal<DatatypeFactory>();
+  /** The resolved implementation class, or null if not yet resolved or not instantiable. */
+  private static volatile Class<? extends DatatypeFactory> implementation;
+  /** True if the implementation class cannot be instantiated directly. */
+  private static volatile boolean lookupRequired;
+
+  /**
+   * Returns the DatatypeFactory of the current thread, creating it on first use.
+   *
+   * @return The factory.
+   * @throws DatatypeConfigurationException If no implementation is available.
+   */
+  public static DatatypeFactory getFactory() throws DatatypeConfigurationException {
+    DatatypeFactory factory = factories.get();
+    if (factory == null) {
+      factory = newFactory();
+      factories.set(factory);
+    }
+    return factory;
+  }
+
+  /**
+   * Returns a new factory, from the resolved implementation class if possible.
+   *
+   * @return The factory.
+   * @throws DatatypeConfigurationException If no implementation is available.
+   */
+  private static DatatypeFactory newFactory() throws DatatypeConfigurationException {
+    Class<? extends DatatypeFactory> type = implementation;
+    if (type != null) {
+      try {
+        return type.getConstructor().newInstance();
+      }
+      catch (Exception e) {
+        lookupRequired = true;
+        implementation = null;
+      }
+    }
+    DatatypeFactory factory = DatatypeFactory.newInstance();
+    if (!lookupRequired) {
+      implementation = factory.getClass();
+    }
+    return factory;
+  }
+}
@@ -0,0 +1,283 @@
+package org.hackystat.utilities.tstamp;
+
+import java.util.Arrays;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Maps times in milliseconds to the local days that contain them in a time zone, for bucketing
+ * many timestamps by day. It finds the instants at which the offset of the zone changes over a
+ * range of years, so that finding the day of a time within the range is a binary search of
+ * those transitions and a division, without consulting the TimeZone or creating a Calendar.
+ * Times outside the range are passed to the TimeZone.
+ * <p>
+ * The transitions are found a block of about a year at a time, when a time in the block is
+ * first bucketed, so creating a bucketer is cheap and each block costs about 9,000 calls to
+ * TimeZone.getOffset() only if it is used. 
+ * <p>
+ * Day numbers count days since 1970-01-01, as TstampMillis.getUnixDay() does. Instances are
+ * thread-safe. Obtain the shared instance for a zone with getInstance().
+ *
+ * @author agent
+ */
+public final class DayBucketer {
+
+  /** The first year covered by the shared instances. */
+  private static final int defaultFirstYear = 1970;
+  /** The last year covered by the shared instances. */
+  private static final int defaultLastYear = 2100;
+  /** The interval at which the offset is sampled, shorter than any period between transitions. */
+  private static final long sampleInterval = TstampMillis.MILLISECS_PER_HOUR;
+  /** The length of the blocks whose transitions are found together. */
+  private static final long blockLength = 366 * TstampMillis.MILLISECS_PER_DAY;
+  /** The shared instances, keyed by copies of their time zones. */
+  private static final ConcurrentHashMap<TimeZone, DayBucketer> instances =
+    new ConcurrentHashMap<TimeZone, DayBucketer>();
+  /** The time zone. */
+  private final TimeZone zone;
+  /** The first time covered by the transitions. */
+  private final long rangeStart;
+  /** The time after the last covered by the transitions. */
+  private final long rangeEnd;
+  /** The blocks of the range, each created when first needed. */
+  private final AtomicReferenceArray<Block> blocks;
+
+  /** The offset transitions within one block of the range. Instances are immutable. */
+  private static final class Block {
+    /** The time after the last covered by this block. */
+    private final long end;
+    /** The times from which each offset applies, starting with the start of the block. */
+    private final long[] transitions;
+    /** The offset from the start of the block or each transition to the next, in milliseconds. */
+    private final int[] offsets;
+
+    /**
+     * Finds the transitions of a zone within a block, by sampling the offset at every
+     * sampleInterval and binary searching the intervals over which it changes.
+     *
+     * @param zone The time zone.
+     * @param start The first time covered by the block.
+     * @param end The time after the last covered by the block.
+     */
+    Block(TimeZone zone, long start, long end) {
+      this.end = end;
+      long[] times = new long[4];
+      int[] values = new int[4];
+      int count = 0;
+      int offset = zone.getOffset(start);
+      times[count] = start;
+      values[count++] = offset;
+      long time = start;
+      while (time < end) {
+        long next = Math.min(time + sampleInterval, end);
+        if (zone.getOffset(next) == offset) {
+          time = next;
+          continue;
+        }
+        // Find the first instant after time with a different offset.
+        long low = time;
+        long high = next;
+        while (high - low > 1) {
+          long middle = low + (high - low) / 2;
+          if (zone.getOffset(middle) == offset) {
+            low = middle;
+          }
+          else {
+            high = middle;
+          }
+        }
+        if (high == end) {
+          // The change belongs to the next block.
+          break;
+        }
+        offset = zone.getOffset(high);
+        if (count == times.length) {
+          long[] newTimes = new long[count * 2];
+          int[] newValues = new int[count * 2];
+          System.arraycopy(times, 0, newTimes, 0, count);
+          System.arraycopy(values, 0, newValues, 0, count);
+          times = newTimes;
+          values = newValues;
+        }
+        times[count] = high;
+        values[count++] = offset;
+        time = high;
+      }
+      this.transitions = new long[count];
+      this.offsets = new int[count];
+      System.arraycopy(times, 0, this.transitions, 0, count);
+      System.arraycopy(values, 0, this.offsets, 0, count);
+    }
+
+    /**
+     * Returns the index of the last transition at or before a time within the block.
+     *
+     * @param millis The time in milliseconds.
+     * @return The index of the transition whose offset applies at the time.
+     */
+    private int findTransition(long millis) {
+      int index = Arrays.binarySearch(this.transitions, millis);
+      return (index >= 0) ? index : -index - 2;
+    }
+  }
+
+  /**
+   * Creates a bucketer for a time zone, whose transitions are found within a range of years.
+   *
+   * @param zone The time zone, which is copied.
+   * @param firstYear The first year for which times are bucketed arithmetically.
+   * @param lastYear The last year for which times are bucketed arithmetically.
+   */
+  public DayBucketer(TimeZone zone, int firstYear, int lastYear) {
+    if (lastYear < firstYear) {
+      throw new IllegalArgumentException("Last year before first: " + lastYear);
+    }
+    this.zone = (TimeZone) zone.clone();
+    // Covers the years in every zone, whose offsets are at most a day from UTC.
+    this.rangeStart = (TstampMillis.daysFromCivil(firstYear, 1, 1) - 1)
+        * TstampMillis.MILLISECS_PER_DAY;
+    this.rangeEnd = (TstampMillis.daysFromCivil(lastYear + 1L, 1, 1) + 1)
+        * TstampMillis.MILLISECS_PER_DAY;
+    long numBlocks = (this.rangeEnd - this.rangeStart + blockLength - 1) / blockLength;
+    if (numBlocks > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Too many years: " + firstYear + " to " + lastYear);
+    }
+    this.blocks = new AtomicReferenceArray<Block>((int) numBlocks);
+  }
+
+  /**
+   * Returns the shared bucketer for the default time zone.
+   *
+   * @return The bucketer, covering the years 1970 to 2100.
+   */
+  public static DayBucketer getInstance() {
+    return getInstance(TimeZone.getDefault());
+  }
+
+  /**
+   * Returns the shared bucketer for a time zone, creating it when first requested.
+   *
+   * @param zone The time zone.
+   * @return The bucketer, covering the years 1970 to 2100.
+   */
+  public static DayBucketer getInstance(TimeZone zone) {
+    DayBucketer bucketer = instances.get(zone);
+    if (bucketer == null) {
+      bucketer = new DayBucketer(zone, defaultFirstYear, defaultLastYear);
+      DayBucketer existing = instances.putIfAbsent(bucketer.zone, bucketer);
+      if (existing != null) {
+        bucketer = existing;
+      }
+    }
+    return bucketer;
+  }
+
+  /**
+   * Returns the offset of the time zone from UTC at the specified time.
+   *
+   * @param millis The time in milliseconds.
+   * @return The offset in milliseconds, including any daylight savings.
+   */
+  public int getOffset(long millis) {
+    if (millis < this.rangeStart || millis >= this.rangeEnd) {
+      return this.zone.getOffset(millis);
+    }
+    Block block = getBlock(millis);
+    return block.offsets[block.findTransition(millis)];
+  }
+
+  /**
+   * Returns the number of days since the epoch to the day containing millis, as
+   * TstampMillis.getUnixDay() does for this time zone.
+   *
+   * @param millis The time in milliseconds.
+   * @return The number of days since the epoch.
+   */
+  public long getUnixDay(long millis) {
+    return TstampMillis.floorDiv(millis + getOffset(millis), TstampMillis.MILLISECS_PER_DAY);
+  }
+
+  /**
+   * Returns the number of days between the days containing time1 and time2, as
+   * TstampMillis.daysBetween() does for this time zone. Returns a negative number if time1 is
+   * after time2.
+   *
+   * @param time1 The first time.
+   * @param time2 The second time.
+   * @return The number of days between the two times.
+   */
+  public int daysBetween(long time1, long time2) {
+    return (int) (getUnixDay(time2) - getUnixDay(time1));
+  }
+
+  /**
+   * Returns the day numbers of an array of times. The transitions are only searched when a
+   * time is not covered by the offset of the previous one, so times in order are bucketed
+   * with little searching.
+   *
+   * @param millis The times in milliseconds.
+   * @return A new array of the number of days since the epoch to the day of each time.
+   */
+  public long[] getUnixDays(long[] millis) {
+    long[] days = new long[millis.length];
+    getUnixDays(millis, 0, millis.length, days);
+    return days;
+  }
+
+  /**
+   * Stores the day numbers of a range of an array of times into another array, as
+   * getUnixDays(long[]) does.
+   *
+   * @param millis The times in milliseconds.
+   * @param offset The index of the first time.
+   * @param length The number of times.
+   * @param days Receives the day number of each time, starting at index zero.
+   */
+  public void getUnixDays(long[] millis, int offset, int length, long[] days) {
+    Block block = null;
+    int index = 0;
+    // The time from which the current offset applies, and the time after the last it covers.
+    long from = 0;
+    long until = 0;
+    int zoneOffset = 0;
+    for (int i = 0; i < length; i++) {
+      long time = millis[offset + i];
+      if (time < this.rangeStart || time >= this.rangeEnd) {
+        days[i] = TstampMillis.floorDiv(time + this.zone.getOffset(time),
+            TstampMillis.MILLISECS_PER_DAY);
+        continue;
+      }
+      if (time < from || time >= until) {
+        block = getBlock(time);
+        index = block.findTransition(time);
+        from = block.transitions[index];
+        until = (index + 1 < block.transitions.length) ? block.transitions[index + 1]
+            : block.end;
+        zoneOffset = block.offsets[index];
+      }
+      days[i] = TstampMillis.floorDiv(time + zoneOffset, TstampMillis.MILLISECS_PER_DAY);
+    }
+  }
+
+  /**
+   * Returns the block containing a time within the range, finding its transitions if this is
+   * the first time it is needed. Threads that need a new block at the same time may each find
+   * its transitions, but all then use the same block.
+   *
+   * @param millis The time in milliseconds.
+   * @return The block.
+   */
+  private Block getBlock(long millis) {
+    int number = (int) ((millis - this.rangeStart) / blockLength);
+    Block block = this.blocks.get(number);
+    if (block == null) {
+      long start = this.rangeStart + number * blockLength;
+      block = new Block(this.zone, start, Math.min(start + blockLength, this.rangeEnd));
+      if (!this.blocks.compareAndSet(number, null, block)) {
+        block = this.blocks.get(number);
+      }
+    }
+    return block;
+  }
+}
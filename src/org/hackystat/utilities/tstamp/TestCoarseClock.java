@@ -0,0 +1,80 @@
+package org.hackystat.utilities.tstamp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+/**
+ * Tests the CoarseClock class.
+ * @author agent
+ */
+public class TestCoarseClock {
+
+  /**
+   * Tests that the shared clock follows the system clock and the default time zone's days.
+   * @throws Exception If problems occur.
+   */
+  @Test public void testSharedClock() throws Exception {
+    CoarseClock clock = CoarseClock.getInstance();
+    assertEquals("Checking shared", clock, CoarseClock.getInstance());
+    long before = System.currentTimeMillis();
+    Thread.sleep(2 * clock.getResolution());
+    long now = clock.currentTimeMillis();
+    assertTrue("Checking advanced", now >= before);
+    assertTrue("Checking not ahead", now <= System.currentTimeMillis());
+
+    TimeZone zone = TimeZone.getDefault();
+    long start = clock.getStartOfToday();
+    assertEquals("Checking today", TstampMillis.getUnixDay(now, zone), clock.getToday());
+    assertEquals("Checking start of today", TstampMillis.truncateToDay(now, zone), start);
+    assertTrue("Checking today or later", clock.isTodayOrLater(start));
+    assertTrue("Checking tomorrow", clock.isTodayOrLater(now + TstampMillis.MILLISECS_PER_DAY));
+    assertFalse("Checking before today", clock.isTodayOrLater(start - 1));
+    long dayAgo = now - TstampMillis.MILLISECS_PER_DAY;
+    assertEquals("Checking yesterday", TstampMillis.getUnixDay(dayAgo, zone),
+        clock.getYesterday());
+    assertTrue("Checking yesterday or later", clock.isYesterdayOrLater(dayAgo));
+    assertTrue("Checking start of yesterday",
+        clock.isYesterdayOrLater(TstampMillis.truncateToDay(dayAgo, zone)));
+    assertFalse("Checking last week",
+        clock.isYesterdayOrLater(now - 7 * TstampMillis.MILLISECS_PER_DAY));
+  }
+
+  /**
+   * Tests that days computed before midnight are not used after it, even if the ticker has not
+   * recomputed them.
+   */
+  @Test public void testDayRollover() {
+    CoarseClock clock = new CoarseClock(TstampMillis.MILLISECS_PER_DAY);
+    clock.stop();
+    TimeZone zone = TimeZone.getDefault();
+    long now = System.currentTimeMillis();
+    clock.updateDays(now - TstampMillis.MILLISECS_PER_DAY);
+    long today = TstampMillis.getUnixDay(now, zone);
+    long startOfToday = TstampMillis.truncateToDay(now, zone);
+    assertEquals("Checking today", today, clock.getToday());
+    assertFalse("Checking yesterday not today", clock.isTodayOrLater(startOfToday - 1));
+    clock.updateDays(now - TstampMillis.MILLISECS_PER_DAY);
+    assertEquals("Checking start of today", startOfToday, clock.getStartOfToday());
+    clock.updateDays(now - TstampMillis.MILLISECS_PER_DAY);
+    assertEquals("Checking yesterday",
+        TstampMillis.getUnixDay(now - TstampMillis.MILLISECS_PER_DAY, zone), clock.getYesterday());
+  }
+
+  /**
+   * Tests that a stopped clock no longer advances.
+   * @throws Exception If problems occur.
+   */
+  @Test public void testStop() throws Exception {
+    CoarseClock clock = new CoarseClock(1);
+    clock.stop();
+    Thread.sleep(20);
+    long stopped = clock.currentTimeMillis();
+    Thread.sleep(20);
+    assertEquals("Checking stopped", stopped, clock.currentTimeMillis());
+  }
+}
@@ -0,0 +1,88 @@
+package org.hackystat.utilities.tstamp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests the ConcurrentTstampSet class.
+ * @author agent
+ */
+public class TestConcurrentTstampSet {
+
+  /**
+   * Tests that a single thread gets the results of TstampSet.
+   */
+  @Test public void testSequential() {
+    ConcurrentTstampSet tstampSet = new ConcurrentTstampSet(4);
+    TstampSet expected = new TstampSet();
+    Random random = new Random(0);
+    for (int i = 0; i < 50000; i++) {
+      long tstamp = (i % 2 == 0) ? random.nextInt(20000) : 1000;
+      assertEquals("Test unique " + tstamp, expected.getUniqueTstamp(tstamp),
+          tstampSet.getUniqueTstamp(tstamp));
+    }
+    assertEquals("Test size", 50000, tstampSet.size());
+    assertTrue("Test contains", tstampSet.contains(1000));
+    assertFalse("Test not contains", tstampSet.contains(-1));
+  }
+
+  /**
+   * Tests that the timestamps obtained by concurrent threads are unique, and that each is the
+   * smallest one not yet taken, as they would be if the calls had been made one at a time.
+   * @throws Exception If problems occur.
+   */
+  @Test public void testConcurrent() throws Exception {
+    final ConcurrentTstampSet tstampSet = new ConcurrentTstampSet(8);
+    final int numThreads = 8;
+    final int numCalls = 20000;
+    final long[][] passed = new long[numThreads][numCalls];
+    final long[][] returned = new long[numThreads][numCalls];
+    Thread[] threads = new Thread[numThreads];
+    for (int t = 0; t < numThreads; t++) {
+      final int thread = t;
+      threads[t] = new Thread() {
+        /** Obtains unique timestamps, many of them for the same few milliseconds. */
+        @Override
+        public void run() {
+          Random random = new Random(thread);
+          for (int i = 0; i < numCalls; i++) {
+            long tstamp = (i % 3 == 0) ? random.nextInt(100000) : 5000L * random.nextInt(4);
+            passed[thread][i] = tstamp;
+            returned[thread][i] = tstampSet.getUniqueTstamp(tstamp);
+          }
+        }
+      };
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    long[] all = new long[numThreads * numCalls];
+    for (int t = 0; t < numThreads; t++) {
+      System.arraycopy(returned[t], 0, all, t * numCalls, numCalls);
+    }
+    Arrays.sort(all);
+    for (int i = 1; i < all.length; i++) {
+      assertTrue("Test unique", all[i - 1] < all[i]);
+    }
+    // Every timestamp skipped over was taken, so the range holds as many returned ones.
+    for (int t = 0; t < numThreads; t++) {
+      for (int i = 0; i < numCalls; i++) {
+        assertTrue("Test not earlier", returned[t][i] >= passed[t][i]);
+        int first = Arrays.binarySearch(all, passed[t][i]);
+        int last = Arrays.binarySearch(all, returned[t][i]);
+        assertEquals("Test skipped only taken timestamps", returned[t][i] - passed[t][i],
+            last - first);
+      }
+    }
+    assertEquals("Test size", numThreads * numCalls, tstampSet.size());
+  }
+}
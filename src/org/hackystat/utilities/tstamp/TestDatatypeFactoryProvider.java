@@ -0,0 +1,47 @@
+package org.hackystat.utilities.tstamp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import javax.xml.datatype.DatatypeFactory;
+
+import org.junit.Test;
+
+/**
+ * Tests the DatatypeFactoryProvider class.
+ * @author agent
+ */
+public class TestDatatypeFactoryProvider {
+
+  /**
+   * Tests that each thread reuses its own factory.
+   * @throws Exception If problems occur.
+   */
+  @Test public void testPerThread() throws Exception {
+    DatatypeFactory factory = DatatypeFactoryProvider.getFactory();
+    assertSame("Checking reuse", factory, DatatypeFactoryProvider.getFactory());
+    final DatatypeFactory[] other = new DatatypeFactory[2];
+    Thread thread = new Thread() {
+      /** Gets the factory of this thread twice. */
+      @Override
+      public void run() {
+        try {
+          other[0] = DatatypeFactoryProvider.getFactory();
+          other[1] = DatatypeFactoryProvider.getFactory();
+        }
+        catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+      }
+    };
+    thread.start();
+    thread.join();
+    assertSame("Checking reuse in other thread", other[0], other[1]);
+    assertNotSame("Checking other thread", factory, other[0]);
+    assertEquals("Checking implementation", DatatypeFactory.newInstance().getClass(),
+        other[0].getClass());
+    assertEquals("Checking factory works", "2007-08-01",
+        factory.newXMLGregorianCalendar("2007-08-01").toXMLFormat());
+  }
+}
@@ -0,0 +1,80 @@
+package org.hackystat.utilities.tstamp;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.Random;
+import java.util.TimeZone;
+
+import javax.xml.datatype.DatatypeFactory;
+import javax.xml.datatype.XMLGregorianCalendar;
+
+import org.junit.Test;
+
+/**
+ * Tests the DayBucketer class.
+ * @author agent
+ */
+public class TestDayBucketer {
+
+  /**
+   * Tests that day numbers agree with TstampMillis.getUnixDay() inside and outside the range of
+   * years, in zones with and without daylight savings time.
+   */
+  @Test public void testUnixDays() {
+    Random random = new Random(0);
+    String[] ids = { "America/Los_Angeles", "Pacific/Honolulu", "Europe/London",
+        "Australia/Lord_Howe", "Asia/Kolkata", "Pacific/Apia", "UTC" };
+    for (String id : ids) {
+      TimeZone zone = TimeZone.getTimeZone(id);
+      DayBucketer bucketer = new DayBucketer(zone, 1990, 2030);
+      long[] millis = new long[5000];
+      for (int i = 0; i < millis.length; i++) {
+        // From 1950 to 2050, half of them in order.
+        millis[i] = -631152000000L + (long) (random.nextDouble() * 3155760000000L);
+        if (i % 2 == 1) {
+          millis[i] = millis[i - 1] + random.nextInt(7200000);
+        }
+      }
+      long[] days = bucketer.getUnixDays(millis);
+      for (int i = 0; i < millis.length; i++) {
+        long expected = TstampMillis.getUnixDay(millis[i], zone);
+        assertEquals("Checking offset " + id, zone.getOffset(millis[i]),
+            bucketer.getOffset(millis[i]));
+        assertEquals("Checking day " + id, expected, bucketer.getUnixDay(millis[i]));
+        assertEquals("Checking bulk day " + id, expected, days[i]);
+      }
+    }
+  }
+
+  /**
+   * Tests the days around a daylight savings transition, and that Tstamp.daysBetween() still
+   * counts days in the zone of each timestamp.
+   * @throws Exception If problems occur.
+   */
+  @Test public void testDaysBetween() throws Exception {
+    TimeZone zone = TimeZone.getTimeZone("America/Los_Angeles");
+    DayBucketer bucketer = DayBucketer.getInstance(zone);
+    assertEquals("Checking shared", bucketer, DayBucketer.getInstance(zone));
+    GregorianCalendar calendar = new GregorianCalendar(zone);
+    calendar.clear();
+    calendar.set(2007, Calendar.MARCH, 10, 23, 30);
+    long before = calendar.getTimeInMillis();
+    calendar.set(2007, Calendar.MARCH, 11, 3, 30);
+    long after = calendar.getTimeInMillis();
+    calendar.set(2007, Calendar.MARCH, 11, 23, 59);
+    long endOfDay = calendar.getTimeInMillis();
+    assertEquals("Checking across transition", 1, bucketer.daysBetween(before, after));
+    assertEquals("Checking same day", 0, bucketer.daysBetween(after, endOfDay));
+    assertEquals("Checking backwards", -1, bucketer.daysBetween(endOfDay, before));
+
+    DatatypeFactory factory = DatatypeFactoryProvider.getFactory();
+    XMLGregorianCalendar hawaii = factory.newXMLGregorianCalendar("2007-08-01T23:00:00-10:00");
+    XMLGregorianCalendar utc = factory.newXMLGregorianCalendar("2007-08-02T10:00:00Z");
+    assertEquals("Checking own zones", 1, Tstamp.daysBetween(hawaii, utc));
+    XMLGregorianCalendar local1 = Tstamp.makeTimestamp("2007-08-01");
+    XMLGregorianCalendar local2 = Tstamp.makeTimestamp("2007-08-03T23:59:59");
+    assertEquals("Checking default zone", 2, Tstamp.daysBetween(local1, local2));
+  }
+}
@@ -5,6 +5,7 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 
 import javax.xml.datatype.XMLGregorianCalendar;
@@ -126,6 +127,35 @@ public class TestTstamp {
     assertEquals("Test sort3", tstamp3, sortedList.get(2));
     assertEquals("Test sort4", tstamp4, sortedList.get(3));
   }
+
+  /**
+   * Tests that the bulk parseMillis() methods agree with makeTimestamp(String).
+   * @throws Exception If problems occur. 
+   */
+  @Test public void testParseMillis() throws Exception {
+    String[] samples = { "2007-08-01", "2007-08-01T01:02:03.456-10:00", "2007-02-29", null, 
+        "123456789-01-01T00:00:00Z", "--08-01", "not a timestamp", "2007-08-01T24:00:00Z" };
+    List<String> reps = new ArrayList<String>();
+    for (int i = 0; i < Tstamp.parallelThreshold + 1000; i++) {
+      reps.add(samples[i % samples.length]);
+    }
+    BitSet valid = new BitSet();
+    valid.set(reps.size() + 10);
+    long[] millis = Tstamp.parseMillis(reps, valid);
+    long[] sequential = Tstamp.parseMillis(reps.toArray(new String[reps.size()]), 
+        new BitSet(), 1);
+    assertEquals("Test parse length", reps.size(), millis.length);
+    assertTrue("Test parse keeps later bits", valid.get(reps.size() + 10));
+    for (int i = 0; i < reps.size(); i++) {
+      String rep = reps.get(i);
+      assertEquals("Test parse validity " + rep, Tstamp.isTimestamp(rep), valid.get(i));
+      if (valid.get(i)) {
+        assertEquals("Test parse millis " + rep, 
+            Tstamp.makeTimestamp(rep).toGregorianCalendar().getTimeInMillis(), millis[i]);
+      }
+      assertEquals("Test parse sequential " + rep, millis[i], sequential[i]);
+    }
+  }
   
 
 }
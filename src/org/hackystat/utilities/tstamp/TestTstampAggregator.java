@@ -0,0 +1,104 @@
+package org.hackystat.utilities.tstamp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.hackystat.utilities.time.period.Day;
+import org.hackystat.utilities.time.period.Week;
+import org.junit.Test;
+
+/**
+ * Tests the TstampAggregator class.
+ * @author agent
+ */
+public class TestTstampAggregator {
+
+  /** The start of the test period, 2006-12-20 in UTC. */
+  private static final long start = 1166572800000L;
+  /** The end of the test period, about a year later. */
+  private static final long end = start + 370 * TstampMillis.MILLISECS_PER_DAY;
+
+  /**
+   * Tests that timestamps fall into the buckets of the Day, Week and Month containing them.
+   */
+  @Test public void testBuckets() {
+    TimeZone zone = TimeZone.getDefault();
+    TstampAggregator days = new TstampAggregator(TstampAggregator.Period.DAY, start, end);
+    TstampAggregator weeks = new TstampAggregator(TstampAggregator.Period.WEEK, start, end);
+    TstampAggregator months = new TstampAggregator(TstampAggregator.Period.MONTH, start, end);
+    assertEquals("Checking days", 371, days.getBucketCount());
+    assertEquals("Checking months", 13, months.getBucketCount());
+    Random random = new Random(0);
+    GregorianCalendar calendar = new GregorianCalendar(zone);
+    for (int i = 0; i < 1000; i++) {
+      long tstamp = start + (long) (random.nextDouble() * (end - start));
+      long day = TstampMillis.getUnixDay(tstamp, zone);
+      assertEquals("Checking day", day, days.getFirstDay(days.getBucket(tstamp)));
+      Day firstDayOfWeek = new Week(Day.getInstance(tstamp)).getFirstDay();
+      assertEquals("Checking week", TstampMillis.getUnixDay(firstDayOfWeek.getDate().getTime(),
+          zone), weeks.getFirstDay(weeks.getBucket(tstamp)));
+      calendar.setTimeInMillis(tstamp);
+      calendar.set(Calendar.DAY_OF_MONTH, 1);
+      assertEquals("Checking month", TstampMillis.getUnixDay(calendar.getTimeInMillis(), zone),
+          months.getFirstDay(months.getBucket(tstamp)));
+    }
+    assertEquals("Checking before", -1, days.getBucket(days.getFirstDay(0)
+        * TstampMillis.MILLISECS_PER_DAY - 2 * TstampMillis.MILLISECS_PER_DAY));
+    assertEquals("Checking after", -1, months.getBucket(end + 40 * TstampMillis.MILLISECS_PER_DAY));
+  }
+
+  /**
+   * Tests that counts and sums agree whether timestamps are added singly, in parallel, or
+   * combined from partial aggregations.
+   */
+  @Test public void testCountsAndSums() {
+    Random random = new Random(1);
+    int size = TstampAggregator.parallelThreshold + 5000;
+    long[] tstamps = new long[size];
+    double[] values = new double[size];
+    for (int i = 0; i < size; i++) {
+      // Includes some timestamps outside the period.
+      tstamps[i] = start - TstampMillis.MILLISECS_PER_DAY * 10
+          + (long) (random.nextDouble() * (end - start + TstampMillis.MILLISECS_PER_DAY * 20));
+      values[i] = random.nextInt(100);
+    }
+    TstampAggregator single = new TstampAggregator(TstampAggregator.Period.WEEK, start, end);
+    TstampAggregator first = new TstampAggregator(TstampAggregator.Period.WEEK, start, end);
+    TstampAggregator second = new TstampAggregator(TstampAggregator.Period.WEEK, start, end);
+    for (int i = 0; i < size; i++) {
+      single.add(tstamps[i], values[i]);
+      if (i % 2 == 0) {
+        first.add(tstamps[i], values[i]);
+      }
+      else {
+        second.add(tstamps[i], values[i]);
+      }
+    }
+    first.combine(second);
+    TstampAggregator parallel = new TstampAggregator(TstampAggregator.Period.WEEK, start, end);
+    parallel.addAll(tstamps, values, 4);
+    TstampAggregator countsOnly = new TstampAggregator(TstampAggregator.Period.WEEK, start, end);
+    countsOnly.addAll(tstamps, null);
+    long total = single.getOutOfRange();
+    assertTrue("Checking out of range", total > 0);
+    for (int bucket = 0; bucket < single.getBucketCount(); bucket++) {
+      long count = single.getCount(bucket);
+      total += count;
+      assertEquals("Checking combined count", count, first.getCount(bucket));
+      assertEquals("Checking parallel count", count, parallel.getCount(bucket));
+      assertEquals("Checking counts only", count, countsOnly.getCount(bucket));
+      // The values are integers, so their sums are exact in any order.
+      assertEquals("Checking combined sum", single.getSum(bucket), first.getSum(bucket), 0);
+      assertEquals("Checking parallel sum", single.getSum(bucket), parallel.getSum(bucket), 0);
+      assertEquals("Checking no sum", 0, countsOnly.getSum(bucket), 0);
+    }
+    assertEquals("Checking total", size, total);
+    assertEquals("Checking parallel out of range", single.getOutOfRange(),
+        parallel.getOutOfRange());
+  }
+}
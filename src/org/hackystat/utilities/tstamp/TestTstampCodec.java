@@ -0,0 +1,105 @@
+package org.hackystat.utilities.tstamp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests the TstampCodec class.
+ * @author agent
+ */
+public class TestTstampCodec {
+
+  /**
+   * Tests that regular, jittered, unordered and extreme sequences round trip, and that regular
+   * ones are small.
+   */
+  @Test public void testRoundTrip() {
+    Random random = new Random(0);
+    int size = 10000;
+    long[] regular = new long[size];
+    long[] jittered = new long[size];
+    long[] unordered = new long[size];
+    for (int i = 0; i < size; i++) {
+      regular[i] = 1186000000000L + i * 1000L;
+      jittered[i] = regular[i] + random.nextInt(50);
+      unordered[i] = random.nextLong();
+    }
+    long[] extremes = { Long.MIN_VALUE, Long.MAX_VALUE, 0, Long.MIN_VALUE, -1, Long.MAX_VALUE };
+    long[][] sequences = { regular, jittered, unordered, extremes, new long[0], { 42 } };
+    for (long[] tstamps : sequences) {
+      ByteBuffer encoded = TstampCodec.encode(tstamps);
+      assertTrue("Checking bound", encoded.remaining()
+          <= TstampCodec.getMaxEncodedSize(tstamps.length, TstampCodec.DEFAULT_BLOCK_SIZE));
+      assertArrayEquals("Checking round trip", tstamps, TstampCodec.decode(encoded));
+      assertFalse("Checking position", encoded.hasRemaining());
+    }
+    assertTrue("Checking regular size", TstampCodec.encode(regular).remaining() < size * 1.2);
+    assertTrue("Checking jittered size", TstampCodec.encode(jittered).remaining() < size * 2.2);
+  }
+
+  /**
+   * Tests encoding ranges one after another into a buffer, and decoding them in turn.
+   */
+  @Test public void testConsecutive() {
+    long[] tstamps = { 5, 10, 15, 20, 26, 31, 30, 40 };
+    ByteBuffer buffer = ByteBuffer.allocate(1000);
+    buffer.put((byte) 7);
+    TstampCodec.encode(tstamps, 0, 3, 2, buffer);
+    TstampCodec.encode(tstamps, 3, 5, 3, buffer);
+    buffer.flip();
+    assertEquals("Checking prefix", 7, buffer.get());
+    assertArrayEquals("Checking first", new long[] { 5, 10, 15 }, TstampCodec.decode(buffer));
+    assertArrayEquals("Checking second", new long[] { 20, 26, 31, 30, 40 },
+        TstampCodec.decode(buffer));
+    assertFalse("Checking end", buffer.hasRemaining());
+  }
+
+  /**
+   * Tests streaming, random access and search with a Decoder.
+   */
+  @Test public void testDecoder() {
+    Random random = new Random(1);
+    long[] tstamps = new long[1000];
+    long time = 1186000000000L;
+    for (int i = 0; i < tstamps.length; i++) {
+      time += random.nextInt(3) * 500;
+      tstamps[i] = time;
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(
+        (int) TstampCodec.getMaxEncodedSize(tstamps.length, 64));
+    TstampCodec.encode(tstamps, 0, tstamps.length, 64, buffer);
+    buffer.flip();
+    TstampCodec.Decoder decoder = new TstampCodec.Decoder(buffer);
+    assertEquals("Checking size", tstamps.length, decoder.size());
+    for (int i = 0; i < tstamps.length; i++) {
+      assertTrue("Checking has next", decoder.hasNext());
+      assertEquals("Checking next", tstamps[i], decoder.next());
+    }
+    assertFalse("Checking no next", decoder.hasNext());
+    for (int i = 0; i < 200; i++) {
+      int index = random.nextInt(tstamps.length);
+      assertEquals("Checking get", tstamps[index], decoder.get(index));
+      if (index + 1 < tstamps.length) {
+        assertEquals("Checking next after get", tstamps[index + 1], decoder.next());
+      }
+      long target = tstamps[0] + random.nextInt((int) (time - tstamps[0] + 1000));
+      int expected = 0;
+      while (expected < tstamps.length && tstamps[expected] < target) {
+        expected++;
+      }
+      assertEquals("Checking indexOf", expected, decoder.indexOf(target));
+      if (expected < tstamps.length) {
+        assertEquals("Checking next after indexOf", tstamps[expected], decoder.next());
+      }
+    }
+    assertEquals("Checking before all", 0, decoder.indexOf(Long.MIN_VALUE));
+    assertEquals("Checking after all", tstamps.length, decoder.indexOf(Long.MAX_VALUE));
+  }
+}
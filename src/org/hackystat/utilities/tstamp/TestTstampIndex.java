@@ -0,0 +1,96 @@
+package org.hackystat.utilities.tstamp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.xml.datatype.XMLGregorianCalendar;
+
+import org.junit.Test;
+
+/**
+ * Tests the TstampIndex class.
+ * @author agent
+ */
+public class TestTstampIndex {
+
+  /**
+   * Tests window queries against Tstamp.inBetween() while entries are added in and out of order.
+   * @throws Exception If problems occur.
+   */
+  @Test public void testWindows() throws Exception {
+    Random random = new Random(0);
+    TstampIndex index = new TstampIndex(0);
+    List<Long> added = new ArrayList<Long>();
+    long time = 1186000000000L;
+    for (int round = 0; round < 20; round++) {
+      for (int i = 0; i < 500; i++) {
+        // Mostly in order, with some late arrivals and duplicates.
+        time += random.nextInt(1000);
+        long tstamp = (random.nextInt(10) == 0) ? time - random.nextInt(100000) : time;
+        index.add(tstamp, added.size());
+        added.add(tstamp);
+      }
+      long start = time - random.nextInt(300000);
+      long end = start + random.nextInt(100000);
+      int[] ids = index.getIds(start, end);
+      assertEquals("Checking count", ids.length, index.count(start, end));
+      int expected = 0;
+      for (int id = 0; id < added.size(); id++) {
+        if (added.get(id) >= start && added.get(id) <= end) {
+          expected++;
+        }
+      }
+      assertEquals("Checking window", expected, ids.length);
+      for (int i = 0; i < ids.length; i++) {
+        long tstamp = added.get(ids[i]);
+        assertTrue("Checking in window", tstamp >= start && tstamp <= end);
+        if (i > 0) {
+          long previous = added.get(ids[i - 1]);
+          assertTrue("Checking order", previous < tstamp
+              || (previous == tstamp && ids[i - 1] < ids[i]));
+        }
+      }
+    }
+    assertEquals("Checking size", added.size(), index.size());
+    for (int i = 1; i < index.size(); i++) {
+      assertTrue("Checking sorted", index.getTstamp(i - 1) <= index.getTstamp(i));
+      assertEquals("Checking ids", (long) added.get(index.getId(i)), index.getTstamp(i));
+    }
+    assertEquals("Checking empty window", 0, index.count(time, time - 1));
+    assertEquals("Checking all", added.size(), index.count(Long.MIN_VALUE, Long.MAX_VALUE));
+  }
+
+  /**
+   * Tests per-range counts and the XMLGregorianCalendar methods.
+   * @throws Exception If problems occur.
+   */
+  @Test public void testRanges() throws Exception {
+    XMLGregorianCalendar day1 = Tstamp.makeTimestamp("2007-08-01T00:00:00Z");
+    XMLGregorianCalendar day2 = Tstamp.incrementDays(day1, 1);
+    XMLGregorianCalendar day3 = Tstamp.incrementDays(day1, 2);
+    TstampIndex index = new TstampIndex();
+    index.add(Tstamp.incrementHours(day2, 5), 0);
+    index.add(day1, 1);
+    index.add(day2, 2);
+    index.add(day3, 3);
+    index.add(Tstamp.incrementMinutes(day1, 1), 4);
+    int[] ids = index.getIds(day1, day2);
+    assertEquals("Checking inclusive window", 3, ids.length);
+    assertEquals("Checking first", 1, ids[0]);
+    assertEquals("Checking second", 4, ids[1]);
+    assertEquals("Checking third", 2, ids[2]);
+    long[] bounds = { TstampMillis.toMillis(day1), TstampMillis.toMillis(day2),
+        TstampMillis.toMillis(day3), TstampMillis.toMillis(day3) + 1 };
+    int[] counts = index.countPerRange(bounds);
+    assertEquals("Checking ranges", 3, counts.length);
+    assertEquals("Checking day 1", 2, counts[0]);
+    assertEquals("Checking day 2", 2, counts[1]);
+    assertEquals("Checking day 3", 1, counts[2]);
+    assertEquals("Checking index before", 0, index.indexOf(Long.MIN_VALUE));
+    assertEquals("Checking index after", 5, index.indexOf(Long.MAX_VALUE));
+  }
+}
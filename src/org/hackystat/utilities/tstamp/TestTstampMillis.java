@@ -0,0 +1,107 @@
+package org.hackystat.utilities.tstamp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.TimeZone;
+
+import javax.xml.datatype.DatatypeFactory;
+import javax.xml.datatype.XMLGregorianCalendar;
+
+import org.junit.Test;
+
+/**
+ * Tests the TstampMillis class.
+ * @author agent
+ */
+public class TestTstampMillis {
+
+  /**
+   * Tests that toMillis agrees with toGregorianCalendar for various lexical forms.
+   * @throws Exception If problems occur.
+   */
+  @Test public void testToMillis() throws Exception {
+    DatatypeFactory factory = DatatypeFactory.newInstance();
+    String[] reps = { "2007-08-01", "2007-08-01T01:02:03", "2007-08-01T01:02:03.456",
+        "2007-08-01T01:02:03.4567-10:00", "2008-02-29T23:59:59Z", "1970-01-01T00:00:00.000Z",
+        "1969-12-31T23:59:59.999+14:00", "2000-03-01T12:00:00+05:30", "1600-02-29T00:00:00Z",
+        "1000-01-01T00:00:00Z", "2007-08-01T24:00:00Z", "2099-12-31T12:30:00-08:00" };
+    for (String rep : reps) {
+      XMLGregorianCalendar tstamp = factory.newXMLGregorianCalendar(rep);
+      assertEquals("Checking " + rep, tstamp.toGregorianCalendar().getTimeInMillis(),
+          TstampMillis.toMillis(tstamp));
+    }
+    XMLGregorianCalendar now = Tstamp.makeTimestamp();
+    assertEquals("Checking round trip", TstampMillis.toMillis(now),
+        TstampMillis.toMillis(TstampMillis.toTimestamp(TstampMillis.toMillis(now))));
+  }
+
+  /**
+   * Tests the arithmetic and comparisons against those of Tstamp.
+   * @throws Exception If problems occur.
+   */
+  @Test public void testArithmetic() throws Exception {
+    XMLGregorianCalendar date1 = Tstamp.makeTimestamp("2007-08-01");
+    long millis1 = TstampMillis.toMillis(date1);
+    assertEquals("Checking days", TstampMillis.toMillis(Tstamp.incrementDays(date1, -40)),
+        TstampMillis.incrementDays(millis1, -40));
+    assertEquals("Checking hours", TstampMillis.toMillis(Tstamp.incrementHours(date1, 30)),
+        TstampMillis.incrementHours(millis1, 30));
+    assertEquals("Checking minutes", TstampMillis.toMillis(Tstamp.incrementMinutes(date1, 90)),
+        TstampMillis.incrementMinutes(millis1, 90));
+    assertEquals("Checking seconds", TstampMillis.toMillis(Tstamp.incrementSeconds(date1, -1)),
+        TstampMillis.incrementSeconds(millis1, -1));
+    long millis2 = TstampMillis.incrementDays(millis1, 1);
+    assertTrue("Checking greater than", TstampMillis.greaterThan(millis2, millis1));
+    assertFalse("Checking not greater than", TstampMillis.greaterThan(millis1, millis1));
+    assertTrue("Checking less than", TstampMillis.lessThan(millis1, millis2));
+    assertTrue("Checking compare", TstampMillis.compare(millis1, millis2) < 0);
+    assertEquals("Checking compare equal", 0, TstampMillis.compare(millis1, millis1));
+    assertTrue("Checking inbetween", TstampMillis.inBetween(millis1, millis1, millis2));
+    assertFalse("Checking not inbetween", TstampMillis.inBetween(millis1, millis2 + 1, millis2));
+  }
+
+  /**
+   * Tests the day computations, including across daylight savings transitions.
+   * @throws Exception If problems occur.
+   */
+  @Test public void testDays() throws Exception {
+    TimeZone zone = TimeZone.getDefault();
+    XMLGregorianCalendar day1 = Tstamp.makeTimestamp("2007-03-01T10:00:00");
+    XMLGregorianCalendar day2 = Tstamp.makeTimestamp("2007-04-15T01:00:00");
+    assertEquals("Checking days between", Tstamp.daysBetween(day1, day2),
+        TstampMillis.daysBetween(TstampMillis.toMillis(day1), TstampMillis.toMillis(day2), zone));
+
+    TimeZone pacific = TimeZone.getTimeZone("America/Los_Angeles");
+    DatatypeFactory factory = DatatypeFactory.newInstance();
+    // 2007-03-11 is 23 hours long in this zone, and 2007-11-04 is 25 hours long.
+    long beforeSpring = TstampMillis.toMillis(
+        factory.newXMLGregorianCalendar("2007-03-11T23:30:00-07:00"));
+    long springStart = TstampMillis.toMillis(
+        factory.newXMLGregorianCalendar("2007-03-11T00:00:00-08:00"));
+    assertEquals("Checking spring day", springStart,
+        TstampMillis.truncateToDay(beforeSpring, pacific));
+    long beforeFall = TstampMillis.toMillis(
+        factory.newXMLGregorianCalendar("2007-11-04T23:30:00-08:00"));
+    long fallStart = TstampMillis.toMillis(
+        factory.newXMLGregorianCalendar("2007-11-04T00:00:00-07:00"));
+    assertEquals("Checking fall day", fallStart, TstampMillis.truncateToDay(beforeFall, pacific));
+    assertEquals("Checking days across transitions", 238,
+        TstampMillis.daysBetween(beforeSpring, beforeFall, pacific));
+    assertEquals("Checking days reversed", -238,
+        TstampMillis.daysBetween(beforeFall, beforeSpring, pacific));
+    assertEquals("Checking epoch day", -1, TstampMillis.getUnixDay(-1L,
+        TimeZone.getTimeZone("UTC")));
+  }
+
+  /**
+   * Tests the conversion of dates to days since the epoch.
+   */
+  @Test public void testDaysFromCivil() {
+    assertEquals("Checking epoch", 0, TstampMillis.daysFromCivil(1970, 1, 1));
+    assertEquals("Checking leap day", 11016, TstampMillis.daysFromCivil(2000, 2, 29));
+    assertEquals("Checking before epoch", -1, TstampMillis.daysFromCivil(1969, 12, 31));
+    assertEquals("Checking year 1600", -135080, TstampMillis.daysFromCivil(1600, 3, 1));
+  }
+}
@@ -1,6 +1,8 @@
 package org.hackystat.utilities.tstamp;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import org.junit.Test;
 
 /**
@@ -25,4 +27,36 @@ public class TestTstampSet {
     assertEquals("Test addition", tstamp + 3, tstampSet.getUniqueTstamp(tstamp));
     
   }
+
+  /**
+   * Tests long runs of equal timestamps, which the set skips without probing each one.
+   */
+  @Test public void testRuns() {
+    TstampSet tstampSet = new TstampSet();
+    for (int i = 0; i < 100000; i++) {
+      assertEquals("Test run", 1000 + i, tstampSet.getUniqueTstamp(1000));
+    }
+    assertEquals("Test inside run", 101000, tstampSet.getUniqueTstamp(5000));
+    assertEquals("Test before run", 999, tstampSet.getUniqueTstamp(999));
+    assertEquals("Test joined run", 101001, tstampSet.getUniqueTstamp(999));
+    assertEquals("Test size", 100003, tstampSet.size());
+    assertEquals("Test minimum", Long.MIN_VALUE, tstampSet.getUniqueTstamp(Long.MIN_VALUE));
+    assertEquals("Test minimum again", Long.MIN_VALUE + 1,
+        tstampSet.getUniqueTstamp(Long.MIN_VALUE));
+  }
+
+  /**
+   * Tests that a set with a horizon forgets old timestamps.
+   */
+  @Test public void testHorizon() {
+    TstampSet tstampSet = new TstampSet(1000);
+    for (long tstamp = 0; tstamp < 1000000; tstamp += 10) {
+      assertEquals("Test new", tstamp, tstampSet.getUniqueTstamp(tstamp));
+      assertEquals("Test duplicate", tstamp + 1, tstampSet.getUniqueTstamp(tstamp));
+    }
+    assertTrue("Test bounded " + tstampSet.size(), tstampSet.size() < 1000);
+    assertTrue("Test recent", tstampSet.contains(999990));
+    assertEquals("Test within horizon", 999992, tstampSet.getUniqueTstamp(999990));
+    assertFalse("Test forgotten", tstampSet.contains(0));
+  }
 }
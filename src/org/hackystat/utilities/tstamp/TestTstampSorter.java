@@ -0,0 +1,80 @@
+package org.hackystat.utilities.tstamp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests the TstampSorter class.
+ * @author agent
+ */
+public class TestTstampSorter {
+
+  /** Extracts the timestamp of a record, which is its first element. */
+  private static final TstampExtractor<long[]> extractor = new TstampExtractor<long[]>() {
+    /**
+     * Returns the first element of the record.
+     * @param record The record.
+     * @return The timestamp.
+     */
+    public long getMillis(long[] record) {
+      return record[0];
+    }
+  };
+
+  /**
+   * Tests that sequential and parallel sorts agree with a stable Collections.sort.
+   */
+  @Test public void testSort() {
+    Random random = new Random(0);
+    List<long[]> records = new ArrayList<long[]>();
+    for (int i = 0; i < 100000; i++) {
+      // Few distinct timestamps, so that stability matters.
+      records.add(new long[] { random.nextInt(1000) - 500, i });
+    }
+    List<long[]> expected = new ArrayList<long[]>(records);
+    Collections.sort(expected, new Comparator<long[]>() {
+      /**
+       * Compares the timestamps of the records.
+       * @param record1 The first record.
+       * @param record2 The second record.
+       * @return The comparison of their timestamps.
+       */
+      public int compare(long[] record1, long[] record2) {
+        return TstampMillis.compare(record1[0], record2[0]);
+      }
+    });
+    for (int threads : new int[] { 1, 3, 4, 8 }) {
+      List<long[]> sorted = TstampSorter.sort(records, extractor, threads);
+      assertEquals("Checking size", expected.size(), sorted.size());
+      for (int i = 0; i < expected.size(); i++) {
+        assertSame("Checking record " + i + " with " + threads + " threads", expected.get(i),
+            sorted.get(i));
+      }
+    }
+    assertTrue("Checking empty", TstampSorter.sort(new ArrayList<long[]>(), extractor).isEmpty());
+  }
+
+  /**
+   * Tests sorting timestamp values and calendars.
+   * @throws Exception If problems occur.
+   */
+  @Test public void testTimestamps() throws Exception {
+    List<TstampValue> values = new ArrayList<TstampValue>();
+    values.add(TstampValue.valueOf("2007-08-01T01:00:00Z"));
+    values.add(TstampValue.valueOf("2007-08-01T00:30:00-01:00"));
+    values.add(TstampValue.valueOf("2007-07-31"));
+    List<TstampValue> sorted = TstampSorter.sort(values, TstampSorter.VALUE);
+    assertSame("Checking first", values.get(2), sorted.get(0));
+    assertSame("Checking second", values.get(0), sorted.get(1));
+    assertSame("Checking third", values.get(1), sorted.get(2));
+  }
+}
@@ -0,0 +1,95 @@
+package org.hackystat.utilities.tstamp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import javax.xml.datatype.XMLGregorianCalendar;
+
+import org.junit.Test;
+
+/**
+ * Tests the TstampValue class.
+ * @author agent
+ */
+public class TestTstampValue {
+
+  /**
+   * Tests the conversions to and from XMLGregorianCalendar and strings.
+   * @throws Exception If problems occur.
+   */
+  @Test public void testConversions() throws Exception {
+    String rep = "2007-08-01T01:02:03.456-10:00";
+    TstampValue value = TstampValue.valueOf(rep);
+    assertEquals("Checking timezone", -600, value.getTimezone());
+    assertEquals("Checking string", rep, value.toString());
+    assertEquals("Checking calendar", rep, value.toXMLGregorianCalendar().toXMLFormat());
+    XMLGregorianCalendar tstamp = Tstamp.makeTimestamp(rep);
+    assertEquals("Checking millis", TstampMillis.toMillis(tstamp), value.getMillis());
+    assertEquals("Checking round trip", tstamp.toXMLFormat(),
+        TstampValue.valueOf(tstamp).toXMLGregorianCalendar().toXMLFormat());
+    long now = System.currentTimeMillis();
+    assertEquals("Checking default zone", Tstamp.makeTimestamp(now).toXMLFormat(),
+        TstampValue.valueOf(now).toString());
+    assertEquals("Checking no time zone", Tstamp.makeTimestamp("2007-08-01").toXMLFormat(),
+        TstampValue.valueOf("2007-08-01").toString());
+    TstampValue julian = TstampValue.valueOf("1500-01-01T00:00:00Z");
+    assertEquals("Checking before 1582", julian.toXMLGregorianCalendar().toXMLFormat(),
+        julian.toString());
+    try {
+      TstampValue.valueOf("2007-02-29");
+      assertTrue("Checking invalid", false);
+    }
+    catch (IllegalArgumentException e) {
+      // Expected.
+    }
+  }
+
+  /**
+   * Tests comparison, equality and serialization.
+   * @throws Exception If problems occur.
+   */
+  @Test public void testComparison() throws Exception {
+    TstampValue utc = TstampValue.valueOf("2007-08-01T01:00:00Z");
+    TstampValue hawaii = TstampValue.valueOf("2007-07-31T15:00:00-10:00");
+    TstampValue later = TstampValue.valueOf("2007-08-01T01:00:00.001Z");
+    assertEquals("Checking same instant", 0, utc.compareTo(hawaii));
+    assertEquals("Checking equal", utc, hawaii);
+    assertEquals("Checking hash code", utc.hashCode(), hawaii.hashCode());
+    assertTrue("Checking less", utc.compareTo(later) < 0);
+    assertTrue("Checking greater", later.compareTo(utc) > 0);
+    assertFalse("Checking not equal", utc.equals(later));
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.writeObject(hawaii);
+    out.close();
+    TstampValue copy = (TstampValue) new ObjectInputStream(
+        new ByteArrayInputStream(bytes.toByteArray())).readObject();
+    assertEquals("Checking serialized", hawaii.toString(), copy.toString());
+
+    // Sorting agrees with TstampComparator.
+    Random random = new Random(0);
+    List<XMLGregorianCalendar> tstamps = new ArrayList<XMLGregorianCalendar>();
+    List<TstampValue> values = new ArrayList<TstampValue>();
+    for (int i = 0; i < 100; i++) {
+      XMLGregorianCalendar tstamp = Tstamp.makeTimestamp(random.nextLong() % 2000000000000L);
+      tstamps.add(tstamp);
+      values.add(TstampValue.valueOf(tstamp));
+    }
+    Collections.sort(tstamps, new TstampComparator());
+    Collections.sort(values);
+    for (int i = 0; i < tstamps.size(); i++) {
+      assertEquals("Checking order", tstamps.get(i).toXMLFormat(), values.get(i).toString());
+    }
+  }
+}
@@ -0,0 +1,188 @@
+package org.hackystat.utilities.tstamp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.TimeZone;
+
+import javax.xml.datatype.DatatypeConstants;
+import javax.xml.datatype.DatatypeFactory;
+import javax.xml.datatype.XMLGregorianCalendar;
+
+import org.junit.Test;
+
+/**
+ * Tests the XsdDateTime class against the JAXP implementation.
+ * @author agent
+ */
+public class TestXsdDateTime {
+
+  /** Valid representations of each form, including the unusual ones JAXP accepts. */
+  private static final String[] valid = { "2007-08-01T01:02:03.456-10:00", "2007-08-01",
+    "2007-08-01Z", "2007-08-01T01:02:03", "2008-02-29T23:59:59Z", "2007-08-01T24:00:00",
+    "2007-08-01T24:00:00.5Z", "2007-12-31T24:00:00Z", "2007-08-01T23:59:60.999Z",
+    "2007-08-01T01:00:00.1234567890123", "2007-08-01T01:00:00+14:00", "2007-08-01-00:00",
+    "2007-08-01T01:00:00-05:00", "2007-08-01+01:99", "2007-08", "2007-08-05:00", "2007",
+    "2007Z", "-2007", "-0004-02-29", "-0001-01-01", "02007-01-01", "12345678-01-01",
+    "123456789-01-01", "12:00:00", "12:00:00.5Z", "24:00:00.5", "12:00:00-05:00", "--08",
+    "--08Z", "--08-08:00", "--08-01", "--02-29", "--08-01-01:00", "---01", "---31",
+    "---01+01:00", "1000-01-01T00:00:00Z", "1582-10-10T12:00:00", "2007-02-31T24:00:00Z",
+    "2007-11-31T24:00:00Z", "2008-02-30T24:00:00", "2007-02-29T24:00:00.5-05:00" };
+  /** Invalid representations. */
+  private static final String[] invalid = { "", " 2007-08-01", "2007-08-01 ", "2007-08-01T01:00",
+    "2007-08-01T24:00:01", "2007-08-01T01:60:00", "2007-08-01T01:00:61", "2007+14:01",
+    "2007+15:00", "2007-02-29", "1900-02-29", "-0001-02-29", "2007-13-01", "2007-00-01",
+    "2007-08-00", "2007-08-32", "--02-30", "---32", "--13", "0000-01-01", "00000-01-01",
+    "2007-8-01", "2007-08-1", "T01:00:00", "1:00:00", "12:00", "2007-08-01t01:00:00",
+    "2007-08-01z", "+2007-08-01", "2007-08-01+1:00", "2007-08-01+01:0", "2007-08-01+01",
+    "2007-08-01+01:00Z", "--08--", "-", "--", "---", "2007-08-01T01:00:00.",
+    "2007-08-01T12:00:00.5.5", "2007--08", "2007-08-01T", "2007Z+01:00", "--0801", "207",
+    "\uff12\uff10\uff10\uff17-08-01", "2007-02-31T23:00:00Z", "2007-02-32T24:00:00Z",
+    "2007-02-00T24:00:00Z" };
+
+  /**
+   * Tests that the representations are valid exactly when JAXP accepts them.
+   * @throws Exception If problems occur.
+   */
+  @Test public void testIsValid() throws Exception {
+    for (String rep : valid) {
+      assertTrue("Checking valid " + rep, XsdDateTime.isValid(rep));
+      assertTrue("Checking valid bytes " + rep,
+          XsdDateTime.isValid(rep.getBytes("US-ASCII"), 0, rep.length()));
+      assertTrue("Checking Tstamp " + rep, Tstamp.isTimestamp(rep));
+    }
+    for (String rep : invalid) {
+      assertFalse("Checking invalid " + rep, XsdDateTime.isValid(rep));
+      assertFalse("Checking Tstamp " + rep, Tstamp.isTimestamp(rep));
+    }
+    assertFalse("Checking null", XsdDateTime.isValid(null));
+    byte[] buffer = "xx2007-08-01T01:02:03Zxx".getBytes("US-ASCII");
+    assertTrue("Checking buffer slice", XsdDateTime.isValid(buffer, 2, 20));
+    assertFalse("Checking buffer overrun", XsdDateTime.isValid(buffer, 2, 21));
+  }
+
+  /**
+   * Tests that the times and time zones agree with those of JAXP, for timestamps without a time
+   * zone in a zone with daylight savings time.
+   * @throws Exception If problems occur.
+   */
+  @Test public void testParseMillis() throws Exception {
+    DatatypeFactory factory = DatatypeFactory.newInstance();
+    TimeZone defaultZone = TimeZone.getDefault();
+    TimeZone pacific = TimeZone.getTimeZone("America/Los_Angeles");
+    TimeZone.setDefault(pacific);
+    try {
+      for (String rep : valid) {
+        checkParse(factory, rep, pacific);
+      }
+      // Times skipped and repeated by the daylight savings transitions.
+      String[] transitions = { "2007-03-11T01:59:59", "2007-03-11T02:00:00",
+        "2007-03-11T02:30:00", "2007-03-11T03:00:00", "2007-11-04T00:59:59",
+        "2007-11-04T01:00:00", "2007-11-04T01:30:00", "2007-11-04T02:00:00" };
+      for (String rep : transitions) {
+        checkParse(factory, rep, pacific);
+      }
+    }
+    finally {
+      TimeZone.setDefault(defaultZone);
+    }
+    assertEquals("Checking invalid", XsdDateTime.INVALID, XsdDateTime.parseMillis("2007-02-29"));
+    assertEquals("Checking large year", XsdDateTime.INVALID,
+        XsdDateTime.parseMillis("123456789-01-01"));
+    assertEquals("Checking Tstamp large year",
+        factory.newXMLGregorianCalendar("123456789-01-01").toGregorianCalendar().getTimeInMillis(),
+        Tstamp.makeTimestamp("123456789-01-01").toGregorianCalendar().getTimeInMillis());
+    assertEquals("Checking no time zone", XsdDateTime.NO_TIMEZONE,
+        XsdDateTime.parseTimezone("2007-08-01"));
+    assertEquals("Checking invalid time zone", XsdDateTime.INVALID,
+        XsdDateTime.parseTimezone("2007-08-01+15:00"));
+    byte[] buffer = "xx2007-08-01T01:02:03-10:00".getBytes("US-ASCII");
+    assertEquals("Checking bytes", Tstamp.makeTimestamp("2007-08-01T01:02:03-10:00")
+        .toGregorianCalendar().getTimeInMillis(), XsdDateTime.parseMillis(buffer, 2, 25, null));
+    assertEquals("Checking bytes time zone", -600, XsdDateTime.parseTimezone(buffer, 2, 25));
+    assertTrue("Checking greater than", Tstamp.greaterThan("2007-08-01T01:00:00Z",
+        "2007-08-01T01:00:00+01:00"));
+  }
+
+  /**
+   * Tests random mutations of valid representations against JAXP.
+   * @throws Exception If problems occur.
+   */
+  @Test public void testMutations() throws Exception {
+    DatatypeFactory factory = DatatypeFactory.newInstance();
+    TimeZone zone = TimeZone.getDefault();
+    String alphabet = "0123456789-:TZ.+ ";
+    Random random = new Random(0);
+    for (int i = 0; i < 20000; i++) {
+      StringBuilder rep = new StringBuilder(valid[random.nextInt(valid.length)]);
+      for (int edits = 1 + random.nextInt(3); edits > 0 && rep.length() > 0; edits--) {
+        int pos = random.nextInt(rep.length());
+        char c = alphabet.charAt(random.nextInt(alphabet.length()));
+        switch (random.nextInt(3)) {
+        case 0:
+          rep.insert(pos, c);
+          break;
+        case 1:
+          rep.deleteCharAt(pos);
+          break;
+        default:
+          rep.setCharAt(pos, c);
+        }
+      }
+      boolean accepted = true;
+      try {
+        factory.newXMLGregorianCalendar(rep.toString());
+      }
+      catch (IllegalArgumentException e) {
+        accepted = false;
+      }
+      assertEquals("Checking validity of " + rep, accepted, XsdDateTime.isValid(rep));
+      if (accepted) {
+        checkParse(factory, rep.toString(), zone);
+      }
+    }
+  }
+
+  /**
+   * Tests that the formatted times are those of Tstamp.makeTimestamp(long).
+   */
+  @Test public void testFormat() {
+    TimeZone zone = TimeZone.getDefault();
+    long[] times = { 0L, -1L, 1186012800999L, 1199145599999L, 253402300799999L,
+        -12219292800000L, -12219292800001L, -62135769600000L, -62198755200000L };
+    for (long time : times) {
+      assertEquals("Checking " + time, Tstamp.makeTimestamp(time).toXMLFormat(),
+          XsdDateTime.format(time, zone));
+    }
+    Random random = new Random(0);
+    for (int i = 0; i < 1000; i++) {
+      long time = random.nextLong() % 20000000000000L;
+      assertEquals("Checking " + time, Tstamp.makeTimestamp(time).toXMLFormat(),
+          XsdDateTime.format(time, zone));
+    }
+    StringBuilder out = new StringBuilder();
+    XsdDateTime.format(1186012800500L, -570, out);
+    assertEquals("Checking offset", "2007-08-01T14:30:00.500-09:30", out.toString());
+  }
+
+  /**
+   * Checks that the time and time zone of the representation are those of JAXP.
+   * @param factory The factory.
+   * @param rep The representation, which is valid.
+   * @param zone The default time zone.
+   */
+  private void checkParse(DatatypeFactory factory, String rep, TimeZone zone) {
+    XMLGregorianCalendar tstamp = factory.newXMLGregorianCalendar(rep);
+    long millis = XsdDateTime.parseMillis(rep, zone);
+    if (millis != XsdDateTime.INVALID) {
+      assertEquals("Checking millis of " + rep, tstamp.toGregorianCalendar().getTimeInMillis(),
+          millis);
+    }
+    int timezone = tstamp.getTimezone();
+    assertEquals("Checking time zone of " + rep,
+        (timezone == DatatypeConstants.FIELD_UNDEFINED) ? XsdDateTime.NO_TIMEZONE : timezone,
+        XsdDateTime.parseTimezone(rep));
+  }
+}
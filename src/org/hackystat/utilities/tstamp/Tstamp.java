@@ -1,12 +1,17 @@
 package org.hackystat.utilities.tstamp;
 
 import java.util.ArrayList;
-import java.util.Calendar;
+import java.util.BitSet;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.GregorianCalendar;
 import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import javax.xml.datatype.DatatypeConfigurationException;
+import javax.xml.datatype.DatatypeConstants;
 import javax.xml.datatype.DatatypeFactory;
 import javax.xml.datatype.XMLGregorianCalendar;
 
@@ -27,6 +32,12 @@ public final class Tstamp {
   private static final String factoryErrorMsg = "Bad DataTypeFactory";
   
   private static long MILLISECS_PER_DAY = 24 * 60 * 60 * 1000;
+
+  /** The number of strings above which parseMillis() uses all processors. */
+  static final int parallelThreshold = 1 << 16;
+  
+  /** The smallest number of strings that a thread is given to parse. */
+  private static final int minRangeSize = 1 << 13;
   
 
   /**
@@ -36,15 +47,7 @@ public final class Tstamp {
    * @return True if the string is a legal XMLGregorianCalendar.
    */
   public static boolean isTimestamp(String lexicalRepresentation) {
-    try {
-      DatatypeFactory factory = DatatypeFactory.newInstance();
-      factory.newXMLGregorianCalendar(lexicalRepresentation);
-      return true;
-
-    }
-    catch (Exception e) {
-      return false;
-    }
+    return XsdDateTime.isValid(lexicalRepresentation);
   }
 
   /**
@@ -56,8 +59,12 @@ public final class Tstamp {
    */
   public static XMLGregorianCalendar makeTimestamp(String rep)
       throws Exception {
-    DatatypeFactory factory = DatatypeFactory.newInstance();
-    long mills = factory.newXMLGregorianCalendar(rep).toGregorianCalendar().getTimeInMillis();  
+    long mills = XsdDateTime.parseMillis(rep);
+    if (mills == XsdDateTime.INVALID) {
+      // Let JAXP report the problem, or convert years too large for XsdDateTime.
+      DatatypeFactory factory = DatatypeFactoryProvider.getFactory();
+      mills = factory.newXMLGregorianCalendar(rep).toGregorianCalendar().getTimeInMillis();
+    }
     return makeTimestamp(mills);
   }
 
@@ -70,7 +77,7 @@ public final class Tstamp {
   public static XMLGregorianCalendar makeTimestamp(java.sql.Timestamp tstamp) {
     DatatypeFactory factory = null;
     try {
-      factory = DatatypeFactory.newInstance();
+      factory = DatatypeFactoryProvider.getFactory();
       GregorianCalendar calendar = new GregorianCalendar();
       calendar.setTimeInMillis(tstamp.getTime());
       return factory.newXMLGregorianCalendar(calendar);
@@ -89,7 +96,7 @@ public final class Tstamp {
   public static XMLGregorianCalendar makeTimestamp(long timeInMillis) {
     DatatypeFactory factory = null;
     try {
-      factory = DatatypeFactory.newInstance();
+      factory = DatatypeFactoryProvider.getFactory();
       GregorianCalendar calendar = new GregorianCalendar();
       calendar.setTimeInMillis(timeInMillis);
       return factory.newXMLGregorianCalendar(calendar);
@@ -107,7 +114,7 @@ public final class Tstamp {
   public static XMLGregorianCalendar makeTimestamp(Day day) {
     DatatypeFactory factory = null;
     try {
-      factory = DatatypeFactory.newInstance();
+      factory = DatatypeFactoryProvider.getFactory();
       GregorianCalendar calendar = new GregorianCalendar();
       calendar.setTimeInMillis(day.getDate().getTime());
       return factory.newXMLGregorianCalendar(calendar);
@@ -127,9 +134,9 @@ public final class Tstamp {
   public static XMLGregorianCalendar incrementDays(XMLGregorianCalendar tstamp, int days) {
     DatatypeFactory factory = null;
     try {
-      factory = DatatypeFactory.newInstance();
+      factory = DatatypeFactoryProvider.getFactory();
       GregorianCalendar calendar = new GregorianCalendar();
-      long millis = tstamp.toGregorianCalendar().getTimeInMillis();
+      long millis = TstampMillis.toMillis(tstamp);
       millis += 1000L * 60 * 60 * 24 * days;
       calendar.setTimeInMillis(millis);
       return factory.newXMLGregorianCalendar(calendar);
@@ -150,9 +157,9 @@ public final class Tstamp {
   public static XMLGregorianCalendar incrementHours(XMLGregorianCalendar tstamp, int hours) {
     DatatypeFactory factory = null;
     try {
-      factory = DatatypeFactory.newInstance();
+      factory = DatatypeFactoryProvider.getFactory();
       GregorianCalendar calendar = new GregorianCalendar();
-      long millis = tstamp.toGregorianCalendar().getTimeInMillis();
+      long millis = TstampMillis.toMillis(tstamp);
       millis += 1000L * 60 * 60 * hours;
       calendar.setTimeInMillis(millis);
       return factory.newXMLGregorianCalendar(calendar);
@@ -173,9 +180,9 @@ public final class Tstamp {
   public static XMLGregorianCalendar incrementMinutes(XMLGregorianCalendar tstamp, int minutes) {
     DatatypeFactory factory = null;
     try {
-      factory = DatatypeFactory.newInstance();
+      factory = DatatypeFactoryProvider.getFactory();
       GregorianCalendar calendar = new GregorianCalendar();
-      long millis = tstamp.toGregorianCalendar().getTimeInMillis();
+      long millis = TstampMillis.toMillis(tstamp);
       millis += 1000L * 60 * minutes;
       calendar.setTimeInMillis(millis);
       return factory.newXMLGregorianCalendar(calendar);
@@ -196,9 +203,9 @@ public final class Tstamp {
   public static XMLGregorianCalendar incrementSeconds(XMLGregorianCalendar tstamp, int seconds) {
     DatatypeFactory factory = null;
     try {
-      factory = DatatypeFactory.newInstance();
+      factory = DatatypeFactoryProvider.getFactory();
       GregorianCalendar calendar = new GregorianCalendar();
-      long millis = tstamp.toGregorianCalendar().getTimeInMillis();
+      long millis = TstampMillis.toMillis(tstamp);
       millis += 1000L * seconds;
       calendar.setTimeInMillis(millis);
       return factory.newXMLGregorianCalendar(calendar);
@@ -220,9 +227,9 @@ public final class Tstamp {
       long milliseconds) {
     DatatypeFactory factory = null;
     try {
-      factory = DatatypeFactory.newInstance();
+      factory = DatatypeFactoryProvider.getFactory();
       GregorianCalendar calendar = new GregorianCalendar();
-      long millis = tstamp.toGregorianCalendar().getTimeInMillis();
+      long millis = TstampMillis.toMillis(tstamp);
       millis += milliseconds;
       calendar.setTimeInMillis(millis);
       return factory.newXMLGregorianCalendar(calendar);
@@ -248,7 +255,7 @@ public final class Tstamp {
    */
   public static XMLGregorianCalendar makeTimestamp() {
     try {
-      DatatypeFactory factory = DatatypeFactory.newInstance();
+      DatatypeFactory factory = DatatypeFactoryProvider.getFactory();
       return factory.newXMLGregorianCalendar(new GregorianCalendar());
     }
     catch (Exception e) {
@@ -304,9 +311,9 @@ public final class Tstamp {
    */
   public static boolean inBetween(XMLGregorianCalendar start, XMLGregorianCalendar tstamp,
       XMLGregorianCalendar end) {
-    long startMillis = start.toGregorianCalendar().getTimeInMillis();
-    long endMillis = end.toGregorianCalendar().getTimeInMillis();
-    long tstampMillis = tstamp.toGregorianCalendar().getTimeInMillis();
+    long startMillis = TstampMillis.toMillis(start);
+    long endMillis = TstampMillis.toMillis(end);
+    long tstampMillis = TstampMillis.toMillis(tstamp);
     return ((tstampMillis >= startMillis) && (tstampMillis <= endMillis));
   }
 
@@ -317,8 +324,8 @@ public final class Tstamp {
    * @return True if time1 > time2
    */
   public static boolean greaterThan(XMLGregorianCalendar time1, XMLGregorianCalendar time2) {
-    long time1Millis = time1.toGregorianCalendar().getTimeInMillis();
-    long time2Millis = time2.toGregorianCalendar().getTimeInMillis();
+    long time1Millis = TstampMillis.toMillis(time1);
+    long time2Millis = TstampMillis.toMillis(time2);
     return (time1Millis > time2Millis);
   }
   
@@ -340,12 +347,14 @@ public final class Tstamp {
    * @return The number of days since the epoch.
    */
   private static long getUnixDay(XMLGregorianCalendar day) {
-    GregorianCalendar greg = day.toGregorianCalendar();
-    long offset = greg.get(Calendar.ZONE_OFFSET) + greg.get(Calendar.DST_OFFSET);
-    long daysSinceEpoch = (long)Math.floor((double)(greg.getTime().getTime() + offset ) / 
-        ((double)MILLISECS_PER_DAY) );
-    return daysSinceEpoch;
-}
+    long millis = TstampMillis.toMillis(day);
+    int timezone = day.getTimezone();
+    if (timezone == DatatypeConstants.FIELD_UNDEFINED) {
+      return DayBucketer.getInstance().getUnixDay(millis);
+    }
+    return TstampMillis.floorDiv(millis + timezone * TstampMillis.MILLISECS_PER_MINUTE,
+        MILLISECS_PER_DAY);
+  }
  
 
   /**
@@ -356,8 +365,14 @@ public final class Tstamp {
    * @return True if time1 > time2
    */
   public static boolean greaterThan(String timeString1, String timeString2) {
+    TimeZone zone = TimeZone.getDefault();
+    long millis1 = XsdDateTime.parseMillis(timeString1, zone);
+    long millis2 = XsdDateTime.parseMillis(timeString2, zone);
+    if (millis1 != XsdDateTime.INVALID && millis2 != XsdDateTime.INVALID) {
+      return millis1 > millis2;
+    }
     try {
-      DatatypeFactory factory = DatatypeFactory.newInstance();
+      DatatypeFactory factory = DatatypeFactoryProvider.getFactory();
       XMLGregorianCalendar time1 = factory.newXMLGregorianCalendar(timeString1);
       XMLGregorianCalendar time2 = factory.newXMLGregorianCalendar(timeString2);
       return greaterThan(time1, time2);
@@ -374,8 +389,8 @@ public final class Tstamp {
    * @return True if time1 < time2
    */
   public static boolean lessThan(XMLGregorianCalendar time1, XMLGregorianCalendar time2) {
-    long time1Millis = time1.toGregorianCalendar().getTimeInMillis();
-    long time2Millis = time2.toGregorianCalendar().getTimeInMillis();
+    long time1Millis = TstampMillis.toMillis(time1);
+    long time2Millis = TstampMillis.toMillis(time2);
     return (time1Millis < time2Millis);
   }
 
@@ -386,8 +401,8 @@ public final class Tstamp {
    * @return True if time1 equals time2
    */
   public static boolean equal(XMLGregorianCalendar time1, XMLGregorianCalendar time2) {
-    long millis1 = time1.toGregorianCalendar().getTimeInMillis();
-    long millis2 = time2.toGregorianCalendar().getTimeInMillis();
+    long millis1 = TstampMillis.toMillis(time1);
+    long millis2 = TstampMillis.toMillis(time2);
     return (millis1 == millis2);
   }
 
@@ -399,26 +414,22 @@ public final class Tstamp {
    * @return Difference between two times in milliseconds.
    */
   public static long diff(XMLGregorianCalendar time1, XMLGregorianCalendar time2) {
-    long millis1 = time1.toGregorianCalendar().getTimeInMillis();
-    long millis2 = time2.toGregorianCalendar().getTimeInMillis();
+    long millis1 = TstampMillis.toMillis(time1);
+    long millis2 = TstampMillis.toMillis(time2);
     return millis2 - millis1;
   }
   
   /**
    * Returns true if the passed timestamp indicates some time today or some time 
-   * in the future. 
+   * in the future. The current time is read from the shared CoarseClock.
    * 
    * @param timestamp The timestamp of interest.
    * @return True if it's today or some day in the future. 
    */
   public static boolean isTodayOrLater(XMLGregorianCalendar timestamp) {
-    XMLGregorianCalendar today = Tstamp.makeTimestamp();
-    boolean isToday = (today.getYear() == timestamp.getYear()) && 
-                      (today.getMonth() == timestamp.getMonth()) && 
-                      (today.getDay() == timestamp.getDay());
-    boolean afterToday = today.toGregorianCalendar().getTimeInMillis() <
-                       timestamp.toGregorianCalendar().getTimeInMillis();
-    return (isToday || afterToday);
+    CoarseClock clock = CoarseClock.getInstance();
+    return isDay(timestamp, clock.getToday()) 
+        || clock.currentTimeMillis() < TstampMillis.toMillis(timestamp);
   }
   
   /**
@@ -430,24 +441,143 @@ public final class Tstamp {
    * @return True if it's today or some day in the future. 
    */
   public static boolean isYesterdayOrLater(XMLGregorianCalendar timestamp) {
-    XMLGregorianCalendar yesterday = Tstamp.incrementDays(Tstamp.makeTimestamp(), -1);
+    CoarseClock clock = CoarseClock.getInstance();
+    return isDay(timestamp, clock.getYesterday()) 
+        || clock.currentTimeMillis() - MILLISECS_PER_DAY < TstampMillis.toMillis(timestamp);
+  }
 
-    boolean isYesterday = (yesterday.getYear() == timestamp.getYear()) && 
-                          (yesterday.getMonth() == timestamp.getMonth()) && 
-                          (yesterday.getDay() == timestamp.getDay());
-    boolean afterYesterday = yesterday.toGregorianCalendar().getTimeInMillis() <
-                             timestamp.toGregorianCalendar().getTimeInMillis();
-    return (isYesterday || afterYesterday);
+  /**
+   * Returns true if the year, month and day fields of the timestamp are those of the day.
+   * @param timestamp The timestamp of interest.
+   * @param day The number of days since the epoch.
+   * @return True if the timestamp's date is that day.
+   */
+  private static boolean isDay(XMLGregorianCalendar timestamp, long day) {
+    int undefined = DatatypeConstants.FIELD_UNDEFINED;
+    return timestamp.getEon() == null && timestamp.getYear() != undefined 
+        && timestamp.getMonth() != undefined && timestamp.getDay() != undefined
+        && TstampMillis.daysFromCivil(timestamp.getYear(), timestamp.getMonth(), 
+            timestamp.getDay()) == day;
   }
   
   /**
    * Returns a newly created sorted list of tstamps from the passed collection.
+   * Each tstamp is converted to milliseconds only once, and large collections are
+   * sorted in parallel. See TstampSorter.
    * @param tstamps The timestamps to be sorted. 
    * @return A new list of tstamps, now in sorted order. 
    */
   public static List<XMLGregorianCalendar> sort(Collection<XMLGregorianCalendar> tstamps) {
-    List<XMLGregorianCalendar> tstampList = new ArrayList<XMLGregorianCalendar>(tstamps);
-    Collections.sort(tstampList, new TstampComparator());
-    return tstampList;
+    return TstampSorter.sort(tstamps, TstampSorter.CALENDAR);
+  }
+  
+  /**
+   * Parses a list of string representations into the times in milliseconds that 
+   * makeTimestamp(String) would give them, without creating an XMLGregorianCalendar for each.
+   * Bit i of valid is set if the string at index i is a timestamp and cleared otherwise; the
+   * time of an invalid or null string is zero. Uses all processors for lists of more than 
+   * parallelThreshold strings.
+   * @param reps The string representations.
+   * @param valid Receives the validity of each string.
+   * @return The times in milliseconds, in the order of the strings.
+   */
+  public static long[] parseMillis(List<? extends CharSequence> reps, BitSet valid) {
+    return parseMillis(reps.toArray(new CharSequence[reps.size()]), valid);
+  }
+
+  /**
+   * Parses an array of string representations into the times in milliseconds that 
+   * makeTimestamp(String) would give them. See parseMillis(List, BitSet).
+   * @param reps The string representations.
+   * @param valid Receives the validity of each string.
+   * @return The times in milliseconds, in the order of the strings.
+   */
+  public static long[] parseMillis(CharSequence[] reps, BitSet valid) {
+    int threads = (reps.length > parallelThreshold) 
+        ? Runtime.getRuntime().availableProcessors() : 1;
+    return parseMillis(reps, valid, threads);
+  }
+
+  /**
+   * Parses an array of string representations into times in milliseconds, using up to the 
+   * specified number of threads. See parseMillis(List, BitSet).
+   * @param reps The string representations.
+   * @param valid Receives the validity of each string.
+   * @param threads The largest number of threads to use.
+   * @return The times in milliseconds, in the order of the strings.
+   */
+  public static long[] parseMillis(final CharSequence[] reps, BitSet valid, int threads) {
+    final long[] millis = new long[reps.length];
+    final TimeZone zone = TimeZone.getDefault();
+    valid.clear(0, reps.length);
+    int numRanges = Math.max(1, Math.min(threads, reps.length / minRangeSize));
+    if (numRanges == 1) {
+      parseRange(reps, millis, valid, zone, 0, reps.length);
+      return millis;
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(numRanges);
+    try {
+      List<Future<Object>> results = new ArrayList<Future<Object>>();
+      // BitSet is not thread-safe, so each range records its validity in its own.
+      List<BitSet> rangeValid = new ArrayList<BitSet>();
+      for (int i = 0; i < numRanges; i++) {
+        final int start = (int) ((long) reps.length * i / numRanges);
+        final int end = (int) ((long) reps.length * (i + 1) / numRanges);
+        final BitSet bits = new BitSet(end);
+        rangeValid.add(bits);
+        results.add(executor.submit(new Callable<Object>() {
+          /**
+           * Parses the strings of this thread's range.
+           * @return Null.
+           */
+          public Object call() {
+            parseRange(reps, millis, bits, zone, start, end);
+            return null;
+          }
+        }));
+      }
+      TstampSorter.await(results);
+      for (BitSet bits : rangeValid) {
+        valid.or(bits);
+      }
+    }
+    finally {
+      executor.shutdown();
+    }
+    return millis;
+  }
+
+  /**
+   * Parses a range of string representations into times in milliseconds.
+   * @param reps The string representations.
+   * @param millis Receives the times of the valid strings.
+   * @param valid Receives the validity of each string.
+   * @param zone The time zone of strings that do not specify one.
+   * @param start The first index of the range.
+   * @param end The index after the range.
+   */
+  private static void parseRange(CharSequence[] reps, long[] millis, BitSet valid, 
+      TimeZone zone, int start, int end) {
+    // TimeZone caches its last lookup, so each thread uses its own copy.
+    TimeZone rangeZone = (TimeZone) zone.clone();
+    for (int i = start; i < end; i++) {
+      long mills = XsdDateTime.parseMillis(reps[i], rangeZone);
+      if (mills != XsdDateTime.INVALID) {
+        millis[i] = mills;
+        valid.set(i);
+      }
+      else if (XsdDateTime.isValid(reps[i])) {
+        // A year too large for XsdDateTime; let JAXP convert it.
+        try {
+          DatatypeFactory factory = DatatypeFactoryProvider.getFactory();
+          millis[i] = factory.newXMLGregorianCalendar(reps[i].toString()).toGregorianCalendar()
+              .getTimeInMillis();
+          valid.set(i);
+        }
+        catch (Exception e) {
+          // Leave the string marked invalid.
+        }
+      }
+    }
   }
 }
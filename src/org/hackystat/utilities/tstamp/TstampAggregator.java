@@ -0,0 +1,401 @@
+package org.hackystat.utilities.tstamp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Counts timestamps, and optionally sums values recorded with them, per day, week or month of
+ * a period, without creating a Day, Week or Month for each timestamp. The buckets are the
+ * days, weeks or months that contain the start and end of the period and those between them,
+ * and are held in dense primitive arrays. Weeks start on Sunday, as Week does. Days are those
+ * of a time zone, found with a DayBucketer.
+ * <p>
+ * Timestamps can be added one at a time as they are read, or as an array, which is split into
+ * ranges aggregated by separate threads if it is large. Aggregators of the same buckets can be
+ * combined, so that partial aggregations made elsewhere can be merged. Timestamps outside the
+ * buckets are counted but not aggregated. This class is not thread-safe.
+ *
+ * @author agent
+ */
+public class TstampAggregator {
+
+  /** The kinds of bucket. */
+  public enum Period {
+    /** A day from midnight to midnight. */
+    DAY,
+    /** A week from Sunday to Saturday. */
+    WEEK,
+    /** A calendar month. */
+    MONTH
+  }
+
+  /** The number of timestamps above which addAll() uses all processors. */
+  static final int parallelThreshold = 1 << 16;
+  /** The smallest number of timestamps that a thread is given to aggregate. */
+  private static final int minRangeSize = 1 << 13;
+  /** The number of timestamps whose days are found at a time. */
+  private static final int chunkSize = 1 << 10;
+  /** The largest number of days that the buckets can span. */
+  private static final int maxDays = 1 << 24;
+  /** The kind of bucket. */
+  private final Period period;
+  /** Finds the days of timestamps. */
+  private final DayBucketer bucketer;
+  /** The number of days since the epoch to the first day of the first bucket. */
+  private final long firstDay;
+  /** The bucket of each day, from firstDay. */
+  private final int[] dayBuckets;
+  /** The number of days since the epoch to the first day of each bucket. */
+  private final long[] bucketDays;
+  /** The number of timestamps in each bucket. */
+  private final long[] counts;
+  /** The sum of the values in each bucket. */
+  private final double[] sums;
+  /** The number of timestamps outside the buckets. */
+  private long outOfRange = 0;
+
+  /**
+   * Creates an aggregator with the buckets that span a period in the default time zone.
+   *
+   * @param period The kind of bucket.
+   * @param start The start of the period in milliseconds.
+   * @param end The end of the period in milliseconds.
+   */
+  public TstampAggregator(Period period, long start, long end) {
+    this(period, start, end, TimeZone.getDefault());
+  }
+
+  /**
+   * Creates an aggregator with the buckets that span a period in a time zone.
+   *
+   * @param period The kind of bucket.
+   * @param start The start of the period in milliseconds.
+   * @param end The end of the period in milliseconds.
+   * @param zone The time zone.
+   */
+  public TstampAggregator(Period period, long start, long end, TimeZone zone) {
+    if (end < start) {
+      throw new IllegalArgumentException("End before start: " + end);
+    }
+    this.period = period;
+    this.bucketer = DayBucketer.getInstance(zone);
+    long first = this.bucketer.getUnixDay(start);
+    long last = this.bucketer.getUnixDay(end);
+    // The first day of each bucket, followed by the day after the last bucket.
+    List<Long> starts = new ArrayList<Long>();
+    if (period == Period.MONTH) {
+      long month = TstampMillis.monthsFromDays(first);
+      long day = getFirstDayOfMonth(month);
+      starts.add(day);
+      while (day <= last) {
+        day = getFirstDayOfMonth(++month);
+        starts.add(day);
+      }
+    }
+    else {
+      // Day zero, 1970-01-01, was a Thursday.
+      long day = (period == Period.WEEK) ? first - floorMod(first + 4, 7) : first;
+      int length = (period == Period.WEEK) ? 7 : 1;
+      starts.add(day);
+      while (day <= last) {
+        day += length;
+        starts.add(day);
+      }
+    }
+    this.firstDay = starts.get(0);
+    long numDays = starts.get(starts.size() - 1) - this.firstDay;
+    if (numDays > maxDays) {
+      throw new IllegalArgumentException("Period too long: " + numDays + " days");
+    }
+    this.bucketDays = new long[starts.size()];
+    this.dayBuckets = new int[(int) numDays];
+    for (int bucket = 0; bucket < this.bucketDays.length; bucket++) {
+      this.bucketDays[bucket] = starts.get(bucket);
+      if (bucket > 0) {
+        for (long day = this.bucketDays[bucket - 1]; day < this.bucketDays[bucket]; day++) {
+          this.dayBuckets[(int) (day - this.firstDay)] = bucket - 1;
+        }
+      }
+    }
+    this.counts = new long[this.bucketDays.length - 1];
+    this.sums = new double[this.bucketDays.length - 1];
+  }
+
+  /**
+   * Creates an empty aggregator with the same buckets as another.
+   *
+   * @param other The other aggregator.
+   */
+  private TstampAggregator(TstampAggregator other) {
+    this.period = other.period;
+    this.bucketer = other.bucketer;
+    this.firstDay = other.firstDay;
+    this.dayBuckets = other.dayBuckets;
+    this.bucketDays = other.bucketDays;
+    this.counts = new long[other.counts.length];
+    this.sums = new double[other.sums.length];
+  }
+
+  /**
+   * Adds a timestamp to its bucket.
+   *
+   * @param tstamp The timestamp in milliseconds.
+   */
+  public void add(long tstamp) {
+    add(tstamp, 0);
+  }
+
+  /**
+   * Adds a timestamp to its bucket, and adds its value to the sum of the bucket.
+   *
+   * @param tstamp The timestamp in milliseconds.
+   * @param value The value recorded at the timestamp.
+   */
+  public void add(long tstamp, double value) {
+    int bucket = getBucket(tstamp);
+    if (bucket < 0) {
+      this.outOfRange++;
+    }
+    else {
+      this.counts[bucket]++;
+      this.sums[bucket] += value;
+    }
+  }
+
+  /**
+   * Adds timestamps to their buckets. Uses all processors for arrays of more than
+   * parallelThreshold timestamps.
+   *
+   * @param tstamps The timestamps in milliseconds.
+   * @param values The value recorded at each timestamp, or null.
+   */
+  public void addAll(long[] tstamps, double[] values) {
+    int threads = (tstamps.length > parallelThreshold)
+        ? Runtime.getRuntime().availableProcessors() : 1;
+    addAll(tstamps, values, threads);
+  }
+
+  /**
+   * Adds timestamps to their buckets, using up to the specified number of threads. Each thread
+   * aggregates a range of the timestamps into its own buckets, which are then combined, so the
+   * sums may differ in their last bits from those of adding the values in order.
+   *
+   * @param tstamps The timestamps in milliseconds.
+   * @param values The value recorded at each timestamp, or null.
+   * @param threads The largest number of threads to use.
+   */
+  public void addAll(final long[] tstamps, final double[] values, int threads) {
+    if (values != null && values.length != tstamps.length) {
+      throw new IllegalArgumentException("Values for " + values.length + " of "
+          + tstamps.length + " timestamps");
+    }
+    int numRanges = Math.max(1, Math.min(threads, tstamps.length / minRangeSize));
+    if (numRanges == 1) {
+      accumulate(tstamps, values, 0, tstamps.length);
+      return;
+    }
+    List<TstampAggregator> partials = new ArrayList<TstampAggregator>();
+    ExecutorService executor = Executors.newFixedThreadPool(numRanges);
+    try {
+      List<Future<Object>> results = new ArrayList<Future<Object>>();
+      for (int i = 0; i < numRanges; i++) {
+        final int start = (int) ((long) tstamps.length * i / numRanges);
+        final int end = (int) ((long) tstamps.length * (i + 1) / numRanges);
+        final TstampAggregator partial = new TstampAggregator(this);
+        partials.add(partial);
+        results.add(executor.submit(new Callable<Object>() {
+          /**
+           * Aggregates this thread's range.
+           * @return Null.
+           */
+          public Object call() {
+            partial.accumulate(tstamps, values, start, end);
+            return null;
+          }
+        }));
+      }
+      TstampSorter.await(results);
+    }
+    finally {
+      executor.shutdown();
+    }
+    for (TstampAggregator partial : partials) {
+      combine(partial);
+    }
+  }
+
+  /**
+   * Adds the counts and sums of another aggregator with the same buckets to this one.
+   *
+   * @param other The other aggregator.
+   */
+  public void combine(TstampAggregator other) {
+    if (other.period != this.period || other.firstDay != this.firstDay
+        || other.counts.length != this.counts.length
+        || other.bucketer != this.bucketer) {
+      throw new IllegalArgumentException("Aggregators have different buckets");
+    }
+    for (int bucket = 0; bucket < this.counts.length; bucket++) {
+      this.counts[bucket] += other.counts[bucket];
+      this.sums[bucket] += other.sums[bucket];
+    }
+    this.outOfRange += other.outOfRange;
+  }
+
+  /**
+   * Returns the kind of bucket.
+   *
+   * @return The period of each bucket.
+   */
+  public Period getPeriod() {
+    return this.period;
+  }
+
+  /**
+   * Returns the number of buckets.
+   *
+   * @return The number of buckets.
+   */
+  public int getBucketCount() {
+    return this.counts.length;
+  }
+
+  /**
+   * Returns the bucket of a timestamp.
+   *
+   * @param tstamp The timestamp in milliseconds.
+   * @return The index of its bucket, or -1 if it is outside the buckets.
+   */
+  public int getBucket(long tstamp) {
+    long day = this.bucketer.getUnixDay(tstamp) - this.firstDay;
+    return (day < 0 || day >= this.dayBuckets.length) ? -1 : this.dayBuckets[(int) day];
+  }
+
+  /**
+   * Returns the first day of a bucket.
+   *
+   * @param bucket The index of the bucket.
+   * @return The number of days since the epoch, as TstampMillis.getUnixDay() counts them.
+   */
+  public long getFirstDay(int bucket) {
+    checkBucket(bucket);
+    return this.bucketDays[bucket];
+  }
+
+  /**
+   * Returns the number of timestamps in a bucket.
+   *
+   * @param bucket The index of the bucket.
+   * @return The count.
+   */
+  public long getCount(int bucket) {
+    checkBucket(bucket);
+    return this.counts[bucket];
+  }
+
+  /**
+   * Returns the sum of the values in a bucket.
+   *
+   * @param bucket The index of the bucket.
+   * @return The sum.
+   */
+  public double getSum(int bucket) {
+    checkBucket(bucket);
+    return this.sums[bucket];
+  }
+
+  /**
+   * Returns the number of timestamps in each bucket.
+   *
+   * @return A new array of the counts.
+   */
+  public long[] getCounts() {
+    return this.counts.clone();
+  }
+
+  /**
+   * Returns the sum of the values in each bucket.
+   *
+   * @return A new array of the sums.
+   */
+  public double[] getSums() {
+    return this.sums.clone();
+  }
+
+  /**
+   * Returns the number of timestamps added that were outside the buckets.
+   *
+   * @return The number of timestamps not aggregated.
+   */
+  public long getOutOfRange() {
+    return this.outOfRange;
+  }
+
+  /**
+   * Adds a range of timestamps to their buckets.
+   *
+   * @param tstamps The timestamps in milliseconds.
+   * @param values The value recorded at each timestamp, or null.
+   * @param start The first index of the range.
+   * @param end The index after the range.
+   */
+  private void accumulate(long[] tstamps, double[] values, int start, int end) {
+    long[] days = new long[Math.min(chunkSize, end - start)];
+    for (int chunk = start; chunk < end; chunk += days.length) {
+      int length = Math.min(days.length, end - chunk);
+      this.bucketer.getUnixDays(tstamps, chunk, length, days);
+      for (int i = 0; i < length; i++) {
+        long day = days[i] - this.firstDay;
+        if (day < 0 || day >= this.dayBuckets.length) {
+          this.outOfRange++;
+        }
+        else {
+          int bucket = this.dayBuckets[(int) day];
+          this.counts[bucket]++;
+          if (values != null) {
+            this.sums[bucket] += values[chunk + i];
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Checks that an index refers to a bucket.
+   *
+   * @param bucket The index.
+   */
+  private void checkBucket(int bucket) {
+    if (bucket < 0 || bucket >= this.counts.length) {
+      throw new IndexOutOfBoundsException("Bucket: " + bucket + ", Buckets: "
+          + this.counts.length);
+    }
+  }
+
+  /**
+   * Returns the first day of a month.
+   *
+   * @param month The number of months from January of year zero.
+   * @return The number of days since the epoch.
+   */
+  private static long getFirstDayOfMonth(long month) {
+    return TstampMillis.daysFromCivil(TstampMillis.floorDiv(month, 12),
+        (int) floorMod(month, 12) + 1, 1);
+  }
+
+  /**
+   * Returns the remainder of dividend / divisor, rounded down.
+   *
+   * @param dividend The dividend.
+   * @param divisor The divisor, which must be positive.
+   * @return The remainder, from zero to divisor - 1.
+   */
+  private static long floorMod(long dividend, long divisor) {
+    return dividend - TstampMillis.floorDiv(dividend, divisor) * divisor;
+  }
+}
@@ -0,0 +1,415 @@
+package org.hackystat.utilities.tstamp;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+
+/**
+ * Encodes sequences of timestamps in milliseconds compactly, for storing and transmitting
+ * columns of sensor data timestamps instead of their lexical representations. Each timestamp
+ * is encoded as the difference between its delta from the previous timestamp and the previous
+ * delta, zigzag encoded so that small negative differences are small, in a variable-length
+ * integer of seven bits per byte. Timestamps at a steady interval thus take one byte each,
+ * and sorted or nearly sorted timestamps a few bytes each. Any sequence of longs round trips
+ * exactly, although unordered ones may take up to ten bytes each.
+ * <p>
+ * The timestamps are divided into blocks, and the encoding starts with a header giving the
+ * first timestamp of each block and where its encoding starts, so that a Decoder can read any
+ * timestamp by decoding only part of its block, and can find a timestamp in a sorted sequence
+ * by binary search of the blocks. The header is big-endian whatever the order of the buffer.
+ *
+ * @author agent
+ */
+public final class TstampCodec {
+
+  /** Make this class noninstantiable. */
+  private TstampCodec() {
+    // Do nothing.
+  }
+
+  /** The number of timestamps per block used by encode() unless specified. */
+  public static final int DEFAULT_BLOCK_SIZE = 128;
+  /** The number of bytes of the header before the blocks: the count, block size and length. */
+  private static final int headerSize = 12;
+  /** The number of bytes of the header of each block: its first timestamp and its offset. */
+  private static final int blockHeaderSize = 12;
+  /** The largest number of bytes in a variable-length long. */
+  private static final int maxVarintSize = 10;
+
+  /**
+   * Returns the largest number of bytes that encoding the specified number of timestamps can
+   * take.
+   *
+   * @param count The number of timestamps.
+   * @param blockSize The number of timestamps per block.
+   * @return The number of bytes to allow in the buffer.
+   */
+  public static long getMaxEncodedSize(int count, int blockSize) {
+    long numBlocks = ((long) count + blockSize - 1) / blockSize;
+    return headerSize + numBlocks * blockHeaderSize + (long) count * maxVarintSize;
+  }
+
+  /**
+   * Returns a new buffer holding the encoding of the timestamps, with blocks of
+   * DEFAULT_BLOCK_SIZE timestamps, positioned at zero with its limit after the encoding.
+   *
+   * @param tstamps The timestamps in milliseconds.
+   * @return The buffer.
+   */
+  public static ByteBuffer encode(long[] tstamps) {
+    long size = getMaxEncodedSize(tstamps.length, DEFAULT_BLOCK_SIZE);
+    if (size > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Too many timestamps: " + tstamps.length);
+    }
+    ByteBuffer out = ByteBuffer.allocate((int) size);
+    encode(tstamps, 0, tstamps.length, DEFAULT_BLOCK_SIZE, out);
+    out.flip();
+    return out;
+  }
+
+  /**
+   * Writes the encoding of a range of timestamps to a buffer, starting at its position and
+   * leaving it positioned after the encoding.
+   *
+   * @param tstamps The timestamps in milliseconds.
+   * @param offset The index of the first timestamp to encode.
+   * @param length The number of timestamps to encode.
+   * @param blockSize The number of timestamps per block.
+   * @param out The buffer, with room for getMaxEncodedSize() bytes or more.
+   * @throws BufferOverflowException If the buffer does not have room for the encoding.
+   */
+  public static void encode(long[] tstamps, int offset, int length, int blockSize,
+      ByteBuffer out) {
+    if (blockSize <= 0) {
+      throw new IllegalArgumentException("Block size must be positive: " + blockSize);
+    }
+    if (offset < 0 || length < 0 || offset + length > tstamps.length) {
+      throw new IndexOutOfBoundsException("Range " + offset + " + " + length + " of "
+          + tstamps.length);
+    }
+    int numBlocks = (int) (((long) length + blockSize - 1) / blockSize);
+    int start = out.position();
+    int blocksStart = start + headerSize;
+    if (blocksStart + (long) numBlocks * blockHeaderSize > out.limit()) {
+      throw new BufferOverflowException();
+    }
+    int dataStart = blocksStart + numBlocks * blockHeaderSize;
+    out.position(dataStart);
+    for (int block = 0; block < numBlocks; block++) {
+      int first = offset + block * blockSize;
+      int end = first + Math.min(blockSize, offset + length - first);
+      putLong(out, blocksStart + block * blockHeaderSize, tstamps[first]);
+      putInt(out, blocksStart + block * blockHeaderSize + 8, out.position() - dataStart);
+      long previous = tstamps[first];
+      long delta = 0;
+      for (int i = first + 1; i < end; i++) {
+        long nextDelta = tstamps[i] - previous;
+        putVarint(out, zigzag(nextDelta - delta));
+        delta = nextDelta;
+        previous = tstamps[i];
+      }
+    }
+    putInt(out, start, length);
+    putInt(out, start + 4, blockSize);
+    putInt(out, start + 8, out.position() - dataStart);
+  }
+
+  /**
+   * Decodes the encoding at the position of a buffer, leaving it positioned after the encoding.
+   *
+   * @param in The buffer.
+   * @return A new array of the timestamps.
+   */
+  public static long[] decode(ByteBuffer in) {
+    Decoder decoder = new Decoder(in);
+    long[] tstamps = new long[decoder.size()];
+    for (int i = 0; i < tstamps.length; i++) {
+      tstamps[i] = decoder.next();
+    }
+    return tstamps;
+  }
+
+  /**
+   * Reads the timestamps of an encoding in order, or at any index, without decoding all of
+   * them. A Decoder reads the buffer at absolute indexes, so several can share a buffer, but
+   * each Decoder should be used by one thread at a time.
+   */
+  public static final class Decoder {
+    /** The buffer holding the encoding. */
+    private final ByteBuffer in;
+    /** The number of timestamps. */
+    private final int size;
+    /** The number of timestamps per block. */
+    private final int blockSize;
+    /** The index of the first block header. */
+    private final int blocksStart;
+    /** The index of the first block's data. */
+    private final int dataStart;
+    /** The index of the timestamp that next() returns. */
+    private int index = 0;
+    /** The index of the next byte to decode. */
+    private int position;
+    /** The timestamp before index. */
+    private long previous;
+    /** The delta from the timestamp before that to previous. */
+    private long delta;
+
+    /**
+     * Creates a decoder for the encoding at the position of a buffer, and positions the buffer
+     * after the encoding.
+     *
+     * @param in The buffer.
+     * @throws IllegalArgumentException If the buffer does not hold a valid header.
+     */
+    public Decoder(ByteBuffer in) {
+      this.in = in;
+      int start = in.position();
+      if (in.limit() - start < headerSize) {
+        throw new IllegalArgumentException("Missing timestamp encoding header");
+      }
+      this.size = getInt(in, start);
+      this.blockSize = getInt(in, start + 4);
+      int dataLength = getInt(in, start + 8);
+      if (this.size < 0 || this.blockSize <= 0 || dataLength < 0) {
+        throw new IllegalArgumentException("Invalid timestamp encoding header");
+      }
+      long numBlocks = ((long) this.size + this.blockSize - 1) / this.blockSize;
+      this.blocksStart = start + headerSize;
+      long end = this.blocksStart + numBlocks * blockHeaderSize + dataLength;
+      if (end > in.limit()) {
+        throw new IllegalArgumentException("Truncated timestamp encoding");
+      }
+      this.dataStart = (int) (this.blocksStart + numBlocks * blockHeaderSize);
+      in.position((int) end);
+    }
+
+    /**
+     * Returns the number of timestamps.
+     *
+     * @return The number of timestamps in the encoding.
+     */
+    public int size() {
+      return this.size;
+    }
+
+    /**
+     * Returns true if next() has timestamps left to return.
+     *
+     * @return True if there are more timestamps.
+     */
+    public boolean hasNext() {
+      return this.index < this.size;
+    }
+
+    /**
+     * Returns the next timestamp, starting with the first or the one seek() moved to.
+     *
+     * @return The timestamp in milliseconds.
+     * @throws NoSuchElementException If there are no more timestamps.
+     */
+    public long next() {
+      if (this.index >= this.size) {
+        throw new NoSuchElementException("No more timestamps");
+      }
+      if (this.index % this.blockSize == 0) {
+        startBlock(this.index / this.blockSize);
+      }
+      else {
+        this.delta += unzigzag(readVarint());
+        this.previous += this.delta;
+      }
+      this.index++;
+      return this.previous;
+    }
+
+    /**
+     * Moves to a timestamp, so that next() returns it.
+     *
+     * @param index The index of the timestamp, from zero to size().
+     */
+    public void seek(int index) {
+      if (index < 0 || index > this.size) {
+        throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + this.size);
+      }
+      if (index % this.blockSize != 0) {
+        startBlock(index / this.blockSize);
+        this.index = index / this.blockSize * this.blockSize + 1;
+        while (this.index < index) {
+          next();
+        }
+      }
+      else {
+        this.index = index;
+      }
+    }
+
+    /**
+     * Returns the timestamp at an index, decoding at most one block. Moves next() to the
+     * timestamp after it.
+     *
+     * @param index The index of the timestamp, from zero to size() - 1.
+     * @return The timestamp in milliseconds.
+     */
+    public long get(int index) {
+      if (index < 0 || index >= this.size) {
+        throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + this.size);
+      }
+      seek(index);
+      return next();
+    }
+
+    /**
+     * Returns the index of the first timestamp at or after the specified one, in an encoding of
+     * sorted timestamps, by binary search of the blocks. Moves next() to that timestamp.
+     *
+     * @param tstamp The timestamp in milliseconds.
+     * @return The index, or size() if all timestamps are earlier.
+     */
+    public int indexOf(long tstamp) {
+      int numBlocks = (this.size + this.blockSize - 1) / this.blockSize;
+      // Finds the last block that starts before tstamp.
+      int low = 0;
+      int high = numBlocks;
+      while (low < high) {
+        int middle = (low + high) >>> 1;
+        if (getLong(this.in, this.blocksStart + middle * blockHeaderSize) < tstamp) {
+          low = middle + 1;
+        }
+        else {
+          high = middle;
+        }
+      }
+      if (low == 0) {
+        seek(0);
+        return 0;
+      }
+      int candidate = (low - 1) * this.blockSize;
+      seek(candidate);
+      int end = Math.min(low * this.blockSize, this.size);
+      while (candidate < end) {
+        if (next() >= tstamp) {
+          seek(candidate);
+          return candidate;
+        }
+        candidate++;
+      }
+      return candidate;
+    }
+
+    /**
+     * Starts decoding a block, setting previous to its first timestamp.
+     *
+     * @param block The index of the block.
+     */
+    private void startBlock(int block) {
+      int header = this.blocksStart + block * blockHeaderSize;
+      this.previous = getLong(this.in, header);
+      this.delta = 0;
+      this.position = this.dataStart + getInt(this.in, header + 8);
+    }
+
+    /**
+     * Reads a variable-length long at the current position.
+     *
+     * @return The value.
+     */
+    private long readVarint() {
+      long value = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        byte current = this.in.get(this.position++);
+        value |= (long) (current & 0x7F) << shift;
+        if (current >= 0) {
+          return value;
+        }
+      }
+      throw new IllegalArgumentException("Corrupt timestamp encoding at " + this.position);
+    }
+  }
+
+  /**
+   * Maps signed values to unsigned ones so that values near zero have few significant bits.
+   *
+   * @param value The signed value.
+   * @return The zigzag encoded value.
+   */
+  private static long zigzag(long value) {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  /**
+   * Inverts zigzag().
+   *
+   * @param value The zigzag encoded value.
+   * @return The signed value.
+   */
+  private static long unzigzag(long value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  /**
+   * Writes a variable-length long at the position of a buffer, seven bits per byte, lowest
+   * first, with the high bit set on all bytes but the last.
+   *
+   * @param out The buffer.
+   * @param value The value, treated as unsigned.
+   */
+  private static void putVarint(ByteBuffer out, long value) {
+    long remaining = value;
+    while ((remaining & ~0x7FL) != 0) {
+      out.put((byte) ((remaining & 0x7F) | 0x80));
+      remaining >>>= 7;
+    }
+    out.put((byte) remaining);
+  }
+
+  /**
+   * Writes a big-endian int at an index of a buffer.
+   *
+   * @param out The buffer.
+   * @param index The index.
+   * @param value The value.
+   */
+  private static void putInt(ByteBuffer out, int index, int value) {
+    for (int i = 0; i < 4; i++) {
+      out.put(index + i, (byte) (value >>> (24 - 8 * i)));
+    }
+  }
+
+  /**
+   * Writes a big-endian long at an index of a buffer.
+   *
+   * @param out The buffer.
+   * @param index The index.
+   * @param value The value.
+   */
+  private static void putLong(ByteBuffer out, int index, long value) {
+    putInt(out, index, (int) (value >>> 32));
+    putInt(out, index + 4, (int) value);
+  }
+
+  /**
+   * Reads a big-endian int at an index of a buffer.
+   *
+   * @param in The buffer.
+   * @param index The index.
+   * @return The value.
+   */
+  private static int getInt(ByteBuffer in, int index) {
+    int value = 0;
+    for (int i = 0; i < 4; i++) {
+      value = (value << 8) | (in.get(index + i) & 0xFF);
+    }
+    return value;
+  }
+
+  /**
+   * Reads a big-endian long at an index of a buffer.
+   *
+   * @param in The buffer.
+   * @param index The index.
+   * @return The value.
+   */
+  private static long getLong(ByteBuffer in, int index) {
+    return ((long) getInt(in, index) << 32) | (getInt(in, index + 4) & 0xFFFFFFFFL);
+  }
+}
@@ -15,20 +15,12 @@ public class TstampComparator implements Serializable, Comparator<XMLGregorianCa
   private static final long serialVersionUID = 1L;
 
   /**
-   * Compares the two instances. 
+   * Compares the two instances, converting each of them to milliseconds once.
    * @param tstamp1 The first tstamp.
    * @param tstamp2 The second tstamp.
    * @return -1, 0, or +1 depending. 
    */
   public int compare(XMLGregorianCalendar tstamp1, XMLGregorianCalendar tstamp2) {
-    if (Tstamp.greaterThan(tstamp1, tstamp2)) {
-      return 1;
-    } 
-    else if (Tstamp.lessThan(tstamp1, tstamp2)) {
-      return -1;
-    }
-    else {
-      return 0;
-    }
+    return TstampMillis.compare(TstampMillis.toMillis(tstamp1), TstampMillis.toMillis(tstamp2));
   }
 }
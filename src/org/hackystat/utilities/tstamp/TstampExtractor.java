@@ -0,0 +1,19 @@
+package org.hackystat.utilities.tstamp;
+
+/**
+ * Extracts the timestamp of a record, so that TstampSorter can sort records by it. When
+ * records are sorted in parallel, the extractor is called from several threads at once.
+ *
+ * @param <T> The type of the records.
+ * @author agent
+ */
+public interface TstampExtractor<T> {
+
+  /**
+   * Returns the timestamp of the record.
+   *
+   * @param record The record.
+   * @return The timestamp in milliseconds since the epoch.
+   */
+  long getMillis(T record);
+}
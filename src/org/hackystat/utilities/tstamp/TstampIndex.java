@@ -0,0 +1,276 @@
+package org.hackystat.utilities.tstamp;
+
+import javax.xml.datatype.XMLGregorianCalendar;
+
+/**
+ * An index of records by timestamp, for answering which records fall within a window of time
+ * without testing each record with Tstamp.inBetween(). Each entry is a timestamp in
+ * milliseconds and an int id that identifies its record, such as its position in a list. The
+ * entries are held sorted in primitive arrays, so a window query is two binary searches.
+ * <p>
+ * Entries can be added at any time. Entries added in timestamp order are appended directly;
+ * entries added out of order are sorted and merged into the index at the next query. The merge
+ * only moves the entries later than the earliest of the new ones, so a query after a few late
+ * arrivals costs time in proportion to how late they are, not to the size of the index. 
+ * Entries with equal timestamps stay in the order they were added. This class is not 
+ * thread-safe.
+ *
+ * @author agent
+ */
+public class TstampIndex {
+
+  /** The initial capacity of the arrays. */
+  private static final int initialCapacity = 64;
+  /** The timestamps of the entries. */
+  private long[] tstamps;
+  /** The ids of the entries. */
+  private int[] ids;
+  /** The number of entries. */
+  private int size = 0;
+  /** The number of leading entries that are in order. */
+  private int sortedSize = 0;
+  /** Holds the entries added out of order while they are sorted, kept between sorts. */
+  private long[] lateTstamps = new long[0];
+  /** Holds the ids of the entries added out of order while they are sorted. */
+  private int[] lateIds = new int[0];
+  /** The merge buffer for sorting the timestamps of the entries added out of order. */
+  private long[] tstampBuffer = new long[0];
+  /** The merge buffer for sorting the ids of the entries added out of order. */
+  private int[] idBuffer = new int[0];
+
+  /**
+   * Creates an empty index.
+   */
+  public TstampIndex() {
+    this(initialCapacity);
+  }
+
+  /**
+   * Creates an empty index with room for the specified number of entries.
+   *
+   * @param capacity The number of entries to make room for.
+   */
+  public TstampIndex(int capacity) {
+    if (capacity < 0) {
+      throw new IllegalArgumentException("Negative capacity: " + capacity);
+    }
+    this.tstamps = new long[capacity];
+    this.ids = new int[capacity];
+  }
+
+  /**
+   * Adds an entry to the index.
+   *
+   * @param tstamp The timestamp in milliseconds.
+   * @param id The id of the record.
+   */
+  public void add(long tstamp, int id) {
+    if (this.size == this.tstamps.length) {
+      int capacity = Math.max(initialCapacity, this.size + (this.size >> 1));
+      long[] newTstamps = new long[capacity];
+      int[] newIds = new int[capacity];
+      System.arraycopy(this.tstamps, 0, newTstamps, 0, this.size);
+      System.arraycopy(this.ids, 0, newIds, 0, this.size);
+      this.tstamps = newTstamps;
+      this.ids = newIds;
+    }
+    if (this.sortedSize == this.size
+        && (this.size == 0 || this.tstamps[this.size - 1] <= tstamp)) {
+      this.sortedSize++;
+    }
+    this.tstamps[this.size] = tstamp;
+    this.ids[this.size] = id;
+    this.size++;
+  }
+
+  /**
+   * Adds an entry to the index.
+   *
+   * @param tstamp The timestamp.
+   * @param id The id of the record.
+   */
+  public void add(XMLGregorianCalendar tstamp, int id) {
+    add(TstampMillis.toMillis(tstamp), id);
+  }
+
+  /**
+   * Returns the number of entries.
+   *
+   * @return The number of entries.
+   */
+  public int size() {
+    return this.size;
+  }
+
+  /**
+   * Returns the timestamp of the entry at the index, in timestamp order.
+   *
+   * @param index The index, from zero to size() - 1.
+   * @return The timestamp in milliseconds.
+   */
+  public long getTstamp(int index) {
+    checkIndex(index);
+    return this.tstamps[index];
+  }
+
+  /**
+   * Returns the id of the entry at the index, in timestamp order.
+   *
+   * @param index The index, from zero to size() - 1.
+   * @return The id.
+   */
+  public int getId(int index) {
+    checkIndex(index);
+    return this.ids[index];
+  }
+
+  /**
+   * Returns the index of the first entry whose timestamp is at or after the specified one.
+   *
+   * @param tstamp The timestamp in milliseconds.
+   * @return The index, or size() if all entries are earlier.
+   */
+  public int indexOf(long tstamp) {
+    sort();
+    int low = 0;
+    int high = this.size;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (this.tstamps[middle] < tstamp) {
+        low = middle + 1;
+      }
+      else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Returns the number of entries whose timestamps are equal to or between start and end, as
+   * Tstamp.inBetween() tests.
+   *
+   * @param start The start time in milliseconds.
+   * @param end The end time in milliseconds.
+   * @return The number of entries in the window.
+   */
+  public int count(long start, long end) {
+    if (start > end) {
+      return 0;
+    }
+    return indexAfter(end) - indexOf(start);
+  }
+
+  /**
+   * Returns the ids of the entries whose timestamps are equal to or between start and end, in
+   * timestamp order.
+   *
+   * @param start The start time in milliseconds.
+   * @param end The end time in milliseconds.
+   * @return A new array of the ids of the entries in the window.
+   */
+  public int[] getIds(long start, long end) {
+    if (start > end) {
+      return new int[0];
+    }
+    int first = indexOf(start);
+    int[] result = new int[indexAfter(end) - first];
+    System.arraycopy(this.ids, first, result, 0, result.length);
+    return result;
+  }
+
+  /**
+   * Returns the ids of the entries whose timestamps are equal to or between start and end, in
+   * timestamp order.
+   *
+   * @param start The start time.
+   * @param end The end time.
+   * @return A new array of the ids of the entries in the window.
+   */
+  public int[] getIds(XMLGregorianCalendar start, XMLGregorianCalendar end) {
+    return getIds(TstampMillis.toMillis(start), TstampMillis.toMillis(end));
+  }
+
+  /**
+   * Returns the number of entries in each of a sequence of adjacent windows, such as the days
+   * of a period. Window i starts at bounds[i] and ends just before bounds[i + 1].
+   *
+   * @param bounds The bounds of the windows, in ascending order.
+   * @return A new array of bounds.length - 1 counts.
+   */
+  public int[] countPerRange(long[] bounds) {
+    int[] counts = new int[Math.max(0, bounds.length - 1)];
+    if (counts.length == 0) {
+      return counts;
+    }
+    int previous = indexOf(bounds[0]);
+    for (int i = 0; i < counts.length; i++) {
+      if (bounds[i + 1] < bounds[i]) {
+        throw new IllegalArgumentException("Bounds out of order at " + (i + 1));
+      }
+      int next = indexOf(bounds[i + 1]);
+      counts[i] = next - previous;
+      previous = next;
+    }
+    return counts;
+  }
+
+  /**
+   * Returns the index of the first entry whose timestamp is after the specified one.
+   *
+   * @param tstamp The timestamp in milliseconds.
+   * @return The index, or size() if no entry is later.
+   */
+  private int indexAfter(long tstamp) {
+    return (tstamp == Long.MAX_VALUE) ? this.size : indexOf(tstamp + 1);
+  }
+
+  /**
+   * Checks that an index refers to an entry.
+   *
+   * @param index The index.
+   */
+  private void checkIndex(int index) {
+    if (index < 0 || index >= this.size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + this.size);
+    }
+    sort();
+  }
+
+  /**
+   * Sorts the entries added out of order and merges them into the sorted ones. The merge runs
+   * from the end, so it stops once the earliest new entry is in place, and the sorted entries
+   * before that point are not moved.
+   */
+  private void sort() {
+    if (this.sortedSize == this.size) {
+      return;
+    }
+    int late = this.size - this.sortedSize;
+    if (this.lateTstamps.length < late) {
+      int capacity = Math.max(late, this.lateTstamps.length + (this.lateTstamps.length >> 1));
+      this.lateTstamps = new long[capacity];
+      this.lateIds = new int[capacity];
+      this.tstampBuffer = new long[capacity];
+      this.idBuffer = new int[capacity];
+    }
+    System.arraycopy(this.tstamps, this.sortedSize, this.lateTstamps, 0, late);
+    System.arraycopy(this.ids, this.sortedSize, this.lateIds, 0, late);
+    TstampSorter.mergeSort(this.lateTstamps, this.lateIds, this.tstampBuffer, this.idBuffer, 0,
+        late);
+    int sorted = this.sortedSize - 1;
+    int next = late - 1;
+    for (int i = this.size - 1; next >= 0; i--) {
+      // Of equal timestamps, the sorted entries were added first and so come first.
+      if (sorted >= 0 && this.tstamps[sorted] > this.lateTstamps[next]) {
+        this.tstamps[i] = this.tstamps[sorted];
+        this.ids[i] = this.ids[sorted--];
+      }
+      else {
+        this.tstamps[i] = this.lateTstamps[next];
+        this.ids[i] = this.lateIds[next--];
+      }
+    }
+    this.sortedSize = this.size;
+  }
+}
@@ -0,0 +1,276 @@
+package org.hackystat.utilities.tstamp;
+
+import java.util.TimeZone;
+
+import javax.xml.datatype.DatatypeConstants;
+import javax.xml.datatype.XMLGregorianCalendar;
+
+/**
+ * Provides the operations of Tstamp on timestamps represented as milliseconds since the Unix
+ * epoch, so that loops processing many timestamps need not create an XMLGregorianCalendar,
+ * GregorianCalendar or DatatypeFactory for each one. Convert to and from XMLGregorianCalendar
+ * with toMillis() and toTimestamp() where the timestamps enter and leave the loop.
+ * <p>
+ * None of the methods allocate, except for the conversions and the methods that use the
+ * default time zone, which obtain a copy of it from TimeZone.getDefault(). In hot loops, obtain
+ * the time zone once and pass it to the methods that take one.
+ *
+ * @author agent
+ */
+public final class TstampMillis {
+
+  /** Make this class noninstantiable. */
+  private TstampMillis() {
+    // Do nothing.
+  }
+
+  /** The number of milliseconds in a second. */
+  public static final long MILLISECS_PER_SECOND = 1000L;
+  /** The number of milliseconds in a minute. */
+  public static final long MILLISECS_PER_MINUTE = 60L * MILLISECS_PER_SECOND;
+  /** The number of milliseconds in an hour. */
+  public static final long MILLISECS_PER_HOUR = 60L * MILLISECS_PER_MINUTE;
+  /** The number of milliseconds in a day of 24 hours. */
+  public static final long MILLISECS_PER_DAY = 24L * MILLISECS_PER_HOUR;
+  /** The first year of the Gregorian calendar, before which GregorianCalendar uses Julian. */
+  private static final int firstGregorianYear = 1583;
+
+  /**
+   * Returns the time of tstamp in milliseconds since the epoch, as
+   * tstamp.toGregorianCalendar().getTimeInMillis() does. Complete timestamps with a time zone
+   * are converted arithmetically, without creating a GregorianCalendar.
+   *
+   * @param tstamp The timestamp.
+   * @return The time in milliseconds.
+   */
+  public static long toMillis(XMLGregorianCalendar tstamp) {
+    int undefined = DatatypeConstants.FIELD_UNDEFINED;
+    int year = tstamp.getYear();
+    int timezone = tstamp.getTimezone();
+    int second = tstamp.getSecond();
+    if (timezone == undefined || year == undefined || year < firstGregorianYear
+        || tstamp.getEon() != null || tstamp.getMonth() == undefined
+        || tstamp.getDay() == undefined || tstamp.getHour() == undefined || tstamp.getHour() > 23
+        || tstamp.getMinute() == undefined || second == undefined || second > 59) {
+      return tstamp.toGregorianCalendar().getTimeInMillis();
+    }
+    int millisecond = tstamp.getMillisecond();
+    long days = daysFromCivil(year, tstamp.getMonth(), tstamp.getDay());
+    long minutes = ((days * 24) + tstamp.getHour()) * 60 + tstamp.getMinute() - timezone;
+    return minutes * MILLISECS_PER_MINUTE + second * MILLISECS_PER_SECOND
+      + ((millisecond == undefined) ? 0 : millisecond);
+  }
+
+  /**
+   * Returns a new XMLGregorianCalendar for the specified time, in the default time zone.
+   *
+   * @param millis The time in milliseconds since the epoch.
+   * @return The timestamp.
+   */
+  public static XMLGregorianCalendar toTimestamp(long millis) {
+    return Tstamp.makeTimestamp(millis);
+  }
+
+  /**
+   * Returns the time the specified number of days after millis. Days are 24 hours long, as in
+   * Tstamp.incrementDays().
+   *
+   * @param millis The time in milliseconds.
+   * @param days The number of days, which can be negative.
+   * @return The incremented time.
+   */
+  public static long incrementDays(long millis, int days) {
+    return millis + days * MILLISECS_PER_DAY;
+  }
+
+  /**
+   * Returns the time the specified number of hours after millis.
+   *
+   * @param millis The time in milliseconds.
+   * @param hours The number of hours, which can be negative.
+   * @return The incremented time.
+   */
+  public static long incrementHours(long millis, int hours) {
+    return millis + hours * MILLISECS_PER_HOUR;
+  }
+
+  /**
+   * Returns the time the specified number of minutes after millis.
+   *
+   * @param millis The time in milliseconds.
+   * @param minutes The number of minutes, which can be negative.
+   * @return The incremented time.
+   */
+  public static long incrementMinutes(long millis, int minutes) {
+    return millis + minutes * MILLISECS_PER_MINUTE;
+  }
+
+  /**
+   * Returns the time the specified number of seconds after millis.
+   *
+   * @param millis The time in milliseconds.
+   * @param seconds The number of seconds, which can be negative.
+   * @return The incremented time.
+   */
+  public static long incrementSeconds(long millis, int seconds) {
+    return millis + seconds * MILLISECS_PER_SECOND;
+  }
+
+  /**
+   * Compares two times, for use in sorting.
+   *
+   * @param time1 The first time.
+   * @param time2 The second time.
+   * @return A negative number, zero, or a positive number if time1 is before, equal to, or
+   * after time2.
+   */
+  public static int compare(long time1, long time2) {
+    return (time1 < time2) ? -1 : ((time1 == time2) ? 0 : 1);
+  }
+
+  /**
+   * Returns true if time1 > time2.
+   * @param time1 The first time.
+   * @param time2 The second time.
+   * @return True if time1 > time2
+   */
+  public static boolean greaterThan(long time1, long time2) {
+    return time1 > time2;
+  }
+
+  /**
+   * Returns true if time1 < time2.
+   * @param time1 The first time.
+   * @param time2 The second time.
+   * @return True if time1 < time2
+   */
+  public static boolean lessThan(long time1, long time2) {
+    return time1 < time2;
+  }
+
+  /**
+   * Returns true if tstamp is equal to or between start and end.
+   * @param start The start time.
+   * @param tstamp The time to test.
+   * @param end The end time.
+   * @return True if tstamp is between start and end.
+   */
+  public static boolean inBetween(long start, long tstamp, long end) {
+    return (tstamp >= start) && (tstamp <= end);
+  }
+
+  /**
+   * Returns the start of the day containing millis in the specified time zone.
+   *
+   * @param millis The time in milliseconds.
+   * @param zone The time zone.
+   * @return The time of midnight at the start of the day, or of the first instant of the day if
+   * midnight is skipped by a daylight savings transition.
+   */
+  public static long truncateToDay(long millis, TimeZone zone) {
+    long localMidnight = getUnixDay(millis, zone) * MILLISECS_PER_DAY;
+    long start = localMidnight - zone.getOffset(localMidnight - zone.getOffset(millis));
+    // Midnight may fall in a daylight savings gap, in which case the day starts at the end of it.
+    if (getUnixDay(start, zone) != getUnixDay(millis, zone)) {
+      start = localMidnight - zone.getOffset(millis);
+    }
+    return start;
+  }
+
+  /**
+   * Returns the start of the day containing millis in the default time zone.
+   *
+   * @param millis The time in milliseconds.
+   * @return The time of the start of the day.
+   */
+  public static long truncateToDay(long millis) {
+    return truncateToDay(millis, TimeZone.getDefault());
+  }
+
+  /**
+   * Returns the number of days since the epoch to the day containing millis in the specified
+   * time zone, taking its daylight savings time into account.
+   *
+   * @param millis The time in milliseconds.
+   * @param zone The time zone.
+   * @return The number of days since the epoch.
+   */
+  public static long getUnixDay(long millis, TimeZone zone) {
+    return floorDiv(millis + zone.getOffset(millis), MILLISECS_PER_DAY);
+  }
+
+  /**
+   * Returns the number of days between the days containing time1 and time2 in the specified
+   * time zone, as Tstamp.daysBetween() does for timestamps in that zone. Returns a negative
+   * number if time1 is after time2.
+   *
+   * @param time1 The first time.
+   * @param time2 The second time.
+   * @param zone The time zone.
+   * @return The number of days between the two times.
+   */
+  public static int daysBetween(long time1, long time2, TimeZone zone) {
+    return (int) (getUnixDay(time2, zone) - getUnixDay(time1, zone));
+  }
+
+  /**
+   * Returns the number of days between the days containing time1 and time2 in the default time
+   * zone. Returns a negative number if time1 is after time2. See DayBucketer.
+   *
+   * @param time1 The first time.
+   * @param time2 The second time.
+   * @return The number of days between the two times.
+   */
+  public static int daysBetween(long time1, long time2) {
+    return DayBucketer.getInstance().daysBetween(time1, time2);
+  }
+
+  /**
+   * Returns the number of days from the epoch to the specified date in the proleptic Gregorian
+   * calendar.
+   *
+   * @param year The year.
+   * @param month The month, from 1 to 12.
+   * @param day The day of the month, from 1.
+   * @return The number of days since 1970-01-01, which is negative for earlier dates.
+   */
+  static long daysFromCivil(long year, int month, int day) {
+    // Counts from 0000-03-01 so that the leap day is the last day of the year.
+    long marchYear = (month <= 2) ? year - 1 : year;
+    long era = ((marchYear >= 0) ? marchYear : marchYear - 399) / 400;
+    long yearOfEra = marchYear - era * 400;
+    long dayOfYear = (153 * (month + ((month > 2) ? -3 : 9)) + 2) / 5 + day - 1;
+    long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+    return era * 146097 + dayOfEra - 719468;
+  }
+
+  /**
+   * Returns the month containing the specified day in the proleptic Gregorian calendar, as the
+   * inverse of daysFromCivil().
+   *
+   * @param days The number of days since 1970-01-01.
+   * @return The number of months from January of year zero to the month of the day.
+   */
+  static long monthsFromDays(long days) {
+    long shifted = days + 719468;
+    long era = ((shifted >= 0) ? shifted : shifted - 146096) / 146097;
+    long dayOfEra = shifted - era * 146097;
+    long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+    long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+    long marchMonth = (5 * dayOfYear + 2) / 153;
+    // Counts from March, as daysFromCivil() does.
+    return (yearOfEra + era * 400) * 12 + marchMonth + 2;
+  }
+
+  /**
+   * Returns the largest integer less than or equal to dividend / divisor.
+   *
+   * @param dividend The dividend.
+   * @param divisor The divisor, which must be positive.
+   * @return The quotient, rounded down.
+   */
+  static long floorDiv(long dividend, long divisor) {
+    long quotient = dividend / divisor;
+    return (dividend % divisor < 0) ? quotient - 1 : quotient;
+  }
+}
@@ -1,44 +1,221 @@
 package org.hackystat.utilities.tstamp;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.util.Arrays;
 
 /**
  * Provides a way to guarantee unique timestamps by keeping track of the old ones and incrementing
- * the millisecond field as needed to create a unique one. The behavior of this class is to 
+ * the millisecond field as needed to create a unique one. The behavior of this class is to
  * return the passed tstamp if it is not already in the set, or else return an incremented
- * version of the tstamp which is incremented enough times to be unique. 
- * 
+ * version of the tstamp which is incremented enough times to be unique.
+ * <p>
+ * The timestamps are held in an open-addressing table of primitive longs. With each one the
+ * table records how far the run of consecutive timestamps starting at it is known to extend,
+ * so that many timestamps for the same millisecond do not each probe the whole run.
+ * <p>
+ * A set created with a horizon forgets the timestamps that are more than the horizon older
+ * than the newest one it has returned, so that its memory is bounded by the number of
+ * timestamps within the horizon rather than by the number ever passed to it. A timestamp
+ * older than the horizon may then be returned although it was returned before.
+ *
  * @author Philip Johnson
  */
 public class TstampSet {
-  
-  /** Holds all of the tstamps previously passed to this set. */
-  private final Set<Long> tstampSet;
-  
+
+  /** Marks an empty slot of the table. */
+  private static final long EMPTY = Long.MIN_VALUE;
+  /** The initial capacity of the table, which is always a power of two. */
+  private static final int initialCapacity = 64;
+  /** The horizon, or zero to remember all timestamps. */
+  private final long horizon;
+  /** The timestamps in the set, or EMPTY. */
+  private long[] tstamps;
+  /** For each timestamp, a later one such that all of those from it up to this one are used. */
+  private long[] runEnds;
+  /** The number of timestamps in the table. */
+  private int size = 0;
+  /** True if EMPTY itself, which cannot be held in the table, is in the set. */
+  private boolean containsEmpty = false;
+  /** The newest timestamp returned. */
+  private long newest = Long.MIN_VALUE;
+
   /**
    * Create a new TstampSet, which is initialized with no knowledge of prior timestamps.
    */
   public TstampSet() {
-    tstampSet = new HashSet<Long>();
+    this(0);
   }
-  
+
+  /**
+   * Create a new TstampSet that remembers only the timestamps within the horizon of the newest
+   * one it has returned.
+   *
+   * @param horizon The horizon in milliseconds, or zero to remember all timestamps.
+   */
+  public TstampSet(long horizon) {
+    if (horizon < 0) {
+      throw new IllegalArgumentException("Negative horizon: " + horizon);
+    }
+    this.horizon = horizon;
+    this.tstamps = newTable(initialCapacity);
+    this.runEnds = new long[initialCapacity];
+  }
+
   /**
    * Return a new unique timestamp based upon the passed timestamp.  If the passed timestamp does
    * not exist in the timestamp set, then it is returned (and it is added to the set).  If
    * the passed timestamp already exists in the set, then it is repeatedly incremented until a
-   * value is obtained that did not already exist in the timestamp set.  This value is then 
+   * value is obtained that did not already exist in the timestamp set.  This value is then
    * returned (and added to the set.)
-   * 
+   *
    * @param tstamp The tstamp to be used as a basis for finding a unique timestamp.
-   * @return A timestamp that did not previously exist in this TstampSet. 
+   * @return A timestamp that did not previously exist in this TstampSet.
    */
   public long getUniqueTstamp(long tstamp) {
     long currTstamp = tstamp;
-    while (tstampSet.contains(currTstamp)) {
+    if (currTstamp == EMPTY) {
+      if (!this.containsEmpty) {
+        this.containsEmpty = true;
+        return currTstamp;
+      }
       currTstamp++;
     }
-    tstampSet.add(currTstamp);
-    return currTstamp;
+    int slot = find(currTstamp);
+    if (slot < 0) {
+      insert(currTstamp);
+      return currTstamp;
+    }
+    // Follow the runs to the first unused timestamp, then record it as the end of each run.
+    long unique = currTstamp;
+    for (int next = slot; next >= 0; next = find(unique)) {
+      unique = this.runEnds[next];
+    }
+    for (int next = slot; next >= 0; next = find(currTstamp)) {
+      currTstamp = this.runEnds[next];
+      this.runEnds[next] = unique + 1;
+    }
+    insert(unique);
+    return unique;
+  }
+
+  /**
+   * Returns true if the timestamp is in the set.
+   *
+   * @param tstamp The timestamp.
+   * @return True if it has been returned by getUniqueTstamp() and not forgotten since.
+   */
+  public boolean contains(long tstamp) {
+    return (tstamp == EMPTY) ? this.containsEmpty : find(tstamp) >= 0;
+  }
+
+  /**
+   * Returns the number of timestamps in the set.
+   *
+   * @return The number of timestamps remembered.
+   */
+  public int size() {
+    return this.size + (this.containsEmpty ? 1 : 0);
+  }
+
+  /**
+   * Returns the slot holding the timestamp.
+   *
+   * @param tstamp The timestamp, which is not EMPTY.
+   * @return The slot, or -1 if the timestamp is not in the table.
+   */
+  private int find(long tstamp) {
+    int mask = this.tstamps.length - 1;
+    for (int slot = hash(tstamp) & mask; ; slot = (slot + 1) & mask) {
+      long current = this.tstamps[slot];
+      if (current == tstamp) {
+        return slot;
+      }
+      if (current == EMPTY) {
+        return -1;
+      }
+    }
+  }
+
+  /**
+   * Adds a timestamp that is not in the table, making room first if necessary.
+   *
+   * @param tstamp The timestamp, which is not EMPTY.
+   */
+  private void insert(long tstamp) {
+    if (tstamp > this.newest) {
+      this.newest = tstamp;
+    }
+    if (this.size + 1 > this.tstamps.length / 4 * 3) {
+      resize();
+    }
+    put(tstamp, tstamp + 1);
+  }
+
+  /**
+   * Puts a timestamp into a free slot of the table.
+   *
+   * @param tstamp The timestamp.
+   * @param runEnd The end of its run.
+   */
+  private void put(long tstamp, long runEnd) {
+    int mask = this.tstamps.length - 1;
+    int slot = hash(tstamp) & mask;
+    while (this.tstamps[slot] != EMPTY) {
+      slot = (slot + 1) & mask;
+    }
+    this.tstamps[slot] = tstamp;
+    this.runEnds[slot] = runEnd;
+    this.size++;
+  }
+
+  /**
+   * Rebuilds the table without the timestamps beyond the horizon, doubling its capacity if it
+   * would otherwise remain more than half full.
+   */
+  private void resize() {
+    long[] oldTstamps = this.tstamps;
+    long[] oldRunEnds = this.runEnds;
+    long oldest = (this.horizon > 0 && this.newest - this.horizon < this.newest)
+        ? this.newest - this.horizon : Long.MIN_VALUE;
+    int live = 0;
+    for (long tstamp : oldTstamps) {
+      if (tstamp != EMPTY && tstamp >= oldest) {
+        live++;
+      }
+    }
+    int capacity = oldTstamps.length;
+    while (live + 1 > capacity / 2) {
+      capacity *= 2;
+    }
+    this.tstamps = newTable(capacity);
+    this.runEnds = new long[capacity];
+    this.size = 0;
+    for (int i = 0; i < oldTstamps.length; i++) {
+      if (oldTstamps[i] != EMPTY && oldTstamps[i] >= oldest) {
+        put(oldTstamps[i], oldRunEnds[i]);
+      }
+    }
+  }
+
+  /**
+   * Returns a new table with all slots empty.
+   *
+   * @param capacity The number of slots.
+   * @return The table.
+   */
+  private static long[] newTable(int capacity) {
+    long[] table = new long[capacity];
+    Arrays.fill(table, EMPTY);
+    return table;
+  }
+
+  /**
+   * Returns the hash code of a timestamp, spreading consecutive timestamps over the table.
+   *
+   * @param tstamp The timestamp.
+   * @return The hash code.
+   */
+  static int hash(long tstamp) {
+    long mixed = tstamp * 0x9E3779B97F4A7C15L;
+    return (int) (mixed ^ (mixed >>> 32));
   }
 }
@@ -0,0 +1,264 @@
+package org.hackystat.utilities.tstamp;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.datatype.XMLGregorianCalendar;
+
+/**
+ * Sorts records by timestamp, extracting the timestamp of each record only once. The
+ * timestamps are extracted into a primitive array that is merge sorted together with the
+ * positions of their records, and the sorted list is then rebuilt from the positions. Large
+ * collections are split into ranges that are extracted and sorted by separate threads, and then
+ * merged in parallel. The sort is stable: records with equal timestamps keep their order.
+ *
+ * @author agent
+ */
+public final class TstampSorter {
+
+  /** Make this class noninstantiable. */
+  private TstampSorter() {
+    // Do nothing.
+  }
+
+  /** Extracts the time of an XMLGregorianCalendar. */
+  public static final TstampExtractor<XMLGregorianCalendar> CALENDAR =
+    new TstampExtractor<XMLGregorianCalendar>() {
+      /**
+       * Returns the time of the calendar.
+       * @param tstamp The calendar.
+       * @return The time in milliseconds.
+       */
+      public long getMillis(XMLGregorianCalendar tstamp) {
+        return TstampMillis.toMillis(tstamp);
+      }
+    };
+  /** Extracts the time of a TstampValue. */
+  public static final TstampExtractor<TstampValue> VALUE = new TstampExtractor<TstampValue>() {
+    /**
+     * Returns the time of the value.
+     * @param tstamp The value.
+     * @return The time in milliseconds.
+     */
+    public long getMillis(TstampValue tstamp) {
+      return tstamp.getMillis();
+    }
+  };
+  /** The number of records above which sort() uses all processors. */
+  static final int parallelThreshold = 1 << 16;
+  /** The smallest number of records that a thread is given to sort. */
+  private static final int minRangeSize = 1 << 13;
+  /** The size of the ranges that are insertion sorted instead of merged. */
+  private static final int insertionSortSize = 32;
+
+  /**
+   * Returns a new list of the records, sorted by their timestamps. Uses all processors for
+   * collections of more than parallelThreshold records.
+   *
+   * @param <T> The type of the records.
+   * @param records The records to sort.
+   * @param extractor Extracts the timestamp of a record.
+   * @return A new list of the records, in order.
+   */
+  public static <T> List<T> sort(Collection<? extends T> records,
+      TstampExtractor<? super T> extractor) {
+    int threads = (records.size() > parallelThreshold)
+        ? Runtime.getRuntime().availableProcessors() : 1;
+    return sort(records, extractor, threads);
+  }
+
+  /**
+   * Returns a new list of the records, sorted by their timestamps, using up to the specified
+   * number of threads.
+   *
+   * @param <T> The type of the records.
+   * @param records The records to sort.
+   * @param extractor Extracts the timestamp of a record.
+   * @param threads The largest number of threads to use.
+   * @return A new list of the records, in order.
+   */
+  @SuppressWarnings("unchecked")
+  public static <T> List<T> sort(Collection<? extends T> records,
+      final TstampExtractor<? super T> extractor, int threads) {
+    final T[] items = (T[]) records.toArray();
+    final long[] keys = new long[items.length];
+    final int[] positions = new int[items.length];
+    final long[] keyBuffer = new long[items.length];
+    final int[] positionBuffer = new int[items.length];
+    int numRanges = Math.max(1, Math.min(threads, items.length / minRangeSize));
+    if (numRanges == 1) {
+      extractAndSort(items, extractor, keys, positions, keyBuffer, positionBuffer, 0,
+          items.length);
+    }
+    else {
+      final int[] bounds = new int[numRanges + 1];
+      for (int i = 0; i <= numRanges; i++) {
+        bounds[i] = (int) ((long) items.length * i / numRanges);
+      }
+      ExecutorService executor = Executors.newFixedThreadPool(numRanges);
+      try {
+        List<Future<Object>> results = new ArrayList<Future<Object>>();
+        for (int i = 0; i < numRanges; i++) {
+          final int start = bounds[i];
+          final int end = bounds[i + 1];
+          results.add(executor.submit(new Callable<Object>() {
+            /**
+             * Extracts and sorts the timestamps of this thread's range.
+             * @return Null.
+             */
+            public Object call() {
+              extractAndSort(items, extractor, keys, positions, keyBuffer, positionBuffer, start,
+                  end);
+              return null;
+            }
+          }));
+        }
+        await(results);
+        // Merges adjacent pairs of sorted ranges, doubling the range width each round.
+        for (int width = 1; width < numRanges; width *= 2) {
+          results.clear();
+          for (int i = 0; i + width < numRanges; i += 2 * width) {
+            final int start = bounds[i];
+            final int middle = bounds[i + width];
+            final int end = bounds[Math.min(i + 2 * width, numRanges)];
+            results.add(executor.submit(new Callable<Object>() {
+              /**
+               * Merges this thread's pair of ranges.
+               * @return Null.
+               */
+              public Object call() {
+                merge(keys, positions, keyBuffer, positionBuffer, start, middle, end);
+                return null;
+              }
+            }));
+          }
+          await(results);
+        }
+      }
+      finally {
+        executor.shutdown();
+      }
+    }
+    List<T> sorted = new ArrayList<T>(items.length);
+    for (int position : positions) {
+      sorted.add(items[position]);
+    }
+    return sorted;
+  }
+
+  /**
+   * Waits for the tasks to finish, rethrowing any exception that one of them threw.
+   *
+   * @param results The results of the tasks.
+   */
+  static void await(List<Future<Object>> results) {
+    try {
+      for (Future<Object> result : results) {
+        result.get();
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted waiting for tasks", e);
+    }
+    catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new RuntimeException("Task failed", e.getCause());
+    }
+  }
+
+  /**
+   * Extracts the timestamps of the records in a range and sorts the range.
+   *
+   * @param <T> The type of the records.
+   * @param items The records.
+   * @param extractor Extracts the timestamp of a record.
+   * @param keys Receives the timestamps.
+   * @param positions Receives the positions of the records.
+   * @param keyBuffer Scratch space for the timestamps.
+   * @param positionBuffer Scratch space for the positions.
+   * @param start The first index of the range.
+   * @param end The index after the range.
+   */
+  private static <T> void extractAndSort(T[] items, TstampExtractor<? super T> extractor,
+      long[] keys, int[] positions, long[] keyBuffer, int[] positionBuffer, int start, int end) {
+    for (int i = start; i < end; i++) {
+      keys[i] = extractor.getMillis(items[i]);
+      positions[i] = i;
+    }
+    mergeSort(keys, positions, keyBuffer, positionBuffer, start, end);
+  }
+
+  /**
+   * Sorts a range of timestamps, moving their positions with them.
+   *
+   * @param keys The timestamps.
+   * @param positions The positions of their records.
+   * @param keyBuffer Scratch space for the timestamps.
+   * @param positionBuffer Scratch space for the positions.
+   * @param start The first index of the range.
+   * @param end The index after the range.
+   */
+  static void mergeSort(long[] keys, int[] positions, long[] keyBuffer,
+      int[] positionBuffer, int start, int end) {
+    if (end - start <= insertionSortSize) {
+      for (int i = start + 1; i < end; i++) {
+        long key = keys[i];
+        int position = positions[i];
+        int j = i - 1;
+        for (; j >= start && keys[j] > key; j--) {
+          keys[j + 1] = keys[j];
+          positions[j + 1] = positions[j];
+        }
+        keys[j + 1] = key;
+        positions[j + 1] = position;
+      }
+      return;
+    }
+    int middle = (start + end) >>> 1;
+    mergeSort(keys, positions, keyBuffer, positionBuffer, start, middle);
+    mergeSort(keys, positions, keyBuffer, positionBuffer, middle, end);
+    merge(keys, positions, keyBuffer, positionBuffer, start, middle, end);
+  }
+
+  /**
+   * Merges two adjacent sorted ranges of timestamps, moving their positions with them. Of
+   * equal timestamps, those of the first range come first.
+   *
+   * @param keys The timestamps.
+   * @param positions The positions of their records.
+   * @param keyBuffer Scratch space for the timestamps.
+   * @param positionBuffer Scratch space for the positions.
+   * @param start The first index of the first range.
+   * @param middle The first index of the second range.
+   * @param end The index after the second range.
+   */
+  static void merge(long[] keys, int[] positions, long[] keyBuffer,
+      int[] positionBuffer, int start, int middle, int end) {
+    if (keys[middle - 1] <= keys[middle]) {
+      return;
+    }
+    System.arraycopy(keys, start, keyBuffer, start, end - start);
+    System.arraycopy(positions, start, positionBuffer, start, end - start);
+    int left = start;
+    int right = middle;
+    for (int i = start; i < end; i++) {
+      if (right >= end || (left < middle && keyBuffer[left] <= keyBuffer[right])) {
+        keys[i] = keyBuffer[left];
+        positions[i] = positionBuffer[left++];
+      }
+      else {
+        keys[i] = keyBuffer[right];
+        positions[i] = positionBuffer[right++];
+      }
+    }
+  }
+}
@@ -0,0 +1,203 @@
+package org.hackystat.utilities.tstamp;
+
+import java.io.Serializable;
+import java.util.GregorianCalendar;
+import java.util.SimpleTimeZone;
+import java.util.TimeZone;
+
+import javax.xml.datatype.DatatypeConfigurationException;
+import javax.xml.datatype.DatatypeConstants;
+import javax.xml.datatype.XMLGregorianCalendar;
+
+/**
+ * An immutable timestamp holding its instant in milliseconds since the epoch and the offset
+ * from UTC of the time zone it was expressed in. Unlike XMLGregorianCalendar, comparing two
+ * instances is a primitive comparison, so sorting and comparing long lists of timestamps does
+ * not convert each one to a GregorianCalendar again and again. Convert to and from
+ * XMLGregorianCalendar where the timestamps enter and leave the processing.
+ * <p>
+ * As with XMLGregorianCalendar, two instances are equal if they represent the same instant,
+ * even if their time zones differ.
+ *
+ * @author agent
+ */
+public final class TstampValue implements Comparable<TstampValue>, Serializable {
+
+  /** For serialization. */
+  private static final long serialVersionUID = 1L;
+  /** The instant, in milliseconds since the epoch. */
+  private final long millis;
+  /** The offset from UTC in minutes. */
+  private final int timezone;
+  /** The lexical representation, computed when first needed. */
+  private transient String lexical;
+
+  /**
+   * Creates a timestamp.
+   *
+   * @param millis The instant, in milliseconds since the epoch.
+   * @param timezone The offset from UTC in minutes.
+   */
+  private TstampValue(long millis, int timezone) {
+    this.millis = millis;
+    this.timezone = timezone;
+  }
+
+  /**
+   * Returns the timestamp of the instant, in the specified offset from UTC.
+   *
+   * @param millis The instant, in milliseconds since the epoch.
+   * @param timezone The offset from UTC in minutes.
+   * @return The timestamp.
+   */
+  public static TstampValue valueOf(long millis, int timezone) {
+    return new TstampValue(millis, timezone);
+  }
+
+  /**
+   * Returns the timestamp of the instant, in the default time zone.
+   *
+   * @param millis The instant, in milliseconds since the epoch.
+   * @return The timestamp.
+   */
+  public static TstampValue valueOf(long millis) {
+    return new TstampValue(millis, getTimezone(millis, TimeZone.getDefault()));
+  }
+
+  /**
+   * Returns the timestamp of the XMLGregorianCalendar. A calendar without a time zone is taken
+   * to be in the default time zone, as Tstamp does.
+   *
+   * @param tstamp The calendar.
+   * @return The timestamp.
+   */
+  public static TstampValue valueOf(XMLGregorianCalendar tstamp) {
+    long millis = TstampMillis.toMillis(tstamp);
+    int timezone = tstamp.getTimezone();
+    if (timezone == DatatypeConstants.FIELD_UNDEFINED) {
+      timezone = getTimezone(millis, TimeZone.getDefault());
+    }
+    return new TstampValue(millis, timezone);
+  }
+
+  /**
+   * Returns the timestamp of the string representation, which can be of any form that
+   * Tstamp.makeTimestamp(String) accepts.
+   *
+   * @param rep The string representation.
+   * @return The timestamp.
+   * @throws IllegalArgumentException If the string is not a valid timestamp.
+   */
+  public static TstampValue valueOf(String rep) {
+    TimeZone zone = TimeZone.getDefault();
+    long millis = XsdDateTime.parseMillis(rep, zone);
+    if (millis == XsdDateTime.INVALID) {
+      try {
+        return valueOf(Tstamp.makeTimestamp(rep));
+      }
+      catch (Exception e) {
+        throw new IllegalArgumentException("Illegal timestring " + rep, e);
+      }
+    }
+    long timezone = XsdDateTime.parseTimezone(rep);
+    return new TstampValue(millis, (timezone == XsdDateTime.NO_TIMEZONE)
+        ? getTimezone(millis, zone) : (int) timezone);
+  }
+
+  /**
+   * Returns the offset of the zone at the instant in whole minutes, as XMLGregorianCalendar
+   * records it.
+   *
+   * @param millis The instant.
+   * @param zone The time zone.
+   * @return The offset in minutes.
+   */
+  private static int getTimezone(long millis, TimeZone zone) {
+    return zone.getOffset(millis) / 60000;
+  }
+
+  /**
+   * Returns the instant of this timestamp.
+   *
+   * @return The milliseconds since the epoch.
+   */
+  public long getMillis() {
+    return this.millis;
+  }
+
+  /**
+   * Returns the time zone of this timestamp.
+   *
+   * @return The offset from UTC in minutes.
+   */
+  public int getTimezone() {
+    return this.timezone;
+  }
+
+  /**
+   * Returns a new XMLGregorianCalendar for this timestamp, in its time zone.
+   *
+   * @return The calendar.
+   */
+  public XMLGregorianCalendar toXMLGregorianCalendar() {
+    try {
+      GregorianCalendar calendar = new GregorianCalendar(new SimpleTimeZone(
+          this.timezone * 60000, "UTC"));
+      calendar.setTimeInMillis(this.millis);
+      return DatatypeFactoryProvider.getFactory().newXMLGregorianCalendar(calendar);
+    }
+    catch (DatatypeConfigurationException e) {
+      throw new RuntimeException("Bad DataTypeFactory", e);
+    }
+  }
+
+  /**
+   * Compares the instants of the two timestamps.
+   *
+   * @param other The other timestamp.
+   * @return A negative number, zero, or a positive number if this timestamp is before, at the
+   * same instant as, or after the other one.
+   */
+  public int compareTo(TstampValue other) {
+    return TstampMillis.compare(this.millis, other.millis);
+  }
+
+  /**
+   * Returns true if the other object is a timestamp of the same instant.
+   *
+   * @param other The other object.
+   * @return True if the two are equal.
+   */
+  @Override
+  public boolean equals(Object other) {
+    return (other instanceof TstampValue) && ((TstampValue) other).millis == this.millis;
+  }
+
+  /**
+   * Returns a hash code consistent with equals().
+   *
+   * @return The hash code.
+   */
+  @Override
+  public int hashCode() {
+    return (int) (this.millis ^ (this.millis >>> 32));
+  }
+
+  /**
+   * Returns the dateTime representation of this timestamp in its time zone, as
+   * toXMLGregorianCalendar().toXMLFormat() does.
+   *
+   * @return The representation.
+   */
+  @Override
+  public String toString() {
+    String result = this.lexical;
+    if (result == null) {
+      StringBuilder out = new StringBuilder(29);
+      XsdDateTime.format(this.millis, this.timezone, out);
+      result = out.toString();
+      this.lexical = result;
+    }
+    return result;
+  }
+}
@@ -0,0 +1,529 @@
+package org.hackystat.utilities.tstamp;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.SimpleTimeZone;
+import java.util.TimeZone;
+
+/**
+ * Parses and formats the lexical forms of the xsd:dateTime family of types (dateTime, date,
+ * time, gYearMonth, gYear, gMonthDay, gDay and gMonth) without creating a DatatypeFactory or
+ * XMLGregorianCalendar, and without using exceptions to report invalid strings. Strings are
+ * accepted as a CharSequence or as ASCII bytes, and are converted into milliseconds since the
+ * epoch and a time zone offset in minutes.
+ * <p>
+ * The results are those of the JAXP implementation: a string is valid exactly when
+ * DatatypeFactory.newXMLGregorianCalendar() accepts it, and parseMillis() returns what its
+ * toGregorianCalendar().getTimeInMillis() returns, with missing fields defaulting to
+ * 1970-01-01T00:00:00.000 and a missing time zone defaulting to the specified one. Likewise,
+ * format() produces what toXMLFormat() produces for the XMLGregorianCalendar that
+ * Tstamp.makeTimestamp(long) returns.
+ * <p>
+ * All methods are thread-safe. Apart from the default time zone lookups and the String
+ * returned by format(long, TimeZone), they allocate nothing for timestamps after 1582.
+ *
+ * @author agent
+ */
+public final class XsdDateTime {
+
+  /** Make this class noninstantiable. */
+  private XsdDateTime() {
+    // Do nothing.
+  }
+
+  /** Returned by parseMillis() and parseTimezone() for strings they cannot parse. */
+  public static final long INVALID = Long.MIN_VALUE;
+  /** Returned by parseTimezone() for valid strings that do not specify a time zone. */
+  public static final int NO_TIMEZONE = Integer.MIN_VALUE;
+  /** The largest number of year digits that parseMillis() converts. */
+  private static final int maxYearDigits = 8;
+  /** The first instant of the Gregorian calendar, before which GregorianCalendar uses Julian. */
+  private static final long gregorianCutover = -12219292800000L;
+  /** The days in each month of a leap year. */
+  private static final int[] daysInMonth = { 31, 29, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31 };
+  /** Only validate the string. */
+  private static final int VALIDATE = 0;
+  /** Validate the string and return its time in milliseconds. */
+  private static final int MILLIS = 1;
+  /** Validate the string and return its time zone offset in minutes. */
+  private static final int TIMEZONE = 2;
+
+  /**
+   * Returns true if the string is a valid lexical representation of a timestamp, that is, if
+   * DatatypeFactory.newXMLGregorianCalendar() would accept it.
+   *
+   * @param rep The string representation, which may be null.
+   * @return True if the string is valid.
+   */
+  public static boolean isValid(CharSequence rep) {
+    return (rep != null) && parse(rep, 0, rep.length(), null, VALIDATE) != INVALID;
+  }
+
+  /**
+   * Returns true if the ASCII bytes are a valid lexical representation of a timestamp.
+   *
+   * @param bytes The buffer holding the representation.
+   * @param offset The index of its first byte.
+   * @param length The number of bytes in the representation.
+   * @return True if the representation is valid.
+   */
+  public static boolean isValid(byte[] bytes, int offset, int length) {
+    return parse(bytes, offset, offset + length, null, VALIDATE) != INVALID;
+  }
+
+  /**
+   * Returns the time of the timestamp in milliseconds since the epoch, interpreting timestamps
+   * without a time zone in the default time zone.
+   *
+   * @param rep The string representation, which may be null.
+   * @return The time in milliseconds, or INVALID if the string is invalid or has a year of
+   * more than eight digits.
+   */
+  public static long parseMillis(CharSequence rep) {
+    return parseMillis(rep, TimeZone.getDefault());
+  }
+
+  /**
+   * Returns the time of the timestamp in milliseconds since the epoch, interpreting timestamps
+   * without a time zone in the specified time zone.
+   *
+   * @param rep The string representation, which may be null.
+   * @param zone The time zone of timestamps that do not specify one.
+   * @return The time in milliseconds, or INVALID if the string is invalid or has a year of
+   * more than eight digits.
+   */
+  public static long parseMillis(CharSequence rep, TimeZone zone) {
+    return (rep == null) ? INVALID : parse(rep, 0, rep.length(), zone, MILLIS);
+  }
+
+  /**
+   * Returns the time of the timestamp held in ASCII bytes in milliseconds since the epoch,
+   * interpreting timestamps without a time zone in the specified time zone.
+   *
+   * @param bytes The buffer holding the representation.
+   * @param offset The index of its first byte.
+   * @param length The number of bytes in the representation.
+   * @param zone The time zone of timestamps that do not specify one.
+   * @return The time in milliseconds, or INVALID if the representation is invalid or has a
+   * year of more than eight digits.
+   */
+  public static long parseMillis(byte[] bytes, int offset, int length, TimeZone zone) {
+    return parse(bytes, offset, offset + length, zone, MILLIS);
+  }
+
+  /**
+   * Returns the time zone offset of the timestamp.
+   *
+   * @param rep The string representation, which may be null.
+   * @return The offset from UTC in minutes, NO_TIMEZONE if the timestamp does not specify a
+   * time zone, or INVALID if the string is invalid.
+   */
+  public static long parseTimezone(CharSequence rep) {
+    return (rep == null) ? INVALID : parse(rep, 0, rep.length(), null, TIMEZONE);
+  }
+
+  /**
+   * Returns the time zone offset of the timestamp held in ASCII bytes.
+   *
+   * @param bytes The buffer holding the representation.
+   * @param offset The index of its first byte.
+   * @param length The number of bytes in the representation.
+   * @return The offset from UTC in minutes, NO_TIMEZONE if the timestamp does not specify a
+   * time zone, or INVALID if the representation is invalid.
+   */
+  public static long parseTimezone(byte[] bytes, int offset, int length) {
+    return parse(bytes, offset, offset + length, null, TIMEZONE);
+  }
+
+  /**
+   * Appends the dateTime representation of the time in the specified time zone, such as
+   * 2007-08-01T10:15:30.250-10:00.
+   *
+   * @param millis The time in milliseconds since the epoch.
+   * @param zone The time zone.
+   * @param out The buffer to append to.
+   */
+  public static void format(long millis, TimeZone zone, StringBuilder out) {
+    if (millis < gregorianCutover) {
+      formatJulian(millis, zone, out);
+    }
+    else {
+      formatGregorian(millis, zone.getOffset(millis), out);
+    }
+  }
+
+  /**
+   * Appends the dateTime representation of the time at the specified offset from UTC.
+   *
+   * @param millis The time in milliseconds since the epoch.
+   * @param timezone The offset from UTC in minutes.
+   * @param out The buffer to append to.
+   */
+  public static void format(long millis, int timezone, StringBuilder out) {
+    int offset = timezone * 60000;
+    if (millis < gregorianCutover) {
+      formatJulian(millis, new SimpleTimeZone(offset, "UTC"), out);
+    }
+    else {
+      formatGregorian(millis, offset, out);
+    }
+  }
+
+  /**
+   * Returns the dateTime representation of the time in the specified time zone.
+   *
+   * @param millis The time in milliseconds since the epoch.
+   * @param zone The time zone.
+   * @return The representation.
+   */
+  public static String format(long millis, TimeZone zone) {
+    StringBuilder out = new StringBuilder(29);
+    format(millis, zone, out);
+    return out.toString();
+  }
+
+  /**
+   * Appends the representation of a time in the Gregorian calendar.
+   *
+   * @param millis The time in milliseconds since the epoch.
+   * @param offset The offset from UTC in milliseconds.
+   * @param out The buffer to append to.
+   */
+  private static void formatGregorian(long millis, int offset, StringBuilder out) {
+    long local = millis + offset;
+    long days = TstampMillis.floorDiv(local, TstampMillis.MILLISECS_PER_DAY);
+    int timeOfDay = (int) (local - days * TstampMillis.MILLISECS_PER_DAY);
+    // The inverse of TstampMillis.daysFromCivil().
+    long shifted = days + 719468;
+    long era = ((shifted >= 0) ? shifted : shifted - 146096) / 146097;
+    long dayOfEra = shifted - era * 146097;
+    long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+    long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+    int marchMonth = (int) ((5 * dayOfYear + 2) / 153);
+    int day = (int) (dayOfYear - (153 * marchMonth + 2) / 5 + 1);
+    int month = (marchMonth < 10) ? marchMonth + 3 : marchMonth - 9;
+    long year = yearOfEra + era * 400 + ((month <= 2) ? 1 : 0);
+    append(year, month, day, timeOfDay, offset / 60000, out);
+  }
+
+  /**
+   * Appends the representation of a time before the Gregorian calendar, which uses the
+   * Julian calendar as GregorianCalendar does.
+   *
+   * @param millis The time in milliseconds since the epoch.
+   * @param zone The time zone.
+   * @param out The buffer to append to.
+   */
+  private static void formatJulian(long millis, TimeZone zone, StringBuilder out) {
+    GregorianCalendar calendar = new GregorianCalendar(zone);
+    calendar.setTimeInMillis(millis);
+    int year = calendar.get(Calendar.YEAR);
+    int timeOfDay = (int) (calendar.get(Calendar.HOUR_OF_DAY) * TstampMillis.MILLISECS_PER_HOUR
+        + calendar.get(Calendar.MINUTE) * TstampMillis.MILLISECS_PER_MINUTE
+        + calendar.get(Calendar.SECOND) * TstampMillis.MILLISECS_PER_SECOND
+        + calendar.get(Calendar.MILLISECOND));
+    int offset = calendar.get(Calendar.ZONE_OFFSET) + calendar.get(Calendar.DST_OFFSET);
+    // The XML representation of the year n BC is -n, so there is no year 0.
+    append((calendar.get(Calendar.ERA) == GregorianCalendar.BC) ? 1 - year : year,
+        calendar.get(Calendar.MONTH) + 1, calendar.get(Calendar.DAY_OF_MONTH), timeOfDay,
+        offset / 60000, out);
+  }
+
+  /**
+   * Appends the representation of the specified fields.
+   *
+   * @param year The astronomical year, in which 0 is 1 BC.
+   * @param month The month, from 1.
+   * @param day The day of the month, from 1.
+   * @param timeOfDay The milliseconds since midnight.
+   * @param timezone The offset from UTC in minutes.
+   * @param out The buffer to append to.
+   */
+  private static void append(long year, int month, int day, int timeOfDay, int timezone,
+      StringBuilder out) {
+    if (year <= 0) {
+      out.append('-');
+      appendDigits(1 - year, 4, out);
+    }
+    else {
+      appendDigits(year, 4, out);
+    }
+    out.append('-');
+    appendDigits(month, 2, out);
+    out.append('-');
+    appendDigits(day, 2, out);
+    out.append('T');
+    appendDigits(timeOfDay / TstampMillis.MILLISECS_PER_HOUR, 2, out);
+    out.append(':');
+    appendDigits(timeOfDay / TstampMillis.MILLISECS_PER_MINUTE % 60, 2, out);
+    out.append(':');
+    appendDigits(timeOfDay / TstampMillis.MILLISECS_PER_SECOND % 60, 2, out);
+    out.append('.');
+    appendDigits(timeOfDay % TstampMillis.MILLISECS_PER_SECOND, 3, out);
+    if (timezone == 0) {
+      out.append('Z');
+    }
+    else {
+      out.append((timezone < 0) ? '-' : '+');
+      int minutes = Math.abs(timezone);
+      appendDigits(minutes / 60, 2, out);
+      out.append(':');
+      appendDigits(minutes % 60, 2, out);
+    }
+  }
+
+  /**
+   * Appends a non-negative number, padded with leading zeros to at least the specified width.
+   *
+   * @param value The number.
+   * @param width The minimum number of digits.
+   * @param out The buffer to append to.
+   */
+  private static void appendDigits(long value, int width, StringBuilder out) {
+    long divisor = 1;
+    for (int digits = 1; digits < width || divisor * 10 <= value; digits++) {
+      divisor *= 10;
+    }
+    for (; divisor > 0; divisor /= 10) {
+      out.append((char) ('0' + (value / divisor) % 10));
+    }
+  }
+
+  /**
+   * Parses the representation held in source between start and end.
+   *
+   * @param source A CharSequence or a byte array.
+   * @param start The index of the first character.
+   * @param end The index after the last character.
+   * @param zone The time zone of timestamps that do not specify one.
+   * @param mode VALIDATE, MILLIS or TIMEZONE.
+   * @return INVALID if the representation is invalid, and otherwise 0, the time in
+   * milliseconds or the time zone offset in minutes, depending on the mode.
+   */
+  private static long parse(Object source, int start, int end, TimeZone zone, int mode) {
+    if (start >= end) {
+      return INVALID;
+    }
+    // A trailing time zone is recognized first, as it disambiguates the date forms.
+    int timezone = NO_TIMEZONE;
+    int bodyEnd = end;
+    if (charAt(source, end - 1) == 'Z') {
+      timezone = 0;
+      bodyEnd = end - 1;
+    }
+    else if (end - start >= 6 && charAt(source, end - 3) == ':'
+        && (charAt(source, end - 6) == '+' || charAt(source, end - 6) == '-')) {
+      int hours = digits(source, end - 5, 2, end);
+      int minutes = digits(source, end - 2, 2, end);
+      // As in JAXP, only the total offset is limited, so +01:99 is +02:39.
+      if (hours < 0 || minutes < 0 || hours * 60 + minutes > 14 * 60) {
+        return INVALID;
+      }
+      timezone = (charAt(source, end - 6) == '-') ? -(hours * 60 + minutes) : hours * 60 + minutes;
+      bodyEnd = end - 6;
+    }
+    long year = 1970;
+    boolean yearInRange = true;
+    int month = 1;
+    int day = 1;
+    // The last day of the month, if day exceeds it. JAXP allows this when the time is 24:00.
+    int lastDayExceeded = 0;
+    boolean hasTime = false;
+    int pos = start;
+    if (bodyEnd - pos >= 3 && charAt(source, pos + 2) == ':') {
+      hasTime = true;
+    }
+    else if (bodyEnd - pos >= 2 && charAt(source, pos) == '-' && charAt(source, pos + 1) == '-') {
+      if (bodyEnd - pos >= 3 && charAt(source, pos + 2) == '-') {
+        day = digits(source, pos + 3, 2, bodyEnd);
+        if (day < 1 || day > 31) {
+          return INVALID;
+        }
+        pos += 5;
+      }
+      else {
+        month = digits(source, pos + 2, 2, bodyEnd);
+        if (month < 1 || month > 12) {
+          return INVALID;
+        }
+        pos += 4;
+        if (pos < bodyEnd && charAt(source, pos) == '-') {
+          day = digits(source, pos + 1, 2, bodyEnd);
+          if (day < 1 || day > daysInMonth[month - 1]) {
+            return INVALID;
+          }
+          pos += 3;
+        }
+      }
+    }
+    else {
+      boolean negative = charAt(source, pos) == '-';
+      if (negative) {
+        pos++;
+      }
+      int first = pos;
+      long value = 0;
+      boolean zero = true;
+      for (; pos < bodyEnd && isDigit(charAt(source, pos)); pos++) {
+        int digit = charAt(source, pos) - '0';
+        value = (pos - first < maxYearDigits) ? value * 10 + digit : value;
+        zero = zero && digit == 0;
+      }
+      if (pos - first < 4 || zero) {
+        return INVALID;
+      }
+      // 10000 is a multiple of 400, so the last four digits determine leap years.
+      int lastDigits = digits(source, pos - 4, 4, pos);
+      boolean leapYear = (lastDigits % 4 == 0) && (lastDigits % 100 != 0 || lastDigits % 400 == 0);
+      yearInRange = pos - first <= maxYearDigits;
+      // The XML representation of the year n BC is -n, so there is no year 0.
+      year = negative ? 1 - value : value;
+      if (pos < bodyEnd && charAt(source, pos) == '-') {
+        month = digits(source, pos + 1, 2, bodyEnd);
+        if (month < 1 || month > 12) {
+          return INVALID;
+        }
+        pos += 3;
+        if (pos < bodyEnd && charAt(source, pos) == '-') {
+          day = digits(source, pos + 1, 2, bodyEnd);
+          int lastDay = (month == 2 && !leapYear) ? 28 : daysInMonth[month - 1];
+          if (day < 1 || day > 31) {
+            return INVALID;
+          }
+          if (day > lastDay) {
+            lastDayExceeded = lastDay;
+          }
+          pos += 3;
+          if (pos < bodyEnd && charAt(source, pos) == 'T') {
+            hasTime = true;
+            pos++;
+          }
+        }
+      }
+    }
+    int hour = 0;
+    int minute = 0;
+    int second = 0;
+    int millisecond = 0;
+    if (hasTime) {
+      hour = digits(source, pos, 2, bodyEnd);
+      minute = digits(source, pos + 3, 2, bodyEnd);
+      second = digits(source, pos + 6, 2, bodyEnd);
+      if (hour < 0 || minute < 0 || second < 0 || charAt(source, pos + 2) != ':'
+          || charAt(source, pos + 5) != ':' || hour > 24 || minute > 59 || second > 60
+          || (hour == 24 && (minute > 0 || second > 0))) {
+        return INVALID;
+      }
+      pos += 8;
+      if (pos < bodyEnd && charAt(source, pos) == '.') {
+        int first = ++pos;
+        for (; pos < bodyEnd && isDigit(charAt(source, pos)); pos++) {
+          if (pos - first < 3) {
+            millisecond = millisecond * 10 + charAt(source, pos) - '0';
+          }
+        }
+        if (pos == first) {
+          return INVALID;
+        }
+        for (int digits = pos - first; digits < 3; digits++) {
+          millisecond *= 10;
+        }
+      }
+    }
+    if (pos != bodyEnd || (lastDayExceeded > 0 && hour != 24)) {
+      return INVALID;
+    }
+    if (mode == VALIDATE) {
+      return 0;
+    }
+    if (mode == TIMEZONE) {
+      return timezone;
+    }
+    if (!yearInRange) {
+      return INVALID;
+    }
+    // A time without a date at 24:00 is midnight of the same default date.
+    if (hour == 24 && charAt(source, start + 2) == ':') {
+      hour = 0;
+    }
+    // JAXP adds the day for 24:00 to the last day of the month when the day is past it, so
+    // 2007-02-31T24:00:00 is 2007-03-01T00:00:00.
+    if (lastDayExceeded > 0) {
+      day = lastDayExceeded;
+    }
+    long local = ((TstampMillis.daysFromCivil(year, month, day) * 24 + hour) * 60 + minute)
+        * TstampMillis.MILLISECS_PER_MINUTE + second * TstampMillis.MILLISECS_PER_SECOND
+        + millisecond;
+    if (timezone != NO_TIMEZONE) {
+      return local - timezone * TstampMillis.MILLISECS_PER_MINUTE;
+    }
+    return local - getOffset(zone, local);
+  }
+
+  /**
+   * Returns the offset of the zone at the specified local time, as GregorianCalendar computes
+   * it: a transition applies once the local time reaches the transition time in the new
+   * offset, so local times skipped by a transition take the old offset and local times it
+   * repeats take the new one.
+   *
+   * @param zone The time zone.
+   * @param local The local time in milliseconds since the epoch.
+   * @return The offset in milliseconds.
+   */
+  private static int getOffset(TimeZone zone, long local) {
+    int before = zone.getOffset(local - TstampMillis.MILLISECS_PER_DAY);
+    int after = zone.getOffset(local + TstampMillis.MILLISECS_PER_DAY);
+    if (before == after) {
+      return zone.getOffset(local - before);
+    }
+    return (zone.getOffset(local - after) == after) ? after : before;
+  }
+
+  /**
+   * Returns the value of the specified number of digits.
+   *
+   * @param source A CharSequence or a byte array.
+   * @param pos The index of the first digit.
+   * @param count The number of digits.
+   * @param end The index after the last available character.
+   * @return The value, or -1 if the characters are not all digits.
+   */
+  private static int digits(Object source, int pos, int count, int end) {
+    if (pos + count > end) {
+      return -1;
+    }
+    int value = 0;
+    for (int i = pos; i < pos + count; i++) {
+      char c = charAt(source, i);
+      if (!isDigit(c)) {
+        return -1;
+      }
+      value = value * 10 + c - '0';
+    }
+    return value;
+  }
+
+  /**
+   * Returns true if the character is an ASCII digit.
+   *
+   * @param c The character.
+   * @return True if it is a digit.
+   */
+  private static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
+  }
+
+  /**
+   * Returns the character at the specified index.
+   *
+   * @param source A CharSequence or a byte array holding ASCII.
+   * @param index The index.
+   * @return The character.
+   */
+  private static char charAt(Object source, int index) {
+    if (source instanceof CharSequence) {
+      return ((CharSequence) source).charAt(index);
+    }
+    return (char) (((byte[]) source)[index] & 0xff);
+  }
+}
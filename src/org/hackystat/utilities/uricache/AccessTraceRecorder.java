@@ -0,0 +1,157 @@
+package org.hackystat.utilities.uricache;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+
+/**
+ * Records a compact binary trace of the operations performed on a UriCache, for later replay by
+ * AccessTraceSimulator. Each record is 13 bytes long:
+ * <pre>
+ * int  time   milliseconds since the start of the trace
+ * byte op     GET_HIT, GET_MISS, PUT, REMOVE, or CLEAR
+ * int  key    hash of the group and key (0 for CLEAR)
+ * int  size   serialized size in bytes of the value (PUT only, otherwise 0)
+ * </pre>
+ * The file begins with a 16 byte header containing the MAGIC number, the format VERSION, and the
+ * start time of the trace. Because the time is an int, a trace covers at most 24 days; records
+ * made after that are silently dropped.
+ * <p>
+ * Computing the size of a PUT requires serializing its value, so recording a trace slows down
+ * puts noticeably. Tracing is therefore meant to be turned on for a limited period with
+ * UriCache.startAccessTrace() and UriCache.stopAccessTrace().
+ *
+ * @author agent
+ */
+public class AccessTraceRecorder {
+
+  /** A get that found its entry. */
+  public static final byte GET_HIT = 0;
+  /** A get that did not find its entry. */
+  public static final byte GET_MISS = 1;
+  /** A put. */
+  public static final byte PUT = 2;
+  /** A removal of a single entry. */
+  public static final byte REMOVE = 3;
+  /** A removal of all entries. */
+  public static final byte CLEAR = 4;
+  /** Identifies trace files ("UCT1"). */
+  static final int MAGIC = 0x55435431;
+  /** The trace format version. */
+  static final int VERSION = 1;
+
+  /** The trace file. */
+  private final DataOutputStream out;
+  /** The time at which this trace started. */
+  private final long startTime;
+  /** The number of records written. */
+  private long count = 0;
+  /** True once this trace has been closed. */
+  private boolean closed = false;
+
+  /**
+   * Creates a new trace file, overwriting any existing one.
+   *
+   * @param file The trace file.
+   * @throws IOException If the file cannot be created.
+   */
+  public AccessTraceRecorder(File file) throws IOException {
+    this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 65536));
+    this.startTime = System.currentTimeMillis();
+    this.out.writeInt(MAGIC);
+    this.out.writeInt(VERSION);
+    this.out.writeLong(this.startTime);
+  }
+
+  /**
+   * Appends a record to this trace. Does nothing if the trace has been closed.
+   *
+   * @param op The operation, such as GET_HIT.
+   * @param keyHash The hash of the group and key.
+   * @param size The size of the value, or 0 if not known.
+   * @throws IOException If the record cannot be written.
+   */
+  public synchronized void record(byte op, int keyHash, int size) throws IOException {
+    long time = System.currentTimeMillis() - this.startTime;
+    if (this.closed || (time > Integer.MAX_VALUE)) {
+      return;
+    }
+    this.out.writeInt((int) time);
+    this.out.writeByte(op);
+    this.out.writeInt(keyHash);
+    this.out.writeInt(size);
+    this.count++;
+  }
+
+  /**
+   * Returns the number of records written so far.
+   * @return The number of records.
+   */
+  public synchronized long getCount() {
+    return this.count;
+  }
+
+  /**
+   * Flushes and closes this trace. Further records are ignored.
+   * @throws IOException If the file cannot be closed.
+   */
+  public synchronized void close() throws IOException {
+    if (!this.closed) {
+      this.closed = true;
+      this.out.close();
+    }
+  }
+
+  /**
+   * Returns the number of bytes in the Java serialization of value, which approximates the
+   * space it occupies in the disk cache.
+   *
+   * @param value The value.
+   * @return Its serialized size, or 0 if it cannot be serialized.
+   */
+  static int sizeOf(Serializable value) {
+    CountingOutputStream counter = new CountingOutputStream();
+    try {
+      ObjectOutputStream objectOut = new ObjectOutputStream(counter);
+      objectOut.writeObject(value);
+      objectOut.close();
+      return counter.count;
+    }
+    catch (IOException e) {
+      return 0;
+    }
+  }
+
+  /**
+   * An output stream that discards its output, keeping only a count of the bytes written.
+   */
+  private static class CountingOutputStream extends OutputStream {
+    /** The number of bytes written. */
+    private int count = 0;
+
+    /**
+     * Counts one byte.
+     * @param b The byte.
+     */
+    @Override
+    public void write(int b) {
+      this.count++;
+    }
+
+    /**
+     * Counts len bytes.
+     * @param b The bytes.
+     * @param off The offset of the first byte.
+     * @param len The number of bytes.
+     */
+    @Override
+    public void write(byte[] b, int off, int len) {
+      this.count += len;
+    }
+  }
+}
@@ -0,0 +1,457 @@
+package org.hackystat.utilities.uricache;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Replays an access trace recorded by AccessTraceRecorder against a model of a UriCache, in
+ * order to estimate the hit ratio and the memory and disk usage that alternative capacities,
+ * maximum lives, and eviction policies would have produced. This allows UriCache configurations
+ * to be tuned offline from production traces.
+ * <p>
+ * The model follows the JCS configuration that UriCache uses: every put is written through to
+ * the disk cache, at most capacity entries are held in memory, entries evicted from memory
+ * remain on disk, and a disk hit brings the entry back into memory. Expired entries are only
+ * discovered (and their space reclaimed) when they are next requested. A get that misses is
+ * assumed to be followed by the client retrieving the value and putting it into the cache, so
+ * the entry is added using the most recently recorded size for its key.
+ * <p>
+ * The simulator can be run from the command line:
+ * <pre>
+ * java org.hackystat.utilities.uricache.AccessTraceSimulator trace.bin 1000,10000 24,168 LRU,LFU
+ * </pre>
+ * which prints one line of results for each combination of capacity, maxLife (in hours) and
+ * policy.
+ *
+ * @author agent
+ */
+public class AccessTraceSimulator {
+
+  /** The eviction policies that can be simulated for the memory cache. */
+  public enum Policy {
+    /** Least recently used, as used by UriCache. */
+    LRU,
+    /** Least frequently used. */
+    LFU,
+    /** First in, first out. */
+    FIFO
+  }
+
+  /** The trace file. */
+  private final File trace;
+
+  /**
+   * Creates a simulator for the given trace file.
+   * @param trace The trace file written by AccessTraceRecorder.
+   */
+  public AccessTraceSimulator(File trace) {
+    this.trace = trace;
+  }
+
+  /**
+   * Replays the trace against a cache with the given configuration.
+   *
+   * @param capacity The maximum number of entries held in memory.
+   * @param maxLifeSeconds The maximum life of an entry, or 0 if entries never expire.
+   * @param policy The memory eviction policy.
+   * @return The results of the simulation.
+   * @throws IOException If the trace cannot be read.
+   */
+  public Result simulate(int capacity, long maxLifeSeconds, Policy policy) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(
+        new FileInputStream(this.trace), 65536));
+    try {
+      if ((in.readInt() != AccessTraceRecorder.MAGIC)
+          || (in.readInt() != AccessTraceRecorder.VERSION)) {
+        throw new IOException("Not a UriCache access trace: " + this.trace);
+      }
+      in.readLong();
+      Model model = new Model(capacity, maxLifeSeconds * 1000L, policy);
+      while (true) {
+        int time;
+        try {
+          time = in.readInt();
+        }
+        catch (EOFException e) {
+          break;
+        }
+        byte op = in.readByte();
+        int keyHash = in.readInt();
+        int size = in.readInt();
+        model.replay(time, op, keyHash, size);
+      }
+      return model.result;
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Runs the simulator from the command line, printing a line of results for each
+   * combination of the specified capacities, maxLife hours and policies.
+   *
+   * @param args The trace file, a comma separated list of capacities, a comma separated list of
+   * maxLife hours, and an optional comma separated list of policies (default LRU).
+   * @throws Exception If the trace cannot be read.
+   */
+  public static void main(String[] args) throws Exception {
+    if (args.length < 3) {
+      System.out.println("Usage: AccessTraceSimulator <trace file> <capacity,...> "
+          + "<maxLifeHours,...> [LRU|LFU|FIFO,...]");
+      return;
+    }
+    AccessTraceSimulator simulator = new AccessTraceSimulator(new File(args[0]));
+    String policies = (args.length > 3) ? args[3] : "LRU";
+    System.out.println("policy capacity maxLifeHours requests hitRatio memoryHitRatio "
+        + "peakMemoryBytes peakDiskBytes");
+    for (String policy : policies.split(",")) {
+      for (String capacity : args[1].split(",")) {
+        for (String hours : args[2].split(",")) {
+          long maxLifeSeconds = (long) (Double.parseDouble(hours) * 3600D);
+          Result result = simulator.simulate(Integer.parseInt(capacity), maxLifeSeconds,
+              Policy.valueOf(policy));
+          System.out.println(policy + " " + capacity + " " + hours + " " + result);
+        }
+      }
+    }
+  }
+
+  /**
+   * The results of one simulation.
+   */
+  public static class Result {
+    /** The number of gets. */
+    private long requests = 0;
+    /** The number of gets satisfied from memory. */
+    private long memoryHits = 0;
+    /** The number of gets satisfied from disk. */
+    private long diskHits = 0;
+    /** The largest number of bytes held in memory. */
+    private long peakMemoryBytes = 0;
+    /** The largest number of bytes held on disk. */
+    private long peakDiskBytes = 0;
+
+    /**
+     * Returns the number of gets.
+     * @return The number of gets.
+     */
+    public long getRequests() {
+      return this.requests;
+    }
+
+    /**
+     * Returns the number of gets satisfied from memory.
+     * @return The memory hits.
+     */
+    public long getMemoryHits() {
+      return this.memoryHits;
+    }
+
+    /**
+     * Returns the number of gets satisfied from disk.
+     * @return The disk hits.
+     */
+    public long getDiskHits() {
+      return this.diskHits;
+    }
+
+    /**
+     * Returns the number of gets that were not satisfied.
+     * @return The misses.
+     */
+    public long getMisses() {
+      return this.requests - this.memoryHits - this.diskHits;
+    }
+
+    /**
+     * Returns the fraction of gets satisfied from memory or disk.
+     * @return The hit ratio, or 0 if there were no gets.
+     */
+    public double getHitRatio() {
+      return (this.requests == 0) ? 0 :
+        (double) (this.memoryHits + this.diskHits) / (double) this.requests;
+    }
+
+    /**
+     * Returns the fraction of gets satisfied from memory.
+     * @return The memory hit ratio, or 0 if there were no gets.
+     */
+    public double getMemoryHitRatio() {
+      return (this.requests == 0) ? 0 : (double) this.memoryHits / (double) this.requests;
+    }
+
+    /**
+     * Returns the largest number of value bytes held in memory during the simulation.
+     * @return The peak memory usage.
+     */
+    public long getPeakMemoryBytes() {
+      return this.peakMemoryBytes;
+    }
+
+    /**
+     * Returns the largest number of value bytes held on disk during the simulation.
+     * @return The peak disk usage.
+     */
+    public long getPeakDiskBytes() {
+      return this.peakDiskBytes;
+    }
+
+    /**
+     * Returns the results as a space separated line.
+     * @return The results.
+     */
+    @Override
+    public String toString() {
+      return this.requests + " " + String.format("%.4f %.4f", getHitRatio(),
+          getMemoryHitRatio()) + " " + this.peakMemoryBytes + " " + this.peakDiskBytes;
+    }
+  }
+
+  /**
+   * A simulated cache entry.
+   */
+  private static class Entry {
+    /** The hash of the entry's group and key. */
+    private final int keyHash;
+    /** The size of the entry's value. */
+    private final int size;
+    /** The time at which the entry expires, or Long.MAX_VALUE. */
+    private final long expires;
+    /** The number of times the entry has been accessed. */
+    private long frequency = 1;
+    /** The sequence number of the entry's last access, used to break LFU ties. */
+    private long lastAccess;
+    /** True if the entry is held in memory. */
+    private boolean inMemory = false;
+
+    /**
+     * Creates a new entry.
+     * @param keyHash The key hash.
+     * @param size The value size.
+     * @param expires The expiration time.
+     * @param lastAccess The sequence number of its creation.
+     */
+    Entry(int keyHash, int size, long expires, long lastAccess) {
+      this.keyHash = keyHash;
+      this.size = size;
+      this.expires = expires;
+      this.lastAccess = lastAccess;
+    }
+  }
+
+  /**
+   * The simulated cache.
+   */
+  private static class Model {
+    /** The maximum number of entries in memory. */
+    private final int capacity;
+    /** The maximum life of an entry in milliseconds, or 0. */
+    private final long maxLifeMillis;
+    /** The eviction policy. */
+    private final Policy policy;
+    /** All live entries, which are all on disk. */
+    private final Map<Integer, Entry> entries = new HashMap<Integer, Entry>();
+    /** The entries in memory in LRU or FIFO eviction order. */
+    private final LinkedHashMap<Integer, Entry> memory;
+    /** The entries in memory in LFU eviction order. */
+    private final TreeSet<Entry> lfuMemory = new TreeSet<Entry>(new Comparator<Entry>() {
+      /**
+       * Orders entries by frequency, then by last access.
+       * @param e1 The first entry.
+       * @param e2 The second entry.
+       * @return The usual comparator result.
+       */
+      public int compare(Entry e1, Entry e2) {
+        if (e1.frequency != e2.frequency) {
+          return (e1.frequency < e2.frequency) ? -1 : 1;
+        }
+        return (e1.lastAccess < e2.lastAccess) ? -1 : ((e1.lastAccess == e2.lastAccess) ? 0 : 1);
+      }
+    });
+    /** The last recorded size for each key. */
+    private final Map<Integer, Integer> sizes = new HashMap<Integer, Integer>();
+    /** The number of entries in memory. */
+    private int memoryCount = 0;
+    /** The number of value bytes in memory. */
+    private long memoryBytes = 0;
+    /** The number of value bytes on disk. */
+    private long diskBytes = 0;
+    /** The sequence number of the current record. */
+    private long sequence = 0;
+    /** The results so far. */
+    private final Result result = new Result();
+
+    /**
+     * Creates a new empty model.
+     * @param capacity The maximum number of entries in memory.
+     * @param maxLifeMillis The maximum life of an entry, or 0.
+     * @param policy The eviction policy.
+     */
+    Model(int capacity, long maxLifeMillis, Policy policy) {
+      this.capacity = capacity;
+      this.maxLifeMillis = maxLifeMillis;
+      this.policy = policy;
+      this.memory = new LinkedHashMap<Integer, Entry>(16, 0.75f, policy == Policy.LRU);
+    }
+
+    /**
+     * Applies one trace record to the model.
+     * @param time The time of the record.
+     * @param op The operation.
+     * @param keyHash The key hash.
+     * @param size The value size.
+     */
+    void replay(long time, byte op, int keyHash, int size) {
+      this.sequence++;
+      switch (op) {
+      case AccessTraceRecorder.GET_HIT:
+      case AccessTraceRecorder.GET_MISS:
+        get(time, keyHash);
+        break;
+      case AccessTraceRecorder.PUT:
+        this.sizes.put(keyHash, size);
+        remove(keyHash);
+        add(time, keyHash, size);
+        break;
+      case AccessTraceRecorder.REMOVE:
+        remove(keyHash);
+        break;
+      case AccessTraceRecorder.CLEAR:
+        for (Entry entry : this.entries.values()) {
+          removeFromMemory(entry);
+        }
+        this.entries.clear();
+        this.diskBytes = 0;
+        break;
+      default:
+        break;
+      }
+    }
+
+    /**
+     * Simulates a get, adding the entry if it is not found.
+     * @param time The time of the get.
+     * @param keyHash The key hash.
+     */
+    private void get(long time, int keyHash) {
+      this.result.requests++;
+      Entry entry = this.entries.get(keyHash);
+      if ((entry != null) && (entry.expires <= time)) {
+        remove(keyHash);
+        entry = null;
+      }
+      if (entry == null) {
+        Integer size = this.sizes.get(keyHash);
+        add(time, keyHash, (size == null) ? 0 : size);
+      }
+      else if (entry.inMemory) {
+        this.result.memoryHits++;
+        touch(entry);
+      }
+      else {
+        this.result.diskHits++;
+        entry.frequency++;
+        entry.lastAccess = this.sequence;
+        addToMemory(entry);
+      }
+    }
+
+    /**
+     * Records an access to an entry in memory.
+     * @param entry The entry.
+     */
+    private void touch(Entry entry) {
+      if (this.policy == Policy.LFU) {
+        this.lfuMemory.remove(entry);
+        entry.frequency++;
+        entry.lastAccess = this.sequence;
+        this.lfuMemory.add(entry);
+      }
+      else {
+        // An access-ordered LinkedHashMap moves the entry to the end on get.
+        this.memory.get(entry.keyHash);
+      }
+    }
+
+    /**
+     * Adds a new entry, which goes both to memory and to disk.
+     * @param time The current time.
+     * @param keyHash The key hash.
+     * @param size The value size.
+     */
+    private void add(long time, int keyHash, int size) {
+      long expires = (this.maxLifeMillis == 0) ? Long.MAX_VALUE : time + this.maxLifeMillis;
+      Entry entry = new Entry(keyHash, size, expires, this.sequence);
+      this.entries.put(keyHash, entry);
+      this.diskBytes += size;
+      this.result.peakDiskBytes = Math.max(this.result.peakDiskBytes, this.diskBytes);
+      addToMemory(entry);
+    }
+
+    /**
+     * Puts entry into memory, evicting another entry if memory is full.
+     * @param entry The entry.
+     */
+    private void addToMemory(Entry entry) {
+      if (this.capacity <= 0) {
+        return;
+      }
+      if (this.memoryCount >= this.capacity) {
+        Entry victim = (this.policy == Policy.LFU) ? this.lfuMemory.first() :
+          this.memory.values().iterator().next();
+        removeFromMemory(victim);
+      }
+      entry.inMemory = true;
+      if (this.policy == Policy.LFU) {
+        this.lfuMemory.add(entry);
+      }
+      else {
+        this.memory.put(entry.keyHash, entry);
+      }
+      this.memoryCount++;
+      this.memoryBytes += entry.size;
+      this.result.peakMemoryBytes = Math.max(this.result.peakMemoryBytes, this.memoryBytes);
+    }
+
+    /**
+     * Removes an entry from memory and disk, if present.
+     * @param keyHash The key hash.
+     */
+    private void remove(int keyHash) {
+      Entry entry = this.entries.remove(keyHash);
+      if (entry != null) {
+        this.diskBytes -= entry.size;
+        removeFromMemory(entry);
+      }
+    }
+
+    /**
+     * Removes an entry from memory, if it is there.
+     * @param entry The entry.
+     */
+    private void removeFromMemory(Entry entry) {
+      if (!entry.inMemory) {
+        return;
+      }
+      if (this.policy == Policy.LFU) {
+        this.lfuMemory.remove(entry);
+      }
+      else {
+        this.memory.remove(entry.keyHash);
+      }
+      entry.inMemory = false;
+      this.memoryCount--;
+      this.memoryBytes -= entry.size;
+    }
+  }
+}
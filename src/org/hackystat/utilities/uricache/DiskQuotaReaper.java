@@ -0,0 +1,148 @@
+package org.hackystat.utilities.uricache;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the disk tiers of UriCaches within their byte quotas. Once a quota has been set, a daemon
+ * thread checks the live bytes on disk of every cache once a minute, and asks each cache over
+ * its own quota, and then the largest caches while the total is over the global quota, to evict
+ * enough of their coldest entries. The space freed by the evictions is reused by later puts, and
+ * returned to the file system when the indexed disk cache compacts its data file.
+ *
+ * @author agent
+ */
+final class DiskQuotaReaper {
+
+  /** The number of seconds between checks. */
+  static final long INTERVAL_SECONDS = 60L;
+  /** The caches, by name. */
+  private static final ConcurrentMap<String, UriCache> caches = 
+    new ConcurrentHashMap<String, UriCache>();
+  /** The quotas in bytes of the caches that have one, by name. */
+  private static final ConcurrentMap<String, Long> quotas = new ConcurrentHashMap<String, Long>();
+  /** The quota in bytes for all of the caches together, or 0 if there is none. */
+  private static volatile long globalQuota = 0L;
+  /** Runs the checks, or null if no quota has been set yet. */
+  private static ScheduledExecutorService executor = null;
+
+  /** Make this class noninstantiable. */
+  private DiskQuotaReaper() {
+    // Do nothing.
+  }
+
+  /**
+   * Adds a newly configured cache to the caches that are checked.
+   * @param cacheName The name of the cache.
+   * @param cache A UriCache instance for the cache.
+   */
+  static void register(String cacheName, UriCache cache) {
+    caches.put(cacheName, cache);
+  }
+
+  /**
+   * Removes a disposed cache, and its quota, from the caches that are checked.
+   * @param cacheName The name of the cache.
+   */
+  static void unregister(String cacheName) {
+    caches.remove(cacheName);
+    quotas.remove(cacheName);
+  }
+
+  /**
+   * Sets the quota of one cache, and starts the checks if necessary.
+   * @param cacheName The name of the cache.
+   * @param maxBytes The quota in bytes, or 0 for none.
+   */
+  static void setQuota(String cacheName, long maxBytes) {
+    if (maxBytes <= 0) {
+      quotas.remove(cacheName);
+    }
+    else {
+      quotas.put(cacheName, maxBytes);
+      start();
+    }
+  }
+
+  /**
+   * Sets the quota of all caches together, and starts the checks if necessary.
+   * @param maxBytes The quota in bytes, or 0 for none.
+   */
+  static void setGlobalQuota(long maxBytes) {
+    globalQuota = Math.max(0L, maxBytes);
+    if (maxBytes > 0) {
+      start();
+    }
+  }
+
+  /**
+   * Starts the daemon thread that runs the checks, unless it is already running.
+   */
+  private static synchronized void start() {
+    if (executor != null) {
+      return;
+    }
+    executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      /**
+       * Creates the daemon thread.
+       * @param runnable The task run by the thread.
+       * @return The thread.
+       */
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "UriCache disk quota reaper");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    executor.scheduleWithFixedDelay(new Runnable() {
+      /** Runs one check. */
+      public void run() {
+        reclaim();
+      }
+    }, INTERVAL_SECONDS, INTERVAL_SECONDS, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Checks every cache against its quota and then all of them against the global quota, 
+   * evicting entries from those over quota.
+   * @return The number of entries evicted.
+   */
+  static synchronized int reclaim() {
+    int evicted = 0;
+    long total = 0;
+    Map<String, Long> usage = new HashMap<String, Long>();
+    for (Map.Entry<String, UriCache> entry : caches.entrySet()) {
+      UriCache cache = entry.getValue();
+      long bytes = cache.getLiveDiskBytes();
+      Long quota = quotas.get(entry.getKey());
+      if (quota != null && bytes > quota) {
+        evicted += cache.evictColdEntries(bytes - quota);
+        bytes = cache.getLiveDiskBytes();
+      }
+      usage.put(entry.getKey(), bytes);
+      total += bytes;
+    }
+    long limit = globalQuota;
+    while (limit > 0 && total > limit && !usage.isEmpty()) {
+      String largest = null;
+      for (Map.Entry<String, Long> entry : usage.entrySet()) {
+        if (largest == null || entry.getValue() > usage.get(largest)) {
+          largest = entry.getKey();
+        }
+      }
+      long bytes = usage.remove(largest);
+      UriCache cache = caches.get(largest);
+      if (cache != null) {
+        evicted += cache.evictColdEntries(Math.min(bytes, total - limit));
+        total -= bytes - cache.getLiveDiskBytes();
+      }
+    }
+    return evicted;
+  }
+}
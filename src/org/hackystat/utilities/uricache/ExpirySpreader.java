@@ -0,0 +1,141 @@
+package org.hackystat.utilities.uricache;
+
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Spreads out the expiration times of UriCache entries so that entries put at about the same
+ * time (for example, during a nightly bulk preload) do not all expire in the same minute and
+ * cause a burst of reloads against the origin service. Two mechanisms are provided:
+ * <ul>
+ * <li> Jitter: each maxLife is randomly shortened by up to jitterFraction of its value. A
+ * jitterFraction of 0.1 means that an entry with a one day maxLife expires somewhere between
+ * 21.6 and 24 hours after it was put.
+ * <li> Rate limiting: at most maxExpirationsPerSecond entries are scheduled to expire in any
+ * given second. If the second chosen for an entry is already full, the entry's expiration is
+ * pushed back to the next second with room. Note that this can extend an entry's life past its
+ * requested maxLife.
+ * </ul>
+ * A single ExpirySpreader is meant to be shared by all of the UriCache instances that access a
+ * region, so that the rate limit applies to the region as a whole.
+ *
+ * <pre>
+ * UriCache cache = new UriCache("dailyprojectdata", "dailyprojectdata");
+ * cache.setExpirySpreader(new ExpirySpreader(0.1, 50));
+ * </pre>
+ *
+ * @author agent
+ */
+public class ExpirySpreader {
+
+  /** The maximum fraction of an entry's maxLife that can be removed by jitter. */
+  private final double jitterFraction;
+  /** The maximum number of expirations scheduled per second, or 0 for no limit. */
+  private final int maxExpirationsPerSecond;
+  /** Generates the jitter. */
+  private final Random random = new Random();
+  /** Maps a second (since the epoch) to the expirations scheduled in that second. */
+  private final TreeMap<Long, Second> expirations = new TreeMap<Long, Second>();
+
+  /**
+   * The expirations scheduled in one second. Once a second is full, next points to a later
+   * second that may have room. Following these pointers and then pointing every full second on
+   * the path directly at the second found (path compression) means each put visits an amortized
+   * constant number of seconds, however long the run of full seconds.
+   */
+  private static final class Second {
+    /** The number of expirations scheduled in this second. */
+    private int count;
+    /** If this second is full, a later second that may have room. */
+    private long next;
+  }
+
+  /**
+   * Creates a new ExpirySpreader.
+   *
+   * @param jitterFraction A value between 0 and 1 indicating the maximum fraction of maxLife that
+   * will be randomly removed from each entry's life. 0 disables jitter.
+   * @param maxExpirationsPerSecond The maximum number of entries allowed to expire in any one
+   * second. 0 disables rate limiting.
+   */
+  public ExpirySpreader(double jitterFraction, int maxExpirationsPerSecond) {
+    if ((jitterFraction < 0) || (jitterFraction > 1)) {
+      throw new IllegalArgumentException("jitterFraction must be between 0 and 1: "
+          + jitterFraction);
+    }
+    if (maxExpirationsPerSecond < 0) {
+      throw new IllegalArgumentException("maxExpirationsPerSecond must not be negative: "
+          + maxExpirationsPerSecond);
+    }
+    this.jitterFraction = jitterFraction;
+    this.maxExpirationsPerSecond = maxExpirationsPerSecond;
+  }
+
+  /**
+   * Returns the maxLife in seconds to be used for an entry put now whose requested maxLife is
+   * maxLifeSeconds.
+   *
+   * @param maxLifeSeconds The requested maxLife, in seconds.
+   * @return The spread maxLife, in seconds.
+   */
+  public long spread(long maxLifeSeconds) {
+    return spread(maxLifeSeconds, System.currentTimeMillis() / 1000L);
+  }
+
+  /**
+   * Returns the maxLife in seconds to be used for an entry put at nowSeconds whose requested
+   * maxLife is maxLifeSeconds. Package-private to allow testing with a fixed clock.
+   *
+   * @param maxLifeSeconds The requested maxLife, in seconds.
+   * @param nowSeconds The current time, in seconds since the epoch.
+   * @return The spread maxLife, in seconds.
+   */
+  synchronized long spread(long maxLifeSeconds, long nowSeconds) {
+    long life = maxLifeSeconds;
+    if (this.jitterFraction > 0) {
+      life -= (long) (this.random.nextDouble() * this.jitterFraction * maxLifeSeconds);
+    }
+    if (this.maxExpirationsPerSecond == 0) {
+      return life;
+    }
+    // Forget about the seconds that have already gone by. Full seconds only point forward, so
+    // none of the remaining seconds points into the part that is cleared.
+    this.expirations.headMap(nowSeconds).clear();
+    long requestedSecond = nowSeconds + life;
+    long expirationSecond = findFreeSecond(requestedSecond);
+    Second second = this.expirations.get(expirationSecond);
+    if (second == null) {
+      second = new Second();
+      this.expirations.put(expirationSecond, second);
+    }
+    second.count++;
+    if (second.count >= this.maxExpirationsPerSecond) {
+      second.next = expirationSecond + 1;
+    }
+    // Point the full seconds passed over directly at the second found.
+    long current = requestedSecond;
+    while (current != expirationSecond) {
+      Second full = this.expirations.get(current);
+      current = full.next;
+      full.next = expirationSecond;
+    }
+    return expirationSecond - nowSeconds;
+  }
+
+  /**
+   * Returns the first second at or after the given second that is not full, by following the
+   * next pointers of full seconds.
+   *
+   * @param fromSecond The second to start from.
+   * @return The first second with room.
+   */
+  private long findFreeSecond(long fromSecond) {
+    long current = fromSecond;
+    Second second = this.expirations.get(current);
+    while ((second != null) && (second.count >= this.maxExpirationsPerSecond)) {
+      current = second.next;
+      second = this.expirations.get(current);
+    }
+    return current;
+  }
+}
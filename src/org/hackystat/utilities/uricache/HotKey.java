@@ -0,0 +1,67 @@
+package org.hackystat.utilities.uricache;
+
+import java.io.Serializable;
+
+/**
+ * Describes one of the most frequently requested entries of a UriCache, as reported by
+ * UriCache.getHotKeys().
+ *
+ * @author agent
+ */
+public class HotKey {
+
+  /** The key. */
+  private final Serializable key;
+  /** The group, or null for the default group. */
+  private final String group;
+  /** The estimated number of recent gets. */
+  private final long estimatedGets;
+
+  /**
+   * Creates a new hot key.
+   *
+   * @param key The key.
+   * @param group The group, or null for the default group.
+   * @param estimatedGets The estimated number of recent gets.
+   */
+  HotKey(Serializable key, String group, long estimatedGets) {
+    this.key = key;
+    this.group = group;
+    this.estimatedGets = estimatedGets;
+  }
+
+  /**
+   * Returns the key.
+   * @return The key.
+   */
+  public Serializable getKey() {
+    return this.key;
+  }
+
+  /**
+   * Returns the group of the entry.
+   * @return The group, or null for entries added with put().
+   */
+  public String getGroup() {
+    return this.group;
+  }
+
+  /**
+   * Returns the estimated number of recent gets of the entry. The estimate is derived from a
+   * sample of the gets, may overestimate but not underestimate the sampled count, and decays
+   * over time so that keys which are no longer requested cool down.
+   * @return The estimated number of gets.
+   */
+  public long getEstimatedGets() {
+    return this.estimatedGets;
+  }
+
+  /**
+   * Returns a string representation of this hot key.
+   * @return The string.
+   */
+  @Override
+  public String toString() {
+    return "[HotKey " + this.key + " group=" + this.group + " gets=" + this.estimatedGets + "]";
+  }
+}
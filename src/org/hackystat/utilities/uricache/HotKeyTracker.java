@@ -0,0 +1,459 @@
+package org.hackystat.utilities.uricache;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Detects the most frequently requested entries of a UriCache, and optionally keeps per-thread
+ * read replicas of them.
+ * <p>
+ * One get in SAMPLE_INTERVAL is counted, at random, in a count-min sketch whose counters are
+ * halved every AGING_SAMPLES samples so that the counts favor recent gets. A sampled key whose
+ * estimated count reaches that of the coldest of the topN current hot keys replaces it. The hot
+ * keys are published as an immutable map, so checking whether a key is hot takes no lock.
+ * <p>
+ * A replica records the write epoch of its key's stripe when it is filled. Every write to the
+ * cache increments the epoch of the stripe of the written key after the write, so a replica
+ * filled before the write (or during it) is discarded on its next use. Replicas are also
+ * discarded once the entry they were filled from has expired.
+ *
+ * @author agent
+ */
+final class HotKeyTracker {
+
+  /** On average, one get in SAMPLE_INTERVAL is counted. Must be a power of two. */
+  static final int SAMPLE_INTERVAL = 8;
+  /** The number of rows in the sketch. */
+  private static final int DEPTH = 4;
+  /** The number of counters in each row of the sketch. Must be a power of two. */
+  private static final int WIDTH = 4096;
+  /** The number of samples after which the counters are halved. */
+  private static final int AGING_SAMPLES = 10 * WIDTH;
+  /** The number of write epoch stripes. Must be a power of two. */
+  private static final int STRIPES = 64;
+  /** The maximum number of replicas held by each thread, per hot key. */
+  private static final int REPLICAS_PER_KEY = 4;
+
+  /** The name of the default group, which is reported as a null group. */
+  private final String defaultGroup;
+  /** The number of hot keys to be tracked. */
+  private final int topN;
+  /** True if hot entries are replicated. */
+  private final boolean replicate;
+  /** The counters of the sketch, row by row. */
+  private final AtomicIntegerArray counters = new AtomicIntegerArray(DEPTH * WIDTH);
+  /** The number of samples since the counters were last halved. */
+  private final AtomicInteger samples = new AtomicInteger();
+  /** The write epoch of each stripe. */
+  private final AtomicLongArray epochs = new AtomicLongArray(STRIPES);
+  /** The current hot keys. Guarded by this. */
+  private final Set<Entry> candidates = new HashSet<Entry>();
+  /** The estimated count a sampled key must reach to become hot. */
+  private volatile int threshold = 0;
+  /** The keys of each group that are currently hot. Replaced, never modified. */
+  private volatile Map<String, Set<Serializable>> hot =
+    Collections.<String, Set<Serializable>>emptyMap();
+  /** The sampling state and replicas of each thread. */
+  private final ThreadLocal<ThreadState> threadStates = new ThreadLocal<ThreadState>() {
+    /**
+     * Returns the state of a thread that has not used this tracker yet.
+     * @return The new state.
+     */
+    @Override
+    protected ThreadState initialValue() {
+      return new ThreadState();
+    }
+  };
+
+  /**
+   * Creates a new tracker.
+   *
+   * @param topN The number of hot keys to be tracked.
+   * @param replicate True if hot entries are to be replicated.
+   * @param defaultGroup The name of the default group of the cache.
+   */
+  HotKeyTracker(int topN, boolean replicate, String defaultGroup) {
+    if (topN <= 0) {
+      throw new IllegalArgumentException("topN must be positive: " + topN);
+    }
+    this.topN = topN;
+    this.replicate = replicate;
+    this.defaultGroup = defaultGroup;
+  }
+
+  /**
+   * Records a get of key in group, and returns true if replicas should be used for the entry.
+   *
+   * @param key The key.
+   * @param group The group.
+   * @return True if the entry is hot and hot entries are replicated.
+   */
+  boolean record(Serializable key, String group) {
+    ThreadState state = this.threadStates.get();
+    if (state.nextRandom() % SAMPLE_INTERVAL == 0) {
+      int hash = spread(UriCacheSnapshot.hash(group, key));
+      int estimate = increment(hash);
+      if (this.samples.incrementAndGet() >= AGING_SAMPLES) {
+        age();
+      }
+      if (estimate >= this.threshold && !isHot(key, group)) {
+        offer(new Entry(key, group, hash));
+      }
+    }
+    return this.replicate && isHot(key, group);
+  }
+
+  /**
+   * Returns true if key is currently one of the hot keys of group.
+   *
+   * @param key The key.
+   * @param group The group.
+   * @return True if the key is hot.
+   */
+  private boolean isHot(Serializable key, String group) {
+    Set<Serializable> keys = this.hot.get(group);
+    return keys != null && keys.contains(key);
+  }
+
+  /**
+   * Returns the calling thread's replica of the entry, or null if it has none that is valid.
+   *
+   * @param key The key.
+   * @param group The group.
+   * @return The replicated value, or null.
+   */
+  Object getReplica(Serializable key, String group) {
+    ThreadState state = this.threadStates.get();
+    Map<Serializable, Replica> groupReplicas = state.replicas.get(group);
+    Replica replica = (groupReplicas == null) ? null : groupReplicas.get(key);
+    if (replica == null) {
+      return null;
+    }
+    if (replica.epoch != this.epochs.get(replica.stripe)
+        || System.currentTimeMillis() >= replica.expirationTime) {
+      groupReplicas.remove(key);
+      state.replicaCount--;
+      return null;
+    }
+    return replica.value;
+  }
+
+  /**
+   * Returns the current write epoch of the stripe of key, to be passed to putReplica() once the
+   * value of the entry has been retrieved.
+   *
+   * @param key The key.
+   * @param group The group.
+   * @return The epoch.
+   */
+  long getEpoch(Serializable key, String group) {
+    return this.epochs.get(stripe(key, group));
+  }
+
+  /**
+   * Gives the calling thread a replica of the entry. The thread's replicas are discarded when it
+   * holds more than REPLICAS_PER_KEY times topN of them, which only happens when the hot keys
+   * change.
+   *
+   * @param key The key.
+   * @param group The group.
+   * @param value The value of the entry.
+   * @param expirationTime The time at which the entry expires, in milliseconds.
+   * @param epoch The epoch returned by getEpoch() before the value was retrieved.
+   */
+  void putReplica(Serializable key, String group, Object value, long expirationTime,
+      long epoch) {
+    ThreadState state = this.threadStates.get();
+    if (state.replicaCount >= REPLICAS_PER_KEY * this.topN) {
+      state.replicas.clear();
+      state.replicaCount = 0;
+    }
+    Map<Serializable, Replica> groupReplicas = state.replicas.get(group);
+    if (groupReplicas == null) {
+      groupReplicas = new HashMap<Serializable, Replica>();
+      state.replicas.put(group, groupReplicas);
+    }
+    Replica replica = new Replica(value, expirationTime, stripe(key, group), epoch);
+    if (groupReplicas.put(key, replica) == null) {
+      state.replicaCount++;
+    }
+  }
+
+  /**
+   * Invalidates the replicas of the entry, and of others in the same stripe. Must be called
+   * after the entry has been written.
+   *
+   * @param key The key.
+   * @param group The group.
+   */
+  void invalidate(Serializable key, String group) {
+    this.epochs.incrementAndGet(stripe(key, group));
+  }
+
+  /**
+   * Invalidates every replica. Must be called after the entries have been written.
+   */
+  void invalidateAll() {
+    for (int i = 0; i < STRIPES; i++) {
+      this.epochs.incrementAndGet(i);
+    }
+  }
+
+  /**
+   * Returns the current hot keys, hottest first.
+   *
+   * @return The hot keys.
+   */
+  synchronized List<HotKey> getHotKeys() {
+    List<HotKey> hotKeys = new ArrayList<HotKey>(this.candidates.size());
+    for (Entry entry : this.candidates) {
+      String group = this.defaultGroup.equals(entry.group) ? null : entry.group;
+      long gets = (long) estimate(entry.hash) * SAMPLE_INTERVAL;
+      hotKeys.add(new HotKey(entry.key, group, gets));
+    }
+    Collections.sort(hotKeys, new Comparator<HotKey>() {
+      /**
+       * Orders hot keys by decreasing estimated gets.
+       * @param first The first hot key.
+       * @param second The second hot key.
+       * @return The comparison.
+       */
+      public int compare(HotKey first, HotKey second) {
+        long difference = second.getEstimatedGets() - first.getEstimatedGets();
+        return (difference < 0) ? -1 : ((difference > 0) ? 1 : 0);
+      }
+    });
+    return hotKeys;
+  }
+
+  /**
+   * Makes entry a hot key if it is estimated to be hotter than the coldest hot key, which it
+   * then replaces.
+   *
+   * @param entry The sampled entry.
+   */
+  private synchronized void offer(Entry entry) {
+    if (this.candidates.contains(entry)) {
+      return;
+    }
+    if (this.candidates.size() >= this.topN) {
+      Entry coldest = null;
+      int coldestEstimate = Integer.MAX_VALUE;
+      for (Entry candidate : this.candidates) {
+        int estimate = estimate(candidate.hash);
+        if (estimate < coldestEstimate) {
+          coldest = candidate;
+          coldestEstimate = estimate;
+        }
+      }
+      if (estimate(entry.hash) <= coldestEstimate) {
+        this.threshold = coldestEstimate + 1;
+        return;
+      }
+      this.candidates.remove(coldest);
+    }
+    this.candidates.add(entry);
+    publish();
+  }
+
+  /**
+   * Publishes the current hot keys for lock-free lookup, and updates the threshold.
+   */
+  private void publish() {
+    Map<String, Set<Serializable>> groups = new HashMap<String, Set<Serializable>>();
+    int coldestEstimate = Integer.MAX_VALUE;
+    for (Entry candidate : this.candidates) {
+      Set<Serializable> keys = groups.get(candidate.group);
+      if (keys == null) {
+        keys = new HashSet<Serializable>();
+        groups.put(candidate.group, keys);
+      }
+      keys.add(candidate.key);
+      coldestEstimate = Math.min(coldestEstimate, estimate(candidate.hash));
+    }
+    this.hot = groups;
+    this.threshold = (this.candidates.size() < this.topN) ? 0 : coldestEstimate;
+  }
+
+  /**
+   * Halves every counter, unless another thread has just done so. The halving is not atomic,
+   * so a few concurrent increments may be lost, which only makes the counts slightly lower.
+   */
+  private synchronized void age() {
+    if (this.samples.get() < AGING_SAMPLES) {
+      return;
+    }
+    for (int i = 0; i < DEPTH * WIDTH; i++) {
+      this.counters.set(i, this.counters.get(i) >>> 1);
+    }
+    this.samples.set(0);
+    this.threshold = this.threshold >>> 1;
+  }
+
+  /**
+   * Increments the counters of hash and returns its new estimated count.
+   *
+   * @param hash The spread hash of the entry.
+   * @return The estimated count.
+   */
+  private int increment(int hash) {
+    int estimate = Integer.MAX_VALUE;
+    for (int row = 0; row < DEPTH; row++) {
+      estimate = Math.min(estimate, this.counters.incrementAndGet(index(hash, row)));
+    }
+    return estimate;
+  }
+
+  /**
+   * Returns the estimated count of hash, which is the smallest of its counters.
+   *
+   * @param hash The spread hash of the entry.
+   * @return The estimated count.
+   */
+  private int estimate(int hash) {
+    int estimate = Integer.MAX_VALUE;
+    for (int row = 0; row < DEPTH; row++) {
+      estimate = Math.min(estimate, this.counters.get(index(hash, row)));
+    }
+    return estimate;
+  }
+
+  /**
+   * Returns the index of the counter of hash in a row of the sketch. Each row uses a different
+   * combination of the two halves of the hash.
+   *
+   * @param hash The spread hash of the entry.
+   * @param row The row.
+   * @return The index into counters.
+   */
+  private static int index(int hash, int row) {
+    int rowHash = hash + row * ((hash >>> 16) | 1);
+    return row * WIDTH + (rowHash & (WIDTH - 1));
+  }
+
+  /**
+   * Returns the write epoch stripe of an entry.
+   *
+   * @param key The key.
+   * @param group The group.
+   * @return The stripe.
+   */
+  private static int stripe(Serializable key, String group) {
+    return spread(UriCacheSnapshot.hash(group, key)) & (STRIPES - 1);
+  }
+
+  /**
+   * Spreads the bits of a hash code, so that keys differing only in their high bits do not
+   * collide.
+   *
+   * @param hash The hash code.
+   * @return The spread hash.
+   */
+  private static int spread(int hash) {
+    int spread = hash * 0x9E3779B9;
+    return spread ^ (spread >>> 16);
+  }
+
+  /** A hot key. Equality ignores the hash, which is derived from the key and group. */
+  private static final class Entry {
+    /** The key. */
+    private final Serializable key;
+    /** The group. */
+    private final String group;
+    /** The spread hash of the key and group. */
+    private final int hash;
+
+    /**
+     * Creates a new entry.
+     * @param key The key.
+     * @param group The group.
+     * @param hash The spread hash of the key and group.
+     */
+    Entry(Serializable key, String group, int hash) {
+      this.key = key;
+      this.group = group;
+      this.hash = hash;
+    }
+
+    /**
+     * Returns true if other is an entry with the same key and group.
+     * @param other The other object.
+     * @return True if equal.
+     */
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Entry)) {
+        return false;
+      }
+      Entry entry = (Entry) other;
+      return this.key.equals(entry.key) && this.group.equals(entry.group);
+    }
+
+    /**
+     * Returns the hash code of this entry.
+     * @return The hash code.
+     */
+    @Override
+    public int hashCode() {
+      return this.hash;
+    }
+  }
+
+  /** A replicated value. */
+  private static final class Replica {
+    /** The value. */
+    private final Object value;
+    /** The time at which the entry expires, in milliseconds. */
+    private final long expirationTime;
+    /** The write epoch stripe of the entry. */
+    private final int stripe;
+    /** The write epoch of the stripe before the value was retrieved. */
+    private final long epoch;
+
+    /**
+     * Creates a new replica.
+     * @param value The value.
+     * @param expirationTime The time at which the entry expires, in milliseconds.
+     * @param stripe The write epoch stripe of the entry.
+     * @param epoch The write epoch of the stripe before the value was retrieved.
+     */
+    Replica(Object value, long expirationTime, int stripe, long epoch) {
+      this.value = value;
+      this.expirationTime = expirationTime;
+      this.stripe = stripe;
+      this.epoch = epoch;
+    }
+  }
+
+  /** The sampling state and replicas of one thread. */
+  private static final class ThreadState {
+    /** The state of the xorshift random number generator. */
+    private int seed = (int) System.nanoTime() | 1;
+    /** The replicas, by group and key. */
+    private final Map<String, Map<Serializable, Replica>> replicas =
+      new HashMap<String, Map<Serializable, Replica>>();
+    /** The number of replicas. */
+    private int replicaCount = 0;
+
+    /**
+     * Returns the next non-negative pseudo-random number.
+     * @return The number.
+     */
+    int nextRandom() {
+      this.seed ^= this.seed << 13;
+      this.seed ^= this.seed >>> 17;
+      this.seed ^= this.seed << 5;
+      return this.seed & Integer.MAX_VALUE;
+    }
+  }
+}
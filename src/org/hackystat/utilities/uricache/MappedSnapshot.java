@@ -0,0 +1,206 @@
+package org.hackystat.utilities.uricache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Provides read-only access to a UriCache snapshot file through a memory mapping, for UriCaches
+ * opened with UriCache.openReadOnly(). Nothing is read when the snapshot is opened beyond its
+ * header and trailer: a lookup binary searches the index in the mapping and decodes the matching
+ * record, so the operating system pages in only what is used, and shares those pages among all
+ * of the processes that map the same file. 
+ * <p>
+ * Decoding a record inflates and deserializes it, so recently decoded records are kept in a 
+ * small direct-mapped table indexed by their position in the index. Each slot is an atomic 
+ * reference to an immutable (position, entry) pair, so lookups need no locking. As with the
+ * memory cache of a writable UriCache, repeated gets of an entry return the same value object.
+ *
+ * @author agent
+ */
+final class MappedSnapshot {
+
+  /** The mapped snapshot file. Only absolute gets are used on it, or on duplicates of it. */
+  private final MappedByteBuffer buffer;
+  /** The offset of the first index entry. */
+  private final int indexStart;
+  /** The number of index entries. */
+  private final int count;
+  /** The snapshot file, for error messages. */
+  private final File file;
+  /** The number of slots in the table of decoded records, a power of two. */
+  static final int DECODED_SLOTS = 1024;
+  /** The most recently decoded record in each slot. */
+  private final AtomicReferenceArray<Decoded> decoded = 
+    new AtomicReferenceArray<Decoded>(DECODED_SLOTS);
+
+  /** A decoded record and its position in the index. */
+  private static final class Decoded {
+    /** The position of the record in the index. */
+    private final int position;
+    /** The decoded record. */
+    private final UriCacheSnapshot.Entry entry;
+
+    /**
+     * Creates a new decoded record.
+     * @param position The position of the record in the index.
+     * @param entry The decoded record.
+     */
+    Decoded(int position, UriCacheSnapshot.Entry entry) {
+      this.position = position;
+      this.entry = entry;
+    }
+  }
+
+  /**
+   * Maps a snapshot file.
+   *
+   * @param file The snapshot file.
+   * @throws IOException If the file cannot be mapped or is not a snapshot file.
+   */
+  MappedSnapshot(File file) throws IOException {
+    this.file = file;
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      long indexOffset = UriCacheSnapshot.checkFormat(raf, file);
+      if (raf.length() > Integer.MAX_VALUE) {
+        throw new IOException("UriCache snapshot too large to map: " + file);
+      }
+      // The mapping remains valid after the channel is closed.
+      this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+      this.count = this.buffer.getInt((int) indexOffset);
+      this.indexStart = (int) indexOffset + 4;
+      long indexEnd = (long) this.indexStart + 
+        ((long) this.count * UriCacheSnapshot.INDEX_ENTRY_SIZE);
+      if (this.count < 0 || indexEnd != raf.length() - UriCacheSnapshot.TRAILER_SIZE) {
+        throw new IOException("Corrupt UriCache snapshot index: " + file);
+      }
+    }
+    finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * Returns the value stored under key in group, or null if there is no such entry or it has 
+   * expired.
+   *
+   * @param group The group.
+   * @param key The key.
+   * @return The value, or null.
+   * @throws IOException If the matching record cannot be decoded.
+   */
+  Serializable get(String group, Serializable key) throws IOException {
+    int hash = UriCacheSnapshot.hash(group, key);
+    // Find the first index entry with this hash.
+    int low = 0;
+    int high = this.count;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (hashAt(mid) < hash) {
+        low = mid + 1;
+      }
+      else {
+        high = mid;
+      }
+    }
+    for (int i = low; i < this.count && hashAt(i) == hash; i++) {
+      UriCacheSnapshot.Entry entry = entryAt(i);
+      if (entry.group.equals(group) && entry.key.equals(key)) {
+        return isExpired(entry) ? null : entry.value;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the decoded record of the index entry at position i, decoding it only if it is not
+   * in the table of decoded records.
+   * 
+   * @param i The position.
+   * @return The entry.
+   * @throws IOException If the record cannot be decoded.
+   */
+  private UriCacheSnapshot.Entry entryAt(int i) throws IOException {
+    int slot = i & (DECODED_SLOTS - 1);
+    Decoded cached = this.decoded.get(slot);
+    if (cached != null && cached.position == i) {
+      return cached.entry;
+    }
+    UriCacheSnapshot.Entry entry = readEntry(offsetAt(i));
+    this.decoded.set(slot, new Decoded(i, entry));
+    return entry;
+  }
+
+  /**
+   * Returns the keys of the unexpired entries in group. This decodes every record in the
+   * snapshot, bypassing the table of decoded records so that it does not displace them.
+   *
+   * @param group The group.
+   * @return The keys.
+   * @throws IOException If a record cannot be decoded.
+   */
+  Set<Serializable> getGroupKeys(String group) throws IOException {
+    Set<Serializable> keys = new HashSet<Serializable>();
+    for (int i = 0; i < this.count; i++) {
+      UriCacheSnapshot.Entry entry = readEntry(offsetAt(i));
+      if (entry.group.equals(group) && !isExpired(entry)) {
+        keys.add(entry.key);
+      }
+    }
+    return keys;
+  }
+
+  /**
+   * Returns the hash of the index entry at position i.
+   * @param i The position.
+   * @return The hash.
+   */
+  private int hashAt(int i) {
+    return this.buffer.getInt(this.indexStart + (i * UriCacheSnapshot.INDEX_ENTRY_SIZE));
+  }
+
+  /**
+   * Returns the record offset of the index entry at position i.
+   * @param i The position.
+   * @return The record offset.
+   */
+  private int offsetAt(int i) {
+    return (int) this.buffer.getLong(this.indexStart + (i * UriCacheSnapshot.INDEX_ENTRY_SIZE) 
+        + 4);
+  }
+
+  /**
+   * Reads and decodes the record at the specified offset.
+   * @param offset The offset of the record's length.
+   * @return The entry.
+   * @throws IOException If the record cannot be decoded.
+   */
+  private UriCacheSnapshot.Entry readEntry(int offset) throws IOException {
+    int length = this.buffer.getInt(offset);
+    if (length < 0 || offset + 4L + length > this.indexStart) {
+      throw new IOException("Corrupt UriCache snapshot record: " + this.file);
+    }
+    byte[] record = new byte[length];
+    ByteBuffer view = this.buffer.duplicate();
+    view.position(offset + 4);
+    view.get(record);
+    return UriCacheSnapshot.decode(record, 0, length);
+  }
+
+  /**
+   * Returns true if the entry has expired.
+   * @param entry The entry.
+   * @return True if expired.
+   */
+  private static boolean isExpired(UriCacheSnapshot.Entry entry) {
+    return entry.expires != 0 && entry.expires <= System.currentTimeMillis();
+  }
+}
@@ -0,0 +1,285 @@
+package org.hackystat.utilities.uricache;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import org.apache.jcs.engine.behavior.ICacheElement;
+import org.apache.jcs.engine.control.event.ElementEvent;
+import org.apache.jcs.engine.control.event.behavior.IElementEvent;
+import org.apache.jcs.engine.control.event.behavior.IElementEventConstants;
+import org.apache.jcs.engine.control.event.behavior.IElementEventHandler;
+import org.apache.jcs.engine.control.group.GroupAttrName;
+
+/**
+ * Queues the removal notifications of one UriCache region and delivers them in batches to the
+ * registered RemovalListeners on a daemon thread, so that the thread removing an entry only
+ * pays for an enqueue. The queue is bounded; when listeners fall behind, further notifications
+ * are dropped and counted rather than using up memory. 
+ * <p>
+ * The JCS element event handler that reports the entries expired by the memory shrinker and the
+ * entries that could not be spooled to disk is a separate object, which holds only the cache 
+ * name. Elements keep their handler for as long as they are cached, so the handler looks up the
+ * current dispatcher of the cache for each event, and events for a cache without listeners are
+ * ignored.
+ *
+ * @author agent
+ */
+class RemovalDispatcher {
+
+  /** The maximum number of notifications delivered in one batch. */
+  static final int MAX_BATCH = 256;
+  /** The default maximum number of notifications awaiting delivery. */
+  static final int DEFAULT_CAPACITY = 65536;
+
+  /** A registered listener. */
+  private static final class Registration {
+    /** The listener. */
+    private final RemovalListener listener;
+    /** True if the listener wants the values of removed entries. */
+    private final boolean includeValues;
+
+    /**
+     * Creates a new registration.
+     * @param listener The listener.
+     * @param includeValues True if the listener wants the values of removed entries.
+     */
+    Registration(RemovalListener listener, boolean includeValues) {
+      this.listener = listener;
+      this.includeValues = includeValues;
+    }
+  }
+
+  /**
+   * The JCS element event handler of a cache. Forwards events to the dispatcher of the cache at 
+   * the time of the event, if it has one.
+   */
+  private static final class EventHandler implements IElementEventHandler {
+    /** The name of the cache. */
+    private final String cacheName;
+
+    /**
+     * Creates a new event handler.
+     * @param cacheName The name of the cache.
+     */
+    EventHandler(String cacheName) {
+      this.cacheName = cacheName;
+    }
+
+    /**
+     * Forwards the event to the current dispatcher of the cache.
+     * @param event The element event.
+     */
+    public void handleElementEvent(IElementEvent event) {
+      RemovalDispatcher dispatcher = UriCache.getRemovalDispatcher(this.cacheName);
+      if (dispatcher != null) {
+        dispatcher.handleElementEvent(event);
+      }
+    }
+  }
+
+  /** The registered listeners. */
+  private final List<Registration> registrations = new CopyOnWriteArrayList<Registration>();
+  /** The notifications awaiting delivery. */
+  private final BlockingQueue<RemovalNotification> queue;
+  /** The number of notifications dropped because the queue was full. */
+  private final AtomicLong dropped = new AtomicLong(0);
+  /** The name of the group that UriCache reports as the null group. */
+  private final String defaultGroup;
+  /** The logger for exceptions thrown by listeners. */
+  private final Logger logger;
+  /** The delivery thread. */
+  private final Thread thread;
+  /** The element event handler of the cache. */
+  private final IElementEventHandler eventHandler;
+  /** True if at least one listener wants values. */
+  private volatile boolean wantsValues = false;
+  /** True once the dispatcher has been shut down. */
+  private volatile boolean isShutdown = false;
+
+  /**
+   * Creates a new dispatcher and starts its delivery thread.
+   * 
+   * @param cacheName The name of the cache, used to name the thread.
+   * @param defaultGroup The name of the group that is reported as the null group.
+   * @param logger The logger for exceptions thrown by listeners.
+   * @param capacity The maximum number of notifications awaiting delivery.
+   */
+  RemovalDispatcher(String cacheName, String defaultGroup, Logger logger, int capacity) {
+    this.queue = new LinkedBlockingQueue<RemovalNotification>(capacity);
+    this.eventHandler = new EventHandler(cacheName);
+    this.defaultGroup = defaultGroup;
+    this.logger = logger;
+    this.thread = new Thread("UriCache removal dispatcher for " + cacheName) {
+      /** Delivers batches until interrupted. */
+      @Override
+      public void run() {
+        deliver();
+      }
+    };
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  /**
+   * Registers a listener. 
+   * @param listener The listener.
+   * @param includeValues True if the listener wants the values of removed entries.
+   */
+  void addListener(RemovalListener listener, boolean includeValues) {
+    this.registrations.add(new Registration(listener, includeValues));
+    if (includeValues) {
+      this.wantsValues = true;
+    }
+  }
+
+  /**
+   * Unregisters every registration of a listener. 
+   * @param listener The listener.
+   * @return True if no listeners remain.
+   */
+  boolean removeListener(RemovalListener listener) {
+    boolean wantValues = false;
+    for (Registration registration : this.registrations) {
+      if (registration.listener == listener) {
+        this.registrations.remove(registration);
+      }
+      else {
+        wantValues |= registration.includeValues;
+      }
+    }
+    this.wantsValues = wantValues;
+    return this.registrations.isEmpty();
+  }
+
+  /**
+   * Returns true if at least one registered listener wants the values of removed entries, in
+   * which case the caller should supply them when it can do so cheaply.
+   * @return True if values are wanted.
+   */
+  boolean wantsValues() {
+    return this.wantsValues;
+  }
+
+  /**
+   * Returns the JCS element event handler to be attached to the entries of the cache.
+   * @return The event handler.
+   */
+  IElementEventHandler getEventHandler() {
+    return this.eventHandler;
+  }
+
+  /**
+   * Returns the number of notifications dropped because the queue was full.
+   * @return The number of dropped notifications.
+   */
+  long getDroppedCount() {
+    return this.dropped.get();
+  }
+
+  /**
+   * Queues a notification for delivery. Does nothing once the dispatcher has been shut down, and
+   * drops the notification if the queue is full.
+   * 
+   * @param key The key, or null if the whole cache was cleared.
+   * @param group The group.
+   * @param value The value, or null.
+   * @param cause The cause.
+   */
+  void notify(Serializable key, String group, Serializable value, 
+      RemovalNotification.Cause cause) {
+    if (this.isShutdown) {
+      return;
+    }
+    String reportedGroup = this.defaultGroup.equals(group) ? null : group;
+    Serializable reportedValue = this.wantsValues ? value : null;
+    if (!this.queue.offer(new RemovalNotification(key, reportedGroup, reportedValue, cause))
+        && this.dropped.getAndIncrement() == 0) {
+      this.logger.warning("Removal listeners are falling behind; dropping notifications.");
+    }
+  }
+
+  /**
+   * Translates the JCS element events that mean an entry has left the cache into 
+   * notifications. Spooling to an available disk cache is not a removal, and is ignored.
+   * 
+   * @param event The element event.
+   */
+  void handleElementEvent(IElementEvent event) {
+    RemovalNotification.Cause cause;
+    switch (event.getElementEvent()) {
+    case IElementEventConstants.ELEMENT_EVENT_EXCEEDED_MAXLIFE_BACKGROUND:
+    case IElementEventConstants.ELEMENT_EVENT_EXCEEDED_MAXLIFE_ONREQUEST:
+    case IElementEventConstants.ELEMENT_EVENT_EXCEEDED_IDLETIME_BACKGROUND:
+    case IElementEventConstants.ELEMENT_EVENT_EXCEEDED_IDLETIME_ONREQUEST:
+      cause = RemovalNotification.Cause.EXPIRED;
+      break;
+    case IElementEventConstants.ELEMENT_EVENT_SPOOLED_DISK_NOT_AVAILABLE:
+    case IElementEventConstants.ELEMENT_EVENT_SPOOLED_NOT_ALLOWED:
+      cause = RemovalNotification.Cause.EVICTED;
+      break;
+    default:
+      return;
+    }
+    Object source = (event instanceof ElementEvent) ? ((ElementEvent) event).getSource() : null;
+    if (source instanceof ICacheElement) {
+      ICacheElement element = (ICacheElement) source;
+      if (element.getKey() instanceof GroupAttrName) {
+        GroupAttrName name = (GroupAttrName) element.getKey();
+        notify((Serializable) name.attrName, name.groupId.groupName, element.getVal(), cause);
+      }
+    }
+  }
+
+  /**
+   * Stops the delivery thread. Notifications that have not been delivered are discarded, and
+   * later ones are ignored.
+   */
+  void shutdown() {
+    this.isShutdown = true;
+    this.thread.interrupt();
+    this.queue.clear();
+  }
+
+  /**
+   * Takes batches of notifications from the queue and delivers them until interrupted.
+   */
+  private void deliver() {
+    List<RemovalNotification> batch = new ArrayList<RemovalNotification>(MAX_BATCH);
+    try {
+      while (true) {
+        batch.add(this.queue.take());
+        this.queue.drainTo(batch, MAX_BATCH - 1);
+        List<RemovalNotification> withoutValues = null;
+        for (Registration registration : this.registrations) {
+          List<RemovalNotification> notifications = batch;
+          if (!registration.includeValues) {
+            if (withoutValues == null) {
+              withoutValues = new ArrayList<RemovalNotification>(batch.size());
+              for (RemovalNotification notification : batch) {
+                withoutValues.add(notification.withoutValue());
+              }
+            }
+            notifications = withoutValues;
+          }
+          try {
+            registration.listener.entriesRemoved(notifications);
+          }
+          catch (RuntimeException e) {
+            this.logger.warning("Removal listener failed: " + e.getMessage());
+          }
+        }
+        batch = new ArrayList<RemovalNotification>(MAX_BATCH);
+      }
+    }
+    catch (InterruptedException e) {
+      // Shut down.
+      return;
+    }
+  }
+}
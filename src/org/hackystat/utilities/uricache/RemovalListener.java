@@ -0,0 +1,22 @@
+package org.hackystat.utilities.uricache;
+
+import java.util.List;
+
+/**
+ * Receives notifications of entries leaving a UriCache, so that structures derived from the
+ * cache contents can be maintained incrementally. Listeners are registered with
+ * UriCache.addRemovalListener() and are called on a single background thread per cache, with
+ * the notifications batched in the order in which the removals occurred.
+ *
+ * @author agent
+ */
+public interface RemovalListener {
+
+  /**
+   * Called with a batch of removals. Implementations should return promptly, since later
+   * batches for the same cache wait until this one has been processed.
+   *
+   * @param notifications The removals, oldest first.
+   */
+  void entriesRemoved(List<RemovalNotification> notifications);
+}
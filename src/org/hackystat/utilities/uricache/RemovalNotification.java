@@ -0,0 +1,100 @@
+package org.hackystat.utilities.uricache;
+
+import java.io.Serializable;
+
+/**
+ * Describes an entry that has left a UriCache, and why.
+ *
+ * @author agent
+ */
+public class RemovalNotification {
+
+  /** The reasons for which an entry leaves the cache. */
+  public enum Cause {
+    /** The entry was removed with remove() or removeFromGroup(). */
+    EXPLICIT,
+    /** The entry reached its maximum life. */
+    EXPIRED,
+    /** The entry was dropped from memory and could not be written to the disk cache. */
+    EVICTED,
+    /** The entry was removed by clear(), clearGroup() or clearAll(). */
+    CLEARED
+  }
+
+  /** The key, or null if every entry in the cache was cleared. */
+  private final Serializable key;
+  /** The group, or null for the default group. */
+  private final String group;
+  /** The value, or null if not requested or not known. */
+  private final Serializable value;
+  /** The reason for the removal. */
+  private final Cause cause;
+
+  /**
+   * Creates a new notification.
+   *
+   * @param key The key, or null if every entry in the cache was cleared.
+   * @param group The group, or null for the default group.
+   * @param value The value, or null if not known.
+   * @param cause The reason for the removal.
+   */
+  RemovalNotification(Serializable key, String group, Serializable value, Cause cause) {
+    this.key = key;
+    this.group = group;
+    this.value = value;
+    this.cause = cause;
+  }
+
+  /**
+   * Returns the key of the removed entry. A CLEARED notification with a null key indicates that
+   * every entry in every group of the cache was removed by clearAll().
+   * @return The key, or null.
+   */
+  public Serializable getKey() {
+    return this.key;
+  }
+
+  /**
+   * Returns the group of the removed entry.
+   * @return The group, or null for entries added with put().
+   */
+  public String getGroup() {
+    return this.group;
+  }
+
+  /**
+   * Returns the value of the removed entry. The value is only provided to listeners that asked
+   * for values when they were registered, and may be null even then if the cache no longer had
+   * the value at hand (for example, an entry that expired while it was only on disk).
+   * @return The value, or null.
+   */
+  public Serializable getValue() {
+    return this.value;
+  }
+
+  /**
+   * Returns the reason for the removal.
+   * @return The cause.
+   */
+  public Cause getCause() {
+    return this.cause;
+  }
+
+  /**
+   * Returns a copy of this notification without its value.
+   * @return The copy.
+   */
+  RemovalNotification withoutValue() {
+    return (this.value == null) ? this : 
+      new RemovalNotification(this.key, this.group, null, this.cause);
+  }
+
+  /**
+   * Returns a string representation of this notification, for debugging.
+   * @return The string.
+   */
+  @Override
+  public String toString() {
+    return this.cause + " " + this.group + ":" + this.key;
+  }
+}
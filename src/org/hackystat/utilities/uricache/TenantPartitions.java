@@ -0,0 +1,217 @@
+package org.hackystat.utilities.uricache;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tracks the entries that each tenant of a UriCache holds, in least recently used order, and 
+ * decides which of them to evict so that each tenant stays within its fair share of the cache.
+ * A tenant's share is the capacity multiplied by its weight, divided by the total weight of the
+ * tenants that currently hold entries, so an idle tenant's share is available to the others.
+ * A tenant over its share only evicts its own entries, so a heavy tenant cannot push the
+ * entries of the other tenants out of the cache.
+ *
+ * @author agent
+ */
+final class TenantPartitions {
+
+  /** The weight of a tenant whose weight has not been set. */
+  static final double DEFAULT_WEIGHT = 1.0;
+  /** The total number of entries shared by the tenants. */
+  private long capacity;
+  /** The weights that have been set, by tenant. */
+  private final Map<String, Double> weights = new HashMap<String, Double>();
+  /** The keys held by each tenant that holds any, least recently used first. */
+  private final Map<String, LinkedHashMap<Serializable, Boolean>> tenants = 
+    new HashMap<String, LinkedHashMap<Serializable, Boolean>>();
+  /** The tenants that have been seen. */
+  private final Set<String> seen = new HashSet<String>();
+  /** The total weight of the tenants in tenants. */
+  private double activeWeight = 0;
+
+  /**
+   * Creates a new instance.
+   * @param capacity The total number of entries shared by the tenants.
+   */
+  TenantPartitions(long capacity) {
+    this.capacity = capacity;
+  }
+
+  /**
+   * Sets the total number of entries shared by the tenants.
+   * @param capacity The number of entries.
+   */
+  synchronized void setCapacity(long capacity) {
+    this.capacity = capacity;
+  }
+
+  /**
+   * Sets the weight of a tenant.
+   * @param tenant The tenant.
+   * @param weight The weight, which must be positive.
+   */
+  synchronized void setWeight(String tenant, double weight) {
+    if (!(weight > 0)) {
+      throw new IllegalArgumentException("Tenant weight must be positive: " + weight);
+    }
+    if (this.tenants.containsKey(tenant)) {
+      this.activeWeight += weight - getWeight(tenant);
+    }
+    this.weights.put(tenant, weight);
+  }
+
+  /**
+   * Returns the weight of a tenant.
+   * @param tenant The tenant.
+   * @return The weight.
+   */
+  private double getWeight(String tenant) {
+    Double weight = this.weights.get(tenant);
+    return (weight == null) ? DEFAULT_WEIGHT : weight;
+  }
+
+  /**
+   * Returns the number of entries that a tenant may currently hold.
+   * @param tenant The tenant.
+   * @return The quota, which is at least 1.
+   */
+  synchronized long getQuota(String tenant) {
+    double total = this.activeWeight;
+    if (!this.tenants.containsKey(tenant)) {
+      total += getWeight(tenant);
+    }
+    return Math.max(1L, (long) (this.capacity * getWeight(tenant) / total));
+  }
+
+  /**
+   * Records that a tenant has been seen, and returns true if it had not been seen before, in 
+   * which case the caller should track the entries that the tenant already holds.
+   * @param tenant The tenant.
+   * @return True if the tenant had not been seen before.
+   */
+  synchronized boolean markSeen(String tenant) {
+    return this.seen.add(tenant);
+  }
+
+  /**
+   * Starts tracking a tenant that already holds the specified entries, for example from before
+   * a restart, unless the tenant is already being tracked.
+   * @param tenant The tenant.
+   * @param keys The keys of its entries.
+   */
+  synchronized void track(String tenant, Collection<Serializable> keys) {
+    if (!this.tenants.containsKey(tenant)) {
+      LinkedHashMap<Serializable, Boolean> lru = 
+        new LinkedHashMap<Serializable, Boolean>(16, 0.75f, true);
+      for (Serializable key : keys) {
+        lru.put(key, Boolean.TRUE);
+      }
+      this.tenants.put(tenant, lru);
+      this.activeWeight += getWeight(tenant);
+    }
+  }
+
+  /**
+   * Records that a tenant has put an entry, and returns the keys of the least recently used 
+   * entries that the tenant must evict to stay within its quota.
+   * @param tenant The tenant.
+   * @param key The key of the entry.
+   * @return The keys to be evicted, which are no longer tracked.
+   */
+  synchronized List<Serializable> recordPut(String tenant, Serializable key) {
+    track(tenant, Collections.<Serializable>emptySet());
+    LinkedHashMap<Serializable, Boolean> lru = this.tenants.get(tenant);
+    lru.put(key, Boolean.TRUE);
+    long quota = getQuota(tenant);
+    if (lru.size() <= quota) {
+      return Collections.emptyList();
+    }
+    List<Serializable> evicted = new ArrayList<Serializable>();
+    for (Iterator<Serializable> i = lru.keySet().iterator(); lru.size() > quota;) {
+      evicted.add(i.next());
+      i.remove();
+    }
+    return evicted;
+  }
+
+  /**
+   * Records that a tenant has retrieved an entry, or found it missing.
+   * @param tenant The tenant.
+   * @param key The key of the entry.
+   * @param hit True if the entry was found.
+   */
+  synchronized void recordGet(String tenant, Serializable key, boolean hit) {
+    LinkedHashMap<Serializable, Boolean> lru = this.tenants.get(tenant);
+    if (lru != null) {
+      if (hit) {
+        lru.get(key);
+      }
+      else {
+        remove(tenant, lru, key);
+      }
+    }
+  }
+
+  /**
+   * Records that a tenant's entry has been removed.
+   * @param tenant The tenant.
+   * @param key The key of the entry.
+   */
+  synchronized void recordRemove(String tenant, Serializable key) {
+    LinkedHashMap<Serializable, Boolean> lru = this.tenants.get(tenant);
+    if (lru != null) {
+      remove(tenant, lru, key);
+    }
+  }
+
+  /**
+   * Removes a key from the tenant's entries, and stops tracking the tenant if it has none left.
+   * @param tenant The tenant.
+   * @param lru The tenant's entries.
+   * @param key The key.
+   */
+  private void remove(String tenant, LinkedHashMap<Serializable, Boolean> lru, 
+      Serializable key) {
+    lru.remove(key);
+    if (lru.isEmpty()) {
+      clear(tenant);
+    }
+  }
+
+  /**
+   * Stops tracking a tenant whose entries have all been removed.
+   * @param tenant The tenant.
+   */
+  synchronized void clear(String tenant) {
+    if (this.tenants.remove(tenant) != null) {
+      this.activeWeight -= getWeight(tenant);
+    }
+  }
+
+  /**
+   * Stops tracking every tenant.
+   */
+  synchronized void clearAll() {
+    this.tenants.clear();
+    this.activeWeight = 0;
+  }
+
+  /**
+   * Returns the number of entries tracked for a tenant.
+   * @param tenant The tenant.
+   * @return The number of entries.
+   */
+  synchronized int size(String tenant) {
+    LinkedHashMap<Serializable, Boolean> lru = this.tenants.get(tenant);
+    return (lru == null) ? 0 : lru.size();
+  }
+}
@@ -0,0 +1,122 @@
+package org.hackystat.utilities.uricache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.hackystat.utilities.uricache.AccessTraceSimulator.Policy;
+import org.hackystat.utilities.uricache.AccessTraceSimulator.Result;
+import org.junit.Test;
+
+/**
+ * Tests the AccessTraceRecorder and AccessTraceSimulator classes.
+ *
+ * @author agent
+ */
+public class TestAccessTrace {
+
+  private static final String testSubDir = "TestUriCache";
+
+  /**
+   * Tests that a UriCache records a trace that the simulator can replay.
+   * @throws Exception If problems occur.
+   */
+  @Test
+  public void testRecordAndReplay() throws Exception {
+    UriCache cache = new UriCache("TestAccessTrace", testSubDir);
+    cache.clearAll();
+    File file = File.createTempFile("uricache", ".trace");
+    file.deleteOnExit();
+    cache.startAccessTrace(file);
+    cache.put("a", "value a");
+    cache.put("b", "value b");
+    cache.put("c", "value c");
+    cache.get("a");
+    cache.get("missing");
+    cache.remove("b");
+    assertEquals("Checking record count", 6, cache.stopAccessTrace());
+    cache.get("a");
+    assertEquals("Checking stopped trace", 0, cache.stopAccessTrace());
+
+    Result result = new AccessTraceSimulator(file).simulate(1, 0, Policy.LRU);
+    assertEquals("Checking requests", 2, result.getRequests());
+    assertEquals("Checking memory hits", 0, result.getMemoryHits());
+    assertEquals("Checking disk hits", 1, result.getDiskHits());
+    assertEquals("Checking misses", 1, result.getMisses());
+    assertTrue("Checking disk bytes", result.getPeakDiskBytes() > 3 * "value a".length());
+  }
+
+  /**
+   * Tests that the eviction policies choose different victims.
+   * @throws Exception If problems occur.
+   */
+  @Test
+  public void testPolicies() throws Exception {
+    File file = writeTrace(new int[][] {
+        {0, AccessTraceRecorder.PUT, 1, 100},
+        {0, AccessTraceRecorder.PUT, 2, 100},
+        {0, AccessTraceRecorder.GET_HIT, 1, 0},
+        {0, AccessTraceRecorder.GET_HIT, 1, 0},
+        {0, AccessTraceRecorder.GET_HIT, 2, 0},
+        {0, AccessTraceRecorder.PUT, 3, 100},
+        {0, AccessTraceRecorder.GET_HIT, 1, 0}});
+    AccessTraceSimulator simulator = new AccessTraceSimulator(file);
+    // LRU and FIFO evict key 1 when key 3 is put, LFU evicts key 2.
+    assertEquals("Checking LRU", 3, simulator.simulate(2, 0, Policy.LRU).getMemoryHits());
+    assertEquals("Checking FIFO", 3, simulator.simulate(2, 0, Policy.FIFO).getMemoryHits());
+    assertEquals("Checking LFU", 4, simulator.simulate(2, 0, Policy.LFU).getMemoryHits());
+    Result result = simulator.simulate(2, 0, Policy.LRU);
+    assertEquals("Checking disk hit", 1, result.getDiskHits());
+    assertEquals("Checking peak memory", 200, result.getPeakMemoryBytes());
+    assertEquals("Checking peak disk", 300, result.getPeakDiskBytes());
+  }
+
+  /**
+   * Tests that entries expire after maxLife, and are reloaded using their last known size.
+   * @throws Exception If problems occur.
+   */
+  @Test
+  public void testExpiration() throws Exception {
+    File file = writeTrace(new int[][] {
+        {0, AccessTraceRecorder.PUT, 1, 100},
+        {1000, AccessTraceRecorder.GET_HIT, 1, 0},
+        {5000, AccessTraceRecorder.GET_HIT, 1, 0},
+        {5500, AccessTraceRecorder.GET_HIT, 1, 0},
+        {6000, AccessTraceRecorder.CLEAR, 0, 0},
+        {6000, AccessTraceRecorder.GET_MISS, 1, 0}});
+    Result result = new AccessTraceSimulator(file).simulate(10, 2, Policy.LRU);
+    assertEquals("Checking requests", 4, result.getRequests());
+    assertEquals("Checking hits", 2, result.getMemoryHits());
+    assertEquals("Checking misses", 2, result.getMisses());
+    assertEquals("Checking peak disk", 100, result.getPeakDiskBytes());
+    result = new AccessTraceSimulator(file).simulate(10, 0, Policy.LRU);
+    assertEquals("Checking no expiration", 3, result.getMemoryHits());
+  }
+
+  /**
+   * Writes a trace file containing the given records.
+   * @param records The records, each containing a time, op, key hash, and size.
+   * @return The trace file.
+   * @throws IOException If the file cannot be written.
+   */
+  private File writeTrace(int[][] records) throws IOException {
+    File file = File.createTempFile("uricache", ".trace");
+    file.deleteOnExit();
+    DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+    out.writeInt(AccessTraceRecorder.MAGIC);
+    out.writeInt(AccessTraceRecorder.VERSION);
+    out.writeLong(0);
+    for (int[] record : records) {
+      out.writeInt(record[0]);
+      out.writeByte(record[1]);
+      out.writeInt(record[2]);
+      out.writeInt(record[3]);
+    }
+    out.close();
+    return file;
+  }
+}
@@ -0,0 +1,100 @@
+package org.hackystat.utilities.uricache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests the ExpirySpreader class.
+ *
+ * @author agent
+ */
+public class TestExpirySpreader {
+
+  /** The fixed clock used by these tests, in seconds since the epoch. */
+  private static final long now = 1200000000L;
+
+  /**
+   * Tests that jitter only shortens maxLife, and by no more than the jitter fraction.
+   */
+  @Test
+  public void testJitter() {
+    ExpirySpreader spreader = new ExpirySpreader(0.1, 0);
+    boolean sawJitter = false;
+    for (int i = 0; i < 1000; i++) {
+      long life = spreader.spread(10000L, now);
+      assertTrue("Checking upper bound", life <= 10000L);
+      assertTrue("Checking lower bound", life >= 9000L);
+      sawJitter |= (life != 10000L);
+    }
+    assertTrue("Checking that jitter occurs", sawJitter);
+  }
+
+  /**
+   * Tests that no jitter and no rate limit leaves maxLife unchanged.
+   */
+  @Test
+  public void testNoSpread() {
+    ExpirySpreader spreader = new ExpirySpreader(0, 0);
+    assertEquals("Checking unchanged life", 3600L, spreader.spread(3600L, now));
+  }
+
+  /**
+   * Tests that expirations beyond the per-second limit are pushed back to later seconds.
+   */
+  @Test
+  public void testRateLimit() {
+    ExpirySpreader spreader = new ExpirySpreader(0, 2);
+    assertEquals("Checking first", 100L, spreader.spread(100L, now));
+    assertEquals("Checking second", 100L, spreader.spread(100L, now));
+    assertEquals("Checking third", 101L, spreader.spread(100L, now));
+    assertEquals("Checking fourth", 101L, spreader.spread(100L, now));
+    assertEquals("Checking fifth", 102L, spreader.spread(100L, now));
+    // A second later, the expiration second now + 101 is still full.
+    assertEquals("Checking later put", 101L, spreader.spread(100L, now + 1));
+  }
+
+  /**
+   * Tests jitter and rate limiting together with a fixed clock: every life stays within the jitter
+   * bounds unless it was pushed back, no second gets more than the limit, and a life is only
+   * pushed back past the jittered range when the seconds before it are full.
+   */
+  @Test
+  public void testSpreadWithRateLimit() {
+    int limit = 3;
+    ExpirySpreader spreader = new ExpirySpreader(0.1, limit);
+    Map<Long, Integer> counts = new HashMap<Long, Integer>();
+    int puts = 5000;
+    for (int i = 0; i < puts; i++) {
+      long life = spreader.spread(1000L, now);
+      assertTrue("Checking lower bound", life >= 901L);
+      // Jitter gives lives of 901 to 1000 seconds. At 3 per second, these 100 seconds hold 300
+      // entries, and the rest need (5000 - 300) / 3 more seconds, rounded up.
+      assertTrue("Checking upper bound", life <= 1000L + (puts - 300 + limit - 1) / limit);
+      Integer count = counts.get(life);
+      counts.put(life, (count == null) ? 1 : count + 1);
+    }
+    for (Map.Entry<Long, Integer> entry : counts.entrySet()) {
+      assertTrue("Checking limit for " + entry.getKey(), entry.getValue() <= limit);
+    }
+    // Once the jittered range fills up, entries are pushed back without leaving gaps.
+    long last = Collections.max(counts.keySet());
+    assertEquals("Checking no gaps", last - Collections.min(counts.keySet()) + 1, counts.size());
+    assertEquals("Checking last second", (puts + limit - 1) / limit + 900L, last);
+    // Seconds that have gone by are forgotten.
+    assertEquals("Checking later put", 1L, spreader.spread(1L, now + 5000));
+  }
+
+  /**
+   * Tests that illegal arguments are rejected.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testIllegalJitter() {
+    new ExpirySpreader(1.5, 0);
+  }
+}
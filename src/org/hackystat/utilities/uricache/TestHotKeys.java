@@ -0,0 +1,101 @@
+package org.hackystat.utilities.uricache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests the hot key tracking and replication of UriCache.
+ *
+ * @author agent
+ */
+public class TestHotKeys {
+
+  private static final String testSubDir = "TestUriCache";
+
+  /**
+   * Tests that the most frequently requested keys are reported, hottest first.
+   */
+  @Test
+  public void testHotKeys() {
+    UriCache cache = new UriCache("TestHotKeys", testSubDir);
+    cache.clearAll();
+    assertTrue("Checking no tracking", cache.getHotKeys().isEmpty());
+    cache.enableHotKeyTracking(2, false);
+    for (int i = 0; i < 100; i++) {
+      cache.put(i, "value" + i);
+      cache.putInGroup(i, "group", "group" + i);
+    }
+    for (int round = 0; round < 2000; round++) {
+      cache.get(7);
+      cache.getFromGroup(3, "group");
+      if (round % 2 == 0) {
+        cache.getFromGroup(3, "group");
+      }
+      cache.get(round % 100);
+    }
+    List<HotKey> hotKeys = cache.getHotKeys();
+    assertEquals("Checking hot key count", 2, hotKeys.size());
+    assertEquals("Checking hottest key", 3, hotKeys.get(0).getKey());
+    assertEquals("Checking hottest group", "group", hotKeys.get(0).getGroup());
+    assertEquals("Checking second key", 7, hotKeys.get(1).getKey());
+    assertNull("Checking default group", hotKeys.get(1).getGroup());
+    long gets = hotKeys.get(1).getEstimatedGets();
+    assertTrue("Checking estimate " + gets, gets > 1000 && gets < 4000);
+    cache.disableHotKeyTracking();
+    assertTrue("Checking disabled", cache.getHotKeys().isEmpty());
+  }
+
+  /**
+   * Tests that replicas of hot entries are discarded when the entries are written.
+   * @throws Exception If problems occur.
+   */
+  @Test
+  public void testReplicas() throws Exception {
+    UriCache cache = new UriCache("TestHotKeyReplicas", testSubDir);
+    cache.clearAll();
+    cache.enableHotKeyTracking(1, true);
+    cache.put("hot", "one");
+    for (int i = 0; i < 1000; i++) {
+      assertEquals("Checking replicated get", "one", cache.get("hot"));
+    }
+    assertEquals("Checking hot key", "hot", cache.getHotKeys().get(0).getKey());
+    cache.put("hot", "two");
+    assertEquals("Checking replaced", "two", cache.get("hot"));
+    assertEquals("Checking replaced again", "two", cache.get("hot"));
+    cache.remove("hot");
+    assertNull("Checking removed", cache.get("hot"));
+    cache.put("hot", "three");
+    assertEquals("Checking put", "three", cache.get("hot"));
+    cache.clearAll();
+    assertNull("Checking cleared", cache.get("hot"));
+
+    // A write by another thread discards this thread's replica.
+    cache.put("hot", "four");
+    for (int i = 0; i < 1000; i++) {
+      cache.get("hot");
+    }
+    final UriCache shared = cache;
+    Thread writer = new Thread() {
+      /** Replaces the hot entry. */
+      @Override
+      public void run() {
+        shared.put("hot", "five");
+      }
+    };
+    writer.start();
+    writer.join();
+    assertEquals("Checking other thread", "five", cache.get("hot"));
+
+    // Replicas expire with their entries.
+    cache.put("hot", "six", 1.0 / 3600);
+    assertEquals("Checking short-lived", "six", cache.get("hot"));
+    Thread.sleep(1100);
+    assertNull("Checking expired", cache.get("hot"));
+    cache.disableHotKeyTracking();
+  }
+}
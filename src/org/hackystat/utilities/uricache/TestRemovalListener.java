@@ -0,0 +1,229 @@
+package org.hackystat.utilities.uricache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.apache.jcs.engine.CacheElement;
+import org.apache.jcs.engine.control.event.ElementEvent;
+import org.apache.jcs.engine.control.event.behavior.IElementEventConstants;
+import org.apache.jcs.engine.control.event.behavior.IElementEventHandler;
+import org.apache.jcs.engine.control.group.GroupAttrName;
+import org.apache.jcs.engine.control.group.GroupId;
+import org.hackystat.utilities.uricache.RemovalNotification.Cause;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the notification of RemovalListeners by UriCache.
+ *
+ * @author agent
+ */
+public class TestRemovalListener {
+
+  private static final String testSubDir = "TestUriCache";
+  /** The cache under test. */
+  private UriCache cache;
+  /** The notifications received by the listener. */
+  private BlockingQueue<RemovalNotification> received;
+  /** The listener, which collects notifications into received. */
+  private RemovalListener listener;
+
+  /**
+   * Creates the cache and registers a listener that wants values.
+   */
+  @Before
+  public void setUp() {
+    this.cache = new UriCache("TestRemovalListener", testSubDir);
+    this.cache.clearAll();
+    this.received = new LinkedBlockingQueue<RemovalNotification>();
+    this.listener = new RemovalListener() {
+      /** Collects the notifications. */
+      public void entriesRemoved(List<RemovalNotification> notifications) {
+        received.addAll(notifications);
+      }
+    };
+    this.cache.addRemovalListener(this.listener, true);
+  }
+
+  /**
+   * Unregisters the listener.
+   */
+  @After
+  public void tearDown() {
+    this.cache.removeRemovalListener(this.listener);
+  }
+
+  /**
+   * Tests that explicit removals are reported with their values, and absent keys are not.
+   * @throws Exception If problems occur.
+   */
+  @Test
+  public void testExplicitRemoval() throws Exception {
+    this.cache.put("a", "value a");
+    this.cache.putInGroup("b", "group", "value b");
+    this.cache.remove("missing");
+    this.cache.remove("a");
+    this.cache.removeFromGroup("b", "group");
+    RemovalNotification notification = next();
+    assertEquals("Checking key", "a", notification.getKey());
+    assertNull("Checking default group", notification.getGroup());
+    assertEquals("Checking value", "value a", notification.getValue());
+    assertEquals("Checking cause", Cause.EXPLICIT, notification.getCause());
+    notification = next();
+    assertEquals("Checking group key", "b", notification.getKey());
+    assertEquals("Checking group", "group", notification.getGroup());
+    assertNull("Checking no more", this.received.poll(200, TimeUnit.MILLISECONDS));
+  }
+
+  /**
+   * Tests that the removal of an entry that is only on disk is reported.
+   * @throws Exception If problems occur.
+   */
+  @Test
+  public void testDiskOnlyRemoval() throws Exception {
+    UriCache diskCache = new UriCache("TestRemovalListenerDisk", testSubDir, 1D, 2L);
+    diskCache.clearAll();
+    diskCache.addRemovalListener(this.listener, false);
+    for (int i = 0; i < 20; i++) {
+      diskCache.put(i, "value " + i);
+    }
+    // Give the disk cache time to write the entries.
+    Thread.sleep(500);
+    diskCache.remove(0);
+    RemovalNotification notification = next();
+    assertEquals("Checking key", 0, notification.getKey());
+    assertNull("Checking no value", notification.getValue());
+    assertEquals("Checking cause", Cause.EXPLICIT, notification.getCause());
+    diskCache.removeRemovalListener(this.listener);
+  }
+
+  /**
+   * Tests that clearing is reported, and that values are withheld from listeners that did not
+   * ask for them.
+   * @throws Exception If problems occur.
+   */
+  @Test
+  public void testClear() throws Exception {
+    final BlockingQueue<RemovalNotification> keysOnly = 
+      new LinkedBlockingQueue<RemovalNotification>();
+    RemovalListener keysListener = new RemovalListener() {
+      /** Collects the notifications. */
+      public void entriesRemoved(List<RemovalNotification> notifications) {
+        keysOnly.addAll(notifications);
+      }
+    };
+    this.cache.addRemovalListener(keysListener, false);
+    this.cache.putInGroup("c", "group", "value c");
+    this.cache.clearGroup("group");
+    RemovalNotification notification = next();
+    assertEquals("Checking key", "c", notification.getKey());
+    assertEquals("Checking value", "value c", notification.getValue());
+    assertEquals("Checking cause", Cause.CLEARED, notification.getCause());
+    notification = keysOnly.poll(5, TimeUnit.SECONDS);
+    assertEquals("Checking keys only key", "c", notification.getKey());
+    assertNull("Checking keys only value", notification.getValue());
+    this.cache.clearAll();
+    notification = next();
+    assertNull("Checking clearAll key", notification.getKey());
+    assertEquals("Checking clearAll cause", Cause.CLEARED, notification.getCause());
+    this.cache.removeRemovalListener(keysListener);
+  }
+
+  /**
+   * Tests that an entry found to be expired on request is reported.
+   * @throws Exception If problems occur.
+   */
+  @Test
+  public void testExpiration() throws Exception {
+    this.cache.put("d", "value d", 1D / 3600D);
+    Thread.sleep(2100);
+    assertNull("Checking expired", this.cache.get("d"));
+    RemovalNotification notification = next();
+    assertEquals("Checking key", "d", notification.getKey());
+    assertEquals("Checking value", "value d", notification.getValue());
+    assertEquals("Checking cause", Cause.EXPIRED, notification.getCause());
+    assertNull("Checking plain miss", this.cache.get("d"));
+    assertNull("Checking no more", this.received.poll(200, TimeUnit.MILLISECONDS));
+  }
+
+  /**
+   * Tests that the event handler attached to entries reaches the listeners registered after the
+   * entries were put, rather than the dispatcher that was current when they were put.
+   * @throws Exception If problems occur.
+   */
+  @Test
+  public void testHandlerFollowsDispatcher() throws Exception {
+    IElementEventHandler handler = 
+      UriCache.getRemovalDispatcher("TestRemovalListener").getEventHandler();
+    this.cache.removeRemovalListener(this.listener);
+    this.cache.addRemovalListener(this.listener, true);
+    GroupAttrName name = new GroupAttrName(new GroupId("TestRemovalListener", "group"), "e");
+    handler.handleElementEvent(new ElementEvent(new CacheElement("TestRemovalListener", name, 
+        "value e"), IElementEventConstants.ELEMENT_EVENT_EXCEEDED_MAXLIFE_BACKGROUND));
+    RemovalNotification notification = next();
+    assertEquals("Checking key", "e", notification.getKey());
+    assertEquals("Checking cause", Cause.EXPIRED, notification.getCause());
+  }
+
+  /**
+   * Tests that notifications are dropped and counted when the queue is full, and ignored once the
+   * dispatcher has been shut down.
+   * @throws Exception If problems occur.
+   */
+  @Test
+  public void testFullQueueAndShutdown() throws Exception {
+    RemovalDispatcher dispatcher = new RemovalDispatcher("TestRemovalDispatcher", "default", 
+        Logger.getLogger("TestRemovalListener"), 2);
+    final CountDownLatch delivering = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    dispatcher.addListener(new RemovalListener() {
+      /** Blocks on the first batch, then collects the notifications. */
+      public void entriesRemoved(List<RemovalNotification> notifications) {
+        delivering.countDown();
+        try {
+          release.await();
+        }
+        catch (InterruptedException e) {
+          return;
+        }
+        received.addAll(notifications);
+      }
+    }, false);
+    dispatcher.notify(0, "default", null, Cause.EXPLICIT);
+    assertTrue("Checking delivery started", delivering.await(5, TimeUnit.SECONDS));
+    for (int i = 1; i <= 5; i++) {
+      dispatcher.notify(i, "default", null, Cause.EXPLICIT);
+    }
+    assertEquals("Checking dropped", 3, dispatcher.getDroppedCount());
+    release.countDown();
+    for (int i = 0; i <= 2; i++) {
+      assertEquals("Checking delivered key", i, next().getKey());
+    }
+    dispatcher.shutdown();
+    dispatcher.notify(6, "default", null, Cause.EXPLICIT);
+    assertEquals("Checking ignored after shutdown", 3, dispatcher.getDroppedCount());
+    assertNull("Checking no more", this.received.poll(200, TimeUnit.MILLISECONDS));
+  }
+
+  /**
+   * Returns the next notification, waiting up to five seconds for it.
+   * @return The notification.
+   * @throws InterruptedException If interrupted while waiting.
+   */
+  private RemovalNotification next() throws InterruptedException {
+    RemovalNotification notification = this.received.poll(5, TimeUnit.SECONDS);
+    if (notification == null) {
+      throw new AssertionError("No notification received");
+    }
+    return notification;
+  }
+}
@@ -0,0 +1,84 @@
+package org.hackystat.utilities.uricache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Serializable;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests the TenantPartitions class and the tenant methods of UriCache.
+ *
+ * @author agent
+ */
+public class TestTenantPartitions {
+
+  private static final String testSubDir = "TestUriCache";
+
+  /**
+   * Tests that quotas are divided among the active tenants according to their weights.
+   */
+  @Test
+  public void testQuotas() {
+    TenantPartitions partitions = new TenantPartitions(90);
+    assertEquals("Checking sole tenant", 90, partitions.getQuota("a"));
+    partitions.recordPut("a", "a1");
+    partitions.setWeight("b", 2.0);
+    assertEquals("Checking new tenant", 60, partitions.getQuota("b"));
+    partitions.recordPut("b", "b1");
+    assertEquals("Checking weighted quota", 30, partitions.getQuota("a"));
+    partitions.recordRemove("b", "b1");
+    assertEquals("Checking idle tenant", 90, partitions.getQuota("a"));
+  }
+
+  /**
+   * Tests that a tenant over its quota evicts its own least recently used entries.
+   */
+  @Test
+  public void testEviction() {
+    TenantPartitions partitions = new TenantPartitions(4);
+    partitions.recordPut("a", "a1");
+    partitions.recordPut("b", "b1");
+    partitions.recordPut("a", "a2");
+    partitions.recordGet("a", "a1", true);
+    List<Serializable> evicted = partitions.recordPut("a", "a3");
+    assertEquals("Checking one eviction", 1, evicted.size());
+    assertEquals("Checking LRU eviction", "a2", evicted.get(0));
+    assertEquals("Checking tenant size", 2, partitions.size("a"));
+    assertEquals("Checking other tenant", 1, partitions.size("b"));
+  }
+
+  /**
+   * Tests that a heavy tenant of a UriCache cannot evict the entries of a light one.
+   */
+  @Test
+  public void testUriCacheIsolation() {
+    UriCache cache = new UriCache("TestTenantPartitions", testSubDir, 1D, 100L);
+    cache.clearAll();
+    cache.setTenantCapacity(20);
+    for (int i = 0; i < 5; i++) {
+      cache.putForTenant("light", i, "light" + i);
+    }
+    for (int i = 0; i < 100; i++) {
+      cache.putForTenant("heavy", i, "heavy" + i);
+    }
+    assertEquals("Checking heavy size", 10, cache.getTenantSize("heavy"));
+    assertEquals("Checking heavy group", 10, 
+        cache.getGroupSize(UriCache.TENANT_GROUP_PREFIX + "heavy"));
+    assertNull("Checking heavy eviction", cache.getForTenant("heavy", 0));
+    assertEquals("Checking heavy recent", "heavy99", cache.getForTenant("heavy", 99));
+    for (int i = 0; i < 5; i++) {
+      assertEquals("Checking light entry", "light" + i, cache.getForTenant("light", i));
+    }
+    assertNull("Checking tenant isolation", cache.get(0));
+    cache.removeForTenant("light", 0);
+    assertEquals("Checking light removal", 4, cache.getTenantSize("light"));
+    cache.clearTenant("heavy");
+    assertEquals("Checking clear", 0, cache.getTenantSize("heavy"));
+    assertTrue("Checking clear group", 
+        cache.getGroupKeys(UriCache.TENANT_GROUP_PREFIX + "heavy").isEmpty());
+  }
+}
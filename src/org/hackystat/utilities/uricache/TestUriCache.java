@@ -1,11 +1,24 @@
 package org.hackystat.utilities.uricache;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+
+import org.apache.jcs.engine.CacheElement;
+import org.apache.jcs.engine.ElementAttributes;
+import org.apache.jcs.engine.control.CompositeCache;
+import org.apache.jcs.engine.control.CompositeCacheManager;
+import org.apache.jcs.engine.control.group.GroupAttrName;
+import org.apache.jcs.engine.control.group.GroupId;
+import org.hackystat.utilities.home.HackystatUserHome;
+import org.junit.Assume;
 import org.junit.Ignore;
 import org.junit.Test;
 
@@ -132,6 +145,200 @@ public class TestUriCache {
     }
   }
   
+  /**
+   * Tests a cache whose backing store is striped across two directories.
+   * @throws Exception If problems occur.
+   */
+  @Test
+  public void testStripedCache() throws Exception {
+    File home = new File(HackystatUserHome.getHome(), ".hackystat");
+    File[] roots = { new File(home, "stripe0"), new File(home, "stripe1") };
+    UriCache cache = new UriCache("TestStripedCache", testSubDir, 1D, 20L, roots);
+    cache.clearAll();
+    for (int i = 0; i < 200; i++) {
+      cache.put(i, i);
+    }
+    cache.putInGroup("key", "group", "value");
+    for (int i = 0; i < 200; i++) {
+      assertEquals("Checking striped retrieval", i, cache.get(i));
+    }
+    // The disk caches write the entries asynchronously, so wait for them to count all 200.
+    long deadline = System.currentTimeMillis() + 10000L;
+    while (cache.size() < 200 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(20);
+    }
+    assertEquals("Checking striped keys", 200, cache.size());
+    assertEquals("Checking striped group", "value", cache.getFromGroup("key", "group"));
+    for (File root : roots) {
+      File data = new File(root, testSubDir + "/uricache/TestStripedCache#" 
+          + ((root == roots[0]) ? 0 : 1) + ".data");
+      assertTrue("Checking stripe directory " + root, data.exists());
+    }
+    cache.remove(7);
+    assertNull("Checking striped remove", cache.get(7));
+    cache.clear();
+    assertEquals("Checking striped clear", 0, cache.size());
+    assertEquals("Checking striped group after clear", 1, cache.getGroupSize("group"));
+  }
+  
+  /**
+   * Tests that entries are evicted from the disk cache to meet a disk quota.
+   * @throws Exception If problems occur.
+   */
+  @Test
+  public void testDiskQuota() throws Exception {
+    UriCache cache = new UriCache("TestDiskQuota", testSubDir, 1D, 10L);
+    cache.clearAll();
+    StringBuilder value = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      value.append('x');
+    }
+    for (int i = 0; i < 200; i++) {
+      cache.put(i, value.toString() + i);
+    }
+    // Give the disk cache time to write the entries.
+    Thread.sleep(1000);
+    long liveBytes = cache.getLiveDiskBytes();
+    assertTrue("Checking disk bytes", cache.getDiskBytes() >= liveBytes);
+    assertTrue("Checking total disk bytes", UriCache.getTotalDiskBytes() >= liveBytes);
+    cache.setDiskQuota(liveBytes / 2);
+    assertTrue("Checking eviction", DiskQuotaReaper.reclaim() >= 90);
+    assertTrue("Checking quota", cache.getLiveDiskBytes() <= liveBytes / 2);
+    assertEquals("Checking recent entry kept", value.toString() + 199, cache.get(199));
+    assertEquals("Checking no further eviction", 0, DiskQuotaReaper.reclaim());
+    cache.setDiskQuota(0);
+  }
+  
+  /**
+   * Tests that grouped entries left on disk by an earlier instance of a cache, and grouped 
+   * entries imported from a snapshot, are evicted to meet a disk quota.
+   * @throws Exception If problems occur.
+   */
+  @Test
+  public void testDiskQuotaGroups() throws Exception {
+    // Fill the cache in another JVM, because JCS reuses disposed disk caches within one.
+    String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+    Process earlierRun = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+        "-Dhackystat.user.home=" + HackystatUserHome.getHome().getPath(), 
+        TestUriCache.class.getName()).redirectErrorStream(true).start();
+    while (earlierRun.getInputStream().read() >= 0) {
+      // Discard the output.
+      continue;
+    }
+    assertEquals("Checking earlier run", 0, earlierRun.waitFor());
+    UriCache cache = new UriCache("TestDiskQuotaGroups", testSubDir, 1D, 10L);
+    long liveBytes = cache.getLiveDiskBytes();
+    assertTrue("Checking entries on disk", liveBytes > 0);
+    cache.setDiskQuota(liveBytes / 2);
+    assertTrue("Checking reopened eviction", DiskQuotaReaper.reclaim() >= 90);
+    assertTrue("Checking reopened quota", cache.getLiveDiskBytes() <= liveBytes / 2);
+    cache.setDiskQuota(0);
+
+    File file = new File(HackystatUserHome.getHome(), ".hackystat/" + testSubDir + "/groups.snap");
+    UriCache target = new UriCache("TestDiskQuotaImport", testSubDir, 1D, 10L);
+    target.clearAll();
+    assertEquals("Checking import", 200, target.importSnapshot(file, 2));
+    // Give the disk cache time to write the entries.
+    Thread.sleep(1000);
+    liveBytes = target.getLiveDiskBytes();
+    target.setDiskQuota(liveBytes / 2);
+    assertTrue("Checking imported eviction", DiskQuotaReaper.reclaim() >= 90);
+    assertTrue("Checking imported quota", target.getLiveDiskBytes() <= liveBytes / 2);
+    target.setDiskQuota(0);
+    assertTrue("Checking delete", file.delete());
+  }
+  
+  /**
+   * Puts 200 entries in a group of the cache used by testDiskQuotaGroups and exports them to a 
+   * snapshot, as the earlier run of a program using the cache. 
+   * @param args Ignored.
+   * @throws Exception If problems occur.
+   */
+  public static void main(String[] args) throws Exception {
+    UriCache cache = new UriCache("TestDiskQuotaGroups", testSubDir, 1D, 10L);
+    cache.clearAll();
+    StringBuilder value = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      value.append('x');
+    }
+    for (int i = 0; i < 200; i++) {
+      cache.putInGroup(i, "group", value.toString() + i);
+    }
+    // Give the disk cache time to write the entries.
+    Thread.sleep(1000);
+    File file = new File(HackystatUserHome.getHome(), ".hackystat/" + testSubDir + "/groups.snap");
+    int count = cache.exportSnapshot(file, "group");
+    UriCache.dispose("TestDiskQuotaGroups");
+    System.exit((count == 200) ? 0 : 1);
+  }
+  
+  /**
+   * Tests that entries put with an ExpirySpreader are still retrievable. 
+   */
+  @Test
+  public void testExpirySpreader() {
+    UriCache cache = new UriCache("TestExpirySpreader", testSubDir);
+    cache.setExpirySpreader(new ExpirySpreader(0.1, 10));
+    for (int i = 0; i < 50; i++) {
+      cache.put(i, i);
+    }
+    cache.putInGroup("key", "group", "value");
+    cache.put("hours", "value", 1D);
+    for (int i = 0; i < 50; i++) {
+      assertEquals("Checking spread retrieval", i, cache.get(i));
+    }
+    assertEquals("Checking spread group retrieval", "value", cache.getFromGroup("key", "group"));
+    assertEquals("Checking spread hours retrieval", "value", cache.get("hours"));
+  }
+  
+  /**
+   * Tests the conditional puts of versioned entries. 
+   */
+  @Test
+  public void testVersionedPuts() {
+    UriCache cache = new UriCache("TestVersionedPuts", testSubDir);
+    cache.clear();
+    assertTrue("Checking first put", cache.putIfNewer("key", "v2", 2L, "etag2"));
+    assertFalse("Checking same version", cache.putIfNewer("key", "other", 2L, "etag2"));
+    assertFalse("Checking older version", cache.putIfNewer("key", "v1", 1L, "etag1"));
+    assertEquals("Checking get", "v2", cache.get("key"));
+    VersionedValue versioned = cache.getVersioned("key");
+    assertEquals("Checking version", 2L, versioned.getVersion());
+    assertEquals("Checking validator", "etag2", versioned.getValidator());
+    assertTrue("Checking fresh", versioned.isFresh());
+    assertFalse("Checking stale CAS", cache.compareAndPut("key", 1L, "v3", 3L, null));
+    assertTrue("Checking CAS", cache.compareAndPut("key", 2L, "v3", 3L, null));
+    assertEquals("Checking CAS get", "v3", cache.get("key"));
+    assertFalse("Checking absent CAS", cache.compareAndPut("key", UriCache.NO_VERSION, "x", 1L, 
+        null));
+    assertTrue("Checking new CAS", cache.compareAndPut("new", UriCache.NO_VERSION, "n", 1L, 
+        null));
+    cache.put("plain", "value");
+    assertNull("Checking unversioned", cache.getVersioned("plain"));
+  }
+  
+  /**
+   * Tests that a stale versioned entry is kept, and made fresh by revalidation.
+   * @throws Exception If problems occur.
+   */
+  @Test
+  public void testRevalidation() throws Exception {
+    // Versioned entries are fresh for one second.
+    UriCache cache = new UriCache("TestRevalidation", testSubDir, 1.2e-5D, 100L);
+    cache.clear();
+    cache.setRevalidationWindowHours(1D);
+    cache.putIfNewer("key", "value", 1L, "etag");
+    Thread.sleep(2000);
+    assertNull("Checking stale get", cache.get("key"));
+    VersionedValue stale = cache.getVersioned("key");
+    assertFalse("Checking stale", stale.isFresh());
+    assertEquals("Checking stale value", "value", stale.getValue());
+    assertFalse("Checking wrong validator", cache.revalidate("key", "other"));
+    assertTrue("Checking revalidate", cache.revalidate("key", stale.getValidator()));
+    assertEquals("Checking revalidated get", "value", cache.get("key"));
+    assertFalse("Checking missing", cache.revalidate("missing", "etag"));
+  }
+
   /**
    * Test that we can expire elements from the cache. 
    * This test no longer works because we've changed the 
@@ -162,4 +369,90 @@ public class TestUriCache {
     // Now see that our element with the custom maxLife time is now gone.
     assertNull("Check expired element", cache.get(300));
   }
+  
+  /**
+   * Tests that steady-state puts allocate nothing beyond the JCS key, element and attributes of
+   * the new entry and what JCS allocates to store it, and that gets allocate nothing beyond the
+   * JCS key. JCS updates the attributes of each element in place (its last access time, for 
+   * example), so every put needs its own. The budgets are measured on the running JVM, and the
+   * test is skipped on JVMs that cannot report the bytes allocated by a thread.
+   * @throws Exception If problems occur.
+   */
+  @Test
+  public void testAllocation() throws Exception {
+    Method allocatedBytes = null;
+    Object threadBean = ManagementFactory.getThreadMXBean();
+    try {
+      Class<?> beanClass = Class.forName("com.sun.management.ThreadMXBean");
+      if (beanClass.isInstance(threadBean)) {
+        allocatedBytes = beanClass.getMethod("getThreadAllocatedBytes", long.class);
+      }
+    }
+    catch (ClassNotFoundException e) {
+      allocatedBytes = null;
+    }
+    catch (NoSuchMethodException e) {
+      allocatedBytes = null;
+    }
+    Assume.assumeTrue(allocatedBytes != null);
+    UriCache cache = new UriCache("TestAllocation", testSubDir);
+    cache.clearAll();
+    CompositeCache region = CompositeCacheManager.getInstance().getCache("TestAllocation");
+    GroupId groupId = new GroupId("TestAllocation", "__Default_UriCache_Group__");
+    Integer[] keys = new Integer[100];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = i;
+    }
+    String value = "value";
+    Long thread = Thread.currentThread().getId();
+    int operations = 50000;
+    GroupAttrName[] names = new GroupAttrName[operations];
+    CacheElement[] elements = new CacheElement[operations];
+    long keyBytes = 0;
+    long entryBytes = 0;
+    long storeBytes = 0;
+    long putBytes = 0;
+    long getBytes = 0;
+    // The first round warms up the JIT compiler, the second is measured.
+    for (int round = 0; round < 2; round++) {
+      long start = (Long) allocatedBytes.invoke(threadBean, thread);
+      for (int i = 0; i < operations; i++) {
+        names[i] = new GroupAttrName(groupId, keys[i % keys.length]);
+      }
+      long named = (Long) allocatedBytes.invoke(threadBean, thread);
+      for (int i = 0; i < operations; i++) {
+        elements[i] = new CacheElement("TestAllocation", 
+            new GroupAttrName(groupId, keys[i % keys.length]), value);
+        ElementAttributes attributes = new ElementAttributes();
+        attributes.setMaxLifeSeconds(3600);
+        attributes.setIsEternal(false);
+        elements[i].setElementAttributes(attributes);
+      }
+      long created = (Long) allocatedBytes.invoke(threadBean, thread);
+      for (int i = 0; i < operations; i++) {
+        region.update(elements[i]);
+      }
+      long stored = (Long) allocatedBytes.invoke(threadBean, thread);
+      for (int i = 0; i < operations; i++) {
+        cache.put(keys[i % keys.length], value);
+      }
+      long put = (Long) allocatedBytes.invoke(threadBean, thread);
+      for (int i = 0; i < operations; i++) {
+        cache.get(keys[i % keys.length]);
+      }
+      long end = (Long) allocatedBytes.invoke(threadBean, thread);
+      keyBytes = (named - start) / operations;
+      entryBytes = (created - named) / operations;
+      storeBytes = (stored - created) / operations;
+      putBytes = (put - stored) / operations;
+      getBytes = (end - put) / operations;
+    }
+    // The disk cache's write queue is drained by another thread, so its growth is amortized a 
+    // little differently from run to run. The slack is smaller than any object, so one extra 
+    // object per put still fails.
+    long slack = 8;
+    assertTrue("Checking put allocation: " + putBytes + " > " + entryBytes + " + " + storeBytes, 
+        putBytes <= entryBytes + storeBytes + slack);
+    assertTrue("Checking get allocation: " + getBytes + " > " + keyBytes, getBytes <= keyBytes);
+  }
 }
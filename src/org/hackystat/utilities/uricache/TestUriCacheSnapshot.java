@@ -0,0 +1,181 @@
+package org.hackystat.utilities.uricache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Tests the export and import of UriCache snapshots, and read-only caches opened from them.
+ *
+ * @author agent
+ */
+public class TestUriCacheSnapshot {
+
+  private static final String testSubDir = "TestUriCache";
+
+  /**
+   * Tests that exported entries can be imported into an empty cache.
+   * @throws Exception If problems occur.
+   */
+  @Test
+  public void testExportImport() throws Exception {
+    UriCache source = new UriCache("TestSnapshotSource", testSubDir);
+    source.clearAll();
+    for (int i = 0; i < 500; i++) {
+      source.put("uri" + i, "value" + i);
+    }
+    source.putInGroup("groupkey", "group", "groupvalue");
+    // A negative maxLife means that the entry never expires.
+    source.put("unlimited", "value", -1D / 3600D);
+    File file = File.createTempFile("uricache", ".snapshot");
+    file.deleteOnExit();
+    assertEquals("Checking export count", 502, source.exportSnapshot(file,
+        "__Default_UriCache_Group__", "group"));
+
+    UriCache target = new UriCache("TestSnapshotTarget", testSubDir);
+    target.clearAll();
+    assertEquals("Checking import count", 502, target.importSnapshot(file, 4));
+    assertEquals("Checking size", 501, target.size());
+    assertEquals("Checking unlimited value", "value", target.get("unlimited"));
+    for (int i = 0; i < 500; i++) {
+      assertEquals("Checking imported value", "value" + i, target.get("uri" + i));
+    }
+    assertEquals("Checking group value", "groupvalue", target.getFromGroup("groupkey", "group"));
+  }
+
+  /**
+   * Tests that the default group is exported when no groups are given, and that an empty
+   * snapshot can be imported.
+   * @throws Exception If problems occur.
+   */
+  @Test
+  public void testDefaultGroup() throws Exception {
+    UriCache cache = new UriCache("TestSnapshotDefault", testSubDir);
+    cache.clearAll();
+    File file = File.createTempFile("uricache", ".snapshot");
+    file.deleteOnExit();
+    assertEquals("Checking empty export", 0, cache.exportSnapshot(file));
+    assertEquals("Checking empty import", 0, cache.importSnapshot(file, 2));
+    cache.put("key", "value");
+    cache.putInGroup("other", "group", "value");
+    assertEquals("Checking default export", 1, cache.exportSnapshot(file));
+    cache.clearAll();
+    assertEquals("Checking default import", 1, cache.importSnapshot(file, 2));
+    assertEquals("Checking value", "value", cache.get("key"));
+    assertNull("Checking other group", cache.getFromGroup("other", "group"));
+  }
+
+  /**
+   * Tests a read-only cache opened from a snapshot, including concurrent reads.
+   * @throws Exception If problems occur.
+   */
+  @Test
+  public void testReadOnly() throws Exception {
+    UriCache source = new UriCache("TestSnapshotReadOnly", testSubDir);
+    source.clearAll();
+    for (int i = 0; i < 200; i++) {
+      source.put("uri" + i, "value" + i);
+    }
+    source.putInGroup("groupkey", "group", "groupvalue");
+    source.put("expiring", "value", 1D / 3600D);
+    File file = File.createTempFile("uricache", ".snapshot");
+    file.deleteOnExit();
+    source.exportSnapshot(file, "__Default_UriCache_Group__", "group");
+
+    final UriCache replica = UriCache.openReadOnly("TestSnapshotReplica", testSubDir, file);
+    assertTrue("Checking read-only", replica.isReadOnly());
+    assertEquals("Checking group value", "groupvalue", 
+        replica.getFromGroup("groupkey", "group"));
+    assertNull("Checking missing", replica.get("missing"));
+    assertSame("Checking decoded value reused", replica.get("uri0"), replica.get("uri0"));
+    assertEquals("Checking group keys", 1, replica.getGroupSize("group"));
+    final AtomicInteger failures = new AtomicInteger(0);
+    Thread[] readers = new Thread[4];
+    for (int t = 0; t < readers.length; t++) {
+      readers[t] = new Thread() {
+        /** Reads every entry. */
+        @Override
+        public void run() {
+          for (int i = 0; i < 200; i++) {
+            if (!("value" + i).equals(replica.get("uri" + i))) {
+              failures.incrementAndGet();
+            }
+          }
+        }
+      };
+      readers[t].start();
+    }
+    for (Thread reader : readers) {
+      reader.join();
+    }
+    assertEquals("Checking concurrent reads", 0, failures.get());
+    Thread.sleep(1100);
+    assertNull("Checking expired", replica.get("expiring"));
+    assertEquals("Checking keys", 200, replica.size());
+    try {
+      replica.put("key", "value");
+      fail("Put into a read-only cache");
+    }
+    catch (UnsupportedOperationException e) {
+      assertEquals("Checking unchanged", 200, replica.size());
+    }
+  }
+
+  /**
+   * Tests that a read-only cache shares no state with a writable cache of the same name.
+   * @throws Exception If problems occur.
+   */
+  @Test
+  public void testReadOnlySameName() throws Exception {
+    UriCache source = new UriCache("TestSnapshotSameName", testSubDir);
+    source.clearAll();
+    source.put("key", "value");
+    File file = File.createTempFile("uricache", ".snapshot");
+    file.deleteOnExit();
+    source.exportSnapshot(file);
+    UriCache replica = UriCache.openReadOnly("TestSnapshotSameName", testSubDir, file);
+    source.enableHotKeyTracking(4, true);
+    replica.enableHotKeyTracking(4, false);
+    for (int i = 0; i < 1000; i++) {
+      replica.get("key");
+    }
+    assertEquals("Checking read-only hot key", "key", replica.getHotKeys().get(0).getKey());
+    assertTrue("Checking writable hot keys", source.getHotKeys().isEmpty());
+    replica.disableHotKeyTracking();
+    for (int i = 0; i < 1000; i++) {
+      source.get("key");
+    }
+    assertEquals("Checking writable still tracking", "key", source.getHotKeys().get(0).getKey());
+    source.disableHotKeyTracking();
+    try {
+      replica.setDiskQuota(1000);
+      fail("Disk quota on a read-only cache");
+    }
+    catch (UnsupportedOperationException e) {
+      assertEquals("Checking writable value", "value", source.get("key"));
+    }
+  }
+
+  /**
+   * Tests that a file that is not a snapshot is rejected.
+   * @throws Exception If problems occur.
+   */
+  @Test(expected = IOException.class)
+  public void testBadSnapshot() throws Exception {
+    File file = File.createTempFile("uricache", ".snapshot");
+    file.deleteOnExit();
+    FileOutputStream out = new FileOutputStream(file);
+    out.write(new byte[64]);
+    out.close();
+    new UriCache("TestSnapshotDefault", testSubDir).importSnapshot(file, 1);
+  }
+}
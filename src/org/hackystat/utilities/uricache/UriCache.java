@@ -1,18 +1,38 @@
 package org.hackystat.utilities.uricache;
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.apache.jcs.access.exception.CacheException;
+import org.apache.jcs.engine.CacheConstants;
+import org.apache.jcs.engine.CacheElement;
 import org.apache.jcs.engine.ElementAttributes;
+import org.apache.jcs.engine.behavior.ICacheElement;
+import org.apache.jcs.engine.behavior.IElementAttributes;
+import org.apache.jcs.engine.control.CompositeCache;
 import org.apache.jcs.engine.control.CompositeCacheManager;
+import org.apache.jcs.engine.control.group.GroupAttrName;
+import org.apache.jcs.engine.control.group.GroupId;
+import org.apache.jcs.engine.stats.behavior.IStatElement;
+import org.apache.jcs.engine.stats.behavior.IStats;
 import org.apache.jcs.JCS;
 import org.hackystat.utilities.home.HackystatUserHome;
 import org.hackystat.utilities.logger.HackystatLogger;
@@ -26,6 +46,11 @@ import org.hackystat.utilities.logger.HackystatLogger;
  * <li> Provides a default maximum life for expiring of entries of one day.
  * <li> Provides a default maximum cache size of 10000 instances.
  * <li> Provides a default directory location (inside ~/.hackystat) for backing store files. 
+ * <li> Optional striping of the backing store across several directories (volumes).
+ * <li> Optional per-cache and global quotas on the bytes used by backing store files.
+ * <li> A read-only mode serving entries directly from a memory mapped snapshot file.
+ * <li> Tenant partitions with weighted fair-share quotas, so that many users can share one cache.
+ * <li> Optional detection of hot keys, with per-thread read replicas of the hot entries.
  * <li> Helps ensure that all UriCache instances have a unique name.
  * <li> All caches use the JCS "group" facility to allow access to the set of keys. 
  * <li> Constructor uses "days" rather than seconds as time unit for maxLife.
@@ -35,6 +60,12 @@ import org.hackystat.utilities.logger.HackystatLogger;
  * <li> Disables JCS logging messages unless the System property
  * org.hackystat.utilities.uricache.enableJCSLogging is set.
  * <li> Shutdown hook ensures that backing index file is closed correctly on JVM exit. 
+ * <li> Optional expiry jitter and rate limiting (see ExpirySpreader) to avoid expiration storms.
+ * <li> Export and import of snapshot files to pre-warm the cache of a newly started service.
+ * <li> Optional recording of an access trace for offline sizing with AccessTraceSimulator.
+ * <li> Asynchronous, batched notification of removed entries to registered RemovalListeners.
+ * <li> Versioned entries with conditional puts, and revalidation of stale entries using the 
+ * validator (such as an ETag) supplied by their origin.
  * <li> Convenient packaging mechanism for required jar files to simplify library use.
  * </ul>
  * 
@@ -71,8 +102,61 @@ public class UriCache {
   private String cacheName = null;
   /** The logger used for cache exception logging. */
   private Logger logger = null;
+  /** Spreads out expiration times of entries put through this instance, or null if none. */
+  private ExpirySpreader expirySpreader = null;
+  /** The number of seconds that a stale versioned entry is kept for revalidation. */
+  private long revalidationWindowSeconds = secondsInADay;
+  /** Records the operations performed through this instance, or null if not tracing. */
+  private volatile AccessTraceRecorder accessTrace = null;
+  /** The names of the JCS regions holding the entries of this cache, one per disk stripe. */
+  private String[] regionNames = null;
+  /** The JCS regions, by stripe, resolved once so that each operation avoids a JCS lookup. */
+  private CompositeCache[] regions = null;
+  /** The JCS identifier of the default group in each region. */
+  private GroupId[] defaultGroupIds = null;
+  /** The default maximum life of the entries of this cache in seconds. */
+  private long defaultMaxLife = defaultMaxLifeSeconds;
+  /** The snapshot serving the entries of a read-only cache, or null if not read-only. */
+  private MappedSnapshot readOnlySnapshot = null;
+  /** The hot key tracker of a read-only cache, which is not shared with any other instance. */
+  private volatile HotKeyTracker readOnlyHotKeyTracker = null;
   /** Holds a list of already defined caches to help ensure uniqueness. */
   private static List<String> cacheNames = new ArrayList<String>();
+  /** The JCS region names of each cache whose disk tier is striped. */
+  private static final ConcurrentMap<String, String[]> stripedRegions = 
+    new ConcurrentHashMap<String, String[]>();
+  /** The directory holding the backing store files of each JCS region. */
+  private static final ConcurrentMap<String, File> regionPaths = 
+    new ConcurrentHashMap<String, File>();
+  /** 
+   * The groups that each cache is known to hold entries in, for disk quota enforcement. They are 
+   * recorded in a file alongside the backing store, so that entries left on disk by an earlier 
+   * run remain subject to the quota. 
+   */
+  private static final ConcurrentMap<String, ConcurrentMap<String, Boolean>> knownGroups = 
+    new ConcurrentHashMap<String, ConcurrentMap<String, Boolean>>();
+  /** The number of removals after which a region compacts its backing store data file. */
+  private static final int optimizeAtRemoveCount = 20000;
+  /** The removal notification dispatchers of the caches that have removal listeners. */
+  private static final ConcurrentMap<String, RemovalDispatcher> dispatchers = 
+    new ConcurrentHashMap<String, RemovalDispatcher>();
+  /** The locks that make the conditional puts of versioned entries atomic, striped by key. */
+  private static final Object[] versionLocks = new Object[64];
+  static {
+    for (int i = 0; i < versionLocks.length; i++) {
+      versionLocks[i] = new Object();
+    }
+  }
+  /** The hot key trackers of the caches that track hot keys. */
+  private static final ConcurrentMap<String, HotKeyTracker> hotKeyTrackers = 
+    new ConcurrentHashMap<String, HotKeyTracker>();
+  /** The tenant partitions of the caches that have tenants. */
+  private static final ConcurrentMap<String, TenantPartitions> tenantPartitions = 
+    new ConcurrentHashMap<String, TenantPartitions>();
+  /** The prefix of the names of the groups holding the entries of each tenant. */
+  public static final String TENANT_GROUP_PREFIX = "__UriCache_Tenant__:";
+  /** The version reported by compareAndPut() for an entry that is not in the cache. */
+  public static final long NO_VERSION = Long.MIN_VALUE;
   /** Default group name. No client should ever using the following string for a group. */
   private static final String DEFAULT_GROUP = "__Default_UriCache_Group__";
   
@@ -86,7 +170,9 @@ public class UriCache {
       for (String cacheName : cacheNames) {
         try {
           System.out.println("Shutting down " + cacheName + " cache.");
-          JCS.getInstance(cacheName).dispose();
+          for (String regionName : getRegionNames(cacheName)) {
+            JCS.getInstance(regionName).dispose();
+          }
         }
         catch (Exception e) {
           String msg = failureMsg + cacheName + ":" + e.getMessage();
@@ -125,6 +211,34 @@ public class UriCache {
    * @param capacity The maximum number of instances to hold in the cache. 
    */
   public UriCache(String cacheName, String subDir, Double maxLifeDays, Long capacity) {
+    this(cacheName, subDir, maxLifeDays, capacity, null);
+  }
+  
+  /**
+   * Creates a new UriCache whose backing store is striped across the specified root directories,
+   * which are used in place of ~/.hackystat and would normally be on different volumes. Each 
+   * stripe is a separate JCS region with its own indexed disk cache in root/subDir/uricache, and
+   * hence its own disk write queue and lock, and holds the entries whose keys hash to it. Cold
+   * reads of different keys can therefore proceed on all of the volumes at once. The capacity is
+   * divided evenly among the stripes. 
+   * <p>
+   * A key's stripe is computed from key.hashCode(), and the stripe files persist across runs. 
+   * Keys whose hash code can differ from one JVM to the next, such as enum constants or objects
+   * of a class that does not override hashCode(), may therefore not be found after a restart. 
+   * Strings and boxed primitives are safe.
+   * <p>
+   * If a cache with this name already exists, then this instance will be an alias to that cache
+   * and its original configuration, including its striping, will remain unchanged. 
+   * 
+   * @param cacheName The name of this UriCache.
+   * @param subDir The subdirectory of each root in which the uricache directory holding that
+   *        stripe of the backing store will be created.
+   * @param maxLifeDays The maximum number of days after which items expire from the cache.
+   * @param capacity The maximum number of instances to hold in the cache. 
+   * @param diskRoots The root directories, or null to use ~/.hackystat.
+   */
+  public UriCache(String cacheName, String subDir, Double maxLifeDays, Long capacity,
+      File[] diskRoots) {
     // Set up the shutdown hook if we're the first one. Not thread safe, but there's not too
     // much harm done if there are multiple shutdown hooks running.
     if (!UriCache.hasShutdownHook) {
@@ -143,8 +257,248 @@ public class UriCache {
       }
       CompositeCacheManager ccm = CompositeCacheManager.getUnconfiguredInstance();
       long maxLifeSeconds = (long) (maxLifeDays * secondsInADay);
-      ccm.configure(initJcsProps(cacheName, subDir, maxLifeSeconds, capacity));
+      File[] roots = diskRoots;
+      if (roots == null || roots.length == 0) {
+        roots = new File[] { new File(HackystatUserHome.getHome(), ".hackystat") };
+      }
+      String[] names = new String[roots.length];
+      long stripeCapacity = (capacity + roots.length - 1) / roots.length;
+      for (int i = 0; i < roots.length; i++) {
+        names[i] = (roots.length == 1) ? cacheName : cacheName + "#" + i;
+        String cachePath = getCachePath(roots[i], subDir);
+        regionPaths.put(names[i], new File(cachePath));
+        ccm.configure(initJcsProps(names[i], cachePath, maxLifeSeconds, stripeCapacity));
+      }
+      if (roots.length > 1) {
+        stripedRegions.put(cacheName, names);
+      }
+      ConcurrentMap<String, Boolean> groups = new ConcurrentHashMap<String, Boolean>();
+      groups.put(DEFAULT_GROUP, Boolean.TRUE);
+      for (String group : readGroups(getGroupsFile(cacheName))) {
+        groups.put(group, Boolean.TRUE);
+      }
+      knownGroups.put(cacheName, groups);
+      this.regionNames = names;
+      DiskQuotaReaper.register(cacheName, this);
+    }
+    else {
+      this.regionNames = getRegionNames(cacheName);
+    }
+    this.regions = new CompositeCache[this.regionNames.length];
+    this.defaultGroupIds = new GroupId[this.regionNames.length];
+    for (int i = 0; i < this.regionNames.length; i++) {
+      this.regions[i] = CompositeCacheManager.getInstance().getCache(this.regionNames[i]);
+      this.defaultGroupIds[i] = new GroupId(this.regionNames[i], DEFAULT_GROUP);
+    }
+    this.defaultMaxLife = this.regions[0].getElementAttributes().getMaxLifeSeconds();
+  }
+  
+  /**
+   * Returns the names of the JCS regions holding the entries of the named cache.
+   * @param cacheName The name of the cache.
+   * @return The region names, which is just the cache name if it is not striped.
+   */
+  private static String[] getRegionNames(String cacheName) {
+    String[] names = stripedRegions.get(cacheName);
+    return (names == null) ? new String[] { cacheName } : names;
+  }
+  
+  /**
+   * Returns the file recording the groups that the named cache holds entries in, which is kept
+   * in the directory of its first stripe.
+   * @param cacheName The name of the cache.
+   * @return The file, or null if the cache has no backing store.
+   */
+  private static File getGroupsFile(String cacheName) {
+    File path = regionPaths.get(getRegionNames(cacheName)[0]);
+    return (path == null) ? null : new File(path, cacheName + ".groups");
+  }
+  
+  /**
+   * Reads the group names recorded in a groups file. A record cut short by a crash ends the list.
+   * @param file The groups file, or null.
+   * @return The group names, which are empty if the file does not exist.
+   */
+  private static List<String> readGroups(File file) {
+    List<String> groups = new ArrayList<String>();
+    if (file == null || !file.exists()) {
+      return groups;
+    }
+    try {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(
+          new FileInputStream(file)));
+      try {
+        while (true) {
+          groups.add(in.readUTF());
+        }
+      }
+      finally {
+        in.close();
+      }
+    }
+    catch (IOException e) {
+      // End of file, or of the complete records.
+      return groups;
+    }
+  }
+  
+  /**
+   * Adds a group to the groups this cache is known to hold entries in, recording it in the
+   * groups file if it is new.
+   * @param group The group name.
+   */
+  private void registerGroup(String group) {
+    ConcurrentMap<String, Boolean> groups = knownGroups.get(this.cacheName);
+    if (groups == null || groups.containsKey(group) 
+        || groups.putIfAbsent(group, Boolean.TRUE) != null) {
+      return;
+    }
+    File file = getGroupsFile(this.cacheName);
+    if (file == null) {
+      return;
+    }
+    synchronized (groups) {
+      try {
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file, true));
+        try {
+          out.writeUTF(group);
+        }
+        finally {
+          out.close();
+        }
+      }
+      catch (IOException e) {
+        this.logger.warning("Failure to record group " + group + " of cache " + this.cacheName 
+            + ":" + e.getMessage());
+      }
+    }
+  }
+  
+  /**
+   * Creates a read-only UriCache serving the entries of a snapshot.
+   * 
+   * @param cacheName The name of this cache, used for logging.
+   * @param subDir The .hackystat subdirectory holding the log.
+   * @param snapshot The mapped snapshot.
+   */
+  private UriCache(String cacheName, String subDir, MappedSnapshot snapshot) {
+    this.cacheName = cacheName;
+    this.logger = HackystatLogger.getLogger(cacheName + ".uricache", subDir);
+    this.regionNames = new String[0];
+    this.regions = new CompositeCache[0];
+    this.defaultGroupIds = new GroupId[0];
+    this.readOnlySnapshot = snapshot;
+  }
+  
+  /**
+   * Returns a read-only UriCache whose entries are those of a snapshot file written by 
+   * exportSnapshot(), for replicas that only consume the data cached by a primary. The file is
+   * memory mapped rather than loaded, so the cache is available immediately, and entries are 
+   * read on demand by any number of threads without locking. The cache does not use JCS, and so
+   * has no disk cache, write locks or index to save on shutdown. Entries expire at the time
+   * recorded in the snapshot. The file must not be modified while the cache is in use; to 
+   * switch to a newer snapshot, open a new cache and discard the old one. 
+   * <p>
+   * Operations that modify the cache throw an UnsupportedOperationException, as do removal 
+   * listeners, disk quotas and tenant partitions, since they apply to writable caches. Hot key
+   * tracking applies to this instance only. Snapshots larger than 2GB cannot be mapped. 
+   * 
+   * @param cacheName The name of this cache, used for logging. It shares no entries or settings
+   *        with a writable UriCache of the same name, or with other read-only caches.
+   * @param subDir The .hackystat subdirectory in which the log file will be written.
+   * @param snapshotFile The snapshot file.
+   * @return The read-only cache.
+   * @throws IOException If the file cannot be mapped or is not a snapshot file.
+   */
+  public static UriCache openReadOnly(String cacheName, String subDir, File snapshotFile) 
+    throws IOException {
+    return new UriCache(cacheName, subDir, new MappedSnapshot(snapshotFile));
+  }
+  
+  /**
+   * Returns true if this cache was opened with openReadOnly().
+   * @return True if this cache is read-only.
+   */
+  public boolean isReadOnly() {
+    return this.readOnlySnapshot != null;
+  }
+  
+  /**
+   * Throws an UnsupportedOperationException if this cache is read-only.
+   */
+  private void checkWritable() {
+    if (this.readOnlySnapshot != null) {
+      throw new UnsupportedOperationException("UriCache " + this.cacheName + " is read-only.");
+    }
+  }
+  
+  /**
+   * Returns the index of the stripe holding the specified key.
+   * @param key The key.
+   * @param stripes The number of stripes.
+   * @return The stripe index, between 0 and stripes - 1.
+   */
+  static int stripe(Serializable key, int stripes) {
+    if (stripes == 1) {
+      return 0;
+    }
+    int hash = key.hashCode();
+    hash ^= (hash >>> 16);
+    return (hash & 0x7fffffff) % stripes;
+  }
+  
+  /**
+   * Returns the JCS region of a stripe of this cache. The region is looked up again if it has 
+   * been disposed of since it was resolved, in which case JCS creates it anew. 
+   * 
+   * @param stripe The stripe index.
+   * @return The region.
+   */
+  private CompositeCache getRegion(int stripe) {
+    CompositeCache region = this.regions[stripe];
+    if (region.getStatus() != CacheConstants.STATUS_ALIVE) {
+      region = CompositeCacheManager.getInstance().getCache(this.regionNames[stripe]);
+      this.regions[stripe] = region;
+    }
+    return region;
+  }
+  
+  /**
+   * Returns the JCS key of an entry in a group of a stripe of this cache. 
+   * 
+   * @param stripe The stripe index.
+   * @param group The group.
+   * @param key The key.
+   * @return The JCS key.
+   */
+  private GroupAttrName getGroupAttrName(int stripe, String group, Serializable key) {
+    GroupId groupId = DEFAULT_GROUP.equals(group) ? this.defaultGroupIds[stripe] 
+        : new GroupId(this.regionNames[stripe], group);
+    return new GroupAttrName(groupId, key);
+  }
+  
+  /**
+   * Adds an entry to the JCS region of its stripe. Unlike JCS.putInGroup(), this does not first
+   * remove the entry, since JCS replaces an entry with the same key in memory and on disk 
+   * anyway, and the removal costs an asynchronous disk cache event for every put.
+   * 
+   * @param key The key.
+   * @param group The group.
+   * @param value The value.
+   * @param attributes The attributes of the new entry, which must not be shared with others.
+   * @throws IOException If the region cannot store the entry.
+   */
+  private void update(Serializable key, String group, Serializable value, 
+      IElementAttributes attributes) throws IOException {
+    if (value == null) {
+      throw new IOException("Value must not be null");
     }
+    int stripe = stripe(key, this.regionNames.length);
+    CompositeCache region = getRegion(stripe);
+    CacheElement element = new CacheElement(region.getCacheName(), 
+        getGroupAttrName(stripe, group, key), value);
+    element.setElementAttributes(attributes);
+    region.update(element);
   }
   
   /**
@@ -155,13 +509,7 @@ public class UriCache {
    * @param value The value, typically the object returned from the Hackystat service.
    */
   public void put(Serializable key, Serializable value) {
-    try {
-      JCS.getInstance(this.cacheName).putInGroup(key, DEFAULT_GROUP, value);
-    }
-    catch (CacheException e) {
-      String msg = "Failure to add " + key + " to cache " + this.cacheName + ":" + e.getMessage();
-      this.logger.warning(msg);
-    }
+    putInGroup(key, DEFAULT_GROUP, value);
   }
   
   /**
@@ -172,14 +520,14 @@ public class UriCache {
    * @param maxLifeHours The number of hours before this item will expire from cache.
    */
   public void put(Serializable key, Serializable value, double maxLifeHours) {
+    checkWritable();
     try {
-      ElementAttributes attributes = new ElementAttributes();
       long maxLifeSeconds = (long)(maxLifeHours * 3600D);
-      attributes.setMaxLifeSeconds(maxLifeSeconds);
-      attributes.setIsEternal(false);
-      JCS.getInstance(this.cacheName).putInGroup(key, DEFAULT_GROUP, value, attributes);
+      update(key, DEFAULT_GROUP, value, makeAttributes(maxLifeSeconds));
+      invalidateReplicas(key, DEFAULT_GROUP);
+      trace(AccessTraceRecorder.PUT, DEFAULT_GROUP, key, value);
     }
-    catch (CacheException e) {
+    catch (IOException e) {
       String msg = "Failure to add " + key + " to cache " + this.cacheName + ":" + e.getMessage();
       this.logger.warning(msg);
     }
@@ -192,14 +540,7 @@ public class UriCache {
    * @return The value, or null if not found.
    */
   public Object get(Serializable key) {
-    try {
-      return JCS.getInstance(this.cacheName).getFromGroup(key, DEFAULT_GROUP);
-    }
-    catch (CacheException e) {
-      String msg = "Failure of get: " + key + " in cache " + this.cacheName + ":" + e.getMessage();
-      this.logger.warning(msg);
-      return null;
-    }
+    return getFromGroup(key, DEFAULT_GROUP);
   }
 
   /**
@@ -209,13 +550,7 @@ public class UriCache {
    * @param key The key to be removed.
    */
   public void remove(Serializable key) {
-    try {
-      JCS.getInstance(this.cacheName).remove(key, DEFAULT_GROUP);
-    }
-    catch (CacheException e) {
-      String msg = "Failure to remove: " + key + " cache " + this.cacheName + ":" + e.getMessage();
-      this.logger.warning(msg);
-    }
+    removeFromGroup(key, DEFAULT_GROUP);
   }
   
   /**
@@ -229,8 +564,21 @@ public class UriCache {
    * Clears the default as well as all group caches. 
    */
   public void clearAll() {
+    checkWritable();
     try {
-      JCS.getInstance(this.cacheName).clear();
+      for (String regionName : this.regionNames) {
+        JCS.getInstance(regionName).clear();
+      }
+      invalidateReplicas(null, null);
+      trace(AccessTraceRecorder.CLEAR, null, null, null);
+      TenantPartitions partitions = tenantPartitions.get(this.cacheName);
+      if (partitions != null) {
+        partitions.clearAll();
+      }
+      RemovalDispatcher dispatcher = dispatchers.get(this.cacheName);
+      if (dispatcher != null) {
+        dispatcher.notify(null, null, null, RemovalNotification.Cause.CLEARED);
+      }
     }
     catch (CacheException e) {
       String msg = failureMsg + this.cacheName + ":" + e.getMessage();
@@ -264,7 +612,19 @@ public class UriCache {
   public static void dispose(String cacheName) {
     try {
       cacheNames.remove(cacheName);
-      JCS.getInstance(cacheName).dispose();
+      RemovalDispatcher dispatcher = dispatchers.remove(cacheName);
+      if (dispatcher != null) {
+        dispatcher.shutdown();
+      }
+      DiskQuotaReaper.unregister(cacheName);
+      for (String regionName : getRegionNames(cacheName)) {
+        JCS.getInstance(regionName).dispose();
+        regionPaths.remove(regionName);
+      }
+      stripedRegions.remove(cacheName);
+      knownGroups.remove(cacheName);
+      tenantPartitions.remove(cacheName);
+      hotKeyTrackers.remove(cacheName);
     }
     catch (CacheException e) {
       String msg = failureMsg + cacheName + ":" + e.getMessage();
@@ -280,10 +640,14 @@ public class UriCache {
    * @param value The value.
    */
   public void putInGroup(Serializable key, String group, Serializable value) {
+    checkWritable();
+    registerGroup(group);
     try {
-      JCS.getInstance(this.cacheName).putInGroup(key, group, value);
+      update(key, group, value, makeAttributes(this.defaultMaxLife));
+      invalidateReplicas(key, group);
+      trace(AccessTraceRecorder.PUT, group, key, value);
     }
-    catch (CacheException e) {
+    catch (IOException e) {
       String msg = "Failure to add " + key + " to cache " + this.cacheName + ":" + e.getMessage();
       this.logger.warning(msg);
     }
@@ -296,14 +660,116 @@ public class UriCache {
    * @return The element associated with key in the group, or null.
    */
   public Object getFromGroup(Serializable key, String group) {
-    try {
-      return JCS.getInstance(this.cacheName).getFromGroup(key, group);
+    Object value = getStored(key, group);
+    if (value instanceof VersionedValue) {
+      VersionedValue versioned = (VersionedValue) value;
+      value = versioned.isFresh() ? versioned.getValue() : null;
     }
-    catch (CacheException e) {
-      String msg = "Failure of get: " + key + " in cache " + this.cacheName + ":" + e.getMessage();
-      this.logger.warning(msg);
+    if (this.accessTrace != null) {
+      trace((value == null) ? AccessTraceRecorder.GET_MISS : AccessTraceRecorder.GET_HIT, 
+          group, key, null);
+    }
+    return value;
+  }
+  
+  /**
+   * Returns the object stored under key in the group, which is a VersionedValue for entries 
+   * added with the versioned put methods. 
+   * @param key The key.
+   * @param group The group.
+   * @return The stored object, or null.
+   */
+  private Object getStored(Serializable key, String group) {
+    if (this.readOnlySnapshot != null) {
+      HotKeyTracker tracker = this.readOnlyHotKeyTracker;
+      if (tracker != null) {
+        tracker.record(key, group);
+      }
+      try {
+        return this.readOnlySnapshot.get(group, key);
+      }
+      catch (IOException e) {
+        String msg = "Failure of get: " + key + " in snapshot " + this.cacheName + ":" 
+          + e.getMessage();
+        this.logger.warning(msg);
+        return null;
+      }
+    }
+    RemovalDispatcher dispatcher = dispatchers.get(this.cacheName);
+    HotKeyTracker tracker = hotKeyTrackers.get(this.cacheName);
+    if (tracker != null && tracker.record(key, group)) {
+      return getReplicated(key, group, dispatcher, tracker);
+    }
+    ICacheElement element = getElement(key, group, dispatcher);
+    return (element == null) ? null : element.getVal();
+  }
+  
+  /**
+   * Returns the value of a hot entry from the calling thread's replica, if it has a valid one.
+   * Otherwise retrieves the entry from JCS and replicates it. 
+   * 
+   * @param key The key.
+   * @param group The group.
+   * @param dispatcher The dispatcher for this cache, or null.
+   * @param tracker The hot key tracker for this cache.
+   * @return The value associated with key in the group, or null.
+   */
+  private Object getReplicated(Serializable key, String group, RemovalDispatcher dispatcher,
+      HotKeyTracker tracker) {
+    Object value = tracker.getReplica(key, group);
+    if (value != null) {
+      return value;
+    }
+    long epoch = tracker.getEpoch(key, group);
+    ICacheElement element = getElement(key, group, dispatcher);
+    if (element == null || element.getVal() == null) {
       return null;
     }
+    IElementAttributes attributes = element.getElementAttributes();
+    long expirationTime = Long.MAX_VALUE;
+    if (!attributes.getIsEternal() && attributes.getMaxLifeSeconds() != -1) {
+      expirationTime = attributes.getCreateTime() + attributes.getMaxLifeSeconds() * 1000L;
+    }
+    tracker.putReplica(key, group, element.getVal(), expirationTime, epoch);
+    return element.getVal();
+  }
+  
+  /**
+   * Returns the JCS element for key in the group. If the cache has removal listeners, reports 
+   * the entry if it is found to have expired. JCS silently removes an entry found to be expired
+   * when it is requested, so the entry is first looked up in memory without affecting its LRU
+   * position, and the JCS count of expired misses is compared before and after the get to detect
+   * that the entry expired. 
+   * 
+   * @param key The key.
+   * @param group The group.
+   * @param dispatcher The dispatcher for this cache, or null.
+   * @return The element associated with key in the group, or null.
+   */
+  private ICacheElement getElement(Serializable key, String group, 
+      RemovalDispatcher dispatcher) {
+    int stripe = stripe(key, this.regionNames.length);
+    CompositeCache control = getRegion(stripe);
+    GroupAttrName name = getGroupAttrName(stripe, group, key);
+    if (dispatcher == null) {
+      return control.get(name);
+    }
+    ICacheElement peeked = null;
+    if (dispatcher.wantsValues()) {
+      try {
+        peeked = control.getMemoryCache().getQuiet(name);
+      }
+      catch (IOException e) {
+        peeked = null;
+      }
+    }
+    int expiredBefore = control.getMissCountExpired();
+    ICacheElement element = control.get(name);
+    if (element == null && control.getMissCountExpired() != expiredBefore) {
+      dispatcher.notify(key, group, (peeked == null) ? null : peeked.getVal(), 
+          RemovalNotification.Cause.EXPIRED);
+    }
+    return element;
   }
   
   /**
@@ -312,12 +778,39 @@ public class UriCache {
    * @param group The group.
    */
   public void removeFromGroup(Serializable key, String group) {
-    try {
-      JCS.getInstance(this.cacheName).remove(key, group);
+    checkWritable();
+    RemovalDispatcher dispatcher = dispatchers.get(this.cacheName);
+    if (dispatcher == null) {
+      int stripe = stripe(key, this.regionNames.length);
+      getRegion(stripe).remove(getGroupAttrName(stripe, group, key));
     }
-    catch (CacheException e) {
-      String msg = "Failure to remove: " + key + " cache " + this.cacheName + ":" + e.getMessage();
-      this.logger.warning(msg);
+    else {
+      removeAndNotify(key, group, dispatcher, RemovalNotification.Cause.EXPLICIT);
+    }
+    invalidateReplicas(key, group);
+    trace(AccessTraceRecorder.REMOVE, group, key, null);
+  }
+  
+  /**
+   * Removes an entry from a cache with removal listeners, and queues a notification if the entry
+   * was present. JCS removes entries from the disk cache asynchronously without reporting whether
+   * they were present, so the entry is retrieved first. 
+   * 
+   * @param key The key.
+   * @param group The group.
+   * @param dispatcher The dispatcher for this cache.
+   * @param cause The cause to be reported.
+   */
+  private void removeAndNotify(Serializable key, String group, RemovalDispatcher dispatcher,
+      RemovalNotification.Cause cause) {
+    int stripe = stripe(key, this.regionNames.length);
+    CompositeCache control = getRegion(stripe);
+    GroupAttrName name = getGroupAttrName(stripe, group, key);
+    ICacheElement element = control.get(name);
+    control.remove(name);
+    invalidateReplicas(key, group);
+    if (element != null) {
+      dispatcher.notify(key, group, element.getVal(), cause);
     }
   }
   
@@ -330,13 +823,24 @@ public class UriCache {
   public Set<Serializable> getGroupKeys(String group) {
     Set<Serializable> keySet;
     try {
-      keySet = JCS.getInstance(this.cacheName).getGroupKeys(group);
+      if (this.readOnlySnapshot != null) {
+        return this.readOnlySnapshot.getGroupKeys(group);
+      }
+      keySet = JCS.getInstance(this.regionNames[0]).getGroupKeys(group);
+      for (int i = 1; i < this.regionNames.length; i++) {
+        keySet.addAll(JCS.getInstance(this.regionNames[i]).getGroupKeys(group));
+      }
     }
     catch (CacheException e) {
       String msg = "Failure to obtain keyset for cache: " + this.cacheName;
       this.logger.warning(msg);
       keySet = new HashSet<Serializable>();
     }
+    catch (IOException e) {
+      String msg = "Failure to obtain keyset for snapshot: " + this.cacheName;
+      this.logger.warning(msg);
+      keySet = new HashSet<Serializable>();
+    }
     return keySet;
   }
   
@@ -354,11 +858,23 @@ public class UriCache {
    * @param group The group name.  
    */
   public void clearGroup(String group) {
+    checkWritable();
     try {
-      JCS cache = JCS.getInstance(this.cacheName);
-      for (Object key : cache.getGroupKeys(group)) {
-        cache.remove(key, group);
+      RemovalDispatcher dispatcher = dispatchers.get(this.cacheName);
+      for (String regionName : this.regionNames) {
+        JCS cache = JCS.getInstance(regionName);
+        for (Object key : cache.getGroupKeys(group)) {
+          if (dispatcher == null) {
+            cache.remove(key, group);
+          }
+          else {
+            removeAndNotify((Serializable) key, group, dispatcher, 
+                RemovalNotification.Cause.CLEARED);
+          }
+          trace(AccessTraceRecorder.REMOVE, group, (Serializable) key, null);
+        }
       }
+      invalidateReplicas(null, null);
     }
     catch (CacheException e) {
       String msg = failureMsg + this.cacheName + ":" + e.getMessage();
@@ -366,6 +882,53 @@ public class UriCache {
     }
   }
 
+  /**
+   * Writes the unexpired entries of the specified groups of this cache to a snapshot file, which
+   * can be used to pre-warm another cache with importSnapshot(). If no groups are specified, the 
+   * default group (that is, the entries added with put()) is exported. Each entry is compressed
+   * individually, and entries are streamed to the file rather than collected in memory. Keys 
+   * must have a hashCode that is stable across JVMs, such as Strings and boxed numbers. 
+   * 
+   * @param file The snapshot file to be written. 
+   * @param groups The groups to be exported. 
+   * @return The number of entries written. 
+   * @throws IOException If the snapshot file cannot be written. 
+   */
+  public int exportSnapshot(File file, String... groups) throws IOException {
+    checkWritable();
+    String[] exportGroups = (groups.length == 0) ? new String[] { DEFAULT_GROUP } : groups;
+    try {
+      return UriCacheSnapshot.write(this.regionNames, exportGroups, file);
+    }
+    catch (CacheException e) {
+      String msg = "Failure to export cache " + this.cacheName + ":" + e.getMessage();
+      this.logger.warning(msg);
+      return 0;
+    }
+  }
+  
+  /**
+   * Adds the unexpired entries in a snapshot file written by exportSnapshot() to this cache,
+   * preserving their groups and original expiration times. The entries are read and added in
+   * parallel by the specified number of threads. Entries with the same key as an existing entry
+   * replace it.
+   * 
+   * @param file The snapshot file. 
+   * @param threads The number of threads used to import the entries.
+   * @return The number of entries added to this cache. 
+   * @throws IOException If the snapshot file cannot be read. 
+   */
+  public int importSnapshot(File file, int threads) throws IOException {
+    checkWritable();
+    Set<String> groups = new HashSet<String>();
+    int count = UriCacheSnapshot.read(this.regionNames, file, threads, groups);
+    for (String group : groups) {
+      registerGroup(group);
+    }
+    invalidateReplicas(null, null);
+    return count;
+  }
+
   /**
    * Sets up the Properties instance for configuring this JCS cache instance. Each UriCache is
    * defined as a JCS "region". Given a UriCache named "PJ", we create a properties instance whose
@@ -387,6 +950,7 @@ public class UriCache {
    * jcs.auxiliary.DC-PJ.attributes=org.apache.jcs.auxiliary.disk.indexed.IndexedDiskCacheAttributes
    * jcs.auxiliary.DC-PJ.attributes.DiskPath=[cachePath]
    * jcs.auxiliary.DC-PJ.attributes.maxKeySize=10000000
+   * jcs.auxiliary.DC-PJ.attributes.OptimizeAtRemoveCount=20000
    * </pre>
    * 
    * We define cachePath as HackystatHome.getHome()/.hackystat/[cacheSubDir]/cache. This enables a
@@ -396,12 +960,12 @@ public class UriCache {
    * See bottom of: http://jakarta.apache.org/jcs/BasicJCSConfiguration.html for more details.
    * 
    * @param cacheName The name of this cache, used to define the region properties.
-   * @param subDir The subdirectory name, used to generate the disk storage directory.
+   * @param cachePath The disk storage directory.
    * @param maxLifeSeconds The maximum life of instances in the cache in seconds before they expire.
    * @param maxCapacity The maximum size of this cache.
    * @return The properties file.
    */
-  private Properties initJcsProps(String cacheName, String subDir, Long maxLifeSeconds, 
+  private Properties initJcsProps(String cacheName, String cachePath, Long maxLifeSeconds, 
       Long maxCapacity) {
     String reg = "jcs.region." + cacheName;
     String regCacheAtt = reg + ".cacheattributes";
@@ -425,8 +989,9 @@ public class UriCache {
     props.setProperty(regEleAtt + ".MaxLifeSeconds", maxLifeSeconds.toString());
     props.setProperty(aux, "org.apache.jcs.auxiliary.disk.indexed.IndexedDiskCacheFactory");
     props.setProperty(auxAtt, diskAttName);
-    props.setProperty(auxAtt + ".DiskPath", getCachePath(subDir));
+    props.setProperty(auxAtt + ".DiskPath", cachePath);
     props.setProperty(auxAtt + ".maxKeySize", "1000000");
+    props.setProperty(auxAtt + ".OptimizeAtRemoveCount", String.valueOf(optimizeAtRemoveCount));
     return props;
   }
   
@@ -434,11 +999,12 @@ public class UriCache {
    * Returns the fully qualified file path to the directory in which the backing store files for
    * this cache will be placed. Creates the path if it does not already exist.
    * 
+   * @param root The root directory, normally ~/.hackystat.
    * @param cacheSubDir The subdirectory where we want to locate the cache files.
    * @return The fully qualified file path to the location where we should put the index files.
    */
-  private String getCachePath(String cacheSubDir) {
-    File path = new File(HackystatUserHome.getHome(), ".hackystat/" + cacheSubDir + "/uricache");
+  private String getCachePath(File root, String cacheSubDir) {
+    File path = new File(root, cacheSubDir + "/uricache");
     boolean dirsOk = path.mkdirs();
     if (!dirsOk && !path.exists()) {
       throw new RuntimeException("mkdirs() failed");
@@ -446,6 +1012,711 @@ public class UriCache {
     return path.getAbsolutePath();
   }
   
+  /**
+   * Returns the number of bytes currently occupied by the backing store files of this cache,
+   * including space left by removed entries that has not been reused or reclaimed yet. 
+   * 
+   * @return The number of bytes.
+   */
+  public long getDiskBytes() {
+    long bytes = 0;
+    for (String regionName : this.regionNames) {
+      bytes += getDiskBytes(regionName);
+    }
+    return bytes;
+  }
+  
+  /**
+   * Returns the number of bytes currently occupied by the backing store files of all caches.
+   * @return The number of bytes.
+   */
+  public static long getTotalDiskBytes() {
+    long bytes = 0;
+    for (String regionName : regionPaths.keySet()) {
+      bytes += getDiskBytes(regionName);
+    }
+    return bytes;
+  }
+  
+  /**
+   * Returns the number of bytes occupied by the backing store files of a JCS region.
+   * @param regionName The name of the region.
+   * @return The number of bytes, or 0 if the region is unknown.
+   */
+  private static long getDiskBytes(String regionName) {
+    File path = regionPaths.get(regionName);
+    if (path == null) {
+      return 0;
+    }
+    return new File(path, regionName + ".data").length() 
+      + new File(path, regionName + ".key").length();
+  }
+  
+  /**
+   * Limits the bytes used by the backing store of this cache. Once a minute, a background thread
+   * evicts entries that are only on disk (and hence have not been used recently) from caches that
+   * are over quota. The space they occupied is reused by subsequent puts, and returned to the 
+   * file system when the backing store is compacted, which occurs after every 20,000 removals and
+   * when the cache is disposed of. 
+   * <p>
+   * Entries are only evicted from the default group and from groups that have been added to 
+   * through this cache since it was created. Removal listeners are notified of each eviction.
+   * 
+   * @param maxBytes The quota in bytes, or 0 for no quota.
+   */
+  public void setDiskQuota(long maxBytes) {
+    checkWritable();
+    DiskQuotaReaper.setQuota(this.cacheName, maxBytes);
+  }
+  
+  /**
+   * Limits the bytes used by the backing stores of all caches together. When the caches are over
+   * this quota, entries are evicted from the largest caches first, as described in 
+   * setDiskQuota().
+   * 
+   * @param maxBytes The quota in bytes, or 0 for no quota.
+   */
+  public static void setGlobalDiskQuota(long maxBytes) {
+    DiskQuotaReaper.setGlobalQuota(maxBytes);
+  }
+  
+  /**
+   * Returns the number of bytes on disk used by the entries of this cache, which excludes the 
+   * free space left by removed entries as well as entries not yet written to disk.
+   * @return The number of bytes.
+   */
+  long getLiveDiskBytes() {
+    long bytes = 0;
+    for (String regionName : this.regionNames) {
+      long[] stats = getDiskStatistics(regionName);
+      bytes += stats[0] - stats[1];
+    }
+    return bytes;
+  }
+  
+  /**
+   * Evicts entries that are only on disk from this cache until about the specified number of 
+   * bytes have been freed, or no such entries remain. Entries are assumed to be of average size.
+   * 
+   * @param bytesToFree The number of bytes to be freed. 
+   * @return The number of entries evicted.
+   */
+  int evictColdEntries(long bytesToFree) {
+    RemovalDispatcher dispatcher = dispatchers.get(this.cacheName);
+    ConcurrentMap<String, Boolean> groups = knownGroups.get(this.cacheName);
+    if (groups == null) {
+      return 0;
+    }
+    int evicted = 0;
+    long regionBytesToFree = (bytesToFree + this.regionNames.length - 1) / this.regionNames.length;
+    for (String regionName : this.regionNames) {
+      long[] stats = getDiskStatistics(regionName);
+      if (stats[2] == 0) {
+        continue;
+      }
+      long entryBytes = Math.max(1L, (stats[0] - stats[1]) / stats[2]);
+      long toEvict = (regionBytesToFree + entryBytes - 1) / entryBytes;
+      CompositeCache control = CompositeCacheManager.getInstance().getCache(regionName);
+      Set<Object> inMemory = new HashSet<Object>(Arrays.asList(
+          control.getMemoryCache().getKeyArray()));
+      for (Iterator<String> i = groups.keySet().iterator(); i.hasNext() && toEvict > 0;) {
+        String group = i.next();
+        GroupId groupId = new GroupId(regionName, group);
+        for (Iterator<?> j = control.getGroupKeys(group).iterator(); 
+            j.hasNext() && toEvict > 0;) {
+          Serializable key = (Serializable) j.next();
+          GroupAttrName name = new GroupAttrName(groupId, key);
+          if (!inMemory.contains(name)) {
+            control.remove(name);
+            invalidateReplicas(key, group);
+            evicted++;
+            toEvict--;
+            if (dispatcher != null) {
+              dispatcher.notify(key, group, null, RemovalNotification.Cause.EVICTED);
+            }
+          }
+        }
+      }
+    }
+    if (evicted > 0) {
+      this.logger.info("Evicted " + evicted + " entries from " + this.cacheName 
+          + " to meet its disk quota.");
+    }
+    return evicted;
+  }
+  
+  /**
+   * Returns the data file length, free bytes and number of keys of the indexed disk cache of a
+   * JCS region, as reported by its statistics.
+   * 
+   * @param regionName The name of the region.
+   * @return The data file length, free bytes, and number of keys, or zeros if not available.
+   */
+  private static long[] getDiskStatistics(String regionName) {
+    long[] stats = new long[3];
+    CompositeCache control = CompositeCacheManager.getInstance().getCache(regionName);
+    IStats[] auxiliaryStats = control.getStatistics().getAuxiliaryCacheStats();
+    for (int i = 0; auxiliaryStats != null && i < auxiliaryStats.length; i++) {
+      for (IStatElement element : auxiliaryStats[i].getStatElements()) {
+        try {
+          if ("Data File Length".equals(element.getName())) {
+            stats[0] += Long.parseLong(element.getData());
+          }
+          else if ("Bytes Free".equals(element.getName())) {
+            stats[1] += Long.parseLong(element.getData());
+          }
+          else if ("Key Map Size".equals(element.getName())) {
+            stats[2] += Long.parseLong(element.getData());
+          }
+        }
+        catch (NumberFormatException e) {
+          // Not available.
+          continue;
+        }
+      }
+    }
+    return stats;
+  }
+  
+  /**
+   * Returns a new ElementAttributes instance for an entry whose requested maximum life is 
+   * maxLifeSeconds, adjusted by the expiry spreader if one has been set. 
+   * 
+   * @param maxLifeSeconds The requested maximum life in seconds.
+   * @return The element attributes.
+   */
+  private ElementAttributes makeAttributes(long maxLifeSeconds) {
+    return newAttributes(spreadLife(maxLifeSeconds));
+  }
+  
+  /**
+   * Returns the requested maximum life adjusted by the expiry spreader, if one has been set.
+   * @param maxLifeSeconds The requested maximum life in seconds.
+   * @return The maximum life to be used, in seconds.
+   */
+  private long spreadLife(long maxLifeSeconds) {
+    return (this.expirySpreader == null) ? maxLifeSeconds : 
+      this.expirySpreader.spread(maxLifeSeconds);
+  }
+  
+  /**
+   * Returns a new ElementAttributes instance for an entry with exactly the specified maximum 
+   * life, with the removal event handler of this cache if it has removal listeners.
+   * 
+   * @param maxLifeSeconds The maximum life in seconds.
+   * @return The element attributes.
+   */
+  private ElementAttributes newAttributes(long maxLifeSeconds) {
+    ElementAttributes attributes = new ElementAttributes();
+    attributes.setMaxLifeSeconds(maxLifeSeconds);
+    attributes.setIsEternal(false);
+    RemovalDispatcher dispatcher = dispatchers.get(this.cacheName);
+    if (dispatcher != null) {
+      attributes.addElementEventHandler(dispatcher.getEventHandler());
+    }
+    return attributes;
+  }
+  
+  /**
+   * Returns the removal dispatcher of the named cache, or null if it has no removal listeners.
+   * 
+   * @param cacheName The name of the cache.
+   * @return The dispatcher, or null.
+   */
+  static RemovalDispatcher getRemovalDispatcher(String cacheName) {
+    return dispatchers.get(cacheName);
+  }
+  
+  /**
+   * Registers a listener to be notified, asynchronously and in batches, of the entries that leave
+   * this cache: those removed explicitly or by clearing, those found to have expired, and those
+   * dropped from memory without being written to the disk cache. The listener applies to the
+   * cache as a whole, including other UriCache instances with the same name, until it is removed
+   * or the cache is disposed of. 
+   * <p>
+   * Limitations: replacing an entry with put() is not reported, and expired entries are reported
+   * when they are requested or purged from memory by the JCS memory shrinker, not the moment they
+   * expire. Entries put before the first listener was registered are only reported when they are
+   * removed explicitly, cleared, or found to be expired on request. Once an entry has been 
+   * written to and read back from the disk cache, the value of its expiration notification is 
+   * null. Registering a listener makes gets slightly more expensive, and removals more so, since
+   * the entry must be retrieved (from disk, if necessary) before it is removed.
+   * 
+   * @param listener The listener.
+   * @param includeValues True if the listener wants the values of removed entries.
+   */
+  public void addRemovalListener(RemovalListener listener, boolean includeValues) {
+    checkWritable();
+    synchronized (dispatchers) {
+      RemovalDispatcher dispatcher = dispatchers.get(this.cacheName);
+      if (dispatcher == null) {
+        dispatcher = new RemovalDispatcher(this.cacheName, DEFAULT_GROUP, this.logger, 
+            RemovalDispatcher.DEFAULT_CAPACITY);
+        dispatchers.put(this.cacheName, dispatcher);
+      }
+      dispatcher.addListener(listener, includeValues);
+    }
+  }
+  
+  /**
+   * Unregisters a listener registered with addRemovalListener(). Notifications already queued
+   * may still be delivered to it. 
+   * 
+   * @param listener The listener.
+   */
+  public void removeRemovalListener(RemovalListener listener) {
+    if (this.readOnlySnapshot != null) {
+      return;
+    }
+    synchronized (dispatchers) {
+      RemovalDispatcher dispatcher = dispatchers.get(this.cacheName);
+      if (dispatcher != null && dispatcher.removeListener(listener)) {
+        dispatchers.remove(this.cacheName);
+        dispatcher.shutdown();
+      }
+    }
+  }
+  
+  /**
+   * Returns the number of removal notifications of this cache that were dropped because the 
+   * listeners fell more than RemovalDispatcher.DEFAULT_CAPACITY notifications behind. The count
+   * starts when the first listener is registered, and restarts if all listeners are removed.
+   * 
+   * @return The number of dropped notifications, or 0 if the cache has no removal listeners.
+   */
+  public long getDroppedRemovalNotifications() {
+    if (this.readOnlySnapshot != null) {
+      return 0;
+    }
+    RemovalDispatcher dispatcher = dispatchers.get(this.cacheName);
+    return (dispatcher == null) ? 0 : dispatcher.getDroppedCount();
+  }
+  
+  /**
+   * Adds the key-value pair to the partition of this cache belonging to tenant, such as a user,
+   * and evicts the tenant's least recently used entries if it is over its share of the cache. 
+   * Tenant partitions allow one cache to be shared by many users, instead of creating a separate
+   * cache (with its own JCS region, threads and files) per user, while preventing a heavy user
+   * from evicting the entries of the others. Each partition is a group named 
+   * TENANT_GROUP_PREFIX + tenant, so the group methods also apply to it, although they do not 
+   * update the recency information used for the fair-share eviction. 
+   * 
+   * @param tenant The tenant, such as the user's email address.
+   * @param key The key, typically a UriString.
+   * @param value The value, typically the object returned from the Hackystat service.
+   * @see #setTenantWeight(String, double)
+   * @see #setTenantCapacity(long)
+   */
+  public void putForTenant(String tenant, Serializable key, Serializable value) {
+    String group = TENANT_GROUP_PREFIX + tenant;
+    TenantPartitions partitions = getTenantPartitions(tenant);
+    putInGroup(key, group, value);
+    for (Serializable evicted : partitions.recordPut(tenant, key)) {
+      RemovalDispatcher dispatcher = dispatchers.get(this.cacheName);
+      if (dispatcher == null) {
+        int stripe = stripe(evicted, this.regionNames.length);
+        getRegion(stripe).remove(getGroupAttrName(stripe, group, evicted));
+        invalidateReplicas(evicted, group);
+      }
+      else {
+        removeAndNotify(evicted, group, dispatcher, RemovalNotification.Cause.EVICTED);
+      }
+      trace(AccessTraceRecorder.REMOVE, group, evicted, null);
+    }
+  }
+  
+  /**
+   * Returns the object associated with key in the partition of tenant, or null if not found.
+   * 
+   * @param tenant The tenant.
+   * @param key The key.
+   * @return The value, or null if not found.
+   */
+  public Object getForTenant(String tenant, Serializable key) {
+    TenantPartitions partitions = getTenantPartitions(tenant);
+    Object value = getFromGroup(key, TENANT_GROUP_PREFIX + tenant);
+    partitions.recordGet(tenant, key, value != null);
+    return value;
+  }
+  
+  /**
+   * Ensures that the entry associated with key is no longer in the partition of tenant.
+   * 
+   * @param tenant The tenant.
+   * @param key The key.
+   */
+  public void removeForTenant(String tenant, Serializable key) {
+    TenantPartitions partitions = getTenantPartitions(tenant);
+    removeFromGroup(key, TENANT_GROUP_PREFIX + tenant);
+    partitions.recordRemove(tenant, key);
+  }
+  
+  /**
+   * Removes every entry in the partition of tenant.
+   * 
+   * @param tenant The tenant.
+   */
+  public void clearTenant(String tenant) {
+    TenantPartitions partitions = getTenantPartitions(tenant);
+    clearGroup(TENANT_GROUP_PREFIX + tenant);
+    partitions.clear(tenant);
+  }
+  
+  /**
+   * Returns the number of entries in the partition of tenant.
+   * 
+   * @param tenant The tenant.
+   * @return The number of entries.
+   */
+  public int getTenantSize(String tenant) {
+    return getTenantPartitions(tenant).size(tenant);
+  }
+  
+  /**
+   * Sets the weight of a tenant, which defaults to 1. Each tenant holding entries may hold up to
+   * the tenant capacity multiplied by its weight and divided by the total weight of the tenants
+   * holding entries, so a tenant with weight 2 gets twice the share of a tenant with weight 1.
+   * The weight applies to the cache as a whole, including other UriCache instances with the same
+   * name.
+   * 
+   * @param tenant The tenant.
+   * @param weight The weight, which must be positive.
+   */
+  public void setTenantWeight(String tenant, double weight) {
+    getTenantPartitions(tenant).setWeight(tenant, weight);
+  }
+  
+  /**
+   * Sets the total number of entries shared by the tenants of this cache. Defaults to the
+   * capacity given when the cache was created. 
+   * 
+   * @param maxEntries The total number of tenant entries.
+   */
+  public void setTenantCapacity(long maxEntries) {
+    getTenantPartitions(null).setCapacity(maxEntries);
+  }
+  
+  /**
+   * Returns the tenant partitions of this cache, creating them if necessary, and makes sure that
+   * the entries of tenant are being tracked. The entries that a tenant already holds when it is
+   * first seen, for example from before a restart, are tracked in an arbitrary order.
+   * 
+   * @param tenant The tenant, or null.
+   * @return The tenant partitions.
+   */
+  private TenantPartitions getTenantPartitions(String tenant) {
+    checkWritable();
+    TenantPartitions partitions = tenantPartitions.get(this.cacheName);
+    if (partitions == null) {
+      long capacity = 0;
+      try {
+        for (String regionName : this.regionNames) {
+          capacity += JCS.getInstance(regionName).getCacheAttributes().getMaxObjects();
+        }
+      }
+      catch (CacheException e) {
+        capacity = defaultCapacity;
+      }
+      tenantPartitions.putIfAbsent(this.cacheName, new TenantPartitions(capacity));
+      partitions = tenantPartitions.get(this.cacheName);
+    }
+    if (tenant != null && partitions.markSeen(tenant)) {
+      Set<Serializable> keys = getGroupKeys(TENANT_GROUP_PREFIX + tenant);
+      if (!keys.isEmpty()) {
+        partitions.track(tenant, keys);
+      }
+    }
+    return partitions;
+  }
+  
+  /**
+   * Starts tracking the most frequently requested entries of this cache, replacing any previous
+   * tracking. A sample of the gets is counted in a small, fixed-size frequency sketch whose counts
+   * decay over time, and the topN keys with the highest estimated counts are reported by 
+   * getHotKeys(). Tracking applies to the cache as a whole, including other UriCache instances 
+   * with the same name, until it is disabled or the cache is disposed of. For a read-only cache,
+   * tracking applies to this instance only, and replicate is ignored.
+   * <p>
+   * If replicate is true, each thread that gets a hot entry keeps its own reference to the value,
+   * so that later gets of that entry by the same thread are served without going through JCS and
+   * its locks. A replica is discarded when its entry is written through any UriCache instance with
+   * the same name, or expires. Replicas share the cached value object itself, so they should only 
+   * be enabled for caches whose values are not modified after they are cached, which is the 
+   * normal usage. Gets served by a replica do not update the LRU position of the entry in JCS, 
+   * and replicas do not notice an entry that JCS drops from its disk cache without a removal 
+   * through UriCache, such as when the disk cache exceeds its maximum key count.
+   * 
+   * @param topN The number of hot keys to track, which must be positive. 
+   * @param replicate True if hot entries should be replicated in each thread that gets them.
+   */
+  public void enableHotKeyTracking(int topN, boolean replicate) {
+    if (this.readOnlySnapshot != null) {
+      this.readOnlyHotKeyTracker = new HotKeyTracker(topN, false, DEFAULT_GROUP);
+      return;
+    }
+    hotKeyTrackers.put(this.cacheName, new HotKeyTracker(topN, replicate, DEFAULT_GROUP));
+  }
+  
+  /**
+   * Stops tracking hot keys and discards the hot entry replicas, if any. 
+   */
+  public void disableHotKeyTracking() {
+    if (this.readOnlySnapshot != null) {
+      this.readOnlyHotKeyTracker = null;
+      return;
+    }
+    hotKeyTrackers.remove(this.cacheName);
+  }
+  
+  /**
+   * Returns the most frequently requested entries of this cache, hottest first, if hot key 
+   * tracking has been enabled. 
+   * 
+   * @return The hot keys, or an empty list if hot keys are not being tracked.
+   */
+  public List<HotKey> getHotKeys() {
+    HotKeyTracker tracker = (this.readOnlySnapshot == null) ? 
+      hotKeyTrackers.get(this.cacheName) : this.readOnlyHotKeyTracker;
+    if (tracker == null) {
+      return Collections.emptyList();
+    }
+    return tracker.getHotKeys();
+  }
+  
+  /**
+   * Invalidates the hot entry replicas of an entry that has just been written, if hot keys are 
+   * being tracked.
+   * 
+   * @param key The key, or null to invalidate every replica.
+   * @param group The group, or null to invalidate every replica.
+   */
+  private void invalidateReplicas(Serializable key, String group) {
+    HotKeyTracker tracker = hotKeyTrackers.get(this.cacheName);
+    if (tracker != null) {
+      if (key == null) {
+        tracker.invalidateAll();
+      }
+      else {
+        tracker.invalidate(key, group);
+      }
+    }
+  }
+  
+  /**
+   * Sets the ExpirySpreader used to jitter and rate limit the expiration of entries put through
+   * this instance. To rate limit a region as a whole, share one ExpirySpreader among all of
+   * the UriCache instances for that region. 
+   * 
+   * @param expirySpreader The spreader, or null to use the unmodified maxLife.
+   */
+  public void setExpirySpreader(ExpirySpreader expirySpreader) {
+    this.expirySpreader = expirySpreader;
+  }
+  
+  /**
+   * Adds a versioned entry to this cache unless it already holds the same or a newer version of
+   * the entry, fresh or stale. The entry is fresh for the default maxLife of this cache, and is
+   * then kept for the revalidation window. 
+   * 
+   * @param key The key, typically a UriString.
+   * @param value The value, typically the object returned from the Hackystat service.
+   * @param version The version of the value, such as its last modification time at the origin.
+   * @param validator The validator for conditional requests to the origin, such as an ETag, or
+   *        null.
+   * @return True if the entry was added, false if the cache held the same or a newer version.
+   */
+  public boolean putIfNewer(Serializable key, Serializable value, long version, 
+      String validator) {
+    synchronized (versionLock(key)) {
+      VersionedValue current = getStoredVersion(key);
+      if (current != null && current.getVersion() >= version) {
+        return false;
+      }
+      return putVersioned(key, new VersionedValue(value, version, validator, 0L));
+    }
+  }
+  
+  /**
+   * Adds a versioned entry to this cache if the version of the entry it currently holds, fresh
+   * or stale, is expectedVersion. Pass NO_VERSION as expectedVersion to add the entry only if
+   * the cache does not hold it. An unversioned entry added with put() counts as absent.
+   * 
+   * @param key The key, typically a UriString.
+   * @param expectedVersion The version that the cache must hold, or NO_VERSION.
+   * @param value The new value.
+   * @param newVersion The version of the new value.
+   * @param validator The validator of the new value, or null.
+   * @return True if the entry was added, false if the cache held a different version.
+   */
+  public boolean compareAndPut(Serializable key, long expectedVersion, Serializable value, 
+      long newVersion, String validator) {
+    synchronized (versionLock(key)) {
+      VersionedValue current = getStoredVersion(key);
+      long currentVersion = (current == null) ? NO_VERSION : current.getVersion();
+      if (currentVersion != expectedVersion) {
+        return false;
+      }
+      return putVersioned(key, new VersionedValue(value, newVersion, validator, 0L));
+    }
+  }
+  
+  /**
+   * Returns the versioned entry stored under key, whether it is fresh or stale. A stale entry 
+   * should be revalidated with its origin using its validator, after which revalidate() makes it
+   * fresh again if the origin reports that it has not been modified.
+   * 
+   * @param key The key.
+   * @return The versioned entry, or null if the cache does not hold a versioned entry for key.
+   */
+  public VersionedValue getVersioned(Serializable key) {
+    VersionedValue versioned = getStoredVersion(key);
+    if (this.accessTrace != null) {
+      trace((versioned == null) ? AccessTraceRecorder.GET_MISS : AccessTraceRecorder.GET_HIT, 
+          DEFAULT_GROUP, key, null);
+    }
+    return versioned;
+  }
+  
+  /**
+   * Makes the versioned entry stored under key fresh for another default maxLife, provided that
+   * its validator is still the specified one. Call this when a conditional request to the origin
+   * with that validator reports that the entry has not been modified (an HTTP 304 response), so 
+   * that the entry is kept without retrieving it again. 
+   * 
+   * @param key The key.
+   * @param validator The validator that the origin reported as current.
+   * @return True if the entry was revalidated, false if the cache no longer holds the entry or 
+   *         holds it with a different validator.
+   */
+  public boolean revalidate(Serializable key, String validator) {
+    synchronized (versionLock(key)) {
+      VersionedValue current = getStoredVersion(key);
+      if (current == null || validator == null || !validator.equals(current.getValidator())) {
+        return false;
+      }
+      return putVersioned(key, current);
+    }
+  }
+  
+  /**
+   * Sets the time for which versioned entries put through this instance are kept after they
+   * become stale, during which they can be revalidated. Defaults to one day. 
+   * 
+   * @param hours The revalidation window in hours.
+   */
+  public void setRevalidationWindowHours(double hours) {
+    this.revalidationWindowSeconds = (long) (hours * 3600D);
+  }
+  
+  /**
+   * Returns the versioned entry stored under key in the default group, without tracing.
+   * @param key The key.
+   * @return The versioned entry, or null if there is none.
+   */
+  private VersionedValue getStoredVersion(Serializable key) {
+    Object value = getStored(key, DEFAULT_GROUP);
+    return (value instanceof VersionedValue) ? (VersionedValue) value : null;
+  }
+  
+  /**
+   * Adds a copy of the versioned entry that is fresh for the default maxLife of this cache, as 
+   * adjusted by the expiry spreader, to the default group. JCS is told to keep the entry for the 
+   * revalidation window beyond that. 
+   * 
+   * @param key The key.
+   * @param versioned The versioned entry.
+   * @return True if the entry was added, false if the cache threw an exception.
+   */
+  private boolean putVersioned(Serializable key, VersionedValue versioned) {
+    checkWritable();
+    try {
+      long freshSeconds = spreadLife(this.defaultMaxLife);
+      VersionedValue fresh = versioned.refresh(System.currentTimeMillis() + freshSeconds * 1000L);
+      update(key, DEFAULT_GROUP, fresh, 
+          newAttributes(freshSeconds + this.revalidationWindowSeconds));
+      invalidateReplicas(key, DEFAULT_GROUP);
+      trace(AccessTraceRecorder.PUT, DEFAULT_GROUP, key, fresh);
+      return true;
+    }
+    catch (IOException e) {
+      String msg = "Failure to add " + key + " to cache " + this.cacheName + ":" + e.getMessage();
+      this.logger.warning(msg);
+      return false;
+    }
+  }
+  
+  /**
+   * Returns the lock guarding the conditional puts of key in this cache.
+   * @param key The key.
+   * @return The lock.
+   */
+  private Object versionLock(Serializable key) {
+    int hash = this.cacheName.hashCode() * 31 + key.hashCode();
+    hash ^= (hash >>> 16);
+    return versionLocks[hash & (versionLocks.length - 1)];
+  }
+  
+  /**
+   * Starts recording a trace of the gets, puts and removals made through this instance to the
+   * specified file, replacing any trace currently being recorded. The trace can be replayed by
+   * AccessTraceSimulator to evaluate alternative cache configurations. Recording slows down puts,
+   * since each value must be serialized to determine its size. 
+   * 
+   * @param file The trace file, which is overwritten.
+   * @throws IOException If the trace file cannot be created. 
+   */
+  public void startAccessTrace(File file) throws IOException {
+    AccessTraceRecorder recorder = new AccessTraceRecorder(file);
+    stopAccessTrace();
+    this.accessTrace = recorder;
+  }
+  
+  /**
+   * Stops recording the access trace, if any, and closes the trace file. 
+   * @return The number of records in the trace, or 0 if no trace was being recorded. 
+   */
+  public long stopAccessTrace() {
+    AccessTraceRecorder recorder = this.accessTrace;
+    this.accessTrace = null;
+    if (recorder == null) {
+      return 0;
+    }
+    try {
+      recorder.close();
+    }
+    catch (IOException e) {
+      this.logger.warning("Failure to close access trace for " + this.cacheName + ":" 
+          + e.getMessage());
+    }
+    return recorder.getCount();
+  }
+  
+  /**
+   * Adds a record to the access trace if one is being recorded. Stops tracing if the record 
+   * cannot be written. 
+   * 
+   * @param op The operation, such as AccessTraceRecorder.PUT.
+   * @param group The group, or null for CLEAR.
+   * @param key The key, or null for CLEAR.
+   * @param value The value for a PUT, otherwise null. 
+   */
+  private void trace(byte op, String group, Serializable key, Serializable value) {
+    AccessTraceRecorder recorder = this.accessTrace;
+    if (recorder == null) {
+      return;
+    }
+    try {
+      int keyHash = (key == null) ? 0 : UriCacheSnapshot.hash(group, key);
+      int size = (value == null) ? 0 : AccessTraceRecorder.sizeOf(value);
+      recorder.record(op, keyHash, size);
+    }
+    catch (IOException e) {
+      this.logger.warning("Failure to write access trace for " + this.cacheName + ":" 
+          + e.getMessage());
+      stopAccessTrace();
+    }
+  }
+  
   /**
    * Sets the logging level for this logger to level.
    * @param level A string indicating the level, such as "FINE", "INFO", "ALL", etc.
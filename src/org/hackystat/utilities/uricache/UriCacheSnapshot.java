@@ -0,0 +1,424 @@
+package org.hackystat.utilities.uricache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.jcs.JCS;
+import org.apache.jcs.access.exception.CacheException;
+import org.apache.jcs.engine.ElementAttributes;
+import org.apache.jcs.engine.behavior.ICacheElement;
+import org.apache.jcs.engine.control.group.GroupAttrName;
+import org.apache.jcs.engine.control.group.GroupId;
+
+/**
+ * Reads and writes UriCache snapshot files, which are portable copies of one or more groups of a
+ * UriCache region used to pre-warm the cache of a freshly started service.
+ * <p>
+ * A snapshot file has the following layout:
+ * <pre>
+ * header:  int MAGIC, int VERSION, long creationTime
+ * records: (int length, byte[length] record)*
+ * index:   int count, (int hash, long offset)* sorted by hash
+ * trailer: long indexOffset, int MAGIC
+ * </pre>
+ * Each record is a deflated Java serialization of the group name, key, value, and expiration
+ * time (in milliseconds since the epoch) of one cache entry. Records are compressed individually
+ * rather than as one stream so that any record can be read on its own: imports split the records
+ * among several threads, and the index allows a single entry to be found by the hash of its
+ * group and key.
+ *
+ * @author agent
+ */
+final class UriCacheSnapshot {
+
+  /** Identifies snapshot files ("UCS1"). */
+  static final int MAGIC = 0x55435331;
+  /** The snapshot format version. */
+  static final int VERSION = 1;
+  /** The number of bytes in the header. */
+  static final int HEADER_SIZE = 16;
+  /** The number of bytes in the trailer. */
+  static final int TRAILER_SIZE = 12;
+  /** The number of bytes in each index entry. */
+  static final int INDEX_ENTRY_SIZE = 12;
+
+  /** Make this class noninstantiable. */
+  private UriCacheSnapshot() {
+    // Do nothing.
+  }
+
+  /**
+   * Returns the hash used to index the entry with the given group and key. Keys must have a
+   * hashCode that is stable across JVMs, such as Strings and boxed numbers.
+   *
+   * @param group The group name.
+   * @param key The key.
+   * @return The index hash.
+   */
+  static int hash(String group, Serializable key) {
+    return (31 * group.hashCode()) + key.hashCode();
+  }
+
+  /**
+   * Writes all of the unexpired entries in the given groups of a cache to file. Entries are
+   * streamed to the file one at a time, so only the index is held in memory.
+   *
+   * @param regionNames The names of the JCS regions (disk stripes) holding the cache entries.
+   * @param groups The groups to export.
+   * @param file The snapshot file to be written.
+   * @return The number of entries written.
+   * @throws IOException If the file cannot be written.
+   * @throws CacheException If a region cannot be obtained.
+   */
+  static int write(String[] regionNames, String[] groups, File file)
+    throws IOException, CacheException {
+    DataOutputStream out =
+      new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+    int count = 0;
+    int[] hashes = new int[1024];
+    long[] offsets = new long[1024];
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(System.currentTimeMillis());
+      long offset = HEADER_SIZE;
+      for (int i = 0; i < regionNames.length * groups.length; i++) {
+        JCS cache = JCS.getInstance(regionNames[i / groups.length]);
+        String group = groups[i % groups.length];
+        GroupId groupId = new GroupId(regionNames[i / groups.length], group);
+        for (Object key : cache.getGroupKeys(group)) {
+          ICacheElement element = cache.getCacheElement(new GroupAttrName(groupId, key));
+          if (element == null) {
+            continue;
+          }
+          ElementAttributes attributes = (ElementAttributes) element.getElementAttributes();
+          // JCS treats a negative maxLife as no limit, as it does an eternal entry.
+          long expires = (attributes.getIsEternal() || attributes.getMaxLifeSeconds() < 0) ? 0 :
+            attributes.getCreateTime() + (attributes.getMaxLifeSeconds() * 1000L);
+          byte[] record = encode(group, (Serializable) key, element.getVal(), expires);
+          if (count == hashes.length) {
+            int[] newHashes = new int[count * 2];
+            System.arraycopy(hashes, 0, newHashes, 0, count);
+            hashes = newHashes;
+            long[] newOffsets = new long[count * 2];
+            System.arraycopy(offsets, 0, newOffsets, 0, count);
+            offsets = newOffsets;
+          }
+          hashes[count] = hash(group, (Serializable) key);
+          offsets[count] = offset;
+          count++;
+          out.writeInt(record.length);
+          out.write(record);
+          offset += 4 + record.length;
+        }
+      }
+      sortIndex(hashes, offsets, count);
+      out.writeInt(count);
+      for (int i = 0; i < count; i++) {
+        out.writeInt(hashes[i]);
+        out.writeLong(offsets[i]);
+      }
+      out.writeLong(offset);
+      out.writeInt(MAGIC);
+    }
+    finally {
+      out.close();
+    }
+    return count;
+  }
+
+  /**
+   * Puts all of the unexpired entries in file into a cache, using the given number of threads.
+   * Each thread reads a contiguous range of records and puts them directly into the region of 
+   * their stripe, bypassing the removal of any previous value that UriCache.putInGroup performs.
+   *
+   * @param regionNames The names of the JCS regions (disk stripes) holding the cache entries.
+   * @param file The snapshot file.
+   * @param threads The number of threads to use.
+   * @param groups Receives the names of the groups of the imported entries.
+   * @return The number of entries imported.
+   * @throws IOException If the file cannot be read or is not a snapshot file.
+   */
+  static int read(final String[] regionNames, final File file, int threads, 
+      final Set<String> groups) throws IOException {
+    long[] offsets = readOffsets(file);
+    Arrays.sort(offsets);
+    int numThreads = Math.max(1, Math.min(threads, offsets.length));
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+    int chunk = (offsets.length + numThreads - 1) / numThreads;
+    for (int start = 0; start < offsets.length; start += chunk) {
+      final long startOffset = offsets[start];
+      final int numRecords = Math.min(chunk, offsets.length - start);
+      results.add(executor.submit(new Callable<Integer>() {
+        /** 
+         * Imports this thread's range of records. 
+         * @return The number of entries imported.
+         * @throws IOException If the file cannot be read.
+         * @throws CacheException If the cache rejects an entry.
+         */
+        public Integer call() throws IOException, CacheException {
+          return readRecords(regionNames, file, startOffset, numRecords, groups);
+        }
+      }));
+    }
+    executor.shutdown();
+    int count = 0;
+    try {
+      for (Future<Integer> result : results) {
+        count += result.get();
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      IOException ioe = new IOException("Snapshot import interrupted: " + file);
+      ioe.initCause(e);
+      throw ioe;
+    }
+    catch (ExecutionException e) {
+      IOException ioe = new IOException("Snapshot import failed: " + file);
+      ioe.initCause(e.getCause());
+      throw ioe;
+    }
+    return count;
+  }
+
+  /**
+   * Reads numRecords consecutive records from file, starting at startOffset, and puts the
+   * unexpired ones into the regions of their stripes.
+   *
+   * @param regionNames The names of the JCS regions (disk stripes) holding the cache entries.
+   * @param file The snapshot file.
+   * @param startOffset The offset of the first record.
+   * @param numRecords The number of records to read.
+   * @param groups Receives the names of the groups of the entries put into the cache.
+   * @return The number of entries put into the cache.
+   * @throws IOException If the file cannot be read.
+   * @throws CacheException If the cache rejects an entry.
+   */
+  private static int readRecords(String[] regionNames, File file, long startOffset,
+      int numRecords, Set<String> groups) throws IOException, CacheException {
+    JCS[] caches = new JCS[regionNames.length];
+    for (int i = 0; i < regionNames.length; i++) {
+      caches[i] = JCS.getInstance(regionNames[i]);
+    }
+    FileInputStream fileIn = new FileInputStream(file);
+    Set<String> readGroups = new HashSet<String>();
+    int count = 0;
+    try {
+      long skipped = 0;
+      while (skipped < startOffset) {
+        long n = fileIn.skip(startOffset - skipped);
+        if (n <= 0) {
+          throw new IOException("Snapshot ends before offset " + startOffset + ": " + file);
+        }
+        skipped += n;
+      }
+      DataInputStream in = new DataInputStream(new BufferedInputStream(fileIn));
+      long now = System.currentTimeMillis();
+      for (int i = 0; i < numRecords; i++) {
+        byte[] record = new byte[in.readInt()];
+        in.readFully(record);
+        Entry entry = decode(record, 0, record.length);
+        ElementAttributes attributes = new ElementAttributes();
+        if (entry.expires == 0) {
+          attributes.setIsEternal(true);
+        }
+        else if (entry.expires - now >= 1000L) {
+          attributes.setIsEternal(false);
+          attributes.setMaxLifeSeconds((entry.expires - now) / 1000L);
+        }
+        else {
+          continue;
+        }
+        int stripe = UriCache.stripe(entry.key, regionNames.length);
+        GroupId groupId = new GroupId(regionNames[stripe], entry.group);
+        caches[stripe].put(new GroupAttrName(groupId, entry.key), entry.value, attributes);
+        readGroups.add(entry.group);
+        count++;
+      }
+    }
+    finally {
+      fileIn.close();
+      synchronized (groups) {
+        groups.addAll(readGroups);
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Returns the record offsets from the index of file.
+   *
+   * @param file The snapshot file.
+   * @return The record offsets, in index (hash) order.
+   * @throws IOException If the file cannot be read or is not a snapshot file.
+   */
+  private static long[] readOffsets(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      long indexOffset = checkFormat(raf, file);
+      raf.seek(indexOffset);
+      DataInputStream in = new DataInputStream(new BufferedInputStream(
+          new FileInputStream(raf.getFD())));
+      long[] offsets = new long[in.readInt()];
+      for (int i = 0; i < offsets.length; i++) {
+        in.readInt();
+        offsets[i] = in.readLong();
+      }
+      return offsets;
+    }
+    finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * Checks the header and trailer of a snapshot file and returns the offset of its index.
+   *
+   * @param raf The open snapshot file.
+   * @param file The snapshot file, for error messages.
+   * @return The offset of the index.
+   * @throws IOException If the file is not a snapshot file.
+   */
+  static long checkFormat(RandomAccessFile raf, File file) throws IOException {
+    long length = raf.length();
+    if (length < HEADER_SIZE + 4 + TRAILER_SIZE) {
+      throw new IOException("Not a UriCache snapshot: " + file);
+    }
+    raf.seek(0);
+    if ((raf.readInt() != MAGIC) || (raf.readInt() != VERSION)) {
+      throw new IOException("Not a UriCache snapshot: " + file);
+    }
+    raf.seek(length - TRAILER_SIZE);
+    long indexOffset = raf.readLong();
+    if ((raf.readInt() != MAGIC) || (indexOffset < HEADER_SIZE) || (indexOffset >= length)) {
+      throw new IOException("Truncated UriCache snapshot: " + file);
+    }
+    return indexOffset;
+  }
+
+  /**
+   * Returns the compressed record for one cache entry.
+   *
+   * @param group The group name.
+   * @param key The key.
+   * @param value The value.
+   * @param expires The expiration time in milliseconds, or 0 if the entry never expires.
+   * @return The record.
+   * @throws IOException If the key or value cannot be serialized.
+   */
+  private static byte[] encode(String group, Serializable key, Serializable value, long expires)
+    throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(new DeflaterOutputStream(bytes));
+    out.writeUTF(group);
+    out.writeObject(key);
+    out.writeObject(value);
+    out.writeLong(expires);
+    out.close();
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Returns the entry contained in a compressed record.
+   *
+   * @param buffer The buffer holding the record.
+   * @param offset The offset of the record in buffer.
+   * @param length The length of the record.
+   * @return The entry.
+   * @throws IOException If the record cannot be deserialized.
+   */
+  static Entry decode(byte[] buffer, int offset, int length) throws IOException {
+    ObjectInputStream in = new ObjectInputStream(new InflaterInputStream(
+        new ByteArrayInputStream(buffer, offset, length)));
+    try {
+      String group = in.readUTF();
+      Serializable key = (Serializable) in.readObject();
+      Serializable value = (Serializable) in.readObject();
+      return new Entry(group, key, value, in.readLong());
+    }
+    catch (ClassNotFoundException e) {
+      IOException ioe = new IOException("Unknown class in UriCache snapshot record");
+      ioe.initCause(e);
+      throw ioe;
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Sorts the first count elements of hashes in ascending order, permuting offsets in parallel.
+   *
+   * @param hashes The entry hashes.
+   * @param offsets The entry offsets.
+   * @param count The number of entries.
+   */
+  private static void sortIndex(int[] hashes, long[] offsets, int count) {
+    // Pack each (hash, position) pair into a long so that a primitive sort does the work.
+    long[] packed = new long[count];
+    for (int i = 0; i < count; i++) {
+      packed[i] = ((long) hashes[i] << 32) | i;
+    }
+    Arrays.sort(packed);
+    long[] sortedOffsets = new long[count];
+    for (int i = 0; i < count; i++) {
+      hashes[i] = (int) (packed[i] >> 32);
+      sortedOffsets[i] = offsets[(int) packed[i]];
+    }
+    System.arraycopy(sortedOffsets, 0, offsets, 0, count);
+  }
+
+  /**
+   * One cache entry read from a snapshot.
+   */
+  static final class Entry {
+    /** The group name. */
+    final String group;
+    /** The key. */
+    final Serializable key;
+    /** The value. */
+    final Serializable value;
+    /** The expiration time in milliseconds since the epoch, or 0 if it never expires. */
+    final long expires;
+
+    /**
+     * Creates a new entry.
+     * @param group The group name.
+     * @param key The key.
+     * @param value The value.
+     * @param expires The expiration time, or 0.
+     */
+    Entry(String group, Serializable key, Serializable value, long expires) {
+      this.group = group;
+      this.key = key;
+      this.value = value;
+      this.expires = expires;
+    }
+  }
+}
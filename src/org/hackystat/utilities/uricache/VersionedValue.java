@@ -0,0 +1,102 @@
+package org.hackystat.utilities.uricache;
+
+import java.io.Serializable;
+
+/**
+ * A value stored in a UriCache together with the version and validator (such as an HTTP ETag)
+ * supplied by its origin, and the time until which it is fresh. Instances are created by the
+ * versioned put methods of UriCache, and are immutable.
+ * <p>
+ * A stale value is kept in the cache for the revalidation window of the UriCache after it stops
+ * being fresh, so that a conditional request to its origin using the validator can make it
+ * fresh again with UriCache.revalidate() instead of retrieving it again. During that time it is
+ * returned by UriCache.getVersioned(), but not by UriCache.get().
+ *
+ * @author agent
+ */
+public final class VersionedValue implements Serializable {
+
+  /** Supports serialization. */
+  private static final long serialVersionUID = 1L;
+  /** The value. */
+  private final Serializable value;
+  /** The version of the value. */
+  private final long version;
+  /** The validator, or null. */
+  private final String validator;
+  /** The time in milliseconds until which the value is fresh. */
+  private final long freshUntil;
+
+  /**
+   * Creates a new versioned value.
+   *
+   * @param value The value.
+   * @param version The version.
+   * @param validator The validator, or null.
+   * @param freshUntil The time in milliseconds until which the value is fresh.
+   */
+  VersionedValue(Serializable value, long version, String validator, long freshUntil) {
+    this.value = value;
+    this.version = version;
+    this.validator = validator;
+    this.freshUntil = freshUntil;
+  }
+
+  /**
+   * Returns the value.
+   * @return The value.
+   */
+  public Serializable getValue() {
+    return this.value;
+  }
+
+  /**
+   * Returns the version supplied when the value was put.
+   * @return The version.
+   */
+  public long getVersion() {
+    return this.version;
+  }
+
+  /**
+   * Returns the validator supplied when the value was put, for use in a conditional request.
+   * @return The validator, or null if none was supplied.
+   */
+  public String getValidator() {
+    return this.validator;
+  }
+
+  /**
+   * Returns the time until which the value is fresh.
+   * @return The time in milliseconds.
+   */
+  public long getFreshUntil() {
+    return this.freshUntil;
+  }
+
+  /**
+   * Returns true if the value is still fresh.
+   * @return True if fresh, false if it needs to be revalidated.
+   */
+  public boolean isFresh() {
+    return System.currentTimeMillis() < this.freshUntil;
+  }
+
+  /**
+   * Returns a copy of this versioned value that is fresh until the specified time.
+   * @param freshUntil The time in milliseconds until which the copy is fresh.
+   * @return The copy.
+   */
+  VersionedValue refresh(long freshUntil) {
+    return new VersionedValue(this.value, this.version, this.validator, freshUntil);
+  }
+
+  /**
+   * Returns a string representation of this value, for debugging.
+   * @return The string.
+   */
+  @Override
+  public String toString() {
+    return "[VersionedValue " + this.version + " " + this.validator + " " + this.value + "]";
+  }
+}